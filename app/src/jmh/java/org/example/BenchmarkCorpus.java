@@ -0,0 +1,55 @@
+package org.example;
+
+import java.util.Random;
+
+/**
+ * ベンチマーク用の合成データを生成するユーティリティ。
+ * 実行ごとに同じ内容になるよう、乱数のシードは固定します。
+ */
+final class BenchmarkCorpus {
+    private static final String[] COMMENTS = {
+            "// 入力値を検証します。", "// 設定ファイルから読み込んだ値を使います。", "// TODO: 例外処理を見直す",
+            "// ｶﾅ混在のコメント①", "// Returns the cached value.", "/* 旧システムとの互換性のため残しています */" };
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * 日本語コメントを含むJavaソースを、おおよそ指定の文字数で生成します。
+     *
+     * @param chars 文字数の目安
+     * @param seed  乱数のシード
+     * @return Javaソース
+     */
+    static String javaSource(int chars, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(chars + 256);
+        sb.append("package org.example.legacy;\n\nimport java.util.List;\n\n/**\n * 業務ロジック\n */\npublic class Sample")
+                .append(seed).append(" {\n    private final List<String> items;\n\n");
+        int method = 0;
+        while (sb.length() < chars) {
+            sb.append("    ").append(COMMENTS[random.nextInt(COMMENTS.length)]).append('\n');
+            sb.append("    public String method").append(method++).append("(String arg) {\n");
+            sb.append("        String s = \"値\\t\" + arg + \"\\n\";\n");
+            sb.append("        if (s.length() > ").append(random.nextInt(100)).append(") {\n");
+            sb.append("            return s.trim();\n        }\n        return \"\\\"既定値\\\"\";\n    }\n\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    /**
+     * Gemini形式のSSEストリームを生成します。
+     *
+     * @param events イベント数
+     * @return SSEの本文
+     */
+    static String geminiSse(int events) {
+        StringBuilder sb = new StringBuilder(events * 160);
+        for (int i = 0; i < events; i++) {
+            sb.append("data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"このメソッドは入力値を検証し、")
+                    .append(i).append("番目の結果を返します。\\n\"}],\"role\":\"model\"},\"index\":0}],")
+                    .append("\"modelVersion\":\"gemini-pro\"}\r\n\r\n");
+        }
+        return sb.toString();
+    }
+}
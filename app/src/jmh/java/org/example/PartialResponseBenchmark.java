@@ -0,0 +1,68 @@
+package org.example;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 部分応答のハンドラ経路（モデル→RateLimitedChatModel→SourceAnalyzer→出力）のベンチマーク。
+ * モデルは指定数のトークンを同期的に返すスタブで、出力先は破棄するため、経路そのもののオーバーヘッドを測定します。
+ */
+@State(Scope.Benchmark)
+public class PartialResponseBenchmark {
+
+    @Param({ "512" })
+    public int tokens;
+
+    private SourceAnalyzer analyzer;
+    private PrintStream printStream;
+
+    @Setup
+    public void setUp() {
+        StreamingChatModel stub = new StreamingChatModel() {
+            @Override
+            public void chat(ChatRequest request, StreamingChatResponseHandler handler) {
+                for (int i = 0; i < tokens; i++) {
+                    handler.onPartialResponse("トークン");
+                }
+                handler.onCompleteResponse(ChatResponse.builder().aiMessage(AiMessage.from("done")).build());
+            }
+        };
+        StreamingChatModel model = new RateLimitedChatModel(stub, new AdaptiveRateLimiter("jmh", 0, 0),
+                RetryPolicy.DEFAULT, CharSequence::length);
+        analyzer = new SourceAnalyzer(model, "prompt");
+        printStream = new PrintStream(OutputStream.nullOutputStream(), false, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 以前の経路相当: コールバックスレッドで同期PrintStreamへ1トークンずつ書き込みます。
+     */
+    @Benchmark
+    public ChatResponse printStreamPerToken() {
+        return analyzer.chat("code", printStream::print).join();
+    }
+
+    /**
+     * 現行の経路: 有界キュー経由でバックグラウンドのライターへ渡します（close時にすべて書き出すまで待機）。
+     */
+    @Benchmark
+    public ChatResponse asyncTextWriter() throws IOException {
+        try (AsyncTextWriter writer = new AsyncTextWriter(Writer.nullWriter(), AsyncTextWriter.DEFAULT_CAPACITY,
+                true, "jmh-writer")) {
+            return analyzer.chat("code", writer::write).join();
+        }
+    }
+}
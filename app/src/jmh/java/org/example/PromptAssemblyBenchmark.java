@@ -0,0 +1,70 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * プロンプト組み立て（ベースプロンプトとコードの連結）と、Gemini向けJSONエスケープ・リクエストボディ組み立てのベンチマーク。
+ */
+@State(Scope.Benchmark)
+public class PromptAssemblyBenchmark {
+
+    @Param({ "4096", "262144" })
+    public int codeChars;
+
+    private String basePrompt;
+    private String codeText;
+    private String inputText;
+
+    @Setup
+    public void setUp() {
+        basePrompt = "以下のJavaソースコードを解析し、クラスの責務とメソッドごとの処理内容を日本語で説明してください。";
+        codeText = BenchmarkCorpus.javaSource(codeChars, 1);
+        inputText = basePrompt + "\n" + codeText;
+    }
+
+    /**
+     * SourceAnalyzerと同じ方法でプロンプトを連結します。
+     */
+    @Benchmark
+    public String concatenatePrompt() {
+        return basePrompt + "\n" + codeText;
+    }
+
+    /**
+     * AppGemini.escapeJsonでリクエスト用にエスケープします。
+     */
+    @Benchmark
+    public String escapeJson() {
+        return AppGemini.escapeJson(inputText);
+    }
+
+    /**
+     * AppGeminiと同じ方法でリクエストボディ全体を組み立てます。
+     */
+    @Benchmark
+    public String geminiRequestBody() {
+        return String.format("{\"contents\":[{\"parts\":[{\"text\":\"%s\"}]}]}", AppGemini.escapeJson(inputText));
+    }
+
+    /**
+     * JsonRequestBodyで同じボディを連結・コピーせずにストリーミングで読み出します。
+     */
+    @Benchmark
+    public long streamingRequestBody() throws IOException {
+        JsonRequestBody body = new JsonRequestBody(JsonRequestBody.DEFAULT_MAX_BYTES)
+                .raw("{\"contents\":[{\"parts\":[{\"text\":\"")
+                .text(basePrompt).text("\n").text(codeText)
+                .raw("\"}]}]}");
+        try (InputStream in = body.open()) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * ソースファイル読み込み（文字コード判別を含む）のベンチマーク。
+ * UTF-8とShift_JIS（MS932）のコーパスを一時ディレクトリに生成して読み込みます。
+ */
+@State(Scope.Benchmark)
+public class SourceLoadingBenchmark {
+
+    @Param({ "UTF-8", "windows-31j" })
+    public String charset;
+
+    @Param({ "4096", "65536" })
+    public int fileChars;
+
+    private static final int FILES = 64;
+
+    private Path dir;
+    private List<Path> files;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jmh-source-loading");
+        files = new ArrayList<>(FILES);
+        Charset cs = Charset.forName(charset);
+        for (int i = 0; i < FILES; i++) {
+            Path file = dir.resolve("Sample" + i + ".java");
+            Files.write(file, BenchmarkCorpus.javaSource(fileChars, i).getBytes(cs));
+            files.add(file);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    /**
+     * App.tryReadStringWithEncodingsで1ファイルを読み込みます。
+     */
+    @Benchmark
+    public String tryReadStringWithEncodings() throws Exception {
+        return App.tryReadStringWithEncodings(files.get(0));
+    }
+
+    /**
+     * コーパス全体を読み込みます（大量ファイルの一括読み込みを想定）。
+     */
+    @Benchmark
+    public void loadCorpus(Blackhole blackhole) throws IOException {
+        for (Path file : files) {
+            blackhole.consume(SourceLoader.load(file));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * GeminiのSSEストリームのデコードのベンチマーク。
+ * 現行の{@link SseEventDecoder}＋{@link GeminiChunkParser}と、
+ * 以前の実装（行ごとに文字列化してチャンクごとにObjectMapperでツリーを構築）を比較します。
+ */
+@State(Scope.Benchmark)
+public class StreamDecodingBenchmark {
+
+    @Param({ "256" })
+    public int events;
+
+    /**
+     * 受信バッファの大きさ（HttpClientが渡すバッファを模擬）。
+     */
+    @Param({ "1024", "16384" })
+    public int bufferSize;
+
+    private byte[] body;
+    private String bodyText;
+
+    @Setup
+    public void setUp() {
+        bodyText = BenchmarkCorpus.geminiSse(events);
+        body = bodyText.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 現行実装: バイト列のまま逐次デコードし、ストリーミングパーサでテキストを取り出します。
+     */
+    @Benchmark
+    public void streamingDecoder(Blackhole blackhole) {
+        GeminiChunkParser parser = new GeminiChunkParser();
+        SseEventDecoder decoder = new SseEventDecoder((data, length) -> {
+            try {
+                parser.parse(data, length, blackhole::consume);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        for (int offset = 0; offset < body.length; offset += bufferSize) {
+            decoder.feed(body, offset, Math.min(bufferSize, body.length - offset));
+        }
+        decoder.finish();
+    }
+
+    /**
+     * 以前の実装（printGeminiStreamChunk）相当: 行を文字列化し、チャンクごとに新しいObjectMapperでツリーを構築します。
+     */
+    @Benchmark
+    public void treeModelPerChunk(Blackhole blackhole) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new StringReader(bodyText))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("data: ")) {
+                    ObjectMapper mapper = new ObjectMapper();
+                    JsonNode root = mapper.readTree(line.substring(6).trim());
+                    for (JsonNode candidate : root.path("candidates")) {
+                        for (JsonNode part : candidate.path("content").path("parts")) {
+                            if (part.has("text")) {
+                                blackhole.consume(part.get("text").asText());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
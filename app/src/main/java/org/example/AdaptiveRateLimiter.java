@@ -0,0 +1,227 @@
+package org.example;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 1分あたりのリクエスト数（RPM）とトークン数（TPM）をトークンバケットで制限するレートリミッタ。
+ * スロットリングを検知するとレートを半分に下げ（乗算的減少）、成功が続くと少しずつ上限まで戻します（加算的増加）。
+ * プロバイダーとモデルの組ごとに1つのインスタンスを共有します。
+ */
+public class AdaptiveRateLimiter {
+    private static final Logger logger = LogManager.getLogger(AdaptiveRateLimiter.class);
+
+    /**
+     * プロバイダー・モデルごとのインスタンス。
+     */
+    private static final Map<String, AdaptiveRateLimiter> REGISTRY = new ConcurrentHashMap<>();
+
+    /**
+     * スロットリング時にレートへ掛ける係数。
+     */
+    private static final double DECREASE_FACTOR = 0.5;
+
+    /**
+     * 成功1回あたりに上限の何割を戻すか。
+     */
+    private static final double INCREASE_RATIO = 0.02;
+
+    /**
+     * レートを下げる際の下限（上限に対する割合）。
+     */
+    private static final double MIN_RATIO = 0.05;
+
+    /**
+     * バースト許容量（何秒分のレートを貯められるか）。
+     */
+    private static final double BURST_SECONDS = 10;
+
+    private final String key;
+    private final double maxRequestsPerMinute;
+    private final double maxTokensPerMinute;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition refilled = lock.newCondition();
+
+    /**
+     * 現在のレート（上限に対する割合、MIN_RATIO〜1.0）。
+     */
+    private double ratio = 1.0;
+    private double availableRequests;
+    private double availableTokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * @param key                  識別用のキー（ログ用）
+     * @param maxRequestsPerMinute 1分あたりの最大リクエスト数（0以下で無制限）
+     * @param maxTokensPerMinute   1分あたりの最大トークン数（0以下で無制限）
+     */
+    public AdaptiveRateLimiter(String key, double maxRequestsPerMinute, double maxTokensPerMinute) {
+        this.key = key;
+        this.maxRequestsPerMinute = maxRequestsPerMinute;
+        this.maxTokensPerMinute = maxTokensPerMinute;
+        this.availableRequests = capacity(maxRequestsPerMinute);
+        this.availableTokens = capacity(maxTokensPerMinute);
+    }
+
+    /**
+     * プロバイダー・モデルごとに共有されるインスタンスを返します。初回呼び出し時の上限値で生成されます。
+     *
+     * @param provider             プロバイダー
+     * @param modelId              モデルID
+     * @param maxRequestsPerMinute 1分あたりの最大リクエスト数（0以下で無制限）
+     * @param maxTokensPerMinute   1分あたりの最大トークン数（0以下で無制限）
+     * @return レートリミッタ
+     */
+    public static AdaptiveRateLimiter of(ChatModelFactory.Provider provider, String modelId,
+            double maxRequestsPerMinute, double maxTokensPerMinute) {
+        String key = provider + ":" + modelId;
+        return REGISTRY.computeIfAbsent(key,
+                k -> new AdaptiveRateLimiter(k, maxRequestsPerMinute, maxTokensPerMinute));
+    }
+
+    /**
+     * 1リクエスト分の枠を確保できるまで待機します。見積もりトークン数がバースト許容量を超える場合は、
+     * 許容量いっぱいまで貯まった時点で通し、超過分は後続のリクエストの待ち時間として返済します。
+     *
+     * @param estimatedTokens 見積もりトークン数（入力と出力の合計）
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void acquire(int estimatedTokens) throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                refill();
+                double requestCapacity = capacity(maxRequestsPerMinute);
+                double tokenCapacity = capacity(maxTokensPerMinute);
+                boolean requestsOk = maxRequestsPerMinute <= 0 || availableRequests >= Math.min(1, requestCapacity);
+                boolean tokensOk = maxTokensPerMinute <= 0
+                        || availableTokens >= Math.min(estimatedTokens, tokenCapacity);
+                if (requestsOk && tokensOk) {
+                    if (maxRequestsPerMinute > 0) {
+                        availableRequests -= 1;
+                    }
+                    if (maxTokensPerMinute > 0) {
+                        availableTokens -= estimatedTokens;
+                    }
+                    return;
+                }
+                refilled.awaitNanos(waitNanos(estimatedTokens));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 実際のトークン数が判明した後に、見積もりとの差分をバケットに反映します。
+     *
+     * @param estimatedTokens acquire時の見積もりトークン数
+     * @param actualTokens    実際のトークン数
+     */
+    public void reconcile(int estimatedTokens, int actualTokens) {
+        if (maxTokensPerMinute <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            availableTokens = Math.min(capacity(maxTokensPerMinute), availableTokens + estimatedTokens - actualTokens);
+            refilled.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 成功を記録し、レートを少し上げます（加算的増加）。
+     */
+    public void onSuccess() {
+        lock.lock();
+        try {
+            if (ratio < 1.0) {
+                ratio = Math.min(1.0, ratio + INCREASE_RATIO);
+                refilled.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * スロットリングを記録し、レートを下げて貯まっている枠を捨てます（乗算的減少）。
+     */
+    public void onThrottle() {
+        lock.lock();
+        try {
+            refill();
+            ratio = Math.max(MIN_RATIO, ratio * DECREASE_FACTOR);
+            availableRequests = Math.min(availableRequests, 0);
+            availableTokens = Math.min(availableTokens, 0);
+            logger.warn("スロットリングを検知しました。{} のレートを {}% に下げます", key, Math.round(ratio * 100));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 現在のレート（上限に対する割合）を返します。
+     *
+     * @return 0.05〜1.0の割合
+     */
+    public double currentRatio() {
+        lock.lock();
+        try {
+            return ratio;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 経過時間に応じてバケットを補充します。ロックを保持した状態で呼び出します。
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        double elapsedMinutes = (now - lastRefillNanos) / (double) TimeUnit.MINUTES.toNanos(1);
+        lastRefillNanos = now;
+        if (maxRequestsPerMinute > 0) {
+            availableRequests = Math.min(capacity(maxRequestsPerMinute),
+                    availableRequests + elapsedMinutes * maxRequestsPerMinute * ratio);
+        }
+        if (maxTokensPerMinute > 0) {
+            availableTokens = Math.min(capacity(maxTokensPerMinute),
+                    availableTokens + elapsedMinutes * maxTokensPerMinute * ratio);
+        }
+    }
+
+    /**
+     * バースト許容量を返します。ロックを保持した状態で呼び出します。
+     */
+    private double capacity(double maxPerMinute) {
+        return Math.max(1, maxPerMinute * ratio * BURST_SECONDS / 60);
+    }
+
+    /**
+     * 不足分が補充されるまでの待ち時間を計算します。ロックを保持した状態で呼び出します。
+     */
+    private long waitNanos(int estimatedTokens) {
+        double waitMinutes = 0;
+        if (maxRequestsPerMinute > 0 && availableRequests < 1) {
+            waitMinutes = Math.max(waitMinutes, (1 - availableRequests) / (maxRequestsPerMinute * ratio));
+        }
+        if (maxTokensPerMinute > 0) {
+            double needed = Math.min(estimatedTokens, capacity(maxTokensPerMinute)) - availableTokens;
+            if (needed > 0) {
+                waitMinutes = Math.max(waitMinutes, needed / (maxTokensPerMinute * ratio));
+            }
+        }
+        long nanos = (long) (waitMinutes * TimeUnit.MINUTES.toNanos(1));
+        return Math.max(TimeUnit.MILLISECONDS.toNanos(1), nanos);
+    }
+}
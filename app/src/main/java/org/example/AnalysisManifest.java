@@ -0,0 +1,208 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * インクリメンタル解析用のマニフェスト。
+ * 前回実行時の各ファイルのパス・内容ハッシュ・解析ID・結果ファイルの場所と、
+ * 実行時の設定フィンガープリント・Gitコミットを記録します。
+ *
+ * <p>形式はタブ区切りのテキストで、先頭の{@code #}行がヘッダーです。</p>
+ */
+public class AnalysisManifest {
+    private static final String HEADER_FINGERPRINT = "#fingerprint\t";
+    private static final String HEADER_COMMIT = "#commit\t";
+
+    /**
+     * 1ファイル分の記録。
+     *
+     * @param path        ファイルパス（カレントディレクトリからの相対表記、区切りは/）
+     * @param contentHash ファイル内容のSHA-256
+     * @param analysisId  解析ID（設定フィンガープリントと内容ハッシュから算出）
+     * @param resultPath  解析結果ファイルのパス
+     * @param clean       記録時にGit管理下で、記録したコミットから変更されていなかったか
+     *                    （trueの場合だけ、次回はGitの差分で内容ハッシュの計算を省略できる）
+     */
+    public record Entry(String path, String contentHash, String analysisId, String resultPath, boolean clean) {
+    }
+
+    /**
+     * プロンプト・モデル・パラメータから算出した設定フィンガープリント。これが変わると全ファイルを再解析します。
+     */
+    private String fingerprint;
+
+    /**
+     * 記録時のGitのHEADコミット（Git管理外の場合はnull）。
+     */
+    private String commit;
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * マニフェストを読み込みます。ファイルが存在しない場合は空のマニフェストを返します。
+     *
+     * @param file マニフェストファイル
+     * @return 読み込んだマニフェスト
+     * @throws IOException 読み込みに失敗した場合
+     */
+    public static AnalysisManifest load(Path file) throws IOException {
+        AnalysisManifest manifest = new AnalysisManifest();
+        if (!Files.exists(file)) {
+            return manifest;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(HEADER_FINGERPRINT)) {
+                    manifest.fingerprint = line.substring(HEADER_FINGERPRINT.length());
+                } else if (line.startsWith(HEADER_COMMIT)) {
+                    manifest.commit = line.substring(HEADER_COMMIT.length());
+                } else if (!line.isBlank() && !line.startsWith("#")) {
+                    String[] cols = line.split("\t", -1);
+                    if (cols.length == 4 || cols.length == 5) {
+                        // 旧形式（4列）の記録はコミット時点で変更が無かったかが分からないため、cleanでないものとして扱う
+                        boolean clean = cols.length == 5 && cols[4].equals("clean");
+                        manifest.entries.put(cols[0], new Entry(cols[0], cols[1], cols[2], cols[3], clean));
+                    }
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * マニフェストを保存します。一時ファイルに書いてから置き換えるため、途中で中断しても前回の内容が残ります。
+     *
+     * @param file マニフェストファイル
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public void save(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            if (fingerprint != null) {
+                writer.write(HEADER_FINGERPRINT + fingerprint);
+                writer.newLine();
+            }
+            if (commit != null) {
+                writer.write(HEADER_COMMIT + commit);
+                writer.newLine();
+            }
+            for (Entry entry : entries.values()) {
+                writer.write(String.join("\t", entry.path(), entry.contentHash(), entry.analysisId(),
+                        entry.resultPath(), entry.clean() ? "clean" : "dirty"));
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * マニフェスト上のキーとなるパス表記を返します。
+     *
+     * @param file ファイルパス
+     * @return カレントディレクトリからの相対パス（区切りは/）
+     */
+    public static String keyOf(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        Path cwd = Path.of("").toAbsolutePath();
+        Path relative = absolute.startsWith(cwd) ? cwd.relativize(absolute) : absolute;
+        return relative.toString().replace('\\', '/');
+    }
+
+    /**
+     * ファイル内容のSHA-256を計算します。
+     *
+     * @param file 対象ファイル
+     * @return 16進表記のハッシュ
+     * @throws IOException 読み込みに失敗した場合
+     */
+    public static String contentHash(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(java.io.OutputStream.nullOutputStream());
+        }
+        return java.util.HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * 設定フィンガープリントと内容ハッシュから解析IDを算出します。
+     *
+     * @param fingerprint 設定フィンガープリント
+     * @param contentHash 内容ハッシュ
+     * @return 解析ID
+     */
+    public static String analysisId(String fingerprint, String contentHash) {
+        MessageDigest digest = sha256();
+        digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\t');
+        digest.update(contentHash.getBytes(StandardCharsets.UTF_8));
+        return java.util.HexFormat.of().formatHex(digest.digest()).substring(0, 16);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256が利用できません", e);
+        }
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    public String getCommit() {
+        return commit;
+    }
+
+    public void setCommit(String commit) {
+        this.commit = commit;
+    }
+
+    /**
+     * 指定パスの記録を返します。
+     *
+     * @param key keyOfで得たパス表記
+     * @return 記録（存在しない場合はnull）
+     */
+    public Entry get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * 記録を追加・更新します。
+     *
+     * @param entry 記録
+     */
+    public void put(Entry entry) {
+        entries.put(entry.path(), entry);
+    }
+
+    /**
+     * すべての記録を返します。
+     *
+     * @return 記録の一覧
+     */
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+}
@@ -0,0 +1,60 @@
+package org.example;
+
+import dev.langchain4j.model.chat.response.ChatResponse;
+
+import java.nio.file.Path;
+
+/**
+ * 1ファイル分の解析結果を保持するレコード。
+ *
+ * @param file          解析対象ファイル
+ * @param text          モデルの応答テキスト（失敗時はnull）
+ * @param response      モデルの完了応答（失敗時・{@link ResponseCache}から再生した場合・複数ファイルをまとめて解析した場合はnull）
+ * @param inputChars    送信した入力文字数
+ * @param inputTokens   入力トークン数（プロバイダー報告値、無ければ見積もり値。まとめて解析した場合は按分値）
+ * @param outputTokens  出力トークン数（プロバイダー報告値、無ければ見積もり値）
+ * @param elapsedMillis 解析に要した時間（ミリ秒）
+ * @param error         失敗時の例外（成功時はnull）
+ * @param replayed      モデルへ送信せず、{@link ResponseCache}や同じ内容のファイルの説明を再生した場合はtrue
+ */
+public record AnalysisResult(Path file, String text, ChatResponse response, long inputChars, long inputTokens,
+        long outputTokens, long elapsedMillis, Throwable error, boolean replayed) {
+
+    /**
+     * モデルへ送信して得た（または失敗した）解析結果を生成します。
+     *
+     * @param file          解析対象ファイル
+     * @param text          モデルの応答テキスト（失敗時はnull）
+     * @param response      モデルの完了応答
+     * @param inputChars    送信した入力文字数
+     * @param inputTokens   入力トークン数
+     * @param outputTokens  出力トークン数
+     * @param elapsedMillis 解析に要した時間（ミリ秒）
+     * @param error         失敗時の例外（成功時はnull）
+     */
+    public AnalysisResult(Path file, String text, ChatResponse response, long inputChars, long inputTokens,
+            long outputTokens, long elapsedMillis, Throwable error) {
+        this(file, text, response, inputChars, inputTokens, outputTokens, elapsedMillis, error, false);
+    }
+
+    /**
+     * 解析が成功したかどうかを返します。
+     *
+     * @return 成功した場合はtrue
+     */
+    public boolean succeeded() {
+        return error == null;
+    }
+
+    /**
+     * 失敗した解析結果を生成します。
+     *
+     * @param file          解析対象ファイル
+     * @param elapsedMillis 失敗までの時間（ミリ秒）
+     * @param error         発生した例外
+     * @return 失敗を表す解析結果
+     */
+    public static AnalysisResult failed(Path file, long elapsedMillis, Throwable error) {
+        return new AnalysisResult(file, null, null, 0, 0, 0, elapsedMillis, error);
+    }
+}
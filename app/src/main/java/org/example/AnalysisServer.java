@@ -0,0 +1,543 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 常駐して解析リクエストを受け付けるHTTPサーバー。JDKの{@link HttpServer}と仮想スレッドで動作します。
+ * 1回ごとにJVMを起動してSDKクライアントを作り直す代わりに、モデルをプロバイダー・モデルID・エンドポイント・パラメータごとに
+ * 1回だけ生成して使い回すため、IDEやCIから繰り返し呼び出しても起動時間がかかりません。
+ *
+ * <ul>
+ * <li>{@code POST /v1/analyze}: 本文のJSON
+ * {@code {"name":..., "prompt":"プロンプト本文", "code":"ソース本文", "model":..., "maxTokens":..., "temperature":...,
+ * "topP":...}}（prompt・code以外は省略可、{@code Content-Type: application/json}が必須）を解析し、応答をストリーミングで返します。
+ * 既定はSSE（{@code event: token}で断片、最後に{@code event: done}または{@code event: error}で集計）で、
+ * {@code Accept: text/plain}の場合はチャンク転送で本文だけを返します</li>
+ * <li>{@code GET /health}: 実行中・待機中の件数を返します（停止処理中は503）</li>
+ * </ul>
+ *
+ * <p>同時に解析するのは{@code maxConcurrent}件までで、超えた分は{@code maxQueued}件まで待たせ、それ以上は
+ * 本文を読まずに503（Retry-After付き）で断ります。本文が{@link #withMaxBodyBytes(long)}の上限を超える場合は413で断ります。{@link #drain(Duration)}は新規の受け付けを止め、処理中のリクエストが終わるのを待ってから停止します。</p>
+ *
+ * <p>プロバイダーとエンドポイントは起動時の既定値に固定し、リクエストでは変更できません（endpointを含むリクエストは400で断ります）。
+ * APIキーはサーバーのものを使うため、クライアントが選んだURLへ送られないようにするためです。
+ * モデルは既定のモデルと{@link #withAllowedModels(Collection)}で許可したものだけを選べ、生成して使い回すモデルの設定
+ * （モデル・パラメータ）の組み合わせは{@link #MAX_MODELS}までです。ブラウザのフォームなどからの単純なPOSTを受け付けないよう、
+ * Content-Typeがapplication/jsonでないリクエストは415で断ります。</p>
+ */
+public class AnalysisServer implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(AnalysisServer.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * 1リクエストの応答を書き出すキューの容量。
+     */
+    private static final int STREAM_CAPACITY = 1024;
+
+    /**
+     * リクエスト本文の既定の上限（バイト）。
+     */
+    public static final long DEFAULT_MAX_BODY_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * 生成して使い回すモデルの設定（モデル・パラメータ）の組み合わせの上限。
+     */
+    public static final int MAX_MODELS = 16;
+
+    private final Function<JobRunner.Job, StreamingChatModel> modelFactory;
+    private final JobRunner.Job defaults;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final Semaphore running;
+    private final Map<JobRunner.ModelKey, StreamingChatModel> models = new ConcurrentHashMap<>();
+
+    /**
+     * 受け付けたモデルの設定。{@link #MAX_MODELS}件を超える新しい設定は断ります。
+     */
+    private final Set<JobRunner.ModelKey> modelKeys = new HashSet<>();
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * リクエスト本文の上限（バイト）。
+     */
+    private long maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+
+    /**
+     * 既定のモデル以外にリクエストで選べるモデルID。
+     */
+    private Set<String> allowedModels = Set.of();
+
+    /**
+     * 受け付け済み（実行中と待機中）のリクエスト数。停止処理はこれが0になるのを待ちます。
+     */
+    private int admitted;
+    private boolean draining;
+
+    /**
+     * アナライザにキャッシュや分割などの設定を行う処理。
+     */
+    private BiConsumer<JobRunner.Job, SourceAnalyzer> analyzerSettings = (job, analyzer) -> {
+    };
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param modelFactory  リクエストのプロバイダー・モデルIDなどからモデルを生成する関数（キーごとに1回だけ呼ばれます）
+     * @param defaults      既定値（provider・endpointは固定、model・paramsはリクエストで省略された場合に使用）
+     * @param maxConcurrent 同時に解析する上限数（1以上）
+     * @param maxQueued     実行枠の空きを待たせる上限数（0以上）
+     */
+    public AnalysisServer(Function<JobRunner.Job, StreamingChatModel> modelFactory, JobRunner.Job defaults,
+            int maxConcurrent, int maxQueued) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrentは1以上を指定してください: " + maxConcurrent);
+        }
+        this.modelFactory = modelFactory;
+        this.defaults = defaults;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = Math.max(0, maxQueued);
+        this.running = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * リクエストごとのアナライザに設定を追加します（キャッシュ・分割など）。
+     *
+     * @param settings リクエストとアナライザを受け取る処理
+     * @return このインスタンス
+     */
+    public AnalysisServer withAnalyzerSettings(BiConsumer<JobRunner.Job, SourceAnalyzer> settings) {
+        this.analyzerSettings = settings;
+        return this;
+    }
+
+    /**
+     * リクエスト本文の上限を設定します。超えたリクエストは読み切らずに413で断ります。
+     *
+     * @param maxBodyBytes 上限（バイト、1以上）
+     * @return このインスタンス
+     */
+    public AnalysisServer withMaxBodyBytes(long maxBodyBytes) {
+        if (maxBodyBytes < 1) {
+            throw new IllegalArgumentException("maxBodyBytesは1以上を指定してください: " + maxBodyBytes);
+        }
+        this.maxBodyBytes = maxBodyBytes;
+        return this;
+    }
+
+    /**
+     * 既定のモデルのほかに、リクエストのmodelで選べるモデルIDを設定します。許可されていないモデルのリクエストは400で断ります。
+     *
+     * @param modelIds 選べるモデルID
+     * @return このインスタンス
+     */
+    public AnalysisServer withAllowedModels(Collection<String> modelIds) {
+        this.allowedModels = Set.copyOf(modelIds);
+        return this;
+    }
+
+    /**
+     * 指定したアドレス・ポートでサーバーを起動します。
+     *
+     * @param host 待ち受けアドレス
+     * @param port 待ち受けポート（0で自動割り当て）
+     * @return このサーバー
+     * @throws IOException 起動に失敗した場合
+     */
+    public AnalysisServer start(String host, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/v1/analyze", this::handleAnalyze);
+        server.createContext("/health", this::handleHealth);
+        server.start();
+        logger.info("AnalysisServerを起動しました: {}（同時実行 {} 件、待機 {} 件まで）", baseUrl(), maxConcurrent, maxQueued);
+        return this;
+    }
+
+    /**
+     * 待ち受けているベースURL（例: http://127.0.0.1:8090）を返します。
+     *
+     * @return ベースURL
+     */
+    public String baseUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort();
+    }
+
+    /**
+     * 受け付けた解析リクエスト数（断ったものを含む）を返します。
+     *
+     * @return リクエスト数
+     */
+    public long requestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * 新しいリクエストの受け付けを止め、処理中のリクエストが終わるのを待ってから停止します。
+     *
+     * @param timeout 待機する最大時間
+     * @return 時間内にすべて終わった場合はtrue
+     */
+    public boolean drain(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        boolean finished;
+        synchronized (this) {
+            draining = true;
+            logger.info("停止処理を開始します（処理中 {} 件）", admitted);
+            boolean interrupted = false;
+            while (admitted > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    wait(Math.max(1, remaining / 1_000_000));
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    break;
+                }
+            }
+            finished = admitted == 0;
+            if (!finished) {
+                logger.warn("停止処理の待ち時間を過ぎたため、処理中の {} 件を打ち切ります", admitted);
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        close();
+        return finished;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            draining = true;
+        }
+        if (server != null) {
+            server.stop(0);
+            // 打ち切った解析の完了は待たない
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * 受け付けの可否を判定し、受け付ける場合は件数に加えます。
+     *
+     * @return 受け付けた場合はtrue
+     */
+    private synchronized boolean admit() {
+        if (draining || admitted >= maxConcurrent + maxQueued) {
+            return false;
+        }
+        admitted++;
+        return true;
+    }
+
+    private synchronized void release() {
+        admitted--;
+        if (admitted == 0) {
+            notifyAll();
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            boolean isDraining;
+            int current;
+            synchronized (this) {
+                isDraining = draining;
+                current = admitted;
+            }
+            int active = maxConcurrent - running.availablePermits();
+            sendJson(exchange, isDraining ? 503 : 200, json(g -> {
+                g.writeStringField("status", isDraining ? "draining" : "ok");
+                g.writeNumberField("active", active);
+                g.writeNumberField("queued", Math.max(0, current - active));
+            }));
+        }
+    }
+
+    private void handleAnalyze(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().add("Allow", "POST");
+                sendError(exchange, 405, "POSTで送信してください");
+                return;
+            }
+            if (!isJson(exchange.getRequestHeaders().getFirst("Content-Type"))) {
+                sendError(exchange, 415, "Content-Typeにはapplication/jsonを指定してください");
+                return;
+            }
+            // 断るリクエストの本文は読まない
+            if (!admit()) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                sendError(exchange, 503, "混雑しているか停止処理中のため受け付けられません");
+                return;
+            }
+            try {
+                byte[] body = readBody(exchange);
+                if (body == null) {
+                    sendError(exchange, 413, "リクエスト本文が上限（" + maxBodyBytes + " バイト）を超えています");
+                    return;
+                }
+                Request request;
+                try {
+                    request = parse(body, defaults, allowedModels);
+                } catch (IllegalArgumentException | IOException e) {
+                    sendError(exchange, 400, "リクエストを解釈できません: " + e.getMessage());
+                    return;
+                }
+                if (!reserveModel(request.job().modelKey())) {
+                    sendError(exchange, 400, "モデルの設定（モデル・パラメータ）の組み合わせが上限（" + MAX_MODELS
+                            + " 件）に達しています");
+                    return;
+                }
+                running.acquire();
+                try {
+                    analyze(exchange, request);
+                } finally {
+                    running.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                release();
+            }
+        } catch (IOException e) {
+            // クライアントによる切断
+            logger.debug("応答の送信を中断しました: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * モデルの設定を受け付けます。受け付け済みの設定か、上限に達していなければ受け付けます。
+     *
+     * @return 受け付けた場合はtrue
+     */
+    private boolean reserveModel(JobRunner.ModelKey key) {
+        synchronized (modelKeys) {
+            if (modelKeys.contains(key)) {
+                return true;
+            }
+            if (modelKeys.size() >= MAX_MODELS) {
+                return false;
+            }
+            return modelKeys.add(key);
+        }
+    }
+
+    private static boolean isJson(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        String mediaType = semicolon < 0 ? contentType : contentType.substring(0, semicolon);
+        return mediaType.trim().equalsIgnoreCase("application/json");
+    }
+
+    /**
+     * 上限までリクエスト本文を読み込みます。Content-Lengthが上限を超える場合は本文を読みません。
+     *
+     * @return 本文（上限を超える場合はnull）
+     */
+    private byte[] readBody(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null) {
+            try {
+                if (Long.parseLong(length.trim()) > maxBodyBytes) {
+                    return null;
+                }
+            } catch (NumberFormatException e) {
+                // 不正な値はチャンク転送と同様に読み込んだ量で判定する
+            }
+        }
+        byte[] body = exchange.getRequestBody().readNBytes((int) Math.min(Integer.MAX_VALUE - 8, maxBodyBytes + 1));
+        return body.length > maxBodyBytes ? null : body;
+    }
+
+    /**
+     * 解析リクエスト。
+     *
+     * @param job    モデルの設定（code・promptは使いません）
+     * @param name   結果とログに使う名前
+     * @param prompt ベースプロンプト
+     * @param code   ソースの内容
+     */
+    record Request(JobRunner.Job job, Path name, String prompt, String code) {
+    }
+
+    /**
+     * リクエスト本文を解釈します。プロバイダー・エンドポイントは既定値に固定し、モデルは既定のモデルとallowedModelsに限ります。
+     *
+     * @param body          リクエスト本文（JSON）
+     * @param defaults      既定値
+     * @param allowedModels 既定のモデル以外に選べるモデルID
+     * @return リクエスト
+     * @throws IOException              JSONとして解釈できない場合
+     * @throws IllegalArgumentException 必須項目が無い場合や、endpoint・既定と異なるprovider・許可されていないmodelを含む場合
+     */
+    static Request parse(byte[] body, JobRunner.Job defaults, Set<String> allowedModels) throws IOException {
+        JsonNode node = MAPPER.readTree(body);
+        if (node == null || !node.isObject()) {
+            throw new IllegalArgumentException("JSONオブジェクトではありません");
+        }
+        if (!node.hasNonNull("prompt") || !node.hasNonNull("code")) {
+            throw new IllegalArgumentException("promptとcodeは必須です");
+        }
+        if (node.has("endpoint")) {
+            throw new IllegalArgumentException("endpointはリクエストで指定できません");
+        }
+        if (node.hasNonNull("provider") && !node.get("provider").asText().equals(String.valueOf(defaults.provider()))) {
+            throw new IllegalArgumentException("providerは" + defaults.provider() + "のみ指定できます");
+        }
+        if (node.hasNonNull("model")) {
+            String model = node.get("model").asText();
+            if (!model.equals(defaults.model()) && !allowedModels.contains(model)) {
+                throw new IllegalArgumentException("許可されていないモデルです: " + model);
+            }
+        }
+        String name = node.hasNonNull("name") ? node.get("name").asText() : "request";
+        JobRunner.Job job = JobRunner.withModelSettings(node,
+                new JobRunner.Job(name, 0, null, null, null, null, null, null), defaults);
+        // nameがパスとして不正な場合はInvalidPathException（IllegalArgumentException）
+        return new Request(job, Paths.get(name), node.get("prompt").asText(), node.get("code").asText());
+    }
+
+    /**
+     * 解析して応答をストリーミングで返します。
+     */
+    private void analyze(HttpExchange exchange, Request request) throws IOException {
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        boolean sse = accept == null || !accept.contains("text/plain");
+        exchange.getResponseHeaders().add("Content-Type",
+                sse ? "text/event-stream; charset=utf-8" : "text/plain; charset=utf-8");
+        exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        long start = System.nanoTime();
+        long[] firstToken = { -1 };
+        AnalysisResult result;
+        // 応答の受信スレッドがクライアントへの送信を待たないよう、書き出しは専用のスレッドで行う
+        AsyncTextWriter out = new AsyncTextWriter(
+                new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), STREAM_CAPACITY, true,
+                "analysis-response");
+        try {
+            JobRunner.Job job = request.job();
+            StreamingChatModel model = models.computeIfAbsent(job.modelKey(), key -> modelFactory.apply(job));
+            SourceAnalyzer analyzer = new SourceAnalyzer(model, request.prompt())
+                    .withTokenEstimator(TokenEstimator.forModel(job.model()));
+            analyzerSettings.accept(job, analyzer);
+            result = analyzer.analyze(request.name(), request.code(), partial -> {
+                if (firstToken[0] < 0) {
+                    firstToken[0] = System.nanoTime();
+                }
+                send(out, sse ? sseEvent("token", json(g -> g.writeStringField("text", partial))) : partial);
+            });
+        } catch (RuntimeException e) {
+            result = AnalysisResult.failed(request.name(), (System.nanoTime() - start) / 1_000_000, e);
+        }
+        long ttftMillis = firstToken[0] < 0 ? -1 : (firstToken[0] - start) / 1_000_000;
+        if (result.succeeded()) {
+            logger.info("解析完了: {} ({} ms)", request.name(), result.elapsedMillis());
+        } else {
+            logger.error("解析失敗: {}: {}", request.name(), result.error().getMessage());
+        }
+        AnalysisResult finished = result;
+        if (sse) {
+            send(out, sseEvent(finished.succeeded() ? "done" : "error", json(g -> {
+                g.writeStringField("status", finished.succeeded() ? "ok" : "error");
+                g.writeNumberField("inputTokens", finished.inputTokens());
+                g.writeNumberField("outputTokens", finished.outputTokens());
+                g.writeNumberField("ttftMillis", ttftMillis);
+                g.writeNumberField("elapsedMillis", finished.elapsedMillis());
+                if (!finished.succeeded()) {
+                    g.writeStringField("error", String.valueOf(finished.error().getMessage()));
+                }
+            })));
+        } else if (!finished.succeeded()) {
+            send(out, "\n[error] " + finished.error().getMessage() + "\n");
+        }
+        out.close();
+    }
+
+    /**
+     * クライアントが切断していても解析は続けるため、書き込みの失敗は無視します（close時に報告されます）。
+     */
+    private static void send(AsyncTextWriter out, String text) {
+        try {
+            out.write(text);
+        } catch (UncheckedIOException e) {
+            // 切断済み
+        }
+    }
+
+    static String sseEvent(String event, String data) {
+        return "event: " + event + "\ndata: " + data + "\n\n";
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        sendJson(exchange, status, json(g -> {
+            g.writeStringField("status", "error");
+            g.writeStringField("error", message);
+        }));
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    @FunctionalInterface
+    private interface JsonBody {
+        void write(JsonGenerator g) throws IOException;
+    }
+
+    private static String json(JsonBody body) {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator g = JSON_FACTORY.createGenerator(out)) {
+            g.writeStartObject();
+            body.write(g);
+            g.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+}
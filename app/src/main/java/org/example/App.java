@@ -1,23 +1,25 @@
 package org.example;
 
 import dev.langchain4j.model.chat.StreamingChatModel;
-import dev.langchain4j.model.chat.response.ChatResponse;
-import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Option;
+import picocli.CommandLine.Spec;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
 
 /**
  * ChatModelFactoryを利用してストリーミングチャットを実行するクラス。
@@ -29,15 +31,162 @@ public class App implements Runnable {
      */
     private static final Logger logger = LogManager.getLogger(App.class);
 
-    @Option(names = { "--prompt" }, required = true, description = "ベースプロンプトファイルのパス")
+    /**
+     * TTFTのサンプルが少ない間に使うヘッジ送信までの待ち時間（ミリ秒）。
+     */
+    static final long DEFAULT_HEDGE_DELAY_MS = 3000;
+
+    @Spec
+    private CommandSpec spec;
+
+    @Option(names = { "--prompt" }, required = false, description = "ベースプロンプトファイルのパス（--jobs未指定時は必須）")
     private String promptPath;
 
-    @Option(names = { "--code" }, required = true, description = "コードファイルのパス")
+    @Option(names = { "--code" }, required = false, description = "コードファイルのパス（ディレクトリ・globパターンもカンマ区切りで指定可、--jobs未指定時は必須）")
     private String codePath;
 
+    @Option(names = { "--jobs" }, required = false, description = "ジョブ定義のJSONLファイル。1行1ジョブ（prompt・code・provider・model・endpoint・maxTokens・temperature・topP）を読み込みながら並行に実行する")
+    private String jobsPath;
+
+    @Option(names = { "--serve" }, required = false, description = "常駐してHTTPで解析リクエストを受け付けるサーバーモードで起動する（POST /v1/analyze、GET /health）")
+    private boolean serve;
+
+    @Option(names = { "--host" }, required = false, defaultValue = "127.0.0.1", description = "--serveの待ち受けアドレス（デフォルト: ${DEFAULT-VALUE}）")
+    private String host;
+
+    @Option(names = { "--port" }, required = false, defaultValue = "8090", description = "--serveの待ち受けポート（デフォルト: ${DEFAULT-VALUE}）")
+    private int port;
+
+    @Option(names = { "--max-queued" }, required = false, defaultValue = "64", description = "--serveで実行枠（--parallel）の空きを待たせるリクエストの上限数。超えた分は503で断る（デフォルト: ${DEFAULT-VALUE}）")
+    private int maxQueued;
+
+    @Option(names = { "--drain-seconds" }, required = false, defaultValue = "60", description = "--serveの停止時に処理中のリクエストの完了を待つ最大秒数（デフォルト: ${DEFAULT-VALUE}）")
+    private long drainSeconds;
+
+    @Option(names = { "--serve-provider" }, required = false, description = "--serveで使うプロバイダー: ${COMPLETION-CANDIDATES}（未指定時はBEDROCK、--prompt-cache指定時はBEDROCK_CONVERSE）。リクエストでは変更できない")
+    private ChatModelFactory.Provider serveProvider;
+
+    @Option(names = { "--serve-endpoint" }, required = false, description = "--serveで使うリージョンまたはエンドポイントURL（AZURE_OPENAI・GEMINIでは必須）。リクエストでは変更できない")
+    private String serveEndpoint;
+
+    @Option(names = { "--serve-models" }, required = false, split = ",", description = "--serveでリクエストのmodelに指定できるモデルID（カンマ区切り）。先頭を既定のモデルとする（未指定時は--modelのみ）")
+    private List<String> serveModels;
+
+    @Option(names = { "--max-body-bytes" }, required = false, defaultValue = "16777216", description = "--serveで受け付けるリクエスト本文の上限バイト数。超えた分は413で断る（デフォルト: ${DEFAULT-VALUE}）")
+    private long maxBodyBytes;
+
+    @Option(names = { "--max-request-mb" }, required = false, defaultValue = "32", description = "Geminiへ送るリクエストボディの上限（MB）。超える場合は送信しない（デフォルト: ${DEFAULT-VALUE}）")
+    private long maxRequestMb = 32;
+
+    @Option(names = { "--jobs-out" }, required = false, description = "--jobsの結果を完了順に追記するJSONLファイル（デフォルト: <--jobs>.results.jsonl）")
+    private String jobsOutPath;
+
     @Option(names = { "--prop" }, required = false, description = "プロパティファイルのパス")
     private String propPath;
 
+    @Option(names = { "--include" }, required = false, defaultValue = "*.java", description = "ディレクトリ指定時に対象とするファイル名のglobパターン（デフォルト: ${DEFAULT-VALUE}）")
+    private String includeGlob;
+
+    @Option(names = { "--parallel" }, required = false, defaultValue = "4", description = "複数ファイル解析時の同時実行数（デフォルト: ${DEFAULT-VALUE}）")
+    private int parallel;
+
+    @Option(names = { "--cache-dir" }, required = false, description = "レスポンスキャッシュのディレクトリ（指定時のみキャッシュを使用）")
+    private String cacheDir;
+
+    @Option(names = { "--cache-max-age-days" }, required = false, defaultValue = "30", description = "キャッシュの有効日数（デフォルト: ${DEFAULT-VALUE}）")
+    private int cacheMaxAgeDays;
+
+    @Option(names = { "--cache-max-mb" }, required = false, defaultValue = "512", description = "キャッシュの最大サイズ（MB、デフォルト: ${DEFAULT-VALUE}）")
+    private long cacheMaxMb;
+
+    @Option(names = { "--incremental" }, required = false, description = "前回から追加・変更されたファイルだけを解析し、他は前回の結果を引き継ぐ（--out必須）")
+    private boolean incremental;
+
+    @Option(names = { "--manifest" }, required = false, description = "インクリメンタル解析のマニフェストファイル（デフォルト: <--out>/.analysis-manifest.tsv）")
+    private String manifestPath;
+
+    @Option(names = { "--chunk-tokens" }, required = false, defaultValue = "0", description = "1リクエストのトークン予算。超えるファイルはクラス・メソッド境界で分割して並行に解析し統合する（0で無効）")
+    private int chunkTokens;
+
+    @Option(names = { "--pack-tokens" }, required = false, defaultValue = "0", description = "複数ファイル解析時、小さなファイルをこのトークン予算内で1リクエストにまとめて送信し、応答をファイルごとに分割する（0で無効）")
+    private int packTokens;
+
+    @Option(names = { "--pack-max-files" }, required = false, defaultValue = "16", description = "1リクエストにまとめる最大ファイル数（デフォルト: ${DEFAULT-VALUE}）")
+    private int packMaxFiles = 16;
+
+    @Option(names = { "--minify" }, required = false, split = ",", description = "プロンプトを組み立てる前にコードから取り除く対象（カンマ区切り）: ${COMPLETION-CANDIDATES}。削減したトークン数をファイルごとにログへ出力する")
+    private Set<SourceMinifier.Category> minify;
+
+    @Option(names = { "--symbols" }, required = false, description = "参照している型のシグネチャを集めるソース（ディレクトリ・globパターンをカンマ区切りで指定）。解析するファイルが直接参照している型の宣言だけをプロンプトに付け加える")
+    private String symbolsPath;
+
+    @Option(names = { "--symbol-index" }, required = false, defaultValue = ".symbol-index.tsv", description = "--symbolsの索引ファイル。次回は変更されたファイルだけを読み直す（デフォルト: ${DEFAULT-VALUE}）")
+    private String symbolIndexPath;
+
+    @Option(names = { "--symbol-tokens" }, required = false, defaultValue = "1024", description = "1ファイルに付け加える型のシグネチャのトークン予算（デフォルト: ${DEFAULT-VALUE}）")
+    private int symbolTokens;
+
+    @Option(names = { "--dedup-threshold" }, required = false, defaultValue = "0", description = "複数ファイル解析時、類似度（0.9～1、例: 0.95）がこの値以上のファイルは先に解析した代表のファイルの説明と差分から解析する（0で無効）")
+    private double dedupThreshold;
+
+    @Option(names = { "--rpm" }, required = false, defaultValue = "0", description = "1分あたりの最大リクエスト数（0で無制限）")
+    private double requestsPerMinute;
+
+    @Option(names = { "--tpm" }, required = false, defaultValue = "0", description = "1分あたりの最大トークン数（0で無制限）")
+    private double tokensPerMinute;
+
+    @Option(names = { "--max-retries" }, required = false, defaultValue = "3", description = "スロットリングなど一時的なエラー時の最大再試行回数（デフォルト: ${DEFAULT-VALUE}）")
+    private int maxRetries;
+
+    @Option(names = { "--out" }, required = false, description = "複数ファイル解析時にファイルごとの結果を出力するディレクトリ")
+    private String outDir;
+
+    @Option(names = { "--out-format" }, required = false, defaultValue = "MARKDOWN", description = "--out指定時の出力形式: ${COMPLETION-CANDIDATES}（JSONLは<--out>/results.jsonlに1ファイル1行で出力。インクリメンタル解析では常にMARKDOWN、デフォルト: ${DEFAULT-VALUE}）")
+    private OutputFormat outFormat;
+
+    @Option(names = { "--journal" }, required = false, description = "複数ファイル解析・--jobsで各ジョブの開始・完了と出力先を追記するジャーナルファイル（デフォルト: <--out>/.analysis-journal.tsv、--jobs時は<--jobs>.journal.tsv、--out未指定時は.analysis-journal.tsv）")
+    private String journalPath;
+
+    @Option(names = { "--resume" }, required = false, description = "ジャーナルを読み込んで中断した実行を再開する。成功済みのファイル・ジョブはスキップし、実行中だったものと失敗したものをやり直す")
+    private boolean resume;
+
+    @Option(names = { "--model" }, required = false, description = "使用するBedrockのモデル: ${COMPLETION-CANDIDATES}（デフォルト: CLAUDE_3_5_SONNET）")
+    private ModelId model = ModelId.CLAUDE_3_5_SONNET;
+
+    @Option(names = { "--prompt-cache" }, required = false, description = "BedrockのConverse APIで、全ファイル共通のベースプロンプトの後ろにキャッシュポイントを置く（プロンプトキャッシュ対応モデルが必要）")
+    private boolean promptCache;
+
+    @Option(names = { "--hedge-provider" }, required = false, description = "指定すると、最初のトークンが--hedge-delay-ms以内に届かない場合にこのプロバイダーへも送信し、先に応答した側を採用する: ${COMPLETION-CANDIDATES}")
+    private ChatModelFactory.Provider hedgeProvider;
+
+    @Option(names = { "--hedge-endpoint" }, required = false, description = "ヘッジ送信先のリージョンまたはエンドポイントURL")
+    private String hedgeEndpoint;
+
+    @Option(names = { "--hedge-model" }, required = false, description = "ヘッジ送信先のモデルID（Azure OpenAIの場合はデプロイ名、未指定時は一次と同じ）")
+    private String hedgeModel;
+
+    @Option(names = { "--hedge-api-key" }, required = false, description = "ヘッジ送信先のAPIキー（未指定時は環境変数API_KEY）")
+    private String hedgeApiKey;
+
+    @Option(names = { "--hedge-delay-ms" }, required = false, defaultValue = "0", description = "ヘッジ送信までの待ち時間（ミリ秒）。0の場合は観測したTTFTのp95（サンプルが少ない間は" + App.DEFAULT_HEDGE_DELAY_MS + " ms）")
+    private long hedgeDelayMs;
+
+    @Option(names = { "--metrics-json" }, required = false, description = "実行終了時にTTFT・トークン間隔・生成速度などの計測値をJSONで出力するファイル")
+    private String metricsJson;
+
+    @Option(names = { "--startup-profile" }, required = false, description = "終了時に、JVM起動からmain・モデル準備完了・最初のトークンまでの時間を出力する")
+    private boolean startupProfile;
+
+    @Option(names = { "--metrics-prom" }, required = false, description = "実行終了時に計測値をPrometheusのテキスト形式で出力するファイル")
+    private String metricsProm;
+
+    /**
+     * --out指定時の出力形式。
+     */
+    enum OutputFormat {
+        MARKDOWN, JSONL
+    }
+
     // モデルIDをenumで管理
     enum ModelId {
         CLAUDE_3_5_SONNET("anthropic.claude-3-5-sonnet-20240620-v1:0"),
@@ -58,118 +207,567 @@ public class App implements Runnable {
 
     @Override
     public void run() {
+        if (maxRequestMb < 1) {
+            throw invalidOption("--max-request-mb は1以上を指定してください: " + maxRequestMb);
+        }
+        if (serve) {
+            runServer();
+            return;
+        }
+        if (jobsPath != null) {
+            runJobs();
+            exportMetrics(StreamingMetrics.global());
+            return;
+        }
+        if (promptPath == null) {
+            throw missingOption("'--prompt=<promptPath>'");
+        }
+        if (codePath == null) {
+            throw missingOption("'--code=<codePath>'");
+        }
+        if (dedupThreshold > 0 && (dedupThreshold < SimilarityIndex.MIN_THRESHOLD || dedupThreshold > 1)) {
+            throw invalidOption("--dedup-threshold は" + SimilarityIndex.MIN_THRESHOLD + "～1（0で無効）の範囲で指定してください: "
+                    + dedupThreshold);
+        }
         String basePrompt = "";
-        String codeText = "";
+        List<Path> codeFiles;
         try {
             logger.info("ベースプロンプトファイル: {}", promptPath);
             logger.info("コードファイル: {}", codePath);
 
             basePrompt = tryReadStringWithEncodings(Paths.get(promptPath));
-            codeText = tryReadStringWithEncodings(Paths.get(codePath));
+            codeFiles = new SourceCollector(includeGlob != null ? includeGlob : "*.java").collect(codePath);
         } catch (Exception e) {
             logger.error("ファイルの読み込みに失敗しました: {}", e.getMessage());
             return;
         }
-        String inputText = basePrompt + "\n" + codeText;
-        if (inputText.isEmpty()) {
-            logger.warn("プロンプトが空です。終了します。");
+        if (codeFiles.isEmpty()) {
+            logger.warn("解析対象のファイルがありません。終了します。");
             return;
         }
 
-        // ChatModelFactoryを使ってBedrock用モデルを生成
-        StreamingChatModel model = null;
-
-        String modelId = ModelId.CLAUDE_3_5_SONNET.getValue();
-        String region = "ap-northeast-1";
-        String profileOrApiKey = null;
-
+        String modelId = (model != null ? model : ModelId.CLAUDE_3_5_SONNET).getValue();
+        ChatModelFactory.Provider provider = promptCache ? ChatModelFactory.Provider.BEDROCK_CONVERSE
+                : ChatModelFactory.Provider.BEDROCK;
+        ChatModelFactory.LlmParameters params = ChatModelFactory.LlmParameters.DEFAULT;
         if (propPath != null) {
             logger.info("プロパティファイルからパラメータを読み込み: {}", propPath);
-            model = ChatModelFactory.createFromProperties(
-                    ChatModelFactory.Provider.BEDROCK,
-                    modelId,
-                    region,
-                    profileOrApiKey,
-                    propPath);
-        } else {
-            model = ChatModelFactory.create(
-                    ChatModelFactory.Provider.BEDROCK,
-                    modelId,
-                    region,
-                    profileOrApiKey);
+            params = ChatModelFactory.loadParameters(propPath);
         }
-
-        // 入力トークン数（日本語はざっくり1文字=1トークンとみなす）
-        logger.info("概算入力トークン数: {}", inputText.length());
-
-        CompletableFuture<ChatResponse> futureChatResponse = new CompletableFuture<>();
+        TokenEstimator tokenEstimator = TokenEstimator.forModel(modelId);
+        StreamingChatModel model = decorate(createModel(provider, modelId, params), provider, modelId, params,
+                tokenEstimator);
+        StartupProfile.markModelReady();
         logger.info("使用するモデル: {}", model.provider().name());
+        SourceAnalyzer analyzer = new SourceAnalyzer(model, basePrompt).withTokenEstimator(tokenEstimator);
+        configureAnalyzer(analyzer, provider, modelId, params, tokenEstimator, openCache(), openSymbolIndex());
 
-        model.chat(inputText, new StreamingChatResponseHandler() {
-            @Override
-            public void onPartialResponse(String partialResponse) {
-                System.out.print(partialResponse);
-            }
+        JobCostModel costModel = new JobCostModel(StreamingMetrics.global().metricsOf(provider.name(), modelId));
 
-            @Override
-            public void onCompleteResponse(ChatResponse completeResponse) {
-                futureChatResponse.complete(completeResponse);
+        if (incremental) {
+            runIncremental(analyzer, codeFiles, incrementalFingerprint(basePrompt, modelId, params), costModel);
+        } else if (codeFiles.size() == 1) {
+            runSingle(analyzer, codeFiles.get(0));
+        } else {
+            try (JobJournal journal = openJournal(defaultBatchJournal());
+                    OutputSink sink = createBatchSink()) {
+                BatchAnalysisRunner runner = newBatchRunner(analyzer, sink, codeFiles, costModel);
+                if (journal != null) {
+                    runner.withJournal(journal);
+                }
+                runner.run(codeFiles);
+            } catch (IOException e) {
+                logger.error("解析結果の出力に失敗しました: {}", e.getMessage());
             }
+        }
+        exportMetrics(StreamingMetrics.global());
+    }
 
-            @Override
-            public void onError(Throwable error) {
-                futureChatResponse.completeExceptionally(error);
+    /**
+     * --jobsのJSONLを読み込みながらジョブを並行に実行し、結果を--jobs-outへ完了順に追記します。
+     * 省略された項目には--model・--prompt-cache・--propの値を使い、モデルはジョブ間で共有します。
+     */
+    private void runJobs() {
+        Path jobsFile = Paths.get(jobsPath);
+        Path outFile = jobsOutPath != null ? Paths.get(jobsOutPath)
+                : jobsFile.resolveSibling(jobsFile.getFileName() + ".results.jsonl");
+        ResponseCache cache = openCache();
+        SymbolIndex symbols = openSymbolIndex();
+        JobRunner runner = new JobRunner(this::createJobModel, Math.max(1, parallel), defaultJob())
+                .withAnalyzerSettings((job, analyzer) -> configureAnalyzer(analyzer, job.provider(), job.model(),
+                        job.params(), TokenEstimator.forModel(job.model()), cache, symbols));
+        logger.info("ジョブファイル: {}（結果: {}）", jobsFile, outFile);
+        try (JobJournal journal = openJournal(jobsFile.resolveSibling(jobsFile.getFileName() + ".journal.tsv"));
+                BufferedReader in = Files.newBufferedReader(jobsFile, StandardCharsets.UTF_8);
+                AsyncTextWriter out = new AsyncTextWriter(SyncingWriter.open(outFile, true),
+                        AsyncTextWriter.DEFAULT_CAPACITY, true, "jobs-writer")) {
+            if (journal != null) {
+                runner.withJournal(journal, outFile.toString());
+            }
+            if (resume) {
+                runner.withExistingOutput(outFile);
             }
-        });
-        futureChatResponse.join();
-        System.out.println(); // 最後の出力を改行
+            runner.run(in, out);
+        } catch (IOException e) {
+            logger.error("ジョブの実行に失敗しました: {}", e.getMessage());
+        }
+    }
 
-        // 概算出力トークン数を表示
-        int outputTokenCount = 0;
+    /**
+     * 常駐してHTTPで解析リクエストを受け付けます。モデルはサーバーの実行中ずっと共有し、
+     * 終了シグナルを受けると新規の受け付けを止めて処理中のリクエストの完了を--drain-secondsまで待ちます。
+     */
+    private void runServer() {
+        JobRunner.Job defaults = serverDefaults();
+        ResponseCache cache = openCache();
+        SymbolIndex symbols = openSymbolIndex();
+        AnalysisServer server = new AnalysisServer(this::createJobModel, defaults, Math.max(1, parallel),
+                maxQueued)
+                .withMaxBodyBytes(maxBodyBytes)
+                .withAllowedModels(serveModels != null ? serveModels : List.of())
+                .withAnalyzerSettings((job, analyzer) -> configureAnalyzer(analyzer, job.provider(), job.model(),
+                        job.params(), TokenEstimator.forModel(job.model()), cache, symbols));
+        try {
+            server.start(host, port);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.drain(Duration.ofSeconds(Math.max(0, drainSeconds)));
+            exportMetrics(StreamingMetrics.global());
+            ChatModelRegistry.shared().close();
+        }, "analysis-server-drain"));
+        logger.info("Ctrl+Cで停止します。");
         try {
-            outputTokenCount = futureChatResponse.get().toString().length();
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
-        } // ここでは単純に文字数をトークン数とみなす
-        logger.info("概算出力トークン数: {}", outputTokenCount);
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
-     * 指定したパスのファイルをUTF-8→Shift_JISの順で自動判別して読み込むユーティリティ
-     * 
-     * @param path 読み込むファイルのパス
-     * @return 読み込んだ文字列
-     * @throws Exception 読み込みに失敗した場合
+     * --jobs・--serveで省略された項目に使う既定値（--model・--prompt-cache・--propの値）を返します。
+     *
+     * @return 既定値のジョブ
+     */
+    private JobRunner.Job defaultJob() {
+        ChatModelFactory.LlmParameters defaultParams = propPath != null ? ChatModelFactory.loadParameters(propPath)
+                : ChatModelFactory.LlmParameters.DEFAULT;
+        return new JobRunner.Job(null, 0, null, null,
+                promptCache ? ChatModelFactory.Provider.BEDROCK_CONVERSE : ChatModelFactory.Provider.BEDROCK,
+                (model != null ? model : ModelId.CLAUDE_3_5_SONNET).getValue(), null, defaultParams);
+    }
+
+    /**
+     * --serveの既定値を返します。プロバイダー・エンドポイントは--serve-provider・--serve-endpointに固定し、
+     * 既定のモデルは--serve-modelsの先頭（未指定時は--model）です。
+     *
+     * @return 既定値のジョブ
      */
-    private static String tryReadStringWithEncodings(Path path) throws Exception {
-        // ファイルが存在しない場合は例外を発生させる
-        if (!Files.exists(path)) {
-            throw new IOException("ファイルが存在しません: " + path);
+    private JobRunner.Job serverDefaults() {
+        JobRunner.Job defaults = defaultJob();
+        ChatModelFactory.Provider provider = serveProvider != null ? serveProvider : defaults.provider();
+        if (serveEndpoint == null && provider != ChatModelFactory.Provider.BEDROCK
+                && provider != ChatModelFactory.Provider.BEDROCK_CONVERSE) {
+            throw invalidOption("--serve-provider " + provider + " には--serve-endpointの指定が必要です");
         }
+        String modelId = serveModels != null && !serveModels.isEmpty() ? serveModels.get(0) : defaults.model();
+        logger.info("サーバーのモデル: {} / {}（{}）", provider, modelId,
+                serveEndpoint != null ? serveEndpoint : "既定のリージョン");
+        return new JobRunner.Job(null, 0, null, null, provider, modelId, serveEndpoint, defaults.params());
+    }
+
+    /**
+     * ジョブ・リクエストのプロバイダー・モデル・エンドポイント・パラメータからモデルを生成します。
+     *
+     * @param job ジョブ
+     * @return 解析に使うモデル
+     */
+    private StreamingChatModel createJobModel(JobRunner.Job job) {
+        StreamingChatModel model = decorate(createModel(job.provider(), job.model(), job.endpoint(), job.params()),
+                job.provider(), job.model(), job.params(), TokenEstimator.forModel(job.model()));
+        StartupProfile.markModelReady();
+        return model;
+    }
 
-        Exception lastException = null;
+    /**
+     * --journalまたは--resume指定時にジャーナルを開きます。--resume指定時は既存の記録を読み込んで追記します。
+     *
+     * @param defaultFile --journal未指定時のジャーナルファイル
+     * @return ジャーナル（どちらも未指定の場合はnull）
+     * @throws IOException ジャーナルを開けない場合
+     */
+    private JobJournal openJournal(Path defaultFile) throws IOException {
+        if (journalPath == null && !resume) {
+            return null;
+        }
+        Path file = journalPath != null ? Paths.get(journalPath) : defaultFile;
+        logger.info("ジャーナル: {}{}", file, resume ? "（再開）" : "");
+        return JobJournal.open(file, resume);
+    }
 
-        // UTF-8で試行
+    /**
+     * @return 複数ファイル解析で--journal未指定時に使うジャーナルファイル
+     */
+    private Path defaultBatchJournal() {
+        return outDir != null ? Paths.get(outDir).resolve(".analysis-journal.tsv")
+                : Paths.get(".analysis-journal.tsv");
+    }
+
+    /**
+     * picocliの必須オプション不足と同じ形式のエラーを生成します（--jobsの有無で必須項目が変わるため手動で検証します）。
+     *
+     * @param option オプションの表記
+     * @return 例外
+     */
+    private CommandLine.ParameterException missingOption(String option) {
+        return new CommandLine.ParameterException(spec != null ? spec.commandLine() : new CommandLine(this),
+                "Missing required option: " + option);
+    }
+
+    /**
+     * オプションの値が不正であることを示すエラーを生成します。
+     *
+     * @param message エラーメッセージ
+     * @return 例外
+     */
+    private CommandLine.ParameterException invalidOption(String message) {
+        return new CommandLine.ParameterException(spec != null ? spec.commandLine() : new CommandLine(this), message);
+    }
+
+    /**
+     * 計測・レート制限と再試行・ヘッジ送信をモデルに重ねます。
+     * ヘッジ送信する場合は、一次・二次プロバイダーそれぞれのクォータに合わせて別々のレートリミッタを置いてから組み合わせます。
+     *
+     * @param base           プロバイダーのモデル
+     * @param provider       プロバイダー
+     * @param modelId        モデルID
+     * @param params         LLMパラメータ
+     * @param tokenEstimator トークン見積もり
+     * @return 解析に使うモデル
+     */
+    private StreamingChatModel decorate(StreamingChatModel base, ChatModelFactory.Provider provider, String modelId,
+            ChatModelFactory.LlmParameters params, TokenEstimator tokenEstimator) {
+        StreamingChatModel model = rateLimited(
+                new MetricsChatModel(base, StreamingMetrics.global(), provider, modelId, tokenEstimator), provider,
+                modelId, tokenEstimator);
+        if (hedgeProvider != null) {
+            model = createHedgedModel(model, provider, modelId, params, tokenEstimator);
+        }
+        return model;
+    }
+
+    /**
+     * プロバイダー・モデルのクォータごとのレートリミッタと再試行を重ねます。
+     *
+     * @param measured       計測するモデル
+     * @param provider       プロバイダー
+     * @param modelId        モデルID
+     * @param tokenEstimator トークン見積もり
+     * @return レート制限するモデル
+     */
+    private StreamingChatModel rateLimited(StreamingChatModel measured, ChatModelFactory.Provider provider,
+            String modelId, TokenEstimator tokenEstimator) {
+        // Converse APIも同じBedrockのクォータを使う
+        ChatModelFactory.Provider quota = provider == ChatModelFactory.Provider.BEDROCK_CONVERSE
+                ? ChatModelFactory.Provider.BEDROCK
+                : provider;
+        return new RateLimitedChatModel(measured,
+                AdaptiveRateLimiter.of(quota, modelId, requestsPerMinute, tokensPerMinute),
+                new RetryPolicy(Math.max(0, maxRetries), RetryPolicy.DEFAULT.baseDelay(),
+                        RetryPolicy.DEFAULT.maxDelay()),
+                tokenEstimator);
+    }
+
+    /**
+     * --chunk-tokensによる分割、--minifyによる前処理、--symbolsによる依存する型のシグネチャと
+     * レスポンスキャッシュをアナライザに設定します。BEDROCK_CONVERSEではベースプロンプトをプロンプトキャッシュに載せます。
+     *
+     * @param analyzer       アナライザ
+     * @param provider       プロバイダー
+     * @param modelId        キャッシュキーに含めるモデルID
+     * @param params         キャッシュキーに含めるLLMパラメータ
+     * @param tokenEstimator トークン見積もり
+     * @param cache          レスポンスキャッシュ（null可）
+     * @param symbols        シンボル索引（null可）
+     */
+    private void configureAnalyzer(SourceAnalyzer analyzer, ChatModelFactory.Provider provider, String modelId,
+            ChatModelFactory.LlmParameters params, TokenEstimator tokenEstimator, ResponseCache cache,
+            SymbolIndex symbols) {
+        if (provider == ChatModelFactory.Provider.BEDROCK_CONVERSE) {
+            analyzer.withSeparatePrefix();
+        }
+        if (chunkTokens > 0) {
+            analyzer.withChunking(new JavaSourceChunker(tokenEstimator), chunkTokens, Math.max(1, parallel));
+        }
+        if (minify != null && !minify.isEmpty()) {
+            analyzer.withMinifier(new SourceMinifier(minify, tokenEstimator));
+        }
+        if (symbols != null && symbolTokens > 0) {
+            analyzer.withSymbols(symbols, symbolTokens);
+        }
+        if (cache != null) {
+            analyzer.withCache(cache, modelId, params);
+        }
+    }
+
+    /**
+     * --symbols指定時にシンボル索引を開き、変更されたファイルの分だけ更新します。
+     *
+     * @return シンボル索引（未指定・利用できない場合はnull）
+     */
+    private SymbolIndex openSymbolIndex() {
+        if (symbolsPath == null) {
+            return null;
+        }
         try {
-            logger.info("ファイルをUTF-8で読み込み: {}", path);
-            return Files.readString(path, StandardCharsets.UTF_8).trim();
-        } catch (IOException | UncheckedIOException e) {
-            logger.debug("UTF-8での読み込みに失敗: {}", e.getMessage());
-            lastException = e instanceof IOException ? (IOException) e : new IOException(e);
+            SymbolIndex symbols = SymbolIndex.open(Paths.get(symbolIndexPath));
+            symbols.update(new SourceCollector("*.java").collect(symbolsPath));
+            logger.info("シンボル索引を使用: {}（{}）", symbolsPath, symbolIndexPath);
+            return symbols;
+        } catch (IOException e) {
+            logger.warn("シンボル索引を利用できません。参照している型なしで続行します: {}", e.getMessage());
+            return null;
         }
+    }
 
-        // Shift_JISで試行
+    /**
+     * --cache-dir指定時にレスポンスキャッシュを開きます。
+     *
+     * @return レスポンスキャッシュ（未指定・利用できない場合はnull）
+     */
+    private ResponseCache openCache() {
+        if (cacheDir == null) {
+            return null;
+        }
         try {
-            logger.info("UTF-8での読み込みに失敗。Shift_JISで再試行: {}", path);
-            return Files.readString(path, Charset.forName("Shift_JIS")).trim();
-        } catch (IOException | UncheckedIOException e) {
-            logger.debug("Shift_JISでの読み込みに失敗: {}", e.getMessage());
-            throw new Exception(path + " の読み込みに失敗しました（UTF-8/Shift_JIS両方）", lastException);
+            ResponseCache cache = new ResponseCache(Paths.get(cacheDir), Duration.ofDays(cacheMaxAgeDays),
+                    cacheMaxMb * 1024 * 1024);
+            logger.info("レスポンスキャッシュを使用: {}", cacheDir);
+            return cache;
+        } catch (IOException e) {
+            logger.warn("キャッシュディレクトリを利用できません。キャッシュなしで続行します: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 計測値の要約（--startup-profile指定時は起動プロファイルも）をログへ出力し、--metrics-json・--metrics-prom指定時はファイルへ出力します。
+     *
+     * @param metrics 計測値
+     */
+    private void exportMetrics(StreamingMetrics metrics) {
+        metrics.logSummary();
+        if (startupProfile) {
+            logger.info(StartupProfile.report());
         }
+        metrics.export(metricsJson, metricsProm);
+    }
+
+    /**
+     * ChatModelFactoryの共有レジストリからBedrock用モデルを取得します。同じ設定のモデルは再利用されます。
+     *
+     * @param provider BEDROCKまたはBEDROCK_CONVERSE（プロンプトキャッシュ使用時）
+     * @param modelId  モデルID
+     * @param params   LLMパラメータ
+     * @return 共有されるモデル
+     */
+    private StreamingChatModel createModel(ChatModelFactory.Provider provider, String modelId,
+            ChatModelFactory.LlmParameters params) {
+        return createModel(provider, modelId, null, params);
+    }
+
+    /**
+     * ChatModelFactoryの共有レジストリから、リージョンまたはエンドポイントを指定してモデルを取得します。
+     * Azure OpenAI・GeminiのAPIキーは環境変数API_KEYから取得します。
+     *
+     * @param provider         プロバイダー
+     * @param modelId          モデルID
+     * @param regionOrEndpoint リージョンまたはエンドポイント（nullの場合、Bedrockはap-northeast-1）
+     * @param params           LLMパラメータ
+     * @return 共有されるモデル
+     * @throws IllegalArgumentException Azure OpenAI・Geminiでエンドポイントが無い場合
+     */
+    private StreamingChatModel createModel(ChatModelFactory.Provider provider, String modelId,
+            String regionOrEndpoint, ChatModelFactory.LlmParameters params) {
+        boolean bedrock = provider == ChatModelFactory.Provider.BEDROCK
+                || provider == ChatModelFactory.Provider.BEDROCK_CONVERSE;
+        if (!bedrock && regionOrEndpoint == null) {
+            throw new IllegalArgumentException(provider + "にはendpoint（エンドポイントURL）の指定が必要です");
+        }
+        String region = regionOrEndpoint != null ? regionOrEndpoint : "ap-northeast-1";
+        String profileOrApiKey = bedrock ? null : System.getenv("API_KEY");
+
+        return ChatModelFactory.shared(
+                provider,
+                modelId,
+                region,
+                profileOrApiKey,
+                params,
+                maxRequestMb * 1024 * 1024);
+    }
+
+    /**
+     * 一次プロバイダーのモデルに、--hedge-providerへのヘッジ送信を組み合わせたモデルを生成します。
+     *
+     * @param primary        一次プロバイダーのモデル（レート制限済み）
+     * @param provider       一次プロバイダー
+     * @param modelId        一次プロバイダーのモデルID
+     * @param params         LLMパラメータ
+     * @param tokenEstimator トークン見積もり
+     * @return ヘッジ送信するモデル
+     */
+    private StreamingChatModel createHedgedModel(StreamingChatModel primary, ChatModelFactory.Provider provider,
+            String modelId, ChatModelFactory.LlmParameters params, TokenEstimator tokenEstimator) {
+        if (hedgeEndpoint == null && hedgeProvider != ChatModelFactory.Provider.BEDROCK
+                && hedgeProvider != ChatModelFactory.Provider.BEDROCK_CONVERSE) {
+            throw invalidOption("--hedge-provider " + hedgeProvider + " には--hedge-endpointの指定が必要です");
+        }
+        String secondaryModelId = hedgeModel != null ? hedgeModel : modelId;
+        String key = hedgeApiKey != null ? hedgeApiKey : System.getenv("API_KEY");
+        StreamingChatModel secondary = rateLimited(new MetricsChatModel(
+                ChatModelFactory.shared(hedgeProvider, secondaryModelId, hedgeEndpoint, key, params,
+                        maxRequestMb * 1024 * 1024),
+                StreamingMetrics.global(), hedgeProvider, secondaryModelId, tokenEstimator), hedgeProvider,
+                secondaryModelId, tokenEstimator);
+        logger.info("ヘッジ送信先: {} / {}（待ち時間: {}）", hedgeProvider, secondaryModelId,
+                hedgeDelayMs > 0 ? hedgeDelayMs + " ms" : "TTFTのp95");
+        return hedgeDelayMs > 0 ? new HedgedChatModel(primary, secondary, () -> hedgeDelayMs)
+                : HedgedChatModel.observingP95(primary, secondary, DEFAULT_HEDGE_DELAY_MS);
+    }
+
+    /**
+     * 複数ファイル解析の出力先を生成します。--out未指定の場合はファイルごとにまとめて標準出力へ出力します。
+     *
+     * @return 出力先
+     * @throws IOException 出力先を開けない場合
+     */
+    private OutputSink createBatchSink() throws IOException {
+        if (outDir == null) {
+            return OutputSink.console(false);
+        }
+        Path out = Paths.get(outDir);
+        // 再開時は前回までの結果を残して追記する
+        return outFormat == OutputFormat.JSONL ? OutputSink.jsonl(out.resolve("results.jsonl"), resume)
+                : OutputSink.markdown(out);
+    }
+
+    /**
+     * 1ファイルを解析し、応答を標準出力へストリーミング表示します。
+     * 表示はバックグラウンドの書き出しスレッドで行うため、応答の受信を妨げません。
+     *
+     * @param analyzer アナライザ
+     * @param codeFile 解析対象ファイル
+     */
+    private void runSingle(SourceAnalyzer analyzer, Path codeFile) {
+        AnalysisResult result;
+        try (OutputSink sink = OutputSink.console(true)) {
+            OutputSink.Stream stream = sink.open(codeFile);
+            result = analyzer.analyze(codeFile, stream);
+            stream.complete(result);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!result.succeeded()) {
+            logger.error("解析に失敗しました: {}", result.error().getMessage());
+            throw new CompletionException(result.error());
+        }
+
+        // プロバイダーが使用量を報告していればその値、無ければモデルファミリーごとの見積もり値
+        logger.info("入力トークン数: {}", result.inputTokens());
+        logger.info("出力トークン数: {}", result.outputTokens());
+    }
+
+    /**
+     * インクリメンタル解析の設定フィンガープリントを求めます。プロンプト・モデル・パラメータに加え、
+     * 解析結果を変える設定（分割・前処理・シグネチャの付加・まとめ送信・重複排除）を含めるため、
+     * これらを変えた場合は全ファイルを解析し直します。
+     *
+     * @param basePrompt ベースプロンプト
+     * @param modelId    モデルID
+     * @param params     LLMパラメータ
+     * @return 設定フィンガープリント
+     */
+    private String incrementalFingerprint(String basePrompt, String modelId, ChatModelFactory.LlmParameters params) {
+        String settings = "chunk=" + chunkTokens
+                + ";minify=" + (minify != null ? minify.stream().map(Enum::name).sorted().toList() : List.of())
+                + ";symbols=" + (symbolsPath != null ? symbolTokens : 0)
+                + ";pack=" + (packTokens > 0 ? packTokens + "/" + Math.max(1, packMaxFiles) : "0")
+                + ";dedup=" + (dedupThreshold > 0 ? dedupThreshold : 0);
+        return ResponseCache.key(basePrompt, settings, modelId, params);
+    }
+
+    /**
+     * 前回のマニフェストと比較して追加・変更されたファイルだけを解析し、マニフェストを更新します。
+     * 判定は各ファイルの内容だけで行うため、--symbolsで付け加える参照先の型のシグネチャが変わっても、
+     * そのファイル自体が変わっていなければ解析し直しません。
+     *
+     * @param analyzer    アナライザ
+     * @param codeFiles   解析対象候補のファイル
+     * @param fingerprint 設定フィンガープリント
+     * @param costModel   リクエストの処理時間の見積もり
+     */
+    private void runIncremental(SourceAnalyzer analyzer, List<Path> codeFiles, String fingerprint,
+            JobCostModel costModel) {
+        if (outDir == null) {
+            logger.error("インクリメンタル解析には--outの指定が必要です。");
+            return;
+        }
+        Path out = Paths.get(outDir);
+        Path manifestFile = manifestPath != null ? Paths.get(manifestPath) : out.resolve(".analysis-manifest.tsv");
+        IncrementalAnalyzer incrementalAnalyzer = new IncrementalAnalyzer(manifestFile, fingerprint,
+                new GitChangeDetector());
+        try {
+            IncrementalAnalyzer.Plan plan = incrementalAnalyzer.plan(codeFiles);
+            OutputSink sink = OutputSink.markdown(out);
+            List<AnalysisResult> results = plan.changed().isEmpty() ? List.of()
+                    : newBatchRunner(analyzer, sink, plan.changed(), costModel).run(plan.changed()).results();
+            incrementalAnalyzer.commit(plan, results, sink::resultPathOf);
+        } catch (IOException e) {
+            logger.error("インクリメンタル解析に失敗しました: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * バッチ解析のランナーを生成します。リクエストは見積もり時間の長い順に実行します。
+     * --pack-tokens指定時は小さなファイルをまとめて送信し、
+     * --dedup-threshold指定時は類似ファイルを代表のファイルの説明と差分から解析します。
+     *
+     * @param analyzer  アナライザ
+     * @param sink      出力先
+     * @param files     解析対象のファイル（類似ファイルの検出に使う）
+     * @param costModel リクエストの処理時間の見積もり
+     * @return ランナー
+     */
+    private BatchAnalysisRunner newBatchRunner(SourceAnalyzer analyzer, OutputSink sink, List<Path> files,
+            JobCostModel costModel) {
+        BatchAnalysisRunner runner = new BatchAnalysisRunner(analyzer, Math.max(1, parallel), sink)
+                .withCostModel(costModel);
+        if (packTokens > 0) {
+            runner.withPacking(analyzer.packer(packTokens, Math.max(1, packMaxFiles)));
+        }
+        if (dedupThreshold > 0 && files.size() > 1) {
+            runner.withDeduplication(SimilarityIndex.build(files, dedupThreshold));
+        }
+        return runner;
+    }
+
+    /**
+     * 指定したパスのファイルを読み込み、文字コード（UTF-8/MS932/EUC-JP）を自動判別して文字列にするユーティリティ。
+     * ファイルは1回だけ読み込みます（{@link SourceLoader}に委譲）。
+     * 
+     * @param path 読み込むファイルのパス
+     * @return 読み込んだ文字列
+     * @throws Exception 読み込みに失敗した場合
+     */
+    static String tryReadStringWithEncodings(Path path) throws Exception {
+        return SourceLoader.readString(path);
     }
 
     public static void main(String[] args) {
+        StartupProfile.markMain();
         int exitCode = new CommandLine(new App()).execute(args);
+        ChatModelRegistry.shared().close();
         System.exit(exitCode);
     }
 }
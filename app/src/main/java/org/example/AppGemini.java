@@ -2,23 +2,25 @@ package org.example;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.io.InputStreamReader;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
+import java.nio.charset.CodingErrorAction;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.CompletionException;
 
 /**
  * Gemini APIにHTTPリクエストでチャットするクラス。
@@ -27,6 +29,11 @@ import java.nio.file.Paths;
 public class AppGemini implements Runnable {
     private static final Logger logger = LogManager.getLogger(AppGemini.class);
 
+    /**
+     * 入力トークンを見積もる際に、まとめて見積もる文字数の目安。
+     */
+    private static final int ESTIMATE_CHUNK_CHARS = 64 * 1024;
+
     @Option(names = { "--prompt" }, required = true, description = "ベースプロンプトファイルのパス")
     private String promptPath;
 
@@ -37,13 +44,23 @@ public class AppGemini implements Runnable {
             "--endpoint" }, required = false, description = "エンドポイントURL", defaultValue = "https://generativelanguage.googleapis.com/v1beta/models/gemini-pro:generateContent")
     private String endpoint;
 
+    @Option(names = {
+            "--max-request-mb" }, required = false, description = "リクエストボディの上限（MB）。超える場合は送信しない", defaultValue = "32")
+    private long maxRequestMb = 32;
+
+    @Option(names = { "--metrics-json" }, required = false, description = "実行終了時にTTFT・トークン間隔・生成速度などの計測値をJSONで出力するファイル")
+    private String metricsJson;
+
+    @Option(names = { "--metrics-prom" }, required = false, description = "実行終了時に計測値をPrometheusのテキスト形式で出力するファイル")
+    private String metricsProm;
+
     /**
-     * メインの実行処理。プロンプト・コードをファイルから読み込み、Gemini APIにストリーミングでリクエストを送信し、レスポンスを標準出力に出力します。
+     * メインの実行処理。プロンプト・コードのファイルからリクエストボディを組み立て、Gemini APIにストリーミングでリクエストを送信し、
+     * レスポンスを標準出力に出力します。ファイルの内容は送信時に少しずつ読み込むため、大きなソースでもヒープに全体を持ちません。
+     * 終了時に計測値の要約をログへ出力し、--metrics-json・--metrics-prom指定時はファイルへ出力します。
      */
     @Override
     public void run() {
-        String basePrompt = "";
-        String codeText = "";
         // APIキーを環境変数から取得
         String apiKey = System.getenv("API_KEY");
         if (apiKey == null || apiKey.isEmpty()) {
@@ -51,84 +68,106 @@ public class AppGemini implements Runnable {
             System.err.println("[ERROR] 環境変数 API_KEY が設定されていません。");
             return;
         }
+        Path prompt = Paths.get(promptPath);
+        Path code = Paths.get(codePath);
+        TokenEstimator tokenEstimator = TokenEstimator.forModel(null);
+        HttpRequest.BodyPublisher requestBody;
+        int inputTokens;
         try {
             logger.info("ベースプロンプトファイル: {}", promptPath);
             logger.info("コードファイル: {}", codePath);
-            basePrompt = tryReadStringWithEncodings(Paths.get(promptPath));
-            codeText = tryReadStringWithEncodings(Paths.get(codePath));
-        } catch (Exception e) {
+            // Gemini API用リクエストJSON生成
+            JsonRequestBody body = new JsonRequestBody(maxRequestMb * 1024 * 1024)
+                    .raw("{\"contents\":[{\"parts\":[{\"text\":\"")
+                    .file(prompt)
+                    .text("\n")
+                    .file(code)
+                    .raw("\"}]}]}");
+            if (Files.size(prompt) == 0 && Files.size(code) == 0) {
+                logger.warn("プロンプトが空です。終了します。");
+                return;
+            }
+            requestBody = body.publisher();
+            inputTokens = estimate(tokenEstimator, prompt) + 1 + estimate(tokenEstimator, code);
+        } catch (IOException e) {
             logger.error("ファイルの読み込みに失敗しました: {}", e.getMessage());
             return;
         }
-        String inputText = basePrompt + "\n" + codeText;
-        if (inputText.isEmpty()) {
-            logger.warn("プロンプトが空です。終了します。");
-            return;
-        }
 
-        // Gemini API用リクエストJSON生成
-        String requestBody = String.format("{\"contents\":[{\"parts\":[{\"text\":\"%s\"}]}]}", escapeJson(inputText));
+        logger.info("Gemini APIへリクエスト送信: {} (streaming)", endpoint);
+        try (AsyncTextWriter console = AsyncTextWriter.stdout()) {
+            StreamingChatResponseHandler handler = new StreamingChatResponseHandler() {
+                @Override
+                public void onPartialResponse(String partialResponse) {
+                    // ストリーミングで部分的に出力（書き出しはバックグラウンドで行う）
+                    console.write(partialResponse);
+                }
 
-        HttpClient client = HttpClient.newHttpClient();
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(endpoint))
-                .header("Content-Type", "application/json")
-                .header("Authorization", "Bearer " + apiKey)
-                .header("Accept", "text/event-stream") // ストリーミングレスポンスを要求
-                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                .build();
+                @Override
+                public void onCompleteResponse(ChatResponse completeResponse) {
+                    console.write(System.lineSeparator());
+                }
 
-        logger.info("Gemini APIへリクエスト送信: {} (streaming)", endpoint);
-        try {
-            HttpResponse<java.io.InputStream> response = client.send(request,
-                    HttpResponse.BodyHandlers.ofInputStream());
-            logger.info("HTTPステータス: {}", response.statusCode());
-            if (response.statusCode() == 200) {
-                // ストリーミングで部分的に出力
-                try (var reader = new java.io.BufferedReader(
-                        new java.io.InputStreamReader(response.body(), java.nio.charset.StandardCharsets.UTF_8))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        if (line.startsWith("data: ")) {
-                            String json = line.substring(6).trim();
-                            if (json.equals("[DONE]"))
-                                break;
-                            printGeminiStreamChunk(json);
-                        }
-                    }
-                    System.out.println();
+                @Override
+                public void onError(Throwable error) {
+                    System.err.println("[ERROR] " + error.getMessage());
                 }
-            } else {
-                System.err.println("[ERROR] "
-                        + new String(response.body().readAllBytes(), java.nio.charset.StandardCharsets.UTF_8));
-            }
-        } catch (IOException | InterruptedException e) {
-            logger.error("Gemini APIリクエスト失敗: {}", e.getMessage());
+            };
+            // TTFT・部分応答の間隔・所要時間を計測する
+            new GeminiStreamClient().stream(URI.create(endpoint), apiKey, requestBody,
+                    StreamingMetrics.global().instrument("GEMINI", modelOf(endpoint), handler,
+                            inputTokens, tokenEstimator)).join();
+        } catch (CompletionException e) {
+            logger.error("Gemini APIリクエスト失敗: {}", SourceAnalyzer.unwrap(e).getMessage());
+        } catch (IOException e) {
+            logger.error("応答の出力に失敗しました: {}", e.getMessage());
         }
+        // 失敗したリクエストもエラー数として出力する
+        StreamingMetrics.global().logSummary();
+        StreamingMetrics.global().export(metricsJson, metricsProm);
     }
 
     /**
-     * Geminiストリーミングレスポンスの1チャンク（JSON）からテキスト部分のみを抽出して標準出力に出力します。
-     * 
-     * @param json ストリーミングで受信した1チャンク分のJSON文字列
+     * ファイルの入力トークン数を、全体を読み込まずに行単位のまとまりごとに見積もって合計します。
+     *
+     * @param estimator トークン見積もり
+     * @param file      ファイル
+     * @return 見積もりトークン数
+     * @throws IOException ファイルを読めない場合
      */
-    private static void printGeminiStreamChunk(String json) {
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode root = mapper.readTree(json);
-            if (root.has("candidates")) {
-                for (JsonNode candidate : root.get("candidates")) {
-                    JsonNode parts = candidate.path("content").path("parts");
-                    for (JsonNode part : parts) {
-                        if (part.has("text")) {
-                            System.out.print(part.get("text").asText());
-                        }
-                    }
+    static int estimate(TokenEstimator estimator, Path file) throws IOException {
+        Charset charset = SourceLoader.detectCharset(file);
+        int tokens = 0;
+        StringBuilder chunk = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file),
+                charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                chunk.append(line).append('\n');
+                if (chunk.length() >= ESTIMATE_CHUNK_CHARS) {
+                    tokens += estimator.estimate(chunk);
+                    chunk.setLength(0);
                 }
             }
-        } catch (Exception e) {
-            // 無視
         }
+        return tokens + estimator.estimate(chunk);
+    }
+
+    /**
+     * エンドポイントURLからモデル名（{@code models/}と{@code :}の間）を取り出します。
+     *
+     * @param endpoint エンドポイントURL
+     * @return モデル名（取り出せない場合はURLそのもの）
+     */
+    static String modelOf(String endpoint) {
+        int start = endpoint.indexOf("/models/");
+        if (start < 0) {
+            return endpoint;
+        }
+        start += "/models/".length();
+        int end = endpoint.indexOf(':', start);
+        return end < 0 ? endpoint.substring(start) : endpoint.substring(start, end);
     }
 
     /**
@@ -160,37 +199,15 @@ public class AppGemini implements Runnable {
     }
 
     /**
-     * 指定したパスのファイルをUTF-8→Shift_JISの順で自動判別して読み込むユーティリティ。
-     * 
-     * @param path 読み込むファイルのパス
-     * @return 読み込んだ文字列
-     * @throws Exception 読み込みに失敗した場合
-     */
-    private static String tryReadStringWithEncodings(Path path) throws Exception {
-        if (!Files.exists(path)) {
-            throw new IOException("ファイルが存在しません: " + path);
-        }
-        Exception lastException = null;
-        try {
-            return Files.readString(path, StandardCharsets.UTF_8).trim();
-        } catch (IOException | UncheckedIOException e) {
-            lastException = e instanceof IOException ? (IOException) e : new IOException(e);
-        }
-        try {
-            return Files.readString(path, Charset.forName("Shift_JIS")).trim();
-        } catch (IOException | UncheckedIOException e) {
-            throw new Exception(path + " の読み込みに失敗しました（UTF-8/Shift_JIS両方）", lastException);
-        }
-    }
-
-    /**
-     * JSON文字列として安全に送信するため、特殊文字をエスケープします。
+     * JSON文字列として安全に送信するため、特殊文字（引用符・バックスラッシュ・タブを含む制御文字）をエスケープします。
      * 
      * @param text エスケープ対象の文字列
      * @return エスケープ済み文字列
      */
-    private static String escapeJson(String text) {
-        return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    static String escapeJson(String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        JsonRequestBody.escape(text, sb);
+        return sb.toString();
     }
 
     /**
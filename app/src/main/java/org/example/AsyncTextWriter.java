@@ -0,0 +1,210 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 文字列を有界キューに積み、バックグラウンドのスレッドでまとめて書き出すライター。
+ * ストリーミング応答のコールバックスレッドは、キューに空きがある限り書き込みを待たずに戻れます。
+ * 書き出しはキューに溜まった分をまとめて行い、まとめるごとに1回だけflushします。
+ * キューが満杯のときは書き込み側が待機するため、出力先が遅い場合もメモリを使い切りません。
+ *
+ * <p>複数スレッドから同時に書き込めます。1回の{@link #write(String)}の内容が他の書き込みと混ざることはありません。</p>
+ */
+public class AsyncTextWriter implements Closeable {
+    /**
+     * デフォルトのキュー容量（書き込み回数）。
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * 1回の書き出しでまとめる最大件数。
+     */
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * 終了を表す番兵（同一性で判定します）。
+     */
+    private static final String END = new String("");
+
+    private final BlockingQueue<Object> queue;
+    private final Writer out;
+    private final boolean closeOut;
+    private final Thread drainer;
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    /**
+     * 閉じた状態の確認とキューへの追加を、番兵の追加と排他にするロック（書き込みは読み取りロックで並行に行う）。
+     * 番兵より後に積まれた文字列が書き出されずに失われることを防ぎます。
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    /**
+     * @param out      書き出し先
+     * @param capacity キュー容量
+     * @param closeOut close時に書き出し先も閉じるか
+     * @param name     書き出しスレッドの名前
+     */
+    public AsyncTextWriter(Writer out, int capacity, boolean closeOut, String name) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.out = out;
+        this.closeOut = closeOut;
+        this.drainer = Thread.ofVirtual().name(name).start(this::drain);
+    }
+
+    /**
+     * 標準出力へ書き出すライターを生成します。close時に標準出力は閉じません。
+     *
+     * @return 標準出力用のライター
+     */
+    public static AsyncTextWriter stdout() {
+        return new AsyncTextWriter(new OutputStreamWriter(System.out, System.out.charset()), DEFAULT_CAPACITY, false,
+                "stdout-writer");
+    }
+
+    /**
+     * 書き出し後に通知する文字列。
+     */
+    private record Notifying(String text, Runnable onWritten) {
+    }
+
+    /**
+     * 文字列を書き出しキューに積みます。キューが満杯の場合は空きができるまで待機します。
+     *
+     * @param text 書き出す文字列
+     * @throws UncheckedIOException 以前の書き出しが失敗していた場合
+     */
+    public void write(String text) {
+        enqueue(text, text);
+    }
+
+    /**
+     * 文字列を書き出しキューに積み、書き出してflushした後に書き出しスレッドでonWrittenを呼び出します。
+     * 書き出しに失敗した場合は呼び出しません。ジャーナルなど、出力が済んだことを前提に記録する処理に使います。
+     *
+     * @param text      書き出す文字列
+     * @param onWritten flush後に呼び出す処理
+     * @throws UncheckedIOException 以前の書き出しが失敗していた場合
+     */
+    public void write(String text, Runnable onWritten) {
+        enqueue(text, new Notifying(text, onWritten));
+    }
+
+    private void enqueue(String text, Object item) {
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("AsyncTextWriterは既に閉じられています");
+            }
+            if (text.isEmpty() && item == text) {
+                return;
+            }
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("出力キューへの書き込み中に割り込まれました", e);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void drain() {
+        List<Object> batch = new ArrayList<>(MAX_BATCH);
+        List<Runnable> written = new ArrayList<>();
+        boolean done = false;
+        while (!done) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                // closeで番兵が積まれるまで処理を続ける
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            for (Object item : batch) {
+                if (item == END) {
+                    done = true;
+                } else if (failure == null) {
+                    try {
+                        if (item instanceof Notifying notifying) {
+                            out.write(notifying.text());
+                            written.add(notifying.onWritten());
+                        } else {
+                            out.write((String) item);
+                        }
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+            }
+            batch.clear();
+            if (failure == null) {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure == null) {
+                written.forEach(Runnable::run);
+            }
+            written.clear();
+        }
+    }
+
+    /**
+     * キューに残っている内容をすべて書き出してから終了します。書き出しに失敗していた場合はその例外を投げます。
+     *
+     * @throws IOException 書き出しに失敗していた場合
+     */
+    @Override
+    public void close() throws IOException {
+        boolean interrupted = false;
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            boolean endQueued = false;
+            while (!endQueued) {
+                try {
+                    queue.put(END);
+                    endQueued = true;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        while (drainer.isAlive()) {
+            try {
+                drainer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (closeOut) {
+            out.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.example;
+
+import com.azure.ai.openai.OpenAIClientBuilder;
+import dev.langchain4j.model.azure.AzureOpenAiStreamingChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+
+import java.net.URI;
+
+/**
+ * Azure OpenAIのチャットモデルを生成する{@link ChatModelProvider}。Azure SDKはこのクラスを通じてのみ読み込まれます。
+ */
+@ChatModelProvider.Supports(ChatModelFactory.Provider.AZURE_OPENAI)
+public class AzureOpenAiChatModelProvider implements ChatModelProvider {
+    /**
+     * Azure OpenAIのHTTPクライアントはSDK側で共有されるため、閉じる処理はありません。
+     */
+    @Override
+    public ChatModelFactory.ManagedModel createManaged(ChatModelFactory.Provider provider, String modelId,
+            String regionOrEndpoint, String profileOrApiKey, ChatModelFactory.LlmParameters params) {
+        return new ChatModelFactory.ManagedModel(create(provider, modelId, regionOrEndpoint, profileOrApiKey, params),
+                () -> {
+                });
+    }
+
+    /**
+     * regionOrEndpointにはAzure OpenAIのエンドポイント、profileOrApiKeyにはAPIキーを指定します。
+     */
+    @Override
+    public StreamingChatModel create(ChatModelFactory.Provider provider, String modelId, String regionOrEndpoint,
+            String profileOrApiKey, ChatModelFactory.LlmParameters params) {
+        AzureOpenAiStreamingChatModel.Builder builder = azureBuilder(modelId, regionOrEndpoint, profileOrApiKey);
+        if (params != null) {
+            if (params.maxTokens() != null)
+                builder.maxTokens(params.maxTokens());
+            if (params.temperature() != null)
+                builder.temperature(params.temperature());
+            if (params.topP() != null)
+                builder.topP(params.topP());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Azure OpenAIのモデルのビルダーを生成します。
+     * ループバックアドレスの平文エンドポイント（MockLlmServerなど）には、APIキーを送らないクライアントで接続します
+     * （Azure SDKはHTTPSでないエンドポイントへのAPIキー送信を拒否するため）。
+     */
+    private static AzureOpenAiStreamingChatModel.Builder azureBuilder(String modelId, String endpoint, String apiKey) {
+        AzureOpenAiStreamingChatModel.Builder builder = AzureOpenAiStreamingChatModel.builder()
+                .endpoint(endpoint)
+                .deploymentName(modelId);
+        if (endpoint.startsWith("http://") && ChatModelFactory.isLoopback(URI.create(endpoint))) {
+            return builder.openAIAsyncClient(new OpenAIClientBuilder().endpoint(endpoint).buildAsyncClient());
+        }
+        return builder.apiKey(apiKey);
+    }
+}
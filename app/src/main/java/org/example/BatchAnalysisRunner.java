@@ -0,0 +1,601 @@
+package org.example;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+/**
+ * 複数ファイルの解析を仮想スレッド上で並行実行するクラス。
+ * 同時実行数の上限の数だけ作業スレッドを動かし、見積もり時間の長いリクエストから順に取り出して実行します。
+ * 各ファイルの出力は{@link OutputSink}のファイル単位のストリームに書き出すため混在しません。
+ */
+public class BatchAnalysisRunner {
+    private static final Logger logger = LogManager.getLogger(BatchAnalysisRunner.class);
+
+    /**
+     * ファイルサイズから入力トークン数を見積もるときの、1トークンあたりのバイト数。
+     */
+    private static final int BYTES_PER_TOKEN = 4;
+
+    private final SourceAnalyzer analyzer;
+
+    /**
+     * 同時に実行する解析の上限数。
+     */
+    private final int parallel;
+
+    /**
+     * 解析結果の出力先。
+     */
+    private final OutputSink sink;
+
+    /**
+     * バッチ実行の集計結果。
+     *
+     * @param total         対象ファイル数
+     * @param succeeded     成功数
+     * @param failed        失敗数
+     * @param inputTokens   入力トークン数の合計
+     * @param outputTokens  出力トークン数の合計
+     * @param elapsedMillis 全体の経過時間（ミリ秒）
+     * @param results       ファイルごとの解析結果
+     */
+    public record Summary(int total, int succeeded, int failed, long inputTokens, long outputTokens,
+            long elapsedMillis, List<AnalysisResult> results) {
+        /**
+         * 1分あたりの処理ファイル数を返します。
+         *
+         * @return ファイル/分
+         */
+        public double filesPerMinute() {
+            return elapsedMillis == 0 ? 0 : total * 60_000.0 / elapsedMillis;
+        }
+    }
+
+    /**
+     * 小さなファイルをまとめて送信するパッカー（nullの場合は1ファイル1リクエスト）。
+     */
+    private FilePacker packer;
+
+    /**
+     * ジョブの開始・完了を記録するジャーナル（nullの場合は記録しない）。
+     */
+    private JobJournal journal;
+
+    /**
+     * 類似ファイルの索引（nullの場合は類似ファイルも通常どおり解析する）。
+     */
+    private SimilarityIndex similarity;
+
+    /**
+     * 実行順と所要時間の予測に使う、リクエストの処理時間の見積もり。
+     */
+    private JobCostModel costModel = new JobCostModel(null);
+
+    /**
+     * @param analyzer 1ファイル分の解析を行うアナライザ
+     * @param parallel 同時実行数の上限（1以上）
+     * @param sink     解析結果の出力先（閉じるのは呼び出し側の責任）
+     */
+    public BatchAnalysisRunner(SourceAnalyzer analyzer, int parallel, OutputSink sink) {
+        if (parallel < 1) {
+            throw new IllegalArgumentException("parallelは1以上を指定してください: " + parallel);
+        }
+        this.analyzer = analyzer;
+        this.parallel = parallel;
+        this.sink = sink;
+    }
+
+    /**
+     * 小さなファイルをトークン予算内でまとめ、1回のリクエストで解析するようにします。
+     * 同時実行数の上限はまとめたリクエスト単位で適用されます。
+     *
+     * @param packer パッカー（{@link SourceAnalyzer#packer(int, int)}で生成）
+     * @return このインスタンス
+     */
+    public BatchAnalysisRunner withPacking(FilePacker packer) {
+        this.packer = packer;
+        return this;
+    }
+
+    /**
+     * 各ファイルの解析の開始・完了と出力先をジャーナルに記録し、ジャーナル上で成功済みのファイルは解析しないようにします。
+     *
+     * @param journal ジャーナル
+     * @return このインスタンス
+     */
+    public BatchAnalysisRunner withJournal(JobJournal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * 類似ファイルを、代表のファイルの解析後にその説明と差分で解析するようにします（代表と同じ内容なら説明を再利用します）。
+     * 代表が今回の対象に含まれない類似ファイルは通常どおり解析します。
+     *
+     * @param similarity 類似ファイルの索引（{@link SimilarityIndex#build(List, double)}で生成）
+     * @return このインスタンス
+     */
+    public BatchAnalysisRunner withDeduplication(SimilarityIndex similarity) {
+        this.similarity = similarity;
+        return this;
+    }
+
+    /**
+     * リクエストの処理時間の見積もりを設定します。解析に使うモデルの計測値を渡すと、観測した生成速度で見積もります。
+     *
+     * @param costModel 処理時間の見積もり
+     * @return このインスタンス
+     */
+    public BatchAnalysisRunner withCostModel(JobCostModel costModel) {
+        this.costModel = costModel;
+        return this;
+    }
+
+    /**
+     * ジャーナルでファイルを識別するキーを返します。
+     *
+     * @param file ファイル
+     * @return 正規化した絶対パス
+     */
+    static String journalKey(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * 指定したファイル群を並行して解析し、集計結果を返します。結果は指定した順序で返します。
+     * ジャーナル上で成功済みのファイルは対象から除き、結果にも含めません。
+     *
+     * @param files 解析対象ファイル
+     * @return 集計結果
+     */
+    public Summary run(List<Path> files) {
+        long start = System.nanoTime();
+        if (journal != null) {
+            List<Path> remaining = files.stream().filter(file -> !journal.isCompleted(journalKey(file))).toList();
+            if (remaining.size() < files.size()) {
+                logger.info("ジャーナル上で完了済みの {} ファイルをスキップします", files.size() - remaining.size());
+            }
+            files = remaining;
+        }
+        List<Path> variants = new ArrayList<>();
+        List<Path> primary = files;
+        if (similarity != null) {
+            Set<Path> included = new HashSet<>(files);
+            variants = files.stream()
+                    .filter(file -> similarity.twinOf(file)
+                            .filter(twin -> included.contains(twin.representative())).isPresent())
+                    .toList();
+            if (!variants.isEmpty()) {
+                Set<Path> held = new HashSet<>(variants);
+                primary = files.stream().filter(file -> !held.contains(file)).toList();
+                logger.info("類似ファイル {} 件は代表のファイルの解析後に解析します", variants.size());
+            }
+        }
+
+        List<List<Path>> units = new ArrayList<>();
+        List<List<FilePacker.PackedFile>> packs = packer != null ? packer.pack(primary) : null;
+        if (packs != null) {
+            for (List<FilePacker.PackedFile> pack : packs) {
+                units.add(pack.stream().map(FilePacker.PackedFile::file).toList());
+            }
+        } else {
+            for (Path file : primary) {
+                units.add(List.of(file));
+            }
+        }
+        int primaryUnits = units.size();
+        int taskCount = primaryUnits + variants.size();
+        List<Callable<List<AnalysisResult>>> tasks = new ArrayList<>(taskCount);
+        long[] tokens = new long[taskCount];
+        int[] after = new int[taskCount];
+        // 代表のファイルの結果（類似ファイルの解析に使う。異常終了したタスクの結果は含まない）
+        Map<Path, AnalysisResult> finished = new ConcurrentHashMap<>();
+        Map<Path, Integer> unitOf = new HashMap<>();
+        for (int i = 0; i < primaryUnits; i++) {
+            List<FilePacker.PackedFile> pack = packs != null ? packs.get(i) : null;
+            Path file = units.get(i).get(0);
+            tokens[i] = pack != null ? pack.stream().mapToLong(FilePacker.PackedFile::tokens).sum()
+                    : estimateTokens(file);
+            after[i] = -1;
+            tasks.add(() -> remember(pack != null && pack.size() > 1 ? analyzePack(pack)
+                    : List.of(analyzeOne(file)), finished));
+            for (Path unitFile : units.get(i)) {
+                unitOf.put(unitFile, i);
+            }
+        }
+        // 類似ファイルは、それぞれの代表のファイルを含むタスクが完了した時点で実行できるようにする
+        for (Path file : variants) {
+            SimilarityIndex.Twin twin = similarity.twinOf(file).orElseThrow();
+            int i = tasks.size();
+            units.add(List.of(file));
+            tokens[i] = estimateTokens(file);
+            after[i] = unitOf.getOrDefault(twin.representative(), -1);
+            tasks.add(() -> List.of(analyzeVariant(file, twin, finished.get(twin.representative()))));
+        }
+        Map<Path, AnalysisResult> byFile = new HashMap<>();
+        collect(runLongestFirst(tasks, tokens, after), units, byFile);
+
+        int succeeded = 0;
+        int failed = 0;
+        long inputTokens = 0;
+        long outputTokens = 0;
+        List<AnalysisResult> results = new ArrayList<>(files.size());
+        for (Path file : files) {
+            AnalysisResult result = byFile.get(file);
+            if (result == null) {
+                continue;
+            }
+            results.add(result);
+            if (result.succeeded()) {
+                succeeded++;
+                inputTokens += result.inputTokens();
+                outputTokens += result.outputTokens();
+            } else {
+                failed++;
+            }
+        }
+        Summary summary = new Summary(files.size(), succeeded, failed, inputTokens, outputTokens,
+                (System.nanoTime() - start) / 1_000_000, results);
+        logSummary(summary);
+        return summary;
+    }
+
+    /**
+     * タスクの結果を代表のファイルの結果として記録し、そのまま返します。
+     */
+    private static List<AnalysisResult> remember(List<AnalysisResult> results, Map<Path, AnalysisResult> finished) {
+        for (AnalysisResult result : results) {
+            finished.put(result.file(), result);
+        }
+        return results;
+    }
+
+    /**
+     * タスクを見積もり時間の長い順に、同時実行数の上限まで並行に実行します（LPT: longest processing time first）。
+     * 空いた実行枠は実行できるタスクのうち最も長いものを取るため、大きなファイルが最後に残って全体が延びることがなく、
+     * 小さなタスクが最後の隙間を埋めます。予測した所要時間と実測をログに出力し、実測でコストモデルを補正します。
+     *
+     * <p>実行順は入力トークン数で決めます。見積もり時間は実測で補正されますが、どの時点でも入力トークン数に対して単調に増えるため、
+     * 取り出すたびに最新の見積もりで並べ直しても順序は変わりません。</p>
+     *
+     * <p>先行タスクを指定したタスクは、先行タスクが完了（異常終了を含む）した時点で実行できるようになります。
+     * 呼び出し中に割り込まれた場合は、未着手のタスクを{@link InterruptedException}で完了させ、
+     * 実行中のタスクに割り込んでから戻ります（呼び出し元の割り込み状態は保ちます）。</p>
+     *
+     * @param tasks  タスク
+     * @param tokens 各タスクの入力トークン数の見積もり
+     * @param after  各タスクの先行タスクの番号（無い場合は-1）
+     * @return タスクと同じ順序の結果
+     */
+    List<Future<List<AnalysisResult>>> runLongestFirst(List<Callable<List<AnalysisResult>>> tasks,
+            long[] tokens, int[] after) {
+        int n = tasks.size();
+        double[] estimates = new double[n];
+        for (int i = 0; i < n; i++) {
+            estimates[i] = costModel.estimateMillis(tokens[i]);
+        }
+        int[] order = IntStream.range(0, n).boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> estimates[i]).reversed())
+                .mapToInt(Integer::intValue).toArray();
+        double predicted = JobCostModel.makespanMillis(
+                Arrays.stream(order).mapToDouble(i -> estimates[i]).toArray(), parallel);
+        if (n > 0) {
+            logger.info("{} 件のリクエストを見積もり時間の長い順に実行します（予測所要時間 {} 秒、最長 {} 秒）", n,
+                    seconds(predicted), seconds(estimates[order[0]]));
+        }
+
+        List<CompletableFuture<List<AnalysisResult>>> futures = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            futures.add(new CompletableFuture<>());
+        }
+        ReadyQueue queue = new ReadyQueue(tokens, after);
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            for (int worker = 0; worker < Math.min(parallel, n); worker++) {
+                executor.submit(() -> {
+                    int i;
+                    while ((i = queue.take()) >= 0) {
+                        long taskStart = System.nanoTime();
+                        try {
+                            List<AnalysisResult> results = tasks.get(i).call();
+                            observe(results, (System.nanoTime() - taskStart) / 1_000_000, estimates[i]);
+                            futures.get(i).complete(results);
+                        } catch (Throwable e) {
+                            futures.get(i).completeExceptionally(e);
+                        } finally {
+                            queue.completed(i);
+                        }
+                    }
+                    return null;
+                });
+            }
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get();
+        } catch (InterruptedException e) {
+            for (int i : queue.cancel()) {
+                futures.get(i).completeExceptionally(new InterruptedException("中断されました"));
+            }
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // 異常終了したタスクは、それぞれの結果で失敗として扱う
+        } finally {
+            executor.close();
+        }
+        if (n > 0) {
+            logger.info("所要時間: 予測 {} 秒 / 実測 {} 秒", seconds(predicted),
+                    seconds((System.nanoTime() - start) / 1e6));
+        }
+        return List.copyOf(futures);
+    }
+
+    /**
+     * 実行できるタスクを入力トークン数の多い順に取り出すキュー。先行タスクを待つタスクは、先行タスクの完了時に加わります。
+     */
+    private static final class ReadyQueue {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final PriorityQueue<Integer> ready;
+        private final List<List<Integer>> dependents;
+        private final boolean[] taken;
+        private int remaining;
+
+        ReadyQueue(long[] tokens, int[] after) {
+            int n = tokens.length;
+            ready = new PriorityQueue<>(Math.max(1, n),
+                    Comparator.comparingLong((Integer i) -> tokens[i]).reversed().thenComparing(i -> i));
+            dependents = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                dependents.add(new ArrayList<>(0));
+            }
+            for (int i = 0; i < n; i++) {
+                if (after[i] < 0) {
+                    ready.add(i);
+                } else {
+                    dependents.get(after[i]).add(i);
+                }
+            }
+            taken = new boolean[n];
+            remaining = n;
+        }
+
+        /**
+         * 次に実行するタスクを取り出します。実行できるタスクが無い間は、先行タスクの完了を待ちます。
+         *
+         * @return タスクの番号（残りが無い場合は-1）
+         * @throws InterruptedException 待機中に割り込まれた場合
+         */
+        int take() throws InterruptedException {
+            lock.lock();
+            try {
+                while (ready.isEmpty()) {
+                    if (remaining == 0) {
+                        return -1;
+                    }
+                    changed.await();
+                }
+                int i = ready.poll();
+                taken[i] = true;
+                remaining--;
+                return i;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * タスクの完了を記録し、そのタスクを待っていたタスクを実行できるようにします。
+         */
+        void completed(int i) {
+            lock.lock();
+            try {
+                for (int dependent : dependents.get(i)) {
+                    if (!taken[dependent]) {
+                        ready.add(dependent);
+                    }
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 未着手のタスクをすべて取り出し、以降は何も返さないようにします。
+         *
+         * @return 未着手だったタスクの番号
+         */
+        List<Integer> cancel() {
+            lock.lock();
+            try {
+                List<Integer> cancelled = new ArrayList<>(remaining);
+                for (int i = 0; i < taken.length; i++) {
+                    if (!taken[i]) {
+                        taken[i] = true;
+                        cancelled.add(i);
+                    }
+                }
+                ready.clear();
+                remaining = 0;
+                changed.signalAll();
+                return cancelled;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 成功したタスクの実測値をコストモデルに反映します。失敗したタスクは処理時間が見積もりと無関係なため使いません。
+     * キャッシュや同じ内容のファイルの説明から再生した結果も、送信していない（処理時間がほぼ0の）ため使いません。
+     */
+    private void observe(List<AnalysisResult> results, long elapsedMillis, double estimatedMillis) {
+        long inputTokens = 0;
+        long outputTokens = 0;
+        boolean sent = false;
+        for (AnalysisResult result : results) {
+            if (!result.succeeded()) {
+                return;
+            }
+            if (result.replayed()) {
+                continue;
+            }
+            sent = true;
+            inputTokens += result.inputTokens();
+            outputTokens += result.outputTokens();
+        }
+        if (!sent) {
+            return;
+        }
+        logger.debug("処理時間: {} 見積もり {} ms / 実測 {} ms", results.get(0).file(), Math.round(estimatedMillis),
+                elapsedMillis);
+        costModel.observe(inputTokens, outputTokens, elapsedMillis);
+    }
+
+    /**
+     * ファイルサイズから入力トークン数を見積もります（実行順を決めるための目安で、ファイルは読み込みません）。
+     */
+    private static long estimateTokens(Path file) {
+        try {
+            return Files.size(file) / BYTES_PER_TOKEN;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static String seconds(double millis) {
+        return String.format("%.1f", millis / 1000);
+    }
+
+    /**
+     * タスクの結果をファイルごとに集めます。異常終了したタスクのファイルは失敗として扱います。
+     */
+    private static void collect(List<Future<List<AnalysisResult>>> futures, List<List<Path>> units,
+            Map<Path, AnalysisResult> byFile) {
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                for (AnalysisResult result : futures.get(i).get()) {
+                    byFile.put(result.file(), result);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                logger.error("解析タスクが異常終了しました: {}", e.getCause().getMessage());
+                for (Path file : units.get(i)) {
+                    byFile.put(file, AnalysisResult.failed(file, 0, e.getCause()));
+                }
+            }
+        }
+    }
+
+    /**
+     * 類似ファイルを代表のファイルの説明と差分で解析し、ファイル単位のストリームへ出力します。
+     * 代表の解析に失敗した場合は通常どおり解析します。
+     */
+    private AnalysisResult analyzeVariant(Path file, SimilarityIndex.Twin twin, AnalysisResult representative)
+            throws IOException {
+        if (representative == null || !representative.succeeded() || representative.text() == null) {
+            return analyzeOne(file);
+        }
+        logger.info("解析開始: {}（{} と類似: {}）", file, twin.representative(),
+                String.format("%.2f", twin.similarity()));
+        journalStarted(file);
+        OutputSink.Stream stream = sink.open(file);
+        AnalysisResult result = analyzer.analyzeVariant(file, twin.representative(), representative.text(), stream);
+        stream.complete(result, () -> journalCompleted(result));
+        if (result.succeeded()) {
+            logger.info("解析完了: {} ({} ms)", file, result.elapsedMillis());
+        } else {
+            logger.error("解析失敗: {}: {}", file, result.error().getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 1ファイルを解析し、ファイル単位のストリームへ出力します。
+     */
+    private AnalysisResult analyzeOne(Path file) throws IOException {
+        logger.info("解析開始: {}", file);
+        journalStarted(file);
+        OutputSink.Stream stream = sink.open(file);
+        AnalysisResult result = analyzer.analyze(file, stream);
+        stream.complete(result, () -> journalCompleted(result));
+        if (result.succeeded()) {
+            logger.info("解析完了: {} ({} ms)", file, result.elapsedMillis());
+        } else {
+            logger.error("解析失敗: {}: {}", file, result.error().getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * まとめた複数ファイルを1回のリクエストで解析し、ファイル単位のストリームへ振り分けて出力します。
+     */
+    private List<AnalysisResult> analyzePack(List<FilePacker.PackedFile> pack) throws IOException {
+        Map<Path, OutputSink.Stream> streams = new HashMap<>();
+        for (FilePacker.PackedFile packed : pack) {
+            logger.info("解析開始: {}", packed.file());
+            journalStarted(packed.file());
+            streams.put(packed.file(), sink.open(packed.file()));
+        }
+        List<AnalysisResult> results = analyzer.analyzePack(pack, streams::get);
+        for (AnalysisResult result : results) {
+            streams.get(result.file()).complete(result, () -> journalCompleted(result));
+            if (result.succeeded()) {
+                logger.info("解析完了: {} ({} ms)", result.file(), result.elapsedMillis());
+            } else {
+                logger.error("解析失敗: {}: {}", result.file(), result.error().getMessage());
+            }
+        }
+        return results;
+    }
+
+    private void journalStarted(Path file) {
+        if (journal != null) {
+            journal.started(journalKey(file));
+        }
+    }
+
+    /**
+     * 結果が出力先へ書き出された後に完了を記録します（記録だけが先に残って結果が失われることを防ぐため）。
+     */
+    private void journalCompleted(AnalysisResult result) {
+        if (journal != null) {
+            Path output = sink.resultPathOf(result.file());
+            journal.completed(journalKey(result.file()), result.succeeded(),
+                    output != null ? output.toString() : null);
+        }
+    }
+
+    private void logSummary(Summary summary) {
+        logger.info("バッチ解析完了: 対象 {} 件 / 成功 {} 件 / 失敗 {} 件", summary.total(), summary.succeeded(),
+                summary.failed());
+        logger.info("経過時間: {} ms, スループット: {} ファイル/分, 入力 {} トークン, 出力 {} トークン",
+                summary.elapsedMillis(), String.format("%.1f", summary.filesPerMinute()),
+                summary.inputTokens(), summary.outputTokens());
+    }
+}
@@ -0,0 +1,114 @@
+package org.example;
+
+import dev.langchain4j.model.bedrock.BedrockStreamingChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.auth.credentials.AnonymousCredentialsProvider;
+import software.amazon.awssdk.http.Protocol;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClientBuilder;
+
+import java.net.URI;
+
+/**
+ * Bedrock（InvokeModel・Converse API）のチャットモデルを生成する{@link ChatModelProvider}。
+ * AWS SDKとNettyはこのクラスを通じてのみ読み込まれます。
+ */
+@ChatModelProvider.Supports({ ChatModelFactory.Provider.BEDROCK, ChatModelFactory.Provider.BEDROCK_CONVERSE })
+public class BedrockChatModelProvider implements ChatModelProvider {
+    private static final Logger logger = LogManager.getLogger(BedrockChatModelProvider.class);
+
+    /**
+     * 共有用のBedrockクライアント1つあたりの最大同時接続数。
+     */
+    private static final int BEDROCK_MAX_CONCURRENCY = 256;
+
+    /**
+     * BedrockはSDKクライアントを明示的に生成してモデルに渡し、閉じる処理を返します。
+     */
+    @Override
+    public ChatModelFactory.ManagedModel createManaged(ChatModelFactory.Provider provider, String modelId,
+            String regionOrEndpoint, String profileOrApiKey, ChatModelFactory.LlmParameters params) {
+        BedrockRuntimeAsyncClient client = bedrockClient(regionOrEndpoint);
+        if (provider == ChatModelFactory.Provider.BEDROCK_CONVERSE) {
+            return new ChatModelFactory.ManagedModel(new BedrockConverseChatModel(client, modelId, params, true),
+                    client::close);
+        }
+        warnIfParameters(params);
+        StreamingChatModel model = BedrockStreamingChatModel.builder()
+                .client(client)
+                .region(bedrockRegion(regionOrEndpoint))
+                .modelId(modelId)
+                .build();
+        return new ChatModelFactory.ManagedModel(model, client::close);
+    }
+
+    @Override
+    public StreamingChatModel create(ChatModelFactory.Provider provider, String modelId, String regionOrEndpoint,
+            String profileOrApiKey, ChatModelFactory.LlmParameters params) {
+        if (provider == ChatModelFactory.Provider.BEDROCK_CONVERSE) {
+            // Converse APIのモデルは生成したクライアントを閉じる手段を持たないため、共有レジストリに登録して終了時に閉じる
+            return ChatModelRegistry.shared().get(provider, modelId, regionOrEndpoint, profileOrApiKey, params);
+        }
+        // profileOrApiKeyは未使用。profile指定したい場合はBedrockStreamingChatModel.builder()に追加で設定してください。
+        warnIfParameters(params);
+        return BedrockStreamingChatModel.builder()
+                .region(Region.of(regionOrEndpoint))
+                .modelId(modelId)
+                .build();
+    }
+
+    /**
+     * BedrockStreamingChatModelのBuilderにはmaxTokens/temperature/topPを設定できないため、指定されていれば警告します。
+     */
+    private static void warnIfParameters(ChatModelFactory.LlmParameters params) {
+        if (params != null && (params.maxTokens() != null || params.temperature() != null || params.topP() != null)) {
+            logger.warn("BedrockStreamingChatModel.BuilderはmaxTokens/temperature/topP未対応です。パラメータは無視されます。");
+        }
+    }
+
+    /**
+     * 共有用のBedrockクライアントを生成します。
+     * regionOrEndpointにURL（http://またはhttps://）を指定した場合はそのエンドポイントへ接続します（MockLlmServerなど）。
+     * ループバックアドレスのエンドポイントでは認証情報を使わずに接続します。
+     *
+     * @param regionOrEndpoint リージョンまたはエンドポイントURL
+     * @return Bedrockクライアント
+     */
+    private static BedrockRuntimeAsyncClient bedrockClient(String regionOrEndpoint) {
+        BedrockRuntimeAsyncClientBuilder builder = BedrockRuntimeAsyncClient.builder()
+                .region(bedrockRegion(regionOrEndpoint))
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .maxConcurrency(BEDROCK_MAX_CONCURRENCY));
+        if (isEndpointUrl(regionOrEndpoint)) {
+            URI endpoint = URI.create(regionOrEndpoint);
+            builder.endpointOverride(endpoint);
+            if (ChatModelFactory.isLoopback(endpoint)) {
+                // 平文のローカルサーバーはHTTP/2（h2c）に対応しないため、HTTP/1.1で接続する
+                builder.credentialsProvider(AnonymousCredentialsProvider.create())
+                        .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                                .maxConcurrency(BEDROCK_MAX_CONCURRENCY)
+                                .protocol(Protocol.HTTP1_1));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Bedrockのリージョンを返します。エンドポイントURLが指定された場合は環境変数AWS_REGION（未設定ならap-northeast-1）とします。
+     */
+    private static Region bedrockRegion(String regionOrEndpoint) {
+        if (isEndpointUrl(regionOrEndpoint)) {
+            String region = System.getenv("AWS_REGION");
+            return Region.of(region != null && !region.isEmpty() ? region : "ap-northeast-1");
+        }
+        return Region.of(regionOrEndpoint);
+    }
+
+    private static boolean isEndpointUrl(String regionOrEndpoint) {
+        return regionOrEndpoint.startsWith("http://") || regionOrEndpoint.startsWith("https://");
+    }
+}
@@ -0,0 +1,190 @@
+package org.example;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.Content;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.output.FinishReason;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.model.CachePointBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.CachePointType;
+import software.amazon.awssdk.services.bedrockruntime.model.ContentBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.ConversationRole;
+import software.amazon.awssdk.services.bedrockruntime.model.ConverseStreamRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.ConverseStreamResponseHandler;
+import software.amazon.awssdk.services.bedrockruntime.model.InferenceConfiguration;
+import software.amazon.awssdk.services.bedrockruntime.model.Message;
+import software.amazon.awssdk.services.bedrockruntime.model.SystemContentBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.TokenUsage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bedrock Converse API（ConverseStream）を直接使うチャットモデル。
+ * プロンプトキャッシュを有効にすると、全ファイルに共通する接頭辞の後ろにキャッシュポイントを置き、
+ * Bedrockが2回目以降の処理を省略できるようにします（TTFTと入力コストの削減）。
+ *
+ * <p>共通の接頭辞とみなすのは、システムメッセージ全体と、複数のテキストを持つ最初のユーザーメッセージの最後のテキストより前の部分です
+ * （SourceAnalyzerはベースプロンプトとコードを別のテキストとして送信します）。
+ * 応答のトークン使用量は{@link CachedTokenUsage}で、キャッシュの読み込み・書き込みトークン数を含みます。</p>
+ */
+public class BedrockConverseChatModel implements CancellableChatModel {
+    private static final CachePointBlock CACHE_POINT = CachePointBlock.builder().type(CachePointType.DEFAULT).build();
+
+    private final BedrockRuntimeAsyncClient client;
+    private final String modelId;
+    private final ChatModelFactory.LlmParameters params;
+    private final boolean promptCache;
+
+    /**
+     * @param client      Bedrockクライアント
+     * @param modelId     モデルID（プロンプトキャッシュ対応モデル）
+     * @param params      LLMパラメータ（null可）
+     * @param promptCache 共通の接頭辞にキャッシュポイントを置く場合はtrue
+     */
+    public BedrockConverseChatModel(BedrockRuntimeAsyncClient client, String modelId,
+            ChatModelFactory.LlmParameters params, boolean promptCache) {
+        this.client = client;
+        this.modelId = modelId;
+        this.params = params != null ? params : ChatModelFactory.LlmParameters.DEFAULT;
+        this.promptCache = promptCache;
+    }
+
+    @Override
+    public CompletableFuture<ChatResponse> chatCancellable(ChatRequest request, StreamingChatResponseHandler handler) {
+        CompletableFuture<ChatResponse> result = new CompletableFuture<>();
+        StringBuilder text = new StringBuilder();
+        TokenUsage[] usage = { null };
+        String[] stopReason = { null };
+        ConverseStreamResponseHandler responseHandler = ConverseStreamResponseHandler.builder()
+                .subscriber(ConverseStreamResponseHandler.Visitor.builder()
+                        .onContentBlockDelta(chunk -> {
+                            String partial = chunk.delta().text();
+                            if (partial != null && !partial.isEmpty() && !result.isDone()) {
+                                text.append(partial);
+                                handler.onPartialResponse(partial);
+                            }
+                        })
+                        .onMessageStop(stop -> stopReason[0] = stop.stopReasonAsString())
+                        .onMetadata(metadata -> usage[0] = metadata.usage())
+                        .build())
+                .build();
+        CompletableFuture<Void> call;
+        try {
+            call = client.converseStream(toRequest(request), responseHandler);
+        } catch (RuntimeException e) {
+            handler.onError(e);
+            result.completeExceptionally(e);
+            return result;
+        }
+        call.whenComplete((ignored, error) -> {
+            if (result.isDone()) {
+                return;
+            }
+            if (error != null) {
+                Throwable cause = SourceAnalyzer.unwrap(error);
+                handler.onError(cause);
+                result.completeExceptionally(cause);
+                return;
+            }
+            ChatResponse response = ChatResponse.builder()
+                    .aiMessage(AiMessage.from(text.toString()))
+                    .tokenUsage(toTokenUsage(usage[0]))
+                    .finishReason(toFinishReason(stopReason[0]))
+                    .build();
+            handler.onCompleteResponse(response);
+            result.complete(response);
+        });
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * ChatRequestをConverseStreamのリクエストへ変換します。
+     *
+     * @param request チャットリクエスト
+     * @return ConverseStreamのリクエスト
+     */
+    ConverseStreamRequest toRequest(ChatRequest request) {
+        List<SystemContentBlock> system = new ArrayList<>();
+        List<Message> messages = new ArrayList<>();
+        boolean prefixCached = false;
+        for (ChatMessage message : request.messages()) {
+            if (message instanceof SystemMessage s) {
+                system.add(SystemContentBlock.fromText(s.text()));
+            } else if (message instanceof UserMessage user) {
+                List<String> texts = new ArrayList<>();
+                for (Content content : user.contents()) {
+                    if (content instanceof TextContent t) {
+                        texts.add(t.text());
+                    }
+                }
+                List<ContentBlock> blocks = new ArrayList<>(texts.size() + 1);
+                for (int i = 0; i < texts.size(); i++) {
+                    if (promptCache && !prefixCached && texts.size() > 1 && i == texts.size() - 1) {
+                        blocks.add(ContentBlock.fromCachePoint(CACHE_POINT));
+                        prefixCached = true;
+                    }
+                    blocks.add(ContentBlock.fromText(texts.get(i)));
+                }
+                messages.add(Message.builder().role(ConversationRole.USER).content(blocks).build());
+            } else if (message instanceof AiMessage ai && ai.text() != null) {
+                messages.add(Message.builder().role(ConversationRole.ASSISTANT)
+                        .content(ContentBlock.fromText(ai.text())).build());
+            }
+        }
+        if (promptCache && !system.isEmpty()) {
+            system.add(SystemContentBlock.fromCachePoint(CACHE_POINT));
+        }
+        Integer maxTokens = request.parameters() != null && request.parameters().maxOutputTokens() != null
+                ? request.parameters().maxOutputTokens()
+                : params.maxTokens();
+        InferenceConfiguration.Builder config = InferenceConfiguration.builder().maxTokens(maxTokens);
+        if (params.temperature() != null) {
+            config.temperature(params.temperature().floatValue());
+        }
+        if (params.topP() != null) {
+            config.topP(params.topP().floatValue());
+        }
+        ConverseStreamRequest.Builder builder = ConverseStreamRequest.builder()
+                .modelId(modelId)
+                .messages(messages)
+                .inferenceConfig(config.build());
+        if (!system.isEmpty()) {
+            builder.system(system);
+        }
+        return builder.build();
+    }
+
+    private static CachedTokenUsage toTokenUsage(TokenUsage usage) {
+        if (usage == null) {
+            return null;
+        }
+        return new CachedTokenUsage(usage.inputTokens(), usage.outputTokens(), usage.cacheReadInputTokens(),
+                usage.cacheWriteInputTokens());
+    }
+
+    private static FinishReason toFinishReason(String stopReason) {
+        if (stopReason == null) {
+            return null;
+        }
+        return switch (stopReason) {
+            case "end_turn", "stop_sequence" -> FinishReason.STOP;
+            case "max_tokens" -> FinishReason.LENGTH;
+            case "content_filtered", "guardrail_intervened" -> FinishReason.CONTENT_FILTER;
+            case "tool_use" -> FinishReason.TOOL_EXECUTION;
+            default -> FinishReason.OTHER;
+        };
+    }
+}
@@ -0,0 +1,60 @@
+package org.example;
+
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.util.Objects;
+
+/**
+ * プロンプトキャッシュの読み込み・書き込みトークン数を含むトークン使用量。
+ * 入力トークン数はキャッシュを除いた（通常料金の）トークン数で、Bedrockの報告値と同じ扱いです。
+ */
+public class CachedTokenUsage extends TokenUsage {
+    private final Integer cacheReadTokenCount;
+    private final Integer cacheWriteTokenCount;
+
+    /**
+     * @param inputTokenCount      入力トークン数（キャッシュ分を除く）
+     * @param outputTokenCount     出力トークン数
+     * @param cacheReadTokenCount  キャッシュから読み込んだ入力トークン数
+     * @param cacheWriteTokenCount キャッシュへ書き込んだ入力トークン数
+     */
+    public CachedTokenUsage(Integer inputTokenCount, Integer outputTokenCount, Integer cacheReadTokenCount,
+            Integer cacheWriteTokenCount) {
+        super(inputTokenCount, outputTokenCount);
+        this.cacheReadTokenCount = cacheReadTokenCount;
+        this.cacheWriteTokenCount = cacheWriteTokenCount;
+    }
+
+    /**
+     * @return キャッシュから読み込んだ入力トークン数（未報告の場合はnull）
+     */
+    public Integer cacheReadTokenCount() {
+        return cacheReadTokenCount;
+    }
+
+    /**
+     * @return キャッシュへ書き込んだ入力トークン数（未報告の場合はnull）
+     */
+    public Integer cacheWriteTokenCount() {
+        return cacheWriteTokenCount;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && o instanceof CachedTokenUsage other
+                && Objects.equals(cacheReadTokenCount, other.cacheReadTokenCount)
+                && Objects.equals(cacheWriteTokenCount, other.cacheWriteTokenCount);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), cacheReadTokenCount, cacheWriteTokenCount);
+    }
+
+    @Override
+    public String toString() {
+        return "CachedTokenUsage { inputTokenCount = " + inputTokenCount() + ", outputTokenCount = "
+                + outputTokenCount() + ", cacheReadTokenCount = " + cacheReadTokenCount
+                + ", cacheWriteTokenCount = " + cacheWriteTokenCount + " }";
+    }
+}
@@ -0,0 +1,91 @@
+package org.example;
+
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 送信したストリームを途中で打ち切れるStreamingChatModel。
+ * {@link #chatCancellable}が返すFutureをキャンセルすると、以降のコールバックはハンドラへ渡されません。
+ */
+public interface CancellableChatModel extends StreamingChatModel {
+
+    /**
+     * リクエストを送信し、完了を表すFutureを返します。Futureをキャンセルするとストリームを打ち切ります。
+     *
+     * @param request チャットリクエスト
+     * @param handler ストリーミングレスポンスを受け取るハンドラ
+     * @return 完了時のレスポンスを返すFuture
+     */
+    CompletableFuture<ChatResponse> chatCancellable(ChatRequest request, StreamingChatResponseHandler handler);
+
+    @Override
+    default void chat(ChatRequest request, StreamingChatResponseHandler handler) {
+        chatCancellable(request, handler);
+    }
+
+    /**
+     * 任意のモデルを打ち切り可能なモデルとして扱えるようにします。
+     * 接続の切断をサポートしないモデルでは、キャンセル後のコールバックを捨てるだけで受信自体は続きます。
+     *
+     * @param model モデル
+     * @return 打ち切り可能なモデル（すでに打ち切り可能な場合はそのまま）
+     */
+    static CancellableChatModel of(StreamingChatModel model) {
+        if (model instanceof CancellableChatModel cancellable) {
+            return cancellable;
+        }
+        return new CancellableChatModel() {
+            @Override
+            public CompletableFuture<ChatResponse> chatCancellable(ChatRequest request,
+                    StreamingChatResponseHandler handler) {
+                CompletableFuture<ChatResponse> result = new CompletableFuture<>();
+                StreamingChatResponseHandler guarded = new StreamingChatResponseHandler() {
+                    @Override
+                    public void onPartialResponse(String partialResponse) {
+                        if (!result.isDone()) {
+                            handler.onPartialResponse(partialResponse);
+                        }
+                    }
+
+                    @Override
+                    public void onCompleteResponse(ChatResponse completeResponse) {
+                        if (!result.isDone()) {
+                            handler.onCompleteResponse(completeResponse);
+                            result.complete(completeResponse);
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        if (!result.isDone()) {
+                            handler.onError(error);
+                            result.completeExceptionally(error);
+                        }
+                    }
+                };
+                try {
+                    model.chat(request, guarded);
+                } catch (RuntimeException e) {
+                    guarded.onError(e);
+                }
+                return result;
+            }
+
+            @Override
+            public ChatRequestParameters defaultRequestParameters() {
+                return model.defaultRequestParameters();
+            }
+
+            @Override
+            public ModelProvider provider() {
+                return model.provider();
+            }
+        };
+    }
+}
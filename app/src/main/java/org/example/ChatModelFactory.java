@@ -1,16 +1,15 @@
 package org.example;
 
-import dev.langchain4j.model.bedrock.BedrockStreamingChatModel;
-import dev.langchain4j.model.azure.AzureOpenAiStreamingChatModel;
 import dev.langchain4j.model.chat.StreamingChatModel;
-import software.amazon.awssdk.regions.Region;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.URI;
 import java.util.Properties;
 
 /**
- * BedrockやAzure OpenAIなどのチャットモデルを生成するファクトリークラス。
+ * BedrockやAzure OpenAI、Geminiなどのチャットモデルを生成するファクトリークラス。
+ * 生成はプロバイダーごとの{@link ChatModelProvider}に委譲し、SDKのクラスは使うプロバイダーの分だけ読み込まれます。
  */
 public class ChatModelFactory {
     /**
@@ -18,45 +17,154 @@ public class ChatModelFactory {
      */
     public enum Provider {
         BEDROCK,
-        AZURE_OPENAI
+        /**
+         * Converse APIを直接使い、共通の接頭辞（ベースプロンプト）をプロンプトキャッシュするBedrock。
+         */
+        BEDROCK_CONVERSE,
+        AZURE_OPENAI,
+        GEMINI
+    }
+
+    /**
+     * LLMパラメータ（maxTokens, temperature, topP）をまとめたレコード。未指定の項目はnull。
+     *
+     * @param maxTokens   最大トークン数
+     * @param temperature 温度パラメータ
+     * @param topP        top-pサンプリング値
+     */
+    public record LlmParameters(Integer maxTokens, Double temperature, Double topP) {
+        /**
+         * すべて未指定（デフォルト値）のパラメータ。
+         */
+        public static final LlmParameters DEFAULT = new LlmParameters(null, null, null);
+    }
+
+    /**
+     * 破棄時に後始末が必要なチャットモデル。
+     *
+     * @param model     チャットモデル
+     * @param closeHook モデルが保持するSDKクライアントを閉じる処理
+     */
+    public record ManagedModel(StreamingChatModel model, AutoCloseable closeHook) {
+    }
+
+    /**
+     * 共有用のチャットモデルを生成します。BedrockはSDKクライアントを明示的に生成してモデルに渡し、
+     * 閉じる処理を返します。Azure OpenAIのHTTPクライアントはSDK側で共有されるため、閉じる処理はありません。
+     *
+     * @param provider         利用するプロバイダー
+     * @param modelId          モデルID
+     * @param regionOrEndpoint Bedrockの場合はリージョン（またはエンドポイントURL）、Azure OpenAI・Geminiの場合はエンドポイント
+     * @param profileOrApiKey  Bedrockの場合はプロファイル名（未使用）、Azure OpenAI・Geminiの場合はAPIキー
+     * @param params           LLMパラメータ
+     * @return 閉じる処理付きのチャットモデル
+     */
+    public static ManagedModel createManaged(Provider provider, String modelId, String regionOrEndpoint,
+            String profileOrApiKey, LlmParameters params) {
+        return createManaged(provider, modelId, regionOrEndpoint, profileOrApiKey, params,
+                JsonRequestBody.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * リクエストボディの上限を指定して、共有用のチャットモデルを生成します。
+     *
+     * @param provider         利用するプロバイダー
+     * @param modelId          モデルID
+     * @param regionOrEndpoint Bedrockの場合はリージョン（またはエンドポイントURL）、Azure OpenAI・Geminiの場合はエンドポイント
+     * @param profileOrApiKey  Bedrockの場合はプロファイル名（未使用）、Azure OpenAI・Geminiの場合はAPIキー
+     * @param params           LLMパラメータ
+     * @param maxRequestBytes  HTTPで直接送信するプロバイダー（Gemini）のリクエストボディの上限（バイト）
+     * @return 閉じる処理付きのチャットモデル
+     */
+    public static ManagedModel createManaged(Provider provider, String modelId, String regionOrEndpoint,
+            String profileOrApiKey, LlmParameters params, long maxRequestBytes) {
+        LlmParameters p = params != null ? params : LlmParameters.DEFAULT;
+        return ChatModelProvider.of(provider).createManaged(provider, modelId, regionOrEndpoint, profileOrApiKey, p,
+                maxRequestBytes);
+    }
+
+    /**
+     * ループバックアドレス（MockLlmServerなどのローカルサーバー）かどうかを返します。
+     *
+     * @param endpoint エンドポイント
+     * @return ループバックアドレスの場合はtrue
+     */
+    static boolean isLoopback(URI endpoint) {
+        String host = endpoint.getHost();
+        return "localhost".equals(host) || "127.0.0.1".equals(host) || "[::1]".equals(host);
+    }
+
+    /**
+     * 共有レジストリから、同じ設定のチャットモデルを再利用して返します。無ければ生成して登録します。
+     * 返されたモデルは複数スレッドから同時に利用でき、呼び出し側で閉じる必要はありません。
+     *
+     * @param provider         利用するプロバイダー
+     * @param modelId          モデルID
+     * @param regionOrEndpoint Bedrockの場合はリージョン（またはエンドポイントURL）、Azure OpenAI・Geminiの場合はエンドポイント
+     * @param profileOrApiKey  Bedrockの場合はプロファイル名（未使用）、Azure OpenAI・Geminiの場合はAPIキー
+     * @param params           LLMパラメータ（null可）
+     * @return 共有されるStreamingChatModelのインスタンス
+     */
+    public static StreamingChatModel shared(Provider provider, String modelId, String regionOrEndpoint,
+            String profileOrApiKey, LlmParameters params) {
+        return ChatModelRegistry.shared().get(provider, modelId, regionOrEndpoint, profileOrApiKey, params);
+    }
+
+    /**
+     * リクエストボディの上限を指定して、共有レジストリから同じ設定のチャットモデルを返します。無ければ生成して登録します。
+     *
+     * @param provider         利用するプロバイダー
+     * @param modelId          モデルID
+     * @param regionOrEndpoint Bedrockの場合はリージョン（またはエンドポイントURL）、Azure OpenAI・Geminiの場合はエンドポイント
+     * @param profileOrApiKey  Bedrockの場合はプロファイル名（未使用）、Azure OpenAI・Geminiの場合はAPIキー
+     * @param params           LLMパラメータ（null可）
+     * @param maxRequestBytes  HTTPで直接送信するプロバイダー（Gemini）のリクエストボディの上限（バイト）
+     * @return 共有されるStreamingChatModelのインスタンス
+     */
+    public static StreamingChatModel shared(Provider provider, String modelId, String regionOrEndpoint,
+            String profileOrApiKey, LlmParameters params, long maxRequestBytes) {
+        return ChatModelRegistry.shared().get(provider, modelId, regionOrEndpoint, profileOrApiKey, params,
+                maxRequestBytes);
     }
 
     /**
      * 指定したプロバイダー・モデルID・リージョン/エンドポイント・プロファイル/APIキーからチャットモデルを生成します。
      * 
-     * @param provider         利用するプロバイダー（BEDROCKまたはAZURE_OPENAI）
+     * @param provider         利用するプロバイダー（BEDROCK・BEDROCK_CONVERSE・AZURE_OPENAI・GEMINI）
      * @param modelId          モデルID
-     * @param regionOrEndpoint Bedrockの場合はリージョン、Azure OpenAIの場合はエンドポイント
-     * @param profileOrApiKey  Bedrockの場合はプロファイル名（未使用）、Azure OpenAIの場合はAPIキー
+     * @param regionOrEndpoint Bedrockの場合はリージョン（またはエンドポイントURL）、Azure OpenAI・Geminiの場合はエンドポイント
+     * @param profileOrApiKey  Bedrockの場合はプロファイル名（未使用）、Azure OpenAI・Geminiの場合はAPIキー
      * @return StreamingChatModelのインスタンス
      */
     public static StreamingChatModel create(Provider provider, String modelId, String regionOrEndpoint,
             String profileOrApiKey) {
-        switch (provider) {
-            case BEDROCK:
-                // profileOrApiKeyは未使用。profile指定したい場合はBedrockStreamingChatModel.builder()に追加で設定してください。
-                return BedrockStreamingChatModel.builder()
-                        .region(Region.of(regionOrEndpoint))
-                        .modelId(modelId)
-                        .build();
-            case AZURE_OPENAI:
-                // regionOrEndpoint: Azure OpenAIのエンドポイント, profileOrApiKey: APIキー
-                return AzureOpenAiStreamingChatModel.builder()
-                        .endpoint(regionOrEndpoint)
-                        .apiKey(profileOrApiKey)
-                        .build();
-            default:
-                throw new IllegalArgumentException("Unknown provider: " + provider);
-        }
+        return ChatModelProvider.of(provider).create(provider, modelId, regionOrEndpoint, profileOrApiKey, null);
+    }
+
+    /**
+     * リクエストボディの上限を指定してチャットモデルを生成します。上限を超えるリクエストは送信せずにエラーを通知します。
+     *
+     * @param provider         利用するプロバイダー（BEDROCK・BEDROCK_CONVERSE・AZURE_OPENAI・GEMINI）
+     * @param modelId          モデルID
+     * @param regionOrEndpoint Bedrockの場合はリージョン（またはエンドポイントURL）、Azure OpenAI・Geminiの場合はエンドポイント
+     * @param profileOrApiKey  Bedrockの場合はプロファイル名（未使用）、Azure OpenAI・Geminiの場合はAPIキー
+     * @param params           LLMパラメータ（null可）
+     * @param maxRequestBytes  HTTPで直接送信するプロバイダー（Gemini）のリクエストボディの上限（バイト）
+     * @return StreamingChatModelのインスタンス
+     */
+    public static StreamingChatModel create(Provider provider, String modelId, String regionOrEndpoint,
+            String profileOrApiKey, LlmParameters params, long maxRequestBytes) {
+        return ChatModelProvider.of(provider).create(provider, modelId, regionOrEndpoint, profileOrApiKey, params,
+                maxRequestBytes);
     }
 
     /**
      * LLMパラメータ（maxTokens, temperature, topP）を指定してチャットモデルを生成します。
      * 
-     * @param provider         利用するプロバイダー（BEDROCKまたはAZURE_OPENAI）
+     * @param provider         利用するプロバイダー（BEDROCK・BEDROCK_CONVERSE・AZURE_OPENAI・GEMINI）
      * @param modelId          モデルID
-     * @param regionOrEndpoint Bedrockの場合はリージョン、Azure OpenAIの場合はエンドポイント
-     * @param profileOrApiKey  Bedrockの場合はプロファイル名（未使用）、Azure OpenAIの場合はAPIキー
+     * @param regionOrEndpoint Bedrockの場合はリージョン（またはエンドポイントURL）、Azure OpenAI・Geminiの場合はエンドポイント
+     * @param profileOrApiKey  Bedrockの場合はプロファイル名（未使用）、Azure OpenAI・Geminiの場合はAPIキー
      * @param maxTokens        最大トークン数（nullの場合はデフォルト値）
      * @param temperature      温度パラメータ（nullの場合はデフォルト値）
      * @param topP             top-pサンプリング値（nullの場合はデフォルト値）
@@ -65,31 +173,8 @@ public class ChatModelFactory {
     public static StreamingChatModel create(Provider provider, String modelId, String regionOrEndpoint,
             String profileOrApiKey,
             Integer maxTokens, Double temperature, Double topP) {
-        switch (provider) {
-            case BEDROCK:
-                BedrockStreamingChatModel.Builder bedrockBuilder = BedrockStreamingChatModel.builder()
-                        .region(Region.of(regionOrEndpoint))
-                        .modelId(modelId);
-                // BedrockのBuilderにはmaxTokens/temperature/topPは未対応。警告ログを出す。
-                if (maxTokens != null || temperature != null || topP != null) {
-                    org.apache.logging.log4j.LogManager.getLogger(ChatModelFactory.class)
-                            .warn("BedrockStreamingChatModel.BuilderはmaxTokens/temperature/topP未対応です。パラメータは無視されます。");
-                }
-                return bedrockBuilder.build();
-            case AZURE_OPENAI:
-                AzureOpenAiStreamingChatModel.Builder azureBuilder = AzureOpenAiStreamingChatModel.builder()
-                        .endpoint(regionOrEndpoint)
-                        .apiKey(profileOrApiKey);
-                if (maxTokens != null)
-                    azureBuilder.maxTokens(maxTokens);
-                if (temperature != null)
-                    azureBuilder.temperature(temperature);
-                if (topP != null)
-                    azureBuilder.topP(topP);
-                return azureBuilder.build();
-            default:
-                throw new IllegalArgumentException("Unknown provider: " + provider);
-        }
+        return ChatModelProvider.of(provider).create(provider, modelId, regionOrEndpoint, profileOrApiKey,
+                new LlmParameters(maxTokens, temperature, topP));
     }
 
     /**
@@ -98,13 +183,26 @@ public class ChatModelFactory {
      * 
      * @param provider         利用するプロバイダー
      * @param modelId          モデルID
-     * @param regionOrEndpoint Bedrockの場合はリージョン、Azure OpenAIの場合はエンドポイント
-     * @param profileOrApiKey  Bedrockの場合はプロファイル名（未使用）、Azure OpenAIの場合はAPIキー
+     * @param regionOrEndpoint Bedrockの場合はリージョン（またはエンドポイントURL）、Azure OpenAI・Geminiの場合はエンドポイント
+     * @param profileOrApiKey  Bedrockの場合はプロファイル名（未使用）、Azure OpenAI・Geminiの場合はAPIキー
      * @param propertiesPath   プロパティファイルのパス
      * @return StreamingChatModelのインスタンス
      */
     public static StreamingChatModel createFromProperties(Provider provider, String modelId, String regionOrEndpoint,
             String profileOrApiKey, String propertiesPath) {
+        LlmParameters params = loadParameters(propertiesPath);
+        return create(provider, modelId, regionOrEndpoint, profileOrApiKey, params.maxTokens(), params.temperature(),
+                params.topP());
+    }
+
+    /**
+     * プロパティファイルからmaxTokens, temperature, topPを読み込みます。
+     * 読み込みに失敗した場合は警告ログを出し、読み込めた項目のみを返します。
+     *
+     * @param propertiesPath プロパティファイルのパス
+     * @return 読み込んだLLMパラメータ
+     */
+    public static LlmParameters loadParameters(String propertiesPath) {
         Integer maxTokens = null;
         Double temperature = null;
         Double topP = null;
@@ -124,7 +222,7 @@ public class ChatModelFactory {
             org.apache.logging.log4j.LogManager.getLogger(ChatModelFactory.class)
                     .warn("プロパティファイルの読み込みに失敗しました: " + propertiesPath, e);
         }
-        return create(provider, modelId, regionOrEndpoint, profileOrApiKey, maxTokens, temperature, topP);
+        return new LlmParameters(maxTokens, temperature, topP);
     }
 
     /**
@@ -133,8 +231,8 @@ public class ChatModelFactory {
      * 
      * @param provider         利用するプロバイダー
      * @param modelId          モデルID
-     * @param regionOrEndpoint Bedrockの場合はリージョン、Azure OpenAIの場合はエンドポイント
-     * @param profileOrApiKey  Bedrockの場合はプロファイル名（未使用）、Azure OpenAIの場合はAPIキー
+     * @param regionOrEndpoint Bedrockの場合はリージョン（またはエンドポイントURL）、Azure OpenAI・Geminiの場合はエンドポイント
+     * @param profileOrApiKey  Bedrockの場合はプロファイル名（未使用）、Azure OpenAI・Geminiの場合はAPIキー
      * @param input            入力テキスト
      * @param onPartial        部分応答を受け取るコールバック（null可）
      * @param onComplete       完了応答を受け取るコールバック（null可）
@@ -149,7 +247,7 @@ public class ChatModelFactory {
             java.util.function.Consumer<String> onPartial,
             java.util.function.Consumer<String> onComplete,
             java.util.function.Consumer<Throwable> onError) {
-        StreamingChatModel model = create(provider, modelId, regionOrEndpoint, profileOrApiKey);
+        StreamingChatModel model = shared(provider, modelId, regionOrEndpoint, profileOrApiKey, null);
         model.chat(input, new dev.langchain4j.model.chat.response.StreamingChatResponseHandler() {
             private final StringBuilder sb = new StringBuilder();
 
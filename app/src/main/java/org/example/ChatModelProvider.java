@@ -0,0 +1,123 @@
+package org.example;
+
+import dev.langchain4j.model.chat.StreamingChatModel;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * プロバイダーごとにチャットモデルを生成するSPI。実装は{@code META-INF/services/org.example.ChatModelProvider}に登録します。
+ * 実装クラスは{@link Supports}で対応するプロバイダーを宣言し、{@link #of(ChatModelFactory.Provider)}は
+ * 必要になったプロバイダーの実装だけをインスタンス化します。Bedrockだけを使う実行ではAzure OpenAIのSDKを読み込まず、その逆も同様です。
+ */
+public interface ChatModelProvider {
+    /**
+     * 実装クラスが対応するプロバイダー。ServiceLoaderは実装をインスタンス化せずにこの注釈で選びます。
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @interface Supports {
+        ChatModelFactory.Provider[] value();
+    }
+
+    /**
+     * 共有用のチャットモデルを生成します。SDKクライアントを保持する場合は閉じる処理も返します。
+     *
+     * @param provider         プロバイダー
+     * @param modelId          モデルID
+     * @param regionOrEndpoint リージョンまたはエンドポイント
+     * @param profileOrApiKey  プロファイル名またはAPIキー
+     * @param params           LLMパラメータ
+     * @return 閉じる処理付きのチャットモデル
+     */
+    ChatModelFactory.ManagedModel createManaged(ChatModelFactory.Provider provider, String modelId,
+            String regionOrEndpoint, String profileOrApiKey, ChatModelFactory.LlmParameters params);
+
+    /**
+     * チャットモデルを生成します。
+     *
+     * @param provider         プロバイダー
+     * @param modelId          モデルID
+     * @param regionOrEndpoint リージョンまたはエンドポイント
+     * @param profileOrApiKey  プロファイル名またはAPIキー
+     * @param params           LLMパラメータ（nullの場合はパラメータを指定しない）
+     * @return チャットモデル
+     */
+    StreamingChatModel create(ChatModelFactory.Provider provider, String modelId, String regionOrEndpoint,
+            String profileOrApiKey, ChatModelFactory.LlmParameters params);
+
+    /**
+     * リクエストボディの上限を指定して、共有用のチャットモデルを生成します。
+     * 上限を使わないプロバイダー（SDK経由で送信するもの）は上限を無視します。
+     *
+     * @param provider         プロバイダー
+     * @param modelId          モデルID
+     * @param regionOrEndpoint リージョンまたはエンドポイント
+     * @param profileOrApiKey  プロファイル名またはAPIキー
+     * @param params           LLMパラメータ
+     * @param maxRequestBytes  リクエストボディの上限（バイト）
+     * @return 閉じる処理付きのチャットモデル
+     */
+    default ChatModelFactory.ManagedModel createManaged(ChatModelFactory.Provider provider, String modelId,
+            String regionOrEndpoint, String profileOrApiKey, ChatModelFactory.LlmParameters params,
+            long maxRequestBytes) {
+        return createManaged(provider, modelId, regionOrEndpoint, profileOrApiKey, params);
+    }
+
+    /**
+     * リクエストボディの上限を指定してチャットモデルを生成します。
+     * 上限を使わないプロバイダー（SDK経由で送信するもの）は上限を無視します。
+     *
+     * @param provider         プロバイダー
+     * @param modelId          モデルID
+     * @param regionOrEndpoint リージョンまたはエンドポイント
+     * @param profileOrApiKey  プロファイル名またはAPIキー
+     * @param params           LLMパラメータ（nullの場合はパラメータを指定しない）
+     * @param maxRequestBytes  リクエストボディの上限（バイト）
+     * @return チャットモデル
+     */
+    default StreamingChatModel create(ChatModelFactory.Provider provider, String modelId, String regionOrEndpoint,
+            String profileOrApiKey, ChatModelFactory.LlmParameters params, long maxRequestBytes) {
+        return create(provider, modelId, regionOrEndpoint, profileOrApiKey, params);
+    }
+
+    /**
+     * プロバイダーの実装を返します。初回の呼び出し時に解決し、以降は同じインスタンスを返します。
+     *
+     * @param provider プロバイダー
+     * @return 実装
+     * @throws IllegalArgumentException 実装が登録されていない場合
+     */
+    static ChatModelProvider of(ChatModelFactory.Provider provider) {
+        return Resolved.PROVIDERS.computeIfAbsent(provider, Resolved::load);
+    }
+
+    /**
+     * 解決済みの実装。
+     */
+    final class Resolved {
+        private static final Map<ChatModelFactory.Provider, ChatModelProvider> PROVIDERS = new ConcurrentHashMap<>();
+
+        private Resolved() {
+        }
+
+        private static ChatModelProvider load(ChatModelFactory.Provider provider) {
+            return ServiceLoader.load(ChatModelProvider.class, ChatModelProvider.class.getClassLoader()).stream()
+                    .filter(candidate -> supports(candidate.type(), provider))
+                    .findFirst()
+                    .map(ServiceLoader.Provider::get)
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown provider: " + provider));
+        }
+
+        private static boolean supports(Class<? extends ChatModelProvider> type, ChatModelFactory.Provider provider) {
+            Supports supports = type.getAnnotation(Supports.class);
+            return supports != null && Arrays.asList(supports.value()).contains(provider);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.example;
+
+import dev.langchain4j.model.chat.StreamingChatModel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 生成済みのチャットモデルを設定ごとに保持し、再利用するレジストリ。
+ * 同じプロバイダー・モデル・リージョン/エンドポイント・認証情報・パラメータの組には1つのインスタンスだけを生成するため、
+ * TLSハンドシェイクや認証情報の解決、スレッドプールの生成を繰り返さずに接続を使い回せます。
+ */
+public class ChatModelRegistry implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(ChatModelRegistry.class);
+
+    /**
+     * アプリケーション全体で共有するインスタンス。
+     */
+    private static volatile ChatModelRegistry shared;
+
+    /**
+     * レジストリのキー。APIキーはハッシュ化して保持します。
+     *
+     * @param provider              プロバイダー
+     * @param modelId               モデルID
+     * @param regionOrEndpoint      リージョンまたはエンドポイント
+     * @param credentialFingerprint 認証情報のハッシュ
+     * @param params                LLMパラメータ
+     * @param maxRequestBytes       リクエストボディの上限（バイト）
+     */
+    record Key(ChatModelFactory.Provider provider, String modelId, String regionOrEndpoint,
+            String credentialFingerprint, ChatModelFactory.LlmParameters params, long maxRequestBytes) {
+    }
+
+    private final Map<Key, ChatModelFactory.ManagedModel> models = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    /**
+     * アプリケーション全体で共有するレジストリを返します。初回呼び出し時に、JVM終了時に閉じるフックを登録します。
+     *
+     * @return 共有レジストリ
+     */
+    public static ChatModelRegistry shared() {
+        ChatModelRegistry registry = shared;
+        if (registry == null) {
+            synchronized (ChatModelRegistry.class) {
+                registry = shared;
+                if (registry == null) {
+                    registry = new ChatModelRegistry();
+                    ChatModelRegistry toClose = registry;
+                    Runtime.getRuntime().addShutdownHook(new Thread(toClose::close, "chat-model-registry-close"));
+                    shared = registry;
+                }
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * 設定に対応するモデルを返します。未生成であれば生成して登録します。同じ設定で同時に呼ばれても生成は1回です。
+     *
+     * @param provider         プロバイダー
+     * @param modelId          モデルID
+     * @param regionOrEndpoint リージョンまたはエンドポイント
+     * @param profileOrApiKey  プロファイル名またはAPIキー
+     * @param params           LLMパラメータ（null可）
+     * @return 共有されるモデル
+     */
+    public StreamingChatModel get(ChatModelFactory.Provider provider, String modelId, String regionOrEndpoint,
+            String profileOrApiKey, ChatModelFactory.LlmParameters params) {
+        return get(provider, modelId, regionOrEndpoint, profileOrApiKey, params, JsonRequestBody.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * リクエストボディの上限を指定して、設定に対応するモデルを返します。上限が異なるモデルは別のインスタンスです。
+     *
+     * @param provider         プロバイダー
+     * @param modelId          モデルID
+     * @param regionOrEndpoint リージョンまたはエンドポイント
+     * @param profileOrApiKey  プロファイル名またはAPIキー
+     * @param params           LLMパラメータ（null可）
+     * @param maxRequestBytes  HTTPで直接送信するプロバイダー（Gemini）のリクエストボディの上限（バイト）
+     * @return 共有されるモデル
+     */
+    public StreamingChatModel get(ChatModelFactory.Provider provider, String modelId, String regionOrEndpoint,
+            String profileOrApiKey, ChatModelFactory.LlmParameters params, long maxRequestBytes) {
+        if (closed) {
+            throw new IllegalStateException("ChatModelRegistryは既に閉じられています");
+        }
+        ChatModelFactory.LlmParameters p = params != null ? params : ChatModelFactory.LlmParameters.DEFAULT;
+        Key key = new Key(provider, modelId, regionOrEndpoint, fingerprint(profileOrApiKey), p, maxRequestBytes);
+        return models.computeIfAbsent(key, k -> {
+            logger.info("チャットモデルを生成します: {} / {} / {}", provider, modelId, regionOrEndpoint);
+            return ChatModelFactory.createManaged(provider, modelId, regionOrEndpoint, profileOrApiKey, p,
+                    maxRequestBytes);
+        }).model();
+    }
+
+    /**
+     * 指定した設定のモデルを登録から外して閉じます。次回のgetでは新しいインスタンスが生成されます。
+     *
+     * @param provider         プロバイダー
+     * @param modelId          モデルID
+     * @param regionOrEndpoint リージョンまたはエンドポイント
+     * @param profileOrApiKey  プロファイル名またはAPIキー
+     * @param params           LLMパラメータ（null可）
+     */
+    public void evict(ChatModelFactory.Provider provider, String modelId, String regionOrEndpoint,
+            String profileOrApiKey, ChatModelFactory.LlmParameters params) {
+        ChatModelFactory.LlmParameters p = params != null ? params : ChatModelFactory.LlmParameters.DEFAULT;
+        ChatModelFactory.ManagedModel removed = models.remove(
+                new Key(provider, modelId, regionOrEndpoint, fingerprint(profileOrApiKey), p,
+                        JsonRequestBody.DEFAULT_MAX_BYTES));
+        if (removed != null) {
+            closeQuietly(removed);
+        }
+    }
+
+    /**
+     * 登録されているモデルの数を返します。
+     *
+     * @return モデル数
+     */
+    public int size() {
+        return models.size();
+    }
+
+    /**
+     * 登録されているすべてのモデルを閉じます。複数回呼び出しても安全です。
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Key key : models.keySet()) {
+            ChatModelFactory.ManagedModel removed = models.remove(key);
+            if (removed != null) {
+                closeQuietly(removed);
+            }
+        }
+    }
+
+    private static void closeQuietly(ChatModelFactory.ManagedModel model) {
+        try {
+            model.closeHook().close();
+        } catch (Exception e) {
+            logger.warn("チャットモデルのクローズに失敗しました: {}", e.getMessage());
+        }
+    }
+
+    private static String fingerprint(String secret) {
+        if (secret == null) {
+            return "";
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256が利用できません", e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 標準出力へ出力するシンク。書き出しは1つの{@link AsyncTextWriter}にまとめます。
+ * ストリーミングでない場合はファイルごとに内容を溜め、完了時に見出し付きの1ブロックとして出力するため、並行実行しても混ざりません。
+ */
+public class ConsoleOutputSink implements OutputSink {
+    private final AsyncTextWriter writer = AsyncTextWriter.stdout();
+
+    /**
+     * 断片を受け取り次第出力するか。
+     */
+    private final boolean streaming;
+
+    /**
+     * @param streaming trueの場合は断片を受け取り次第出力し、falseの場合はファイルごとにまとめて出力します
+     */
+    public ConsoleOutputSink(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    @Override
+    public Stream open(Path source) {
+        if (streaming) {
+            return new Stream() {
+                @Override
+                public void accept(String partial) {
+                    writer.write(partial);
+                }
+
+                @Override
+                public void complete(AnalysisResult result) {
+                    // 最後の出力を改行
+                    writer.write(System.lineSeparator());
+                }
+
+                @Override
+                public void complete(AnalysisResult result, Runnable onWritten) {
+                    writer.write(System.lineSeparator(), onWritten);
+                }
+            };
+        }
+        StringBuilder buffer = new StringBuilder();
+        return new Stream() {
+            @Override
+            public void accept(String partial) {
+                buffer.append(partial);
+            }
+
+            @Override
+            public void complete(AnalysisResult result) {
+                if (result.succeeded()) {
+                    String nl = System.lineSeparator();
+                    writer.write("===== " + source + " =====" + nl + buffer + nl);
+                }
+            }
+
+            @Override
+            public void complete(AnalysisResult result, Runnable onWritten) {
+                if (result.succeeded()) {
+                    String nl = System.lineSeparator();
+                    writer.write("===== " + source + " =====" + nl + buffer + nl, onWritten);
+                } else {
+                    onWritten.run();
+                }
+            }
+        };
+    }
+
+    @Override
+    public Path resultPathOf(Path source) {
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
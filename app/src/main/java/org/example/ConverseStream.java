@@ -7,6 +7,7 @@ import software.amazon.awssdk.services.bedrockruntime.model.ContentBlock;
 import software.amazon.awssdk.services.bedrockruntime.model.ConversationRole;
 import software.amazon.awssdk.services.bedrockruntime.model.ConverseStreamResponseHandler;
 import software.amazon.awssdk.services.bedrockruntime.model.Message;
+import software.amazon.awssdk.services.bedrockruntime.model.TokenUsage;
 
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -59,21 +60,31 @@ public class ConverseStream {
                 .role(ConversationRole.USER)
                 .build();
 
-        // 入力トークン数（日本語はざっくり1文字=1トークンとみなす）
-        System.out.println("概算入力トークン数: " + inputText.length());
+        // 入力トークン数（モデルファミリーごとの見積もり）
+        TokenEstimator tokenEstimator = TokenEstimator.forModel(modelId);
+        System.out.println("概算入力トークン数: " + tokenEstimator.estimate(inputText));
 
-        // 出力トークン数をカウント
-        final int[] outputTokenCount = {0};
+        // 出力テキストを蓄積し、Bedrockが報告する使用量（メタデータ）があればそちらを優先する
+        final StringBuilder outputText = new StringBuilder();
+        final TokenUsage[] reportedUsage = {null};
+        // TTFT・部分応答の間隔・所要時間を計測する
+        StreamingMetrics.Recorder recorder = StreamingMetrics.global().start("BEDROCK", modelId);
 
         // 応答ストリームハンドラの作成
         var responseStreamHandler = ConverseStreamResponseHandler.builder()
                 .subscriber(ConverseStreamResponseHandler.Visitor.builder()
                         .onContentBlockDelta(chunk -> {
+                            recorder.onToken();
                             String responseText = chunk.delta().text();
-                            outputTokenCount[0] += responseText.length();
+                            outputText.append(responseText);
                             System.out.print(responseText);
-                        }).build())
-                .onError(err -> System.err.printf("Can't invoke '%s': %s", modelId, err.getMessage())).build();
+                        })
+                        .onMetadata(metadata -> reportedUsage[0] = metadata.usage())
+                        .build())
+                .onError(err -> {
+                    recorder.onError(err);
+                    System.err.printf("Can't invoke '%s': %s", modelId, err.getMessage());
+                }).build();
 
         try {
             // メッセージ送信と応答の表示
@@ -84,7 +95,16 @@ public class ConverseStream {
                             .temperature(0.5F)
                             .topP(0.9F)),
                     responseStreamHandler).get();
-            System.out.println("\n概算出力トークン数: " + outputTokenCount[0]);
+            if (reportedUsage[0] != null) {
+                recorder.onComplete(reportedUsage[0].inputTokens(), reportedUsage[0].outputTokens(),
+                        reportedUsage[0].cacheReadInputTokens(), reportedUsage[0].cacheWriteInputTokens());
+                System.out.println("\n入力トークン数: " + reportedUsage[0].inputTokens()
+                        + " / 出力トークン数: " + reportedUsage[0].outputTokens());
+            } else {
+                recorder.onComplete(tokenEstimator.estimate(inputText), tokenEstimator.estimate(outputText));
+                System.out.println("\n概算出力トークン数: " + tokenEstimator.estimate(outputText));
+            }
+            StreamingMetrics.global().logSummary();
         } catch (ExecutionException | InterruptedException e) {
             System.err.printf("Can't invoke '%s': %s", modelId, e.getCause().getMessage());
         }
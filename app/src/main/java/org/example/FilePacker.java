@@ -0,0 +1,141 @@
+package org.example;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * 小さなファイルを、トークン予算内で1つのリクエストにまとめる（ビンパッキング）クラス。
+ * 見積もりトークン数の大きい順に、入る最初のリクエストへ詰めます（First Fit Decreasing）。
+ * 予算を超えるファイルや読み込めないファイルは1ファイルだけのパックとし、通常どおり1件ずつ解析します。
+ * 見積もりのために読み込んだ内容は保持せず、パックを送信するときに改めて読み込むため、対象が多くてもメモリに載るのはファイル名と見積もりだけです。
+ *
+ * <p>まとめたリクエストの形式と応答の分割は{@link PackedResponseSplitter}が担います。</p>
+ */
+public class FilePacker {
+    private static final Logger logger = LogManager.getLogger(FilePacker.class);
+
+    /**
+     * 1ファイル分の区切り行などにかかるトークン数の見込み。
+     */
+    static final int SECTION_OVERHEAD_TOKENS = 24;
+
+    private final TokenEstimator tokenEstimator;
+    private final int capacityTokens;
+    private final int maxFiles;
+
+    /**
+     * 読み込んだコードに適用する前処理。
+     */
+    private BiFunction<Path, String, String> preprocessor = (file, code) -> code;
+
+    /**
+     * 1つのリクエストにまとめるファイル。
+     *
+     * @param file     ファイル
+     * @param readable 見積もり時に読み込めた場合はtrue
+     * @param tokens   見積もりトークン数
+     */
+    public record PackedFile(Path file, boolean readable, int tokens) {
+    }
+
+    /**
+     * @param tokenEstimator トークン見積もり
+     * @param budgetTokens   1リクエストのトークン予算（ベースプロンプトと指示文を含む）
+     * @param fixedTokens    ベースプロンプトと指示文のトークン数
+     * @param maxFiles       1リクエストにまとめる最大ファイル数
+     */
+    public FilePacker(TokenEstimator tokenEstimator, int budgetTokens, int fixedTokens, int maxFiles) {
+        if (maxFiles < 1) {
+            throw new IllegalArgumentException("maxFilesは1以上を指定してください: " + maxFiles);
+        }
+        this.tokenEstimator = tokenEstimator;
+        this.capacityTokens = budgetTokens - fixedTokens;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * 読み込んだコードに前処理を適用してから見積もり・パックするようにします。
+     *
+     * @param preprocessor ファイルとコードを受け取り、前処理後のコードを返す関数
+     * @return このインスタンス
+     */
+    public FilePacker withPreprocessor(BiFunction<Path, String, String> preprocessor) {
+        this.preprocessor = preprocessor;
+        return this;
+    }
+
+    /**
+     * ファイルを読み込んで見積もり、トークン予算内のパックに分けます。各パック内のファイルは元の順序を保ちます。
+     *
+     * @param files 対象ファイル
+     * @return パックの一覧（元の順序で最初のファイルが早いパックから）
+     */
+    public List<List<PackedFile>> pack(List<Path> files) {
+        List<PackedFile> packable = new ArrayList<>();
+        List<List<PackedFile>> packs = new ArrayList<>();
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            PackedFile packed;
+            try {
+                String code = preprocessor.apply(file, SourceLoader.readString(file));
+                packed = new PackedFile(file, true, tokenEstimator.estimate(code) + SECTION_OVERHEAD_TOKENS);
+            } catch (IOException e) {
+                // 読み込みエラーは1件ずつの解析で報告する
+                packed = new PackedFile(file, false, Integer.MAX_VALUE);
+            }
+            if (maxFiles > 1 && packed.readable() && packed.tokens() <= capacityTokens) {
+                packable.add(packed);
+                order.add(i);
+            } else {
+                packs.add(List.of(packed));
+            }
+        }
+
+        List<Integer> byTokens = new ArrayList<>();
+        for (int i = 0; i < packable.size(); i++) {
+            byTokens.add(i);
+        }
+        byTokens.sort(Comparator.comparingInt((Integer i) -> packable.get(i).tokens()).reversed());
+        List<List<Integer>> bins = new ArrayList<>();
+        List<Integer> remaining = new ArrayList<>();
+        for (int i : byTokens) {
+            int tokens = packable.get(i).tokens();
+            int bin = 0;
+            while (bin < bins.size() && (remaining.get(bin) < tokens || bins.get(bin).size() >= maxFiles)) {
+                bin++;
+            }
+            if (bin == bins.size()) {
+                bins.add(new ArrayList<>());
+                remaining.add(capacityTokens);
+            }
+            bins.get(bin).add(i);
+            remaining.set(bin, remaining.get(bin) - tokens);
+        }
+        for (List<Integer> bin : bins) {
+            bin.sort(Comparator.comparingInt(order::get));
+            List<PackedFile> pack = new ArrayList<>(bin.size());
+            for (int i : bin) {
+                pack.add(packable.get(i));
+            }
+            packs.add(pack);
+        }
+        Map<Path, Integer> position = new HashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            position.putIfAbsent(files.get(i), i);
+        }
+        packs.sort(Comparator.comparingInt(pack -> position.get(pack.get(0).file())));
+        logger.info("{} ファイルを {} リクエストにまとめました（予算 {} トークン）", files.size(), packs.size(),
+                capacityTokens);
+        return packs;
+    }
+}
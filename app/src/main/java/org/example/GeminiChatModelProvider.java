@@ -0,0 +1,56 @@
+package org.example;
+
+import dev.langchain4j.model.chat.StreamingChatModel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Geminiのチャットモデルを生成する{@link ChatModelProvider}。JDKのHttpClientだけを使い、クラウドSDKは読み込みません。
+ */
+@ChatModelProvider.Supports(ChatModelFactory.Provider.GEMINI)
+public class GeminiChatModelProvider implements ChatModelProvider {
+    private static final Logger logger = LogManager.getLogger(GeminiChatModelProvider.class);
+
+    /**
+     * HTTPクライアントはGeminiStreamClientで共有されるため、閉じる処理はありません。
+     */
+    @Override
+    public ChatModelFactory.ManagedModel createManaged(ChatModelFactory.Provider provider, String modelId,
+            String regionOrEndpoint, String profileOrApiKey, ChatModelFactory.LlmParameters params) {
+        return createManaged(provider, modelId, regionOrEndpoint, profileOrApiKey, params,
+                JsonRequestBody.DEFAULT_MAX_BYTES);
+    }
+
+    @Override
+    public ChatModelFactory.ManagedModel createManaged(ChatModelFactory.Provider provider, String modelId,
+            String regionOrEndpoint, String profileOrApiKey, ChatModelFactory.LlmParameters params,
+            long maxRequestBytes) {
+        return new ChatModelFactory.ManagedModel(
+                create(provider, modelId, regionOrEndpoint, profileOrApiKey, params, maxRequestBytes), () -> {
+                });
+    }
+
+    /**
+     * regionOrEndpointにはGeminiのストリーミング用エンドポイント、profileOrApiKeyにはAPIキーを指定します。
+     * リクエストボディの上限は{@link JsonRequestBody#DEFAULT_MAX_BYTES}です。
+     */
+    @Override
+    public StreamingChatModel create(ChatModelFactory.Provider provider, String modelId, String regionOrEndpoint,
+            String profileOrApiKey, ChatModelFactory.LlmParameters params) {
+        return create(provider, modelId, regionOrEndpoint, profileOrApiKey, params, JsonRequestBody.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * regionOrEndpointにはGeminiのストリーミング用エンドポイント、profileOrApiKeyにはAPIキーを指定します。
+     * maxRequestBytesを超えるリクエストは送信せずにエラーを通知します。
+     */
+    @Override
+    public StreamingChatModel create(ChatModelFactory.Provider provider, String modelId, String regionOrEndpoint,
+            String profileOrApiKey, ChatModelFactory.LlmParameters params, long maxRequestBytes) {
+        // Geminiのパラメータ（generationConfig）は未対応
+        if (params != null && (params.maxTokens() != null || params.temperature() != null || params.topP() != null)) {
+            logger.warn("GeminiStreamingChatModelはmaxTokens/temperature/topP未対応です。パラメータは無視されます。");
+        }
+        return new GeminiStreamingChatModel(regionOrEndpoint, profileOrApiKey, maxRequestBytes);
+    }
+}
@@ -0,0 +1,137 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Geminiのストリーミングレスポンス1チャンク（JSON）から、Jacksonのストリーミングパーサで必要な値だけを取り出すクラス。
+ * ツリー（JsonNode）を構築しないため、チャンクごとのCPU負荷とメモリ確保を抑えられます。
+ *
+ * <p>取り出す値は{@code candidates[].content.parts[].text}と{@code usageMetadata}のトークン数です。
+ * {@code error}オブジェクトを含むチャンクや、JSONとして不正なチャンクは例外として通知します。</p>
+ */
+public class GeminiChunkParser {
+    /**
+     * スレッドセーフで共有可能なJSONファクトリ。
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * usageMetadataから読み取った入力トークン数（未報告の場合はnull）。
+     */
+    private Integer promptTokenCount;
+
+    /**
+     * usageMetadataから読み取った出力トークン数（未報告の場合はnull）。
+     */
+    private Integer candidatesTokenCount;
+
+    /**
+     * 1チャンク分のJSONを解析し、テキストをonTextへ渡します。
+     *
+     * @param json   JSONのバイト列（UTF-8）
+     * @param length 有効なバイト数
+     * @param onText テキストを受け取るコールバック
+     * @throws IOException JSONが不正な場合、またはAPIがエラーを返した場合
+     */
+    public void parse(byte[] json, int length, Consumer<String> onText) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json, 0, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Geminiのストリーミングチャンクがオブジェクトではありません");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("candidates".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        parseCandidate(parser, onText);
+                    }
+                } else if ("usageMetadata".equals(field) && value == JsonToken.START_OBJECT) {
+                    parseUsage(parser);
+                } else if ("error".equals(field)) {
+                    String message = value == JsonToken.START_OBJECT ? errorMessage(parser) : parser.getText();
+                    throw new IOException("Gemini APIがエラーを返しました: " + message);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_OBJECT || parser.nextToken() != null) {
+                throw new IOException("Geminiのストリーミングチャンクの形式が不正です");
+            }
+        }
+    }
+
+    private static void parseCandidate(JsonParser parser, Consumer<String> onText) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("content".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String contentField = parser.currentName();
+                    JsonToken contentValue = parser.nextToken();
+                    if ("parts".equals(contentField) && contentValue == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            parsePart(parser, onText);
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void parsePart(JsonParser parser, Consumer<String> onText) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("text".equals(field) && value == JsonToken.VALUE_STRING) {
+                onText.accept(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void parseUsage(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("promptTokenCount".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                promptTokenCount = parser.getIntValue();
+            } else if ("candidatesTokenCount".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                candidatesTokenCount = parser.getIntValue();
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static String errorMessage(JsonParser parser) throws IOException {
+        String message = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("message".equals(field) && value == JsonToken.VALUE_STRING) {
+                message = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return message;
+    }
+
+    public Integer getPromptTokenCount() {
+        return promptTokenCount;
+    }
+
+    public Integer getCandidatesTokenCount() {
+        return candidatesTokenCount;
+    }
+}
@@ -0,0 +1,217 @@
+package org.example;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.output.TokenUsage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Gemini APIへストリーミングでリクエストし、SSEで返るチャンクを逐次処理するクライアント。
+ * HttpClientはプロセス全体で1つを共有するため、複数のリクエストでHTTP/2の接続とTLSセッションを使い回せます。
+ *
+ * <p>受信したバイト列は{@link SseEventDecoder}で行に分解し、{@link GeminiChunkParser}でテキストだけを取り出します。
+ * 受信はHttpClientのフロー制御に従って1バッファずつ要求するため、処理が追いつかない場合は受信側で待機します。</p>
+ */
+public class GeminiStreamClient {
+    private static final Logger logger = LogManager.getLogger(GeminiStreamClient.class);
+
+    /**
+     * プロセス全体で共有するHttpClient。
+     */
+    private static final HttpClient SHARED_HTTP_CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    /**
+     * エラーメッセージに含めるイベント本文の最大文字数。
+     */
+    private static final int ERROR_PREVIEW_CHARS = 200;
+
+    private final HttpClient httpClient;
+
+    /**
+     * 共有HttpClientを使うクライアントを生成します。
+     */
+    public GeminiStreamClient() {
+        this(SHARED_HTTP_CLIENT);
+    }
+
+    /**
+     * @param httpClient 使用するHttpClient
+     */
+    public GeminiStreamClient(HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * プロセス全体で共有するHttpClientを返します。
+     *
+     * @return 共有HttpClient
+     */
+    public static HttpClient sharedHttpClient() {
+        return SHARED_HTTP_CLIENT;
+    }
+
+    /**
+     * ストリーミングリクエストを送信します。受信したテキストはhandlerへ逐次渡し、完了時に全文とトークン使用量を通知します。
+     * 返したFutureをキャンセルすると受信を中断します。
+     *
+     * @param endpoint エンドポイントURL
+     * @param apiKey   APIキー
+     * @param body     リクエストボディ（JSON）
+     * @param handler  ストリーミングレスポンスを受け取るハンドラ
+     * @return 完了時のレスポンスを返すFuture
+     */
+    public CompletableFuture<ChatResponse> stream(URI endpoint, String apiKey, HttpRequest.BodyPublisher body,
+            StreamingChatResponseHandler handler) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(endpoint)
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + apiKey)
+                .header("Accept", "text/event-stream")
+                .POST(body)
+                .build();
+
+        CompletableFuture<ChatResponse> result = new CompletableFuture<>();
+        EventSubscriber subscriber = new EventSubscriber(handler, result);
+        httpClient.sendAsync(request, info -> {
+            logger.info("HTTPステータス: {}", info.statusCode());
+            if (info.statusCode() == 200) {
+                return HttpResponse.BodySubscribers.fromSubscriber(subscriber);
+            }
+            return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(), bytes -> {
+                subscriber.fail(new IOException("Gemini APIがステータス " + info.statusCode() + " を返しました: "
+                        + new String(bytes, StandardCharsets.UTF_8)));
+                return null;
+            });
+        }).whenComplete((response, error) -> {
+            if (error != null) {
+                subscriber.fail(error);
+            }
+        });
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                subscriber.cancel();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * SSEのバイト列を受け取り、イベントごとにテキストを取り出すサブスクライバー。
+     */
+    private static class EventSubscriber implements Flow.Subscriber<List<ByteBuffer>> {
+        private final StreamingChatResponseHandler handler;
+        private final CompletableFuture<ChatResponse> result;
+        private final GeminiChunkParser parser = new GeminiChunkParser();
+        private final SseEventDecoder decoder = new SseEventDecoder(this::onEvent);
+        private final StringBuilder text = new StringBuilder();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile Flow.Subscription subscription;
+
+        EventSubscriber(StreamingChatResponseHandler handler, CompletableFuture<ChatResponse> result) {
+            this.handler = handler;
+            this.result = result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (finished.get()) {
+                subscription.cancel();
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            for (ByteBuffer buffer : buffers) {
+                if (finished.get()) {
+                    break;
+                }
+                decoder.feed(buffer);
+            }
+            if (finished.get()) {
+                subscription.cancel();
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            fail(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            decoder.finish();
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            TokenUsage usage = parser.getPromptTokenCount() != null || parser.getCandidatesTokenCount() != null
+                    ? new TokenUsage(parser.getPromptTokenCount(), parser.getCandidatesTokenCount())
+                    : null;
+            ChatResponse response = ChatResponse.builder()
+                    .aiMessage(AiMessage.from(text.toString()))
+                    .tokenUsage(usage)
+                    .build();
+            handler.onCompleteResponse(response);
+            result.complete(response);
+        }
+
+        private void onEvent(byte[] data, int length) {
+            if (finished.get() || isDone(data, length)) {
+                return;
+            }
+            try {
+                parser.parse(data, length, partial -> {
+                    text.append(partial);
+                    handler.onPartialResponse(partial);
+                });
+            } catch (IOException e) {
+                String preview = new String(data, 0, Math.min(length, ERROR_PREVIEW_CHARS), StandardCharsets.UTF_8);
+                fail(new IOException("Geminiのストリーミングイベントを解析できません: " + preview, e));
+            }
+        }
+
+        private static boolean isDone(byte[] data, int length) {
+            return length == 6 && data[0] == '[' && data[1] == 'D' && data[2] == 'O' && data[3] == 'N'
+                    && data[4] == 'E' && data[5] == ']';
+        }
+
+        void fail(Throwable error) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            Throwable cause = SourceAnalyzer.unwrap(error);
+            handler.onError(cause);
+            result.completeExceptionally(cause);
+        }
+
+        void cancel() {
+            finished.set(true);
+            Flow.Subscription s = subscription;
+            if (s != null) {
+                s.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.example;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link GeminiStreamClient}をStreamingChatModelとして使えるようにするアダプタ。
+ * BedrockやAzure OpenAIと同じハンドラ・デコレータ（レート制御など）でGeminiを扱えます。
+ * キャンセルするとHTTPの受信を中断します。
+ */
+public class GeminiStreamingChatModel implements CancellableChatModel {
+    private final GeminiStreamClient client;
+    private final URI endpoint;
+    private final String apiKey;
+    private final long maxRequestBytes;
+
+    /**
+     * @param endpoint ストリーミング用エンドポイントURL
+     * @param apiKey   APIキー
+     */
+    public GeminiStreamingChatModel(String endpoint, String apiKey) {
+        this(endpoint, apiKey, JsonRequestBody.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param endpoint        ストリーミング用エンドポイントURL
+     * @param apiKey          APIキー
+     * @param maxRequestBytes リクエストボディの上限（バイト）。超える場合は送信せずにエラーを通知します
+     */
+    public GeminiStreamingChatModel(String endpoint, String apiKey, long maxRequestBytes) {
+        this(new GeminiStreamClient(), endpoint, apiKey, maxRequestBytes);
+    }
+
+    /**
+     * @param client   使用するクライアント
+     * @param endpoint ストリーミング用エンドポイントURL
+     * @param apiKey   APIキー
+     */
+    public GeminiStreamingChatModel(GeminiStreamClient client, String endpoint, String apiKey) {
+        this(client, endpoint, apiKey, JsonRequestBody.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param client          使用するクライアント
+     * @param endpoint        ストリーミング用エンドポイントURL
+     * @param apiKey          APIキー
+     * @param maxRequestBytes リクエストボディの上限（バイト）
+     */
+    public GeminiStreamingChatModel(GeminiStreamClient client, String endpoint, String apiKey, long maxRequestBytes) {
+        this.client = client;
+        this.endpoint = URI.create(endpoint);
+        this.apiKey = apiKey;
+        this.maxRequestBytes = maxRequestBytes;
+    }
+
+    @Override
+    public CompletableFuture<ChatResponse> chatCancellable(ChatRequest request, StreamingChatResponseHandler handler) {
+        HttpRequest.BodyPublisher body;
+        try {
+            body = requestBody(request).publisher();
+        } catch (IOException e) {
+            handler.onError(e);
+            return CompletableFuture.failedFuture(e);
+        }
+        return client.stream(endpoint, apiKey, body, handler);
+    }
+
+    /**
+     * Gemini APIのリクエストJSONを組み立てます。メッセージのテキストは1つのpartにまとめます。
+     * テキストはコピーせず、送信時にエスケープしながら読み出します。
+     */
+    private JsonRequestBody requestBody(ChatRequest request) {
+        JsonRequestBody body = new JsonRequestBody(maxRequestBytes)
+                .raw("{\"contents\":[{\"parts\":[{\"text\":\"");
+        for (ChatMessage message : request.messages()) {
+            if (message instanceof UserMessage user) {
+                user.contents().stream()
+                        .filter(TextContent.class::isInstance)
+                        .forEach(content -> body.text(((TextContent) content).text()).text("\n"));
+            } else if (message instanceof SystemMessage system) {
+                body.text(system.text()).text("\n");
+            } else if (message instanceof AiMessage ai && ai.text() != null) {
+                body.text(ai.text()).text("\n");
+            }
+        }
+        return body.raw("\"}]}]}");
+    }
+}
@@ -0,0 +1,111 @@
+package org.example;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * gitコマンドを使って、指定コミット以降に変更されたファイルを調べるクラス。
+ * Git管理外のディレクトリやgitコマンドが無い環境では、各メソッドは空の結果を返します。
+ */
+public class GitChangeDetector {
+    private static final Logger logger = LogManager.getLogger(GitChangeDetector.class);
+
+    private static final long TIMEOUT_SECONDS = 60;
+
+    /**
+     * 現在のHEADコミットを返します。
+     *
+     * @return コミットID（取得できない場合は空）
+     */
+    public Optional<String> headCommit() {
+        return git("rev-parse", "HEAD").flatMap(lines -> lines.isEmpty() ? Optional.empty()
+                : Optional.of(lines.get(0).trim()));
+    }
+
+    /**
+     * 指定コミット以降に変更・追加されたファイルを絶対パスで返します。
+     * コミット済みの差分に加え、作業ツリー上の未コミットの変更と未追跡ファイルも含みます。
+     *
+     * @param sinceCommit 比較元のコミットID
+     * @return 変更されたファイルの絶対パス（取得できない場合は空）
+     */
+    public Optional<Set<Path>> changedFilesSince(String sinceCommit) {
+        Optional<List<String>> top = git("rev-parse", "--show-toplevel");
+        Optional<List<String>> diff = git("diff", "--name-only", sinceCommit);
+        Optional<List<String>> untracked = git("ls-files", "--others", "--exclude-standard");
+        if (top.isEmpty() || top.get().isEmpty() || diff.isEmpty() || untracked.isEmpty()) {
+            return Optional.empty();
+        }
+        Path root = Path.of(top.get().get(0).trim());
+        Set<Path> changed = new HashSet<>();
+        for (List<String> lines : List.of(diff.get(), untracked.get())) {
+            for (String line : lines) {
+                if (!line.isBlank()) {
+                    changed.add(root.resolve(line.trim()).toAbsolutePath().normalize());
+                }
+            }
+        }
+        return Optional.of(changed);
+    }
+
+    /**
+     * Git管理下のファイル（インデックスに登録されたファイル）を絶対パスで返します。
+     * 未追跡のファイルや.gitignoreで除外されたファイルは含みません。
+     *
+     * @return 管理下のファイルの絶対パス（取得できない場合は空）
+     */
+    public Optional<Set<Path>> trackedFiles() {
+        Optional<List<String>> top = git("rev-parse", "--show-toplevel");
+        Optional<List<String>> tracked = git("ls-files", "--full-name", ":/");
+        if (top.isEmpty() || top.get().isEmpty() || tracked.isEmpty()) {
+            return Optional.empty();
+        }
+        Path root = Path.of(top.get().get(0).trim());
+        Set<Path> files = new HashSet<>();
+        for (String line : tracked.get()) {
+            if (!line.isBlank()) {
+                files.add(root.resolve(line.trim()).toAbsolutePath().normalize());
+            }
+        }
+        return Optional.of(files);
+    }
+
+    /**
+     * gitコマンドを実行し、標準出力の各行を返します。失敗した場合は空を返します。
+     */
+    private Optional<List<String>> git(String... args) {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(List.of(args));
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(false)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return Optional.empty();
+            }
+            if (process.exitValue() != 0) {
+                logger.debug("gitコマンドが失敗しました: {}", command);
+                return Optional.empty();
+            }
+            return Optional.of(output.lines().toList());
+        } catch (IOException e) {
+            logger.debug("gitコマンドを実行できません: {}", e.getMessage());
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.example;
+
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 一次プロバイダーの最初のトークンが一定時間内に届かない場合に、二次プロバイダーへも同じリクエストを送信（ヘッジ）するモデル。
+ * 先に部分応答（または完了）を返した側を採用し、もう一方はキャンセルします。
+ * 最初のトークンの前に一次プロバイダーがエラーになった場合は、待たずに二次プロバイダーへ送信します。
+ *
+ * <p>採用が決まるまでハンドラへは何も渡さないため、出力が混ざることはありません。</p>
+ *
+ * <p>{@link #observingP95}で生成した場合、待ち時間は一次プロバイダーのTTFTのp95です。
+ * 二次プロバイダーを採用して打ち切った一次プロバイダーは、その時点の経過時間（待ち時間以上）を打ち切りサンプルとして記録します。
+ * 採用された一次プロバイダーのTTFTだけを使うと、遅いリクエストほど記録から漏れてp95が下がり続けるためです。</p>
+ */
+public class HedgedChatModel implements StreamingChatModel {
+    private static final Logger logger = LogManager.getLogger(HedgedChatModel.class);
+
+    /**
+     * p95を使うのに必要なTTFTの最小サンプル数。
+     */
+    static final int MIN_SAMPLES_FOR_P95 = 20;
+
+    private static final int PRIMARY = 0;
+    private static final int SECONDARY = 1;
+    private static final int NONE = -1;
+
+    private final CancellableChatModel primary;
+    private final CancellableChatModel secondary;
+    /**
+     * ヘッジ送信までの待ち時間（nullの場合は一次プロバイダーのTTFTのp95）。
+     */
+    private final LongSupplier hedgeDelayMillis;
+    private final long fallbackMillis;
+
+    /**
+     * 一次プロバイダーの最初のトークンまでの時間（ミリ秒、打ち切りサンプルを含む）。
+     */
+    private final MetricHistogram primaryTtftMillis = new MetricHistogram();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder secondaryWins = new LongAdder();
+
+    /**
+     * @param primary          一次プロバイダーのモデル
+     * @param secondary        二次プロバイダーのモデル
+     * @param hedgeDelayMillis ヘッジ送信までの待ち時間（ミリ秒、送信のたびに取得）
+     */
+    public HedgedChatModel(StreamingChatModel primary, StreamingChatModel secondary, LongSupplier hedgeDelayMillis) {
+        this(primary, secondary, hedgeDelayMillis, 0);
+    }
+
+    private HedgedChatModel(StreamingChatModel primary, StreamingChatModel secondary, LongSupplier hedgeDelayMillis,
+            long fallbackMillis) {
+        this.primary = CancellableChatModel.of(primary);
+        this.secondary = CancellableChatModel.of(secondary);
+        this.hedgeDelayMillis = hedgeDelayMillis;
+        this.fallbackMillis = fallbackMillis;
+    }
+
+    /**
+     * このモデルで観測した一次プロバイダーのTTFT（打ち切りサンプルを含む）のp95を待ち時間とするモデルを生成します。
+     * サンプルが少ない間はfallbackMillisを使います。
+     *
+     * @param primary        一次プロバイダーのモデル
+     * @param secondary      二次プロバイダーのモデル
+     * @param fallbackMillis サンプルが少ない間の待ち時間（ミリ秒）
+     * @return モデル
+     */
+    public static HedgedChatModel observingP95(StreamingChatModel primary, StreamingChatModel secondary,
+            long fallbackMillis) {
+        return new HedgedChatModel(primary, secondary, null, fallbackMillis);
+    }
+
+    /**
+     * @return 次のリクエストでヘッジ送信するまでの待ち時間（ミリ秒）
+     */
+    long hedgeDelayMillis() {
+        if (hedgeDelayMillis != null) {
+            return hedgeDelayMillis.getAsLong();
+        }
+        return primaryTtftMillis.count() >= MIN_SAMPLES_FOR_P95 ? Math.max(1, primaryTtftMillis.percentile(95))
+                : fallbackMillis;
+    }
+
+    /**
+     * @return ヘッジ送信した回数
+     */
+    public long hedgedCount() {
+        return hedged.sum();
+    }
+
+    /**
+     * @return 二次プロバイダーの応答を採用した回数
+     */
+    public long secondaryWins() {
+        return secondaryWins.sum();
+    }
+
+    @Override
+    public void chat(ChatRequest request, StreamingChatResponseHandler handler) {
+        new Race(request, handler).start();
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return primary.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return primary.provider();
+    }
+
+    /**
+     * 1リクエスト分の競争。最初に部分応答を返した側（winner）だけがハンドラへ出力します。
+     */
+    private final class Race {
+        private final ChatRequest request;
+        private final StreamingChatResponseHandler handler;
+        private final AtomicInteger winner = new AtomicInteger(NONE);
+        private final AtomicReferenceArray<CompletableFuture<ChatResponse>> attempts = new AtomicReferenceArray<>(2);
+        private final AtomicBoolean secondarySent = new AtomicBoolean();
+        private final AtomicInteger failures = new AtomicInteger();
+
+        /**
+         * 一次プロバイダーのTTFTを記録済み、またはエラーで記録しないことが決まった場合はtrue。
+         */
+        private final AtomicBoolean primaryObserved = new AtomicBoolean();
+        private long startNanos;
+        private long delay;
+
+        Race(ChatRequest request, StreamingChatResponseHandler handler) {
+            this.request = request;
+            this.handler = handler;
+        }
+
+        void start() {
+            startNanos = System.nanoTime();
+            delay = hedgeDelayMillis();
+            send(PRIMARY);
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+                if (winner.get() == NONE && secondarySent.compareAndSet(false, true)) {
+                    logger.info("一次プロバイダーの最初のトークンが{} ms以内に届かないため、二次プロバイダーへも送信します", delay);
+                    hedged.increment();
+                    send(SECONDARY);
+                }
+            });
+        }
+
+        private void send(int index) {
+            CancellableChatModel model = index == PRIMARY ? primary : secondary;
+            CompletableFuture<ChatResponse> attempt = model.chatCancellable(request, handlerFor(index));
+            attempts.set(index, attempt);
+            // 送信中に相手が採用された場合は、ここで打ち切る
+            int current = winner.get();
+            if (current != NONE && current != index) {
+                attempt.cancel(true);
+            }
+        }
+
+        /**
+         * 一次プロバイダーのTTFTを1回だけ記録します。打ち切った場合はその時点の経過時間（待ち時間以上）を記録します。
+         */
+        private void observePrimary(boolean censored) {
+            if (primaryObserved.compareAndSet(false, true)) {
+                long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+                primaryTtftMillis.record(censored ? Math.max(delay, elapsedMillis) : elapsedMillis);
+            }
+        }
+
+        /**
+         * 採用を試みます。最初に呼んだ側が採用され、相手はキャンセルされます。
+         */
+        private boolean claim(int index) {
+            if (index == PRIMARY) {
+                observePrimary(false);
+            }
+            if (winner.compareAndSet(NONE, index)) {
+                // 二次プロバイダーへの送信予定は取り消す
+                secondarySent.set(true);
+                CompletableFuture<ChatResponse> other = attempts.get(1 - index);
+                if (other != null) {
+                    other.cancel(true);
+                }
+                if (index == SECONDARY) {
+                    observePrimary(true);
+                    secondaryWins.increment();
+                    logger.info("二次プロバイダーの応答を採用しました");
+                }
+            }
+            return winner.get() == index;
+        }
+
+        private StreamingChatResponseHandler handlerFor(int index) {
+            return new StreamingChatResponseHandler() {
+                @Override
+                public void onPartialResponse(String partialResponse) {
+                    if (claim(index)) {
+                        handler.onPartialResponse(partialResponse);
+                    }
+                }
+
+                @Override
+                public void onCompleteResponse(ChatResponse completeResponse) {
+                    if (claim(index)) {
+                        handler.onCompleteResponse(completeResponse);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    if (winner.get() == index) {
+                        // 出力を始めた後のエラーはそのまま通知する
+                        handler.onError(error);
+                        return;
+                    }
+                    if (winner.get() != NONE) {
+                        return;
+                    }
+                    if (index == PRIMARY) {
+                        // 最初のトークンの前のエラーはTTFTとして記録しない
+                        primaryObserved.set(true);
+                    }
+                    int failed = failures.incrementAndGet();
+                    if (index == PRIMARY && secondarySent.compareAndSet(false, true)) {
+                        logger.warn("一次プロバイダーがエラーになったため、二次プロバイダーへ送信します: {}", error.getMessage());
+                        hedged.increment();
+                        send(SECONDARY);
+                    } else if (failed >= 2 && claim(index)) {
+                        handler.onError(error);
+                    }
+                }
+            };
+        }
+    }
+}
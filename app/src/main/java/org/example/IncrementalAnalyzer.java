@@ -0,0 +1,159 @@
+package org.example;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * マニフェストとGitの差分を使い、前回から追加・変更されたファイルだけを解析対象にするクラス。
+ * 変更のないファイルは前回の解析結果をそのまま引き継ぎます。
+ */
+public class IncrementalAnalyzer {
+    private static final Logger logger = LogManager.getLogger(IncrementalAnalyzer.class);
+
+    private final Path manifestFile;
+
+    /**
+     * 今回の実行の設定フィンガープリント。
+     */
+    private final String fingerprint;
+
+    private final GitChangeDetector git;
+
+    /**
+     * 解析計画。
+     *
+     * @param changed       今回解析するファイル
+     * @param contentHashes 解析するファイルの内容ハッシュ
+     * @param carried       前回の結果を引き継ぐファイルの記録
+     */
+    public record Plan(List<Path> changed, Map<Path, String> contentHashes, List<AnalysisManifest.Entry> carried) {
+    }
+
+    /**
+     * @param manifestFile マニフェストファイル
+     * @param fingerprint  設定フィンガープリント（プロンプト・モデル・パラメータから算出）
+     * @param git          Gitの差分検出（nullの場合は内容ハッシュのみで判定）
+     */
+    public IncrementalAnalyzer(Path manifestFile, String fingerprint, GitChangeDetector git) {
+        this.manifestFile = manifestFile;
+        this.fingerprint = fingerprint;
+        this.git = git;
+    }
+
+    /**
+     * 解析対象ファイルを前回のマニフェストと比較し、解析計画を立てます。
+     * マニフェストにコミットが記録されていてGitが使える場合、記録時にそのコミットから変更されていなかった
+     * Git管理下のファイルで、コミット以降の差分にも含まれないものは内容ハッシュの計算を省略します。
+     * それ以外（記録時に作業ツリーが変更されていた・未追跡・.gitignoreで除外されたファイルなど）は常に内容ハッシュを比較します。
+     *
+     * @param files 解析対象候補のファイル
+     * @return 解析計画
+     * @throws IOException マニフェストやファイルの読み込みに失敗した場合
+     */
+    public Plan plan(List<Path> files) throws IOException {
+        AnalysisManifest previous = AnalysisManifest.load(manifestFile);
+        boolean sameConfig = fingerprint.equals(previous.getFingerprint());
+        if (previous.getFingerprint() != null && !sameConfig) {
+            logger.info("プロンプトまたはモデル設定が変更されたため、全ファイルを再解析します");
+        }
+
+        Set<Path> gitChanged = null;
+        Set<Path> tracked = null;
+        if (sameConfig && git != null && previous.getCommit() != null) {
+            Optional<Set<Path>> changed = git.changedFilesSince(previous.getCommit());
+            Optional<Set<Path>> trackedFiles = git.trackedFiles();
+            if (changed.isPresent() && trackedFiles.isPresent()) {
+                gitChanged = changed.get();
+                tracked = trackedFiles.get();
+                logger.info("コミット {} 以降のGit差分: {} 件", previous.getCommit(), gitChanged.size());
+            }
+        }
+
+        List<Path> changed = new ArrayList<>();
+        Map<Path, String> hashes = new HashMap<>();
+        List<AnalysisManifest.Entry> carried = new ArrayList<>();
+        for (Path file : files) {
+            AnalysisManifest.Entry entry = sameConfig ? previous.get(AnalysisManifest.keyOf(file)) : null;
+            boolean resultExists = entry != null && Files.exists(Path.of(entry.resultPath()));
+            Path absolute = file.toAbsolutePath().normalize();
+            if (resultExists && entry.clean() && gitChanged != null && tracked.contains(absolute)
+                    && !gitChanged.contains(absolute)) {
+                // 記録時にコミットと同じ内容で、その後も変更されていないため、解析した内容と同じ
+                carried.add(entry);
+                continue;
+            }
+            String hash = AnalysisManifest.contentHash(file);
+            if (resultExists && hash.equals(entry.contentHash())) {
+                carried.add(entry);
+            } else {
+                changed.add(file);
+                hashes.put(file, hash);
+            }
+        }
+        logger.info("インクリメンタル解析: 解析 {} 件 / 前回結果を引き継ぎ {} 件", changed.size(), carried.size());
+        return new Plan(changed, hashes, carried);
+    }
+
+    /**
+     * 解析結果をマニフェストに反映して保存します。失敗したファイルは記録しないため、次回再解析されます。
+     * 今回の対象に含まれなかったファイル（削除されたファイルなど）の記録は破棄します。
+     *
+     * @param plan         解析計画
+     * @param results      今回の解析結果
+     * @param resultPathOf 解析対象ファイルから結果ファイルのパスを求める関数
+     * @throws IOException マニフェストの保存に失敗した場合
+     */
+    public void commit(Plan plan, List<AnalysisResult> results, Function<Path, Path> resultPathOf)
+            throws IOException {
+        AnalysisManifest manifest = new AnalysisManifest();
+        manifest.setFingerprint(fingerprint);
+        Set<Path> clean = Set.of();
+        if (git != null) {
+            Optional<String> head = git.headCommit();
+            head.ifPresent(manifest::setCommit);
+            clean = head.flatMap(this::cleanFiles).orElse(Set.of());
+        }
+        for (AnalysisManifest.Entry entry : plan.carried()) {
+            boolean entryClean = clean.contains(Path.of(entry.path()).toAbsolutePath().normalize());
+            manifest.put(new AnalysisManifest.Entry(entry.path(), entry.contentHash(), entry.analysisId(),
+                    entry.resultPath(), entryClean));
+        }
+        for (AnalysisResult result : results) {
+            if (!result.succeeded()) {
+                continue;
+            }
+            String hash = plan.contentHashes().get(result.file());
+            manifest.put(new AnalysisManifest.Entry(AnalysisManifest.keyOf(result.file()), hash,
+                    AnalysisManifest.analysisId(fingerprint, hash), resultPathOf.apply(result.file()).toString(),
+                    clean.contains(result.file().toAbsolutePath().normalize())));
+        }
+        manifest.save(manifestFile);
+        logger.info("マニフェストを保存しました: {}", manifestFile);
+    }
+
+    /**
+     * Git管理下で、指定コミットから変更されていないファイルを返します（作業ツリーの変更を含めて比較します）。
+     */
+    private Optional<Set<Path>> cleanFiles(String commit) {
+        Optional<Set<Path>> tracked = git.trackedFiles();
+        Optional<Set<Path>> changed = git.changedFilesSince(commit);
+        if (tracked.isEmpty() || changed.isEmpty()) {
+            return Optional.empty();
+        }
+        Set<Path> clean = new HashSet<>(tracked.get());
+        clean.removeAll(changed.get());
+        return Optional.of(clean);
+    }
+}
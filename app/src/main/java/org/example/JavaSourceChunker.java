@@ -0,0 +1,298 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Javaソースをクラス・メソッドの境界で分割するクラス。
+ * パッケージ宣言・import・型宣言・フィールドは共通コンテキストとして各チャンクの先頭に含め、
+ * メソッドやコンストラクタ、内部クラスをトークン予算内に収まるようにまとめます。
+ *
+ * <p>構文解析は行わず、文字列・文字リテラル・コメントを読み飛ばしながら波括弧の深さを数える簡易な字句走査です。</p>
+ */
+public class JavaSourceChunker {
+    /**
+     * 分割後のチャンクで省略したメンバーの位置に置く注記。
+     */
+    static final String OMITTED_NOTE = "    // ...（このチャンクに含まれないメンバーは省略）";
+
+    /**
+     * トークン数の見積もり。
+     */
+    private final TokenEstimator tokenCounter;
+
+    /**
+     * @param tokenCounter テキストのトークン数の見積もり
+     */
+    public JavaSourceChunker(TokenEstimator tokenCounter) {
+        this.tokenCounter = tokenCounter;
+    }
+
+    /**
+     * トップレベル型1つ分の構造。
+     *
+     * @param declaration 型宣言（開き波括弧まで）
+     * @param fields      フィールドなど共通コンテキストとして扱うメンバー
+     * @param members     分割単位となるメンバー（メソッド・コンストラクタ・内部クラスなど）
+     */
+    record TypeUnit(String declaration, List<String> fields, List<String> members) {
+    }
+
+    /**
+     * 解析したソースの構造。
+     *
+     * @param preamble パッケージ宣言やimportなど、最初の型宣言より前の部分
+     * @param types    トップレベル型の一覧
+     */
+    record Structure(String preamble, List<TypeUnit> types) {
+    }
+
+    /**
+     * ソースをトークン予算内のチャンクに分割します。全体が予算内に収まる場合は元のソースを1チャンクとして返します。
+     * 1つのメンバーだけで予算を超える場合、そのメンバーは単独のチャンクになります。
+     *
+     * @param source      Javaソース
+     * @param tokenBudget 1チャンクあたりのトークン予算
+     * @return チャンクの一覧
+     */
+    public List<String> split(String source, int tokenBudget) {
+        if (tokenCounter.estimate(source) <= tokenBudget) {
+            return List.of(source);
+        }
+        Structure structure = parse(source);
+        if (structure.types().isEmpty()) {
+            return List.of(source);
+        }
+        List<String> chunks = new ArrayList<>();
+        for (TypeUnit type : structure.types()) {
+            String context = sharedContext(structure.preamble(), type);
+            int contextTokens = tokenCounter.estimate(context);
+            StringBuilder current = new StringBuilder();
+            int currentTokens = 0;
+            for (String member : type.members()) {
+                int memberTokens = tokenCounter.estimate(member);
+                if (current.length() > 0 && contextTokens + currentTokens + memberTokens > tokenBudget) {
+                    chunks.add(close(context, current));
+                    current.setLength(0);
+                    currentTokens = 0;
+                }
+                current.append(member).append('\n');
+                currentTokens += memberTokens;
+            }
+            if (current.length() > 0 || type.members().isEmpty()) {
+                chunks.add(close(context, current));
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * 共通コンテキスト（preamble・型宣言・フィールド）を組み立てます。
+     */
+    private static String sharedContext(String preamble, TypeUnit type) {
+        StringBuilder sb = new StringBuilder();
+        if (!preamble.isBlank()) {
+            sb.append(preamble.strip()).append("\n\n");
+        }
+        sb.append(type.declaration().strip()).append('\n');
+        for (String field : type.fields()) {
+            sb.append(field).append('\n');
+        }
+        sb.append(OMITTED_NOTE).append('\n');
+        return sb.toString();
+    }
+
+    private static String close(String context, CharSequence members) {
+        return context + members + "}\n";
+    }
+
+    /**
+     * ソースをpreamble・トップレベル型・メンバーに分解します。
+     *
+     * @param source Javaソース
+     * @return 解析した構造
+     */
+    static Structure parse(String source) {
+        List<TypeUnit> types = new ArrayList<>();
+        String preamble = null;
+        int depth = 0;
+        int unitStart = 0;
+        String declaration = null;
+        List<String> fields = null;
+        List<String> members = null;
+        boolean memberHasParen = false;
+        boolean memberHasAssign = false;
+        int i = 0;
+        int n = source.length();
+        while (i < n) {
+            char c = source.charAt(i);
+            int skip = skipLiteralOrComment(source, i);
+            if (skip > i) {
+                i = skip;
+                continue;
+            }
+            if (depth == 1) {
+                if (c == '(' && !memberHasAssign) {
+                    memberHasParen = true;
+                } else if (c == '=') {
+                    memberHasAssign = true;
+                }
+            }
+            if (c == '{') {
+                if (depth == 0) {
+                    String head = source.substring(unitStart, i + 1);
+                    if (preamble == null) {
+                        int split = declarationStart(head);
+                        preamble = head.substring(0, split);
+                        declaration = head.substring(split);
+                    } else {
+                        declaration = head;
+                    }
+                    fields = new ArrayList<>();
+                    members = new ArrayList<>();
+                    unitStart = i + 1;
+                    memberHasParen = false;
+                    memberHasAssign = false;
+                }
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                if (depth == 1 && members != null) {
+                    // メソッド・内部クラス・初期化ブロックの終わり。直後の;（匿名クラスの代入など）も含める
+                    int end = i + 1;
+                    int next = skipSpaces(source, end);
+                    if (next < n && source.charAt(next) == ';') {
+                        end = next + 1;
+                    }
+                    String member = trimBlankLines(source.substring(unitStart, end));
+                    if (memberHasParen || !memberHasAssign) {
+                        members.add(member);
+                    } else {
+                        fields.add(member);
+                    }
+                    unitStart = end;
+                    i = end;
+                    memberHasParen = false;
+                    memberHasAssign = false;
+                    continue;
+                } else if (depth == 0 && members != null) {
+                    String rest = trimBlankLines(source.substring(unitStart, i));
+                    if (!rest.isBlank()) {
+                        members.add(rest);
+                    }
+                    types.add(new TypeUnit(declaration, fields, members));
+                    members = null;
+                    unitStart = i + 1;
+                } else if (depth < 0) {
+                    depth = 0;
+                }
+            } else if (c == ';' && depth == 1 && members != null) {
+                String member = trimBlankLines(source.substring(unitStart, i + 1));
+                if (memberHasParen && !memberHasAssign) {
+                    // 抽象メソッド・インタフェースのメソッド宣言
+                    members.add(member);
+                } else {
+                    fields.add(member);
+                }
+                unitStart = i + 1;
+                memberHasParen = false;
+                memberHasAssign = false;
+            }
+            i++;
+        }
+        return new Structure(preamble != null ? preamble : "", types);
+    }
+
+    /**
+     * 型宣言より前の部分の末尾位置を返します。型宣言に付いたJavadocやアノテーションは型宣言側に含めます。
+     */
+    private static int declarationStart(String head) {
+        int lastStatementEnd = -1;
+        int i = 0;
+        while (i < head.length()) {
+            int skip = skipLiteralOrComment(head, i);
+            if (skip > i) {
+                i = skip;
+                continue;
+            }
+            if (head.charAt(i) == ';') {
+                lastStatementEnd = i;
+            }
+            i++;
+        }
+        return lastStatementEnd + 1;
+    }
+
+    /**
+     * 文字列リテラル（テキストブロックを含む）・文字リテラル・コメントであれば、その直後の位置を返します。
+     * それ以外の場合は引数の位置をそのまま返します。
+     *
+     * @param s 対象文字列
+     * @param i 現在位置
+     * @return 読み飛ばした後の位置
+     */
+    static int skipLiteralOrComment(String s, int i) {
+        int n = s.length();
+        char c = s.charAt(i);
+        if (c == '/' && i + 1 < n) {
+            char next = s.charAt(i + 1);
+            if (next == '/') {
+                int end = s.indexOf('\n', i);
+                return end < 0 ? n : end;
+            }
+            if (next == '*') {
+                int end = s.indexOf("*/", i + 2);
+                return end < 0 ? n : end + 2;
+            }
+        }
+        if (c == '"') {
+            if (s.startsWith("\"\"\"", i)) {
+                int end = s.indexOf("\"\"\"", i + 3);
+                while (end > 0 && s.charAt(end - 1) == '\\') {
+                    end = s.indexOf("\"\"\"", end + 1);
+                }
+                return end < 0 ? n : end + 3;
+            }
+            return skipQuoted(s, i, '"');
+        }
+        if (c == '\'') {
+            return skipQuoted(s, i, '\'');
+        }
+        return i;
+    }
+
+    private static int skipQuoted(String s, int start, char quote) {
+        int i = start + 1;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == quote || c == '\n') {
+                return i + 1;
+            }
+            i++;
+        }
+        return s.length();
+    }
+
+    private static int skipSpaces(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 先頭と末尾の空行を取り除きます（インデントは保持します）。
+     */
+    private static String trimBlankLines(String s) {
+        int start = 0;
+        int firstNewline;
+        while ((firstNewline = s.indexOf('\n', start)) >= 0 && s.substring(start, firstNewline).isBlank()) {
+            start = firstNewline + 1;
+        }
+        return s.substring(start).stripTrailing();
+    }
+}
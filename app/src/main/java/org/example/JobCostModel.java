@@ -0,0 +1,125 @@
+package org.example;
+
+import java.util.PriorityQueue;
+
+/**
+ * 入力トークン数からジョブ（1リクエスト分の解析）の処理時間を見積もるモデル。
+ * 処理時間は「最初のトークンまでの時間 + 出力トークン数 / 生成速度」とし、出力トークン数は入力トークン数に対する比率で見積もります。
+ *
+ * <p>最初のトークンまでの時間と生成速度はモデルの計測値（{@link StreamingMetrics.ModelMetrics}）から、
+ * 出力の比率と見積もりの補正係数は完了したジョブの実測値から求めます。サンプルが少ない間は既定値を使います。
+ * 複数スレッドから同時に利用できます。</p>
+ */
+public class JobCostModel {
+    /**
+     * 計測値・実測値を使い始めるサンプル数。
+     */
+    static final int MIN_SAMPLES = 3;
+
+    /**
+     * サンプルが少ない間の、最初のトークンまでの時間（ミリ秒）。
+     */
+    static final double DEFAULT_TTFT_MILLIS = 1500;
+
+    /**
+     * サンプルが少ない間の生成速度（出力トークン/秒）。
+     */
+    static final double DEFAULT_OUTPUT_TOKENS_PER_SECOND = 40;
+
+    /**
+     * サンプルが少ない間の、入力トークン数に対する出力トークン数の比率。
+     */
+    static final double DEFAULT_OUTPUT_RATIO = 0.3;
+
+    /**
+     * モデルの計測値（nullの場合は既定値と実測値のみを使う）。
+     */
+    private final StreamingMetrics.ModelMetrics metrics;
+
+    private long observedJobs;
+    private long observedInputTokens;
+    private long observedOutputTokens;
+    private double observedMillis;
+    private double modeledMillis;
+
+    /**
+     * @param metrics 解析に使うモデルの計測値（null可）
+     */
+    public JobCostModel(StreamingMetrics.ModelMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 処理時間を見積もります。
+     *
+     * @param inputTokens 入力トークン数
+     * @return 見積もり時間（ミリ秒）
+     */
+    public synchronized double estimateMillis(long inputTokens) {
+        double millis = modeledMillis(inputTokens * outputRatio());
+        return observedJobs >= MIN_SAMPLES && modeledMillis > 0 ? millis * observedMillis / modeledMillis : millis;
+    }
+
+    /**
+     * 完了したジョブの実測値を記録し、以降の見積もりを補正します。
+     *
+     * @param inputTokens   入力トークン数
+     * @param outputTokens  出力トークン数
+     * @param elapsedMillis 処理時間（ミリ秒）
+     */
+    public synchronized void observe(long inputTokens, long outputTokens, long elapsedMillis) {
+        observedJobs++;
+        observedInputTokens += inputTokens;
+        observedOutputTokens += outputTokens;
+        observedMillis += elapsedMillis;
+        // 実際の出力トークン数での見積もりと比べ、比率の誤差と時間の誤差を分けて補正する
+        modeledMillis += modeledMillis(outputTokens);
+    }
+
+    /**
+     * 入力トークン数に対する出力トークン数の比率を返します。
+     *
+     * @return 比率
+     */
+    public synchronized double outputRatio() {
+        if (observedJobs >= MIN_SAMPLES && observedInputTokens > 0) {
+            return (double) observedOutputTokens / observedInputTokens;
+        }
+        if (metrics != null && metrics.inputTokens().count() >= MIN_SAMPLES && metrics.inputTokens().sum() > 0) {
+            return (double) metrics.outputTokens().sum() / metrics.inputTokens().sum();
+        }
+        return DEFAULT_OUTPUT_RATIO;
+    }
+
+    private double modeledMillis(double outputTokens) {
+        double ttftMillis = metrics != null && metrics.ttftMicros().count() >= MIN_SAMPLES
+                ? metrics.ttftMicros().mean() / 1000
+                : DEFAULT_TTFT_MILLIS;
+        double tokensPerSecond = metrics != null && metrics.outputTokensPerSecond().count() >= MIN_SAMPLES
+                ? Math.max(1, metrics.outputTokensPerSecond().mean())
+                : DEFAULT_OUTPUT_TOKENS_PER_SECOND;
+        return ttftMillis + outputTokens * 1000 / tokensPerSecond;
+    }
+
+    /**
+     * 見積もり時間の順にジョブを同時実行数の上限まで割り当てたときの、全体の所要時間を求めます。
+     * 空いた実行枠には次のジョブを割り当てます（リスト・スケジューリング）。
+     *
+     * @param estimates 実行順に並べた各ジョブの見積もり時間（ミリ秒）
+     * @param parallel  同時実行数の上限
+     * @return 所要時間（ミリ秒）
+     */
+    public static double makespanMillis(double[] estimates, int parallel) {
+        PriorityQueue<Double> slots = new PriorityQueue<>();
+        for (int i = 0; i < Math.max(1, parallel); i++) {
+            slots.add(0.0);
+        }
+        double makespan = 0;
+        for (double estimate : estimates) {
+            double finish = slots.poll() + estimate;
+            makespan = Math.max(makespan, finish);
+            slots.add(finish);
+        }
+        return makespan;
+    }
+}
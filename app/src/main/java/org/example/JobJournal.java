@@ -0,0 +1,226 @@
+package org.example;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * ジョブの開始・完了と出力先を追記していくジャーナル。中断した実行を{@code --resume}で再開するために使います。
+ * 記録は{@link AsyncTextWriter}のキューに積み、バックグラウンドのスレッドがたまった分をまとめて書き込んでから
+ * 1回だけfsyncします（グループコミット）。呼び出し側はfsyncを待ちません。
+ *
+ * <p>行の形式（タブ区切り、キーと出力先のタブ・改行・バックスラッシュはエスケープ）:
+ * {@code S <キー>}（開始）、{@code D <キー> <出力先>}（成功）、{@code F <キー> <出力先>}（失敗）。
+ * 再開時は成功したキーだけを完了とみなし、開始したまま終わっていない（実行中だった）ジョブや失敗したジョブはやり直します。
+ * 異常終了で最後の行が途中までしか書かれていない場合は、その行を切り捨ててから追記します。
+ * 直前のfsyncより後の記録は失われることがありますが、その分のジョブがやり直しになるだけです。</p>
+ */
+public class JobJournal implements Closeable {
+    private static final Logger logger = LogManager.getLogger(JobJournal.class);
+
+    private final Path file;
+    private final AsyncTextWriter writer;
+    private final Map<String, String> completed;
+    private final int inFlight;
+
+    private JobJournal(Path file, AsyncTextWriter writer, Map<String, String> completed, int inFlight) {
+        this.file = file;
+        this.writer = writer;
+        this.completed = completed;
+        this.inFlight = inFlight;
+    }
+
+    /**
+     * ジャーナルを開きます。
+     *
+     * @param file   ジャーナルファイル
+     * @param resume trueの場合は既存の記録を読み込んで追記し、falseの場合は空にして新しく始めます
+     * @return ジャーナル
+     * @throws IOException ファイルを開けない場合
+     */
+    public static JobJournal open(Path file, boolean resume) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ);
+        Map<String, String> completed = new HashMap<>();
+        int inFlight = 0;
+        try {
+            if (resume) {
+                inFlight = load(channel, completed);
+                logger.info("ジャーナルを読み込みました: {}（完了 {} 件、やり直し {} 件）", file, completed.size(),
+                        inFlight);
+            } else {
+                channel.truncate(0);
+            }
+            channel.position(channel.size());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        AsyncTextWriter writer = new AsyncTextWriter(new SyncingWriter(channel), AsyncTextWriter.DEFAULT_CAPACITY,
+                true, "journal-writer");
+        return new JobJournal(file, writer, completed, inFlight);
+    }
+
+    /**
+     * 記録を読み込み、成功したキーと出力先をcompletedへ格納します。途中までしか書かれていない最後の行は切り捨てます。
+     *
+     * @return 開始したまま成功していない（実行中だった・失敗した）ジョブの数
+     */
+    private static int load(FileChannel channel, Map<String, String> completed) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // 全体を読み込む
+        }
+        byte[] bytes = buffer.array();
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        if (end < bytes.length) {
+            logger.warn("ジャーナルの途中までしか書かれていない最後の行を切り捨てます（{} バイト）", bytes.length - end);
+            channel.truncate(end);
+        }
+        Set<String> started = new HashSet<>();
+        for (String line : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n")) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length == 2 && fields[0].equals("S")) {
+                started.add(unescape(fields[1]));
+            } else if (fields.length == 3 && (fields[0].equals("D") || fields[0].equals("F"))) {
+                String key = unescape(fields[1]);
+                if (fields[0].equals("D")) {
+                    completed.put(key, unescape(fields[2]));
+                } else {
+                    // 失敗したジョブはやり直しに数える
+                    started.add(key);
+                    completed.remove(key);
+                }
+            }
+        }
+        // 開始したキーのうち、最後の記録が成功のものだけを除く
+        started.removeAll(completed.keySet());
+        return started.size();
+    }
+
+    /**
+     * 指定したジョブが以前の実行で成功しているかどうかを返します。
+     *
+     * @param key ジョブのキー
+     * @return 成功している場合はtrue
+     */
+    public boolean isCompleted(String key) {
+        return completed.containsKey(key);
+    }
+
+    /**
+     * 以前の実行で成功したジョブの出力先を返します。
+     *
+     * @param key ジョブのキー
+     * @return 出力先
+     */
+    public Optional<String> outputOf(String key) {
+        return Optional.ofNullable(completed.get(key));
+    }
+
+    /**
+     * @return 読み込み時点で成功していたジョブの数
+     */
+    public int completedCount() {
+        return completed.size();
+    }
+
+    /**
+     * @return 読み込み時点で開始したまま成功していなかった（やり直す）ジョブの数
+     */
+    public int inFlightCount() {
+        return inFlight;
+    }
+
+    /**
+     * ジョブの開始を記録します。
+     *
+     * @param key ジョブのキー
+     */
+    public void started(String key) {
+        writer.write("S\t" + escape(key) + "\n");
+    }
+
+    /**
+     * ジョブの完了を記録します。
+     *
+     * @param key       ジョブのキー
+     * @param succeeded 成功した場合はtrue（失敗したジョブは再開時にやり直します）
+     * @param output    出力先（無い場合はnull）
+     */
+    public void completed(String key, boolean succeeded, String output) {
+        writer.write((succeeded ? "D\t" : "F\t") + escape(key) + "\t" + escape(output != null ? output : "")
+                + "\n");
+    }
+
+    /**
+     * @return ジャーナルファイル
+     */
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * 未書き込みの記録をすべて書き込んでfsyncし、閉じます。
+     *
+     * @throws IOException 書き込みに失敗していた場合
+     */
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    static String escape(String value) {
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> out.append("\\\\");
+                case '\t' -> out.append("\\t");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                default -> out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    static String unescape(String value) {
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                out.append(switch (next) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,422 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * JSONLのジョブ定義を1行ずつ読み込み、仮想スレッド上で並行に解析して、終わったジョブから順に結果をJSONLへ追記するクラス。
+ * 入力は同時実行数の枠が空くまで読み進めないため、ジョブ数が多くても全体をメモリに載せません。
+ * モデルはプロバイダー・モデルID・エンドポイント・パラメータごとに1回だけ生成し、以降のジョブで使い回します。
+ *
+ * <p>入力行の形式（prompt・code以外は省略可で、省略時は既定値）:
+ * {@code {"id":..., "prompt":"プロンプトファイル", "code":"コードファイル", "provider":"BEDROCK", "model":...,
+ * "endpoint":..., "maxTokens":..., "temperature":..., "topP":...}}</p>
+ *
+ * <p>出力行の形式: {@code {"id":..., "line":..., "prompt":..., "code":..., "provider":..., "model":...,
+ * "status":"ok"|"error", "text":..., "inputTokens":..., "outputTokens":..., "ttftMillis":..., "elapsedMillis":...,
+ * "error":...}}</p>
+ */
+public class JobRunner {
+    private static final Logger logger = LogManager.getLogger(JobRunner.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * 1件のジョブ。
+     *
+     * @param id       ジョブID（未指定時は行番号）
+     * @param line     入力ファイルの行番号（1始まり）
+     * @param prompt   ベースプロンプトファイル
+     * @param code     解析対象ファイル
+     * @param provider プロバイダー
+     * @param model    モデルID
+     * @param endpoint リージョンまたはエンドポイント
+     * @param params   LLMパラメータ
+     */
+    public record Job(String id, long line, Path prompt, Path code, ChatModelFactory.Provider provider,
+            String model, String endpoint, ChatModelFactory.LlmParameters params) {
+
+        /**
+         * 同じモデルを使い回すためのキーを返します。
+         *
+         * @return モデルのキー
+         */
+        ModelKey modelKey() {
+            return new ModelKey(provider, model, endpoint, params);
+        }
+    }
+
+    /**
+     * ジョブ間で共有するモデルのキー。
+     */
+    record ModelKey(ChatModelFactory.Provider provider, String model, String endpoint,
+            ChatModelFactory.LlmParameters params) {
+    }
+
+    /**
+     * 実行全体の集計結果。
+     *
+     * @param total         ジョブ数
+     * @param succeeded     成功数
+     * @param failed        失敗数（解釈できない行を含む）
+     * @param skipped       ジャーナル上で完了済みのためスキップした数
+     * @param inputTokens   入力トークン数の合計
+     * @param outputTokens  出力トークン数の合計
+     * @param elapsedMillis 全体の経過時間（ミリ秒）
+     */
+    public record Summary(long total, long succeeded, long failed, long skipped, long inputTokens,
+            long outputTokens, long elapsedMillis) {
+    }
+
+    private final Function<Job, StreamingChatModel> modelFactory;
+    private final int parallel;
+    private final Job defaults;
+    private final Map<ModelKey, StreamingChatModel> models = new ConcurrentHashMap<>();
+    private final Map<Path, String> prompts = new ConcurrentHashMap<>();
+
+    /**
+     * 生成したアナライザへの追加設定（キャッシュ・分割など）。
+     */
+    private BiConsumer<Job, SourceAnalyzer> analyzerSettings = (job, analyzer) -> {
+    };
+
+    /**
+     * ジョブの開始・完了を記録するジャーナル（nullの場合は記録しない）。
+     */
+    private JobJournal journal;
+
+    /**
+     * ジャーナルに記録する出力先。
+     */
+    private String journalOutput;
+
+    /**
+     * 再開時に、既存の出力に成功の結果行があるジョブのID（ジャーナルへ完了を記録する前に中断したもの）。
+     */
+    private Set<String> alreadyWritten = Set.of();
+
+    /**
+     * @param modelFactory ジョブのプロバイダー・モデルIDなどからモデルを生成する関数（キーごとに1回だけ呼ばれます）
+     * @param parallel     同時に実行するジョブの上限数（1以上）
+     * @param defaults     入力行で省略された項目の既定値（provider・model・endpoint・paramsを使用）
+     */
+    public JobRunner(Function<Job, StreamingChatModel> modelFactory, int parallel, Job defaults) {
+        if (parallel < 1) {
+            throw new IllegalArgumentException("parallelは1以上を指定してください: " + parallel);
+        }
+        this.modelFactory = modelFactory;
+        this.parallel = parallel;
+        this.defaults = defaults;
+    }
+
+    /**
+     * ジョブごとに生成するアナライザへ追加の設定を行うようにします。
+     *
+     * @param analyzerSettings ジョブとアナライザを受け取って設定する処理
+     * @return このインスタンス
+     */
+    public JobRunner withAnalyzerSettings(BiConsumer<Job, SourceAnalyzer> analyzerSettings) {
+        this.analyzerSettings = analyzerSettings;
+        return this;
+    }
+
+    /**
+     * 各ジョブの開始・完了をジャーナルに記録し、ジャーナル上で成功済みのジョブ（IDで判定）は実行しないようにします。
+     *
+     * @param journal ジャーナル
+     * @param output  ジャーナルに記録する結果の出力先
+     * @return このインスタンス
+     */
+    public JobRunner withJournal(JobJournal journal, String output) {
+        this.journal = journal;
+        this.journalOutput = output;
+        return this;
+    }
+
+    /**
+     * 再開時に既存の出力を読み込み、成功の結果行が既にあるジョブは実行しないようにします。
+     * 結果行の書き出し後、ジャーナルへ完了を記録する前に中断したジョブを、出力へ重複して追記しないためです。
+     * 失敗の結果行しか無いジョブはやり直すため、出力には同じIDの行が複数残ることがあります（後の行が有効です）。
+     *
+     * @param output 以前の実行の出力（存在しない場合は何もしません）
+     * @return このインスタンス
+     * @throws IOException 出力の読み込みに失敗した場合
+     */
+    public JobRunner withExistingOutput(Path output) throws IOException {
+        if (!Files.exists(output)) {
+            return this;
+        }
+        Set<String> ids = new HashSet<>();
+        try (BufferedReader in = Files.newBufferedReader(output, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                JsonNode node;
+                try {
+                    node = MAPPER.readTree(line);
+                } catch (IOException e) {
+                    // 異常終了で途中までしか書かれていない行は無視する
+                    continue;
+                }
+                if (node != null && node.isObject() && "ok".equals(text(node, "status", null))) {
+                    String id = text(node, "id", null);
+                    if (id != null) {
+                        ids.add(id);
+                    }
+                }
+            }
+        }
+        this.alreadyWritten = ids;
+        return this;
+    }
+
+    /**
+     * 入力のジョブをすべて実行し、結果を1件ずつ出力へ書き込みます。出力は完了順で、行番号とIDで入力と対応付けます。
+     *
+     * @param in  ジョブ定義のJSONL
+     * @param out 結果の書き込み先（閉じるのは呼び出し側の責任）
+     * @return 集計結果
+     * @throws IOException 入力の読み込みに失敗した場合
+     */
+    public Summary run(BufferedReader in, AsyncTextWriter out) throws IOException {
+        long start = System.nanoTime();
+        Semaphore permits = new Semaphore(parallel);
+        AtomicLong succeeded = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicLong inputTokens = new AtomicLong();
+        AtomicLong outputTokens = new AtomicLong();
+        long skipped = 0;
+        long total = 0;
+        long lineNo = 0;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                total++;
+                Job job;
+                try {
+                    job = parse(line, lineNo, defaults);
+                } catch (IllegalArgumentException | IOException e) {
+                    logger.error("{} 行目のジョブを解釈できません: {}", lineNo, e.getMessage());
+                    out.write(toErrorLine(lineNo, e));
+                    failed.incrementAndGet();
+                    continue;
+                }
+                if (journal != null && journal.isCompleted(job.id())) {
+                    skipped++;
+                    continue;
+                }
+                if (alreadyWritten.contains(job.id())) {
+                    if (journal != null) {
+                        journal.completed(job.id(), true, journalOutput);
+                    }
+                    skipped++;
+                    continue;
+                }
+                permits.acquireUninterruptibly();
+                executor.submit(() -> {
+                    try {
+                        AnalysisResult result = runOne(job, out);
+                        (result.succeeded() ? succeeded : failed).incrementAndGet();
+                        inputTokens.addAndGet(result.inputTokens());
+                        outputTokens.addAndGet(result.outputTokens());
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+        Summary summary = new Summary(total, succeeded.get(), failed.get(), skipped, inputTokens.get(),
+                outputTokens.get(), (System.nanoTime() - start) / 1_000_000);
+        logger.info("ジョブ実行完了: 対象 {} 件 / 成功 {} 件 / 失敗 {} 件 / スキップ {} 件, 経過時間: {} ms, 入力 {} トークン, 出力 {} トークン",
+                summary.total(), summary.succeeded(), summary.failed(), summary.skipped(), summary.elapsedMillis(),
+                summary.inputTokens(), summary.outputTokens());
+        return summary;
+    }
+
+    /**
+     * 1件のジョブを解析して結果を書き込みます。例外はスローしません。
+     */
+    private AnalysisResult runOne(Job job, AsyncTextWriter out) {
+        long start = System.nanoTime();
+        if (journal != null) {
+            journal.started(job.id());
+        }
+        long[] firstToken = { -1 };
+        StringBuilder text = new StringBuilder();
+        AnalysisResult result;
+        try {
+            StreamingChatModel model = models.computeIfAbsent(job.modelKey(), key -> modelFactory.apply(job));
+            String prompt = prompts.computeIfAbsent(job.prompt(), JobRunner::readPrompt);
+            SourceAnalyzer analyzer = new SourceAnalyzer(model, prompt)
+                    .withTokenEstimator(TokenEstimator.forModel(job.model()));
+            analyzerSettings.accept(job, analyzer);
+            result = analyzer.analyze(job.code(), partial -> {
+                if (firstToken[0] < 0) {
+                    firstToken[0] = System.nanoTime();
+                }
+                text.append(partial);
+            });
+        } catch (RuntimeException e) {
+            result = AnalysisResult.failed(job.code(), (System.nanoTime() - start) / 1_000_000,
+                    e.getCause() instanceof IOException io ? io : e);
+        }
+        long ttftMillis = firstToken[0] < 0 ? -1 : (firstToken[0] - start) / 1_000_000;
+        if (result.succeeded()) {
+            logger.info("ジョブ完了: {} ({} ms)", job.id(), result.elapsedMillis());
+        } else {
+            logger.error("ジョブ失敗: {}: {}", job.id(), result.error().getMessage());
+        }
+        try {
+            String line = toLine(job, result.text() != null ? result.text() : text.toString(), result, ttftMillis);
+            if (journal != null) {
+                // 結果行が書き出された後に完了を記録する
+                boolean succeeded = result.succeeded();
+                out.write(line, () -> journal.completed(job.id(), succeeded, journalOutput));
+            } else {
+                out.write(line);
+            }
+        } catch (IOException e) {
+            logger.error("ジョブ結果の出力に失敗しました: {}: {}", job.id(), e.getMessage());
+        }
+        return result;
+    }
+
+    private static String readPrompt(Path path) {
+        try {
+            return SourceLoader.readString(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 1行分のジョブ定義を解釈します。相対パスはカレントディレクトリ基準です。
+     *
+     * @param line     JSON行
+     * @param lineNo   行番号
+     * @param defaults 省略時の既定値
+     * @return ジョブ
+     * @throws IOException              JSONとして解釈できない場合
+     * @throws IllegalArgumentException 必須項目が無い場合やプロバイダー名が不正な場合、必要なendpointが無い場合
+     */
+    static Job parse(String line, long lineNo, Job defaults) throws IOException {
+        JsonNode node = MAPPER.readTree(line);
+        if (node == null || !node.isObject()) {
+            throw new IllegalArgumentException("JSONオブジェクトではありません");
+        }
+        String prompt = text(node, "prompt", null);
+        String code = text(node, "code", null);
+        if (prompt == null || code == null) {
+            throw new IllegalArgumentException("promptとcodeは必須です");
+        }
+        return withModelSettings(node, new Job(text(node, "id", String.valueOf(lineNo)), lineNo, Paths.get(prompt),
+                Paths.get(code), null, null, null, null), defaults);
+    }
+
+    /**
+     * JSONのprovider・model・endpoint・maxTokens・temperature・topPをジョブに設定します。省略された項目は既定値を使います。
+     *
+     * @param node     ジョブ定義のJSON
+     * @param job      ID・プロンプト・コードを設定済みのジョブ
+     * @param defaults 省略時の既定値
+     * @return モデルの設定を反映したジョブ
+     * @throws IllegalArgumentException プロバイダー名が不正な場合や、Azure OpenAI・Geminiでendpointが無い場合
+     */
+    static Job withModelSettings(JsonNode node, Job job, Job defaults) {
+        String name = text(node, "provider", null);
+        ChatModelFactory.Provider provider = name != null ? ChatModelFactory.Provider.valueOf(name)
+                : defaults.provider();
+        String endpoint = text(node, "endpoint", defaults.endpoint());
+        if (endpoint == null && (provider == ChatModelFactory.Provider.AZURE_OPENAI
+                || provider == ChatModelFactory.Provider.GEMINI)) {
+            // Bedrock以外は既定のリージョンで代用できないため、ここで止める
+            throw new IllegalArgumentException(provider + "にはendpoint（エンドポイントURL）の指定が必要です");
+        }
+        ChatModelFactory.LlmParameters base = defaults.params() != null ? defaults.params()
+                : ChatModelFactory.LlmParameters.DEFAULT;
+        ChatModelFactory.LlmParameters params = new ChatModelFactory.LlmParameters(
+                node.hasNonNull("maxTokens") ? Integer.valueOf(node.get("maxTokens").asInt()) : base.maxTokens(),
+                node.hasNonNull("temperature") ? Double.valueOf(node.get("temperature").asDouble())
+                        : base.temperature(),
+                node.hasNonNull("topP") ? Double.valueOf(node.get("topP").asDouble()) : base.topP());
+        return new Job(job.id(), job.line(), job.prompt(), job.code(), provider, text(node, "model", defaults.model()),
+                endpoint, params);
+    }
+
+    private static String text(JsonNode node, String field, String defaultValue) {
+        return node.hasNonNull(field) ? node.get(field).asText() : defaultValue;
+    }
+
+    /**
+     * 1件分の結果行を組み立てます。
+     *
+     * @param job        ジョブ
+     * @param text       応答テキスト（失敗時は途中までの出力）
+     * @param result     解析結果
+     * @param ttftMillis 最初の出力までの時間（ミリ秒、出力が無い場合は-1）
+     * @return 改行付きのJSON行
+     * @throws IOException JSONの生成に失敗した場合
+     */
+    static String toLine(Job job, String text, AnalysisResult result, long ttftMillis) throws IOException {
+        StringWriter out = new StringWriter(text.length() + 256);
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeStringField("id", job.id());
+            json.writeNumberField("line", job.line());
+            json.writeStringField("prompt", job.prompt().toString());
+            json.writeStringField("code", job.code().toString());
+            json.writeStringField("provider", String.valueOf(job.provider()));
+            json.writeStringField("model", job.model());
+            json.writeStringField("status", result.succeeded() ? "ok" : "error");
+            json.writeStringField("text", text);
+            json.writeNumberField("inputTokens", result.inputTokens());
+            json.writeNumberField("outputTokens", result.outputTokens());
+            json.writeNumberField("ttftMillis", ttftMillis);
+            json.writeNumberField("elapsedMillis", result.elapsedMillis());
+            if (!result.succeeded()) {
+                json.writeStringField("error", String.valueOf(result.error().getMessage()));
+            }
+            json.writeEndObject();
+        }
+        return out.append('\n').toString();
+    }
+
+    private static String toErrorLine(long lineNo, Exception error) throws IOException {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeNumberField("line", lineNo);
+            json.writeStringField("status", "error");
+            json.writeStringField("error", String.valueOf(error.getMessage()));
+            json.writeEndObject();
+        }
+        return out.append('\n').toString();
+    }
+}
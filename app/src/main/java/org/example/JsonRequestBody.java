@@ -0,0 +1,341 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JSONのリクエストボディを、プロンプトやソースファイルから直接ストリーミングで組み立てる{@link HttpRequest.BodyPublisher}の素材。
+ * 文字列の連結・エスケープ・{@code String.format}による全体のコピーを作らず、送信時に数KBずつ読み込み、
+ * エスケープしてUTF-8へ変換します。そのため、大きなソースを多数並行に送信しても1リクエストあたりのヒープ使用量は一定です。
+ *
+ * <p>部品は追加した順に連結します。{@link #raw(String)}はJSONとしてそのまま、{@link #text(CharSequence)}と
+ * {@link #file(Path)}はJSON文字列の中身としてエスケープして出力します（引用符は含めないため、{@code raw}で囲みます）。
+ * エスケープは{@code "}・{@code \}・すべての制御文字（U+0000～U+001F）を対象とします。</p>
+ *
+ * <p>ボディの大きさが上限を超える場合、送信前に分かるものは{@link #publisher()}で、エスケープで膨らんだ分は送信中に
+ * IOExceptionで失敗させます。</p>
+ */
+public final class JsonRequestBody {
+    /**
+     * デフォルトのボディの上限（バイト）。
+     */
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * 1回に読み込んでエスケープする文字数。
+     */
+    private static final int CHUNK_CHARS = 4096;
+
+    /**
+     * エスケープ後の1文字の最大長（{@code \u001f}）。UTF-8でも1文字は3バイト以下のため、これがバイト数の上限にもなります。
+     */
+    private static final int MAX_ESCAPED_LENGTH = 6;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * ボディの部品。
+     *
+     * @param text    文字列の部品（ファイルの場合はnull）
+     * @param file    ファイルの部品（文字列の場合はnull）
+     * @param charset ファイルの文字コード
+     * @param escape  JSON文字列としてエスケープするか
+     */
+    private record Part(CharSequence text, Path file, Charset charset, boolean escape) {
+        Reader open() throws IOException {
+            if (text != null) {
+                return new CharSequenceReader(text);
+            }
+            return new InputStreamReader(Files.newInputStream(file), charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE));
+        }
+    }
+
+    private final long maxBytes;
+    private final List<Part> parts = new ArrayList<>();
+
+    /**
+     * 送信前に分かる大きさの下限（バイト）。
+     */
+    private long minimumBytes;
+
+    /**
+     * @param maxBytes ボディの上限（バイト）
+     */
+    public JsonRequestBody(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * JSONの断片をそのまま追加します。
+     *
+     * @param json JSONの断片
+     * @return このインスタンス
+     */
+    public JsonRequestBody raw(String json) {
+        parts.add(new Part(json, null, null, false));
+        minimumBytes += json.length();
+        return this;
+    }
+
+    /**
+     * 文字列をJSON文字列の中身としてエスケープして追加します。文字列はコピーせず、送信時に読み出します。
+     *
+     * @param text 文字列
+     * @return このインスタンス
+     */
+    public JsonRequestBody text(CharSequence text) {
+        parts.add(new Part(text, null, null, true));
+        minimumBytes += text.length();
+        return this;
+    }
+
+    /**
+     * ファイルの内容をJSON文字列の中身としてエスケープして追加します。文字コードはここで判別し（ヒープに読み込みません）、
+     * 内容は送信時に読み込みます。UTF-8のBOMは出力しません。
+     *
+     * @param file ファイル
+     * @return このインスタンス
+     * @throws IOException ファイルを読めない場合
+     */
+    public JsonRequestBody file(Path file) throws IOException {
+        parts.add(new Part(null, file, SourceLoader.detectCharset(file), true));
+        minimumBytes += Files.size(file);
+        return this;
+    }
+
+    /**
+     * 送信前に分かるボディの大きさの下限（バイト）を返します。
+     *
+     * @return 大きさの下限
+     */
+    public long minimumBytes() {
+        return minimumBytes;
+    }
+
+    /**
+     * ボディを送信するパブリッシャーを返します。送信（再送を含む）のたびに先頭から読み直します。
+     *
+     * @return パブリッシャー
+     * @throws IOException ボディが上限を超えることが送信前に分かった場合
+     */
+    public HttpRequest.BodyPublisher publisher() throws IOException {
+        checkSize(minimumBytes);
+        return HttpRequest.BodyPublishers.ofInputStream(() -> new BodyStream());
+    }
+
+    /**
+     * ボディを先頭から読み出すストリームを開きます。
+     *
+     * @return ボディのストリーム
+     * @throws IOException ボディが上限を超えることが送信前に分かった場合
+     */
+    public InputStream open() throws IOException {
+        checkSize(minimumBytes);
+        return new BodyStream();
+    }
+
+    private void checkSize(long bytes) throws IOException {
+        if (bytes > maxBytes) {
+            throw new IOException("リクエストボディが上限を超えています: " + bytes + " バイト > " + maxBytes + " バイト");
+        }
+    }
+
+    /**
+     * 文字列をJSON文字列の中身としてエスケープして追加します。
+     *
+     * @param text 文字列
+     * @param out  出力先
+     */
+    static void escape(CharSequence text, StringBuilder out) {
+        for (int i = 0; i < text.length(); i++) {
+            escape(text.charAt(i), out);
+        }
+    }
+
+    private static void escape(char c, Appendable out) {
+        try {
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                case '\b' -> out.append("\\b");
+                case '\f' -> out.append("\\f");
+                default -> {
+                    if (c < 0x20) {
+                        out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 部品を順に読み込み、CHUNK_CHARS文字ずつエスケープしてUTF-8で返すストリーム。
+     */
+    private final class BodyStream extends InputStream {
+        private final char[] input = new char[CHUNK_CHARS];
+        private final CharBuffer escaped = CharBuffer.allocate(CHUNK_CHARS * MAX_ESCAPED_LENGTH);
+        private final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_CHARS * MAX_ESCAPED_LENGTH).flip();
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private int partIndex;
+        private Reader reader;
+        private boolean escapeCurrent;
+        private boolean atStartOfPart;
+
+        /**
+         * 前回の読み込みで持ち越した上位サロゲート（無い場合は-1）。
+         */
+        private int pendingHighSurrogate = -1;
+        private long written;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (!bytes.hasRemaining()) {
+                if (!fill()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, bytes.remaining());
+            bytes.get(b, off, n);
+            return n;
+        }
+
+        /**
+         * 次の断片を読み込んでbytesへ変換します。
+         *
+         * @return 部品をすべて読み終えた場合はfalse
+         */
+        private boolean fill() throws IOException {
+            while (true) {
+                if (reader == null) {
+                    if (partIndex >= parts.size()) {
+                        return false;
+                    }
+                    Part part = parts.get(partIndex++);
+                    reader = part.open();
+                    escapeCurrent = part.escape();
+                    atStartOfPart = true;
+                }
+                int offset = 0;
+                if (pendingHighSurrogate >= 0) {
+                    input[0] = (char) pendingHighSurrogate;
+                    pendingHighSurrogate = -1;
+                    offset = 1;
+                }
+                int n = reader.read(input, offset, input.length - offset);
+                if (n < 0) {
+                    reader.close();
+                    reader = null;
+                    if (offset == 0) {
+                        continue;
+                    }
+                    n = 0;
+                } else if (offset + n > 1 && Character.isHighSurrogate(input[offset + n - 1])) {
+                    // サロゲートペアが読み込みの境界で分かれないよう、次の読み込みへ持ち越す
+                    pendingHighSurrogate = input[offset + n - 1];
+                    n--;
+                }
+                int start = 0;
+                if (atStartOfPart && offset + n > 0) {
+                    atStartOfPart = false;
+                    if (input[0] == '\uFEFF') {
+                        start = 1;
+                    }
+                }
+                escaped.clear();
+                for (int i = start; i < offset + n; i++) {
+                    if (escapeCurrent) {
+                        escape(input[i], escaped);
+                    } else {
+                        escaped.put(input[i]);
+                    }
+                }
+                escaped.flip();
+                bytes.clear();
+                encoder.reset();
+                encoder.encode(escaped, bytes, true);
+                encoder.flush(bytes);
+                bytes.flip();
+                written += bytes.remaining();
+                checkSize(written);
+                if (bytes.hasRemaining()) {
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+
+    /**
+     * CharSequenceをコピーせずに読み出すReader。
+     */
+    private static final class CharSequenceReader extends Reader {
+        private final CharSequence text;
+        private int position;
+
+        CharSequenceReader(CharSequence text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (position >= text.length()) {
+                return -1;
+            }
+            int n = Math.min(len, text.length() - position);
+            if (text instanceof String s) {
+                s.getChars(position, position + n, cbuf, off);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    cbuf[off + i] = text.charAt(position + i);
+                }
+            }
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
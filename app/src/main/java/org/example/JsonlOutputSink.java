@@ -0,0 +1,105 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 解析結果を1ファイル1行のJSONL形式で1つのファイルへ出力するシンク。
+ * 各行は解析完了時に組み立てて1回で書き込むため、並行実行しても行が混ざりません。
+ *
+ * <p>行の形式: {@code {"file":..., "status":"ok"|"error", "text":..., "inputTokens":..., "outputTokens":...,
+ * "elapsedMillis":..., "error":...}}</p>
+ */
+public class JsonlOutputSink implements OutputSink {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Path file;
+    private final AsyncTextWriter writer;
+
+    /**
+     * @param file 出力先ファイル（既存の場合は上書き）
+     * @throws IOException ファイルを開けない場合
+     */
+    public JsonlOutputSink(Path file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * @param file   出力先ファイル
+     * @param append trueの場合は既存の内容の後ろに追記（中断した実行の再開用）
+     * @throws IOException ファイルを開けない場合
+     */
+    public JsonlOutputSink(Path file, boolean append) throws IOException {
+        this.file = file;
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        // ジャーナルへ完了を記録する前に結果行をfsyncする
+        this.writer = new AsyncTextWriter(SyncingWriter.open(file, append), AsyncTextWriter.DEFAULT_CAPACITY, true,
+                "jsonl-writer");
+    }
+
+    @Override
+    public Stream open(Path source) {
+        StringBuilder buffer = new StringBuilder();
+        return new Stream() {
+            @Override
+            public void accept(String partial) {
+                buffer.append(partial);
+            }
+
+            @Override
+            public void complete(AnalysisResult result) throws IOException {
+                writer.write(toLine(source, buffer, result));
+            }
+
+            @Override
+            public void complete(AnalysisResult result, Runnable onWritten) throws IOException {
+                writer.write(toLine(source, buffer, result), onWritten);
+            }
+        };
+    }
+
+    /**
+     * 1件分のJSON行を組み立てます。
+     *
+     * @param source 解析対象ファイル
+     * @param text   出力テキスト
+     * @param result 解析結果
+     * @return 改行付きのJSON行
+     * @throws IOException JSONの生成に失敗した場合
+     */
+    static String toLine(Path source, CharSequence text, AnalysisResult result) throws IOException {
+        StringWriter out = new StringWriter(text.length() + 128);
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeStringField("file", source.toString());
+            json.writeStringField("status", result.succeeded() ? "ok" : "error");
+            json.writeStringField("text", text.toString());
+            json.writeNumberField("inputTokens", result.inputTokens());
+            json.writeNumberField("outputTokens", result.outputTokens());
+            json.writeNumberField("elapsedMillis", result.elapsedMillis());
+            if (!result.succeeded()) {
+                json.writeStringField("error", String.valueOf(result.error().getMessage()));
+            }
+            json.writeEndObject();
+        }
+        return out.append('\n').toString();
+    }
+
+    @Override
+    public Path resultPathOf(Path source) {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,173 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 2つのテキストの行単位の差分をunified形式で求めるクラス。Myersの差分アルゴリズム（O((N+M)D)）を使います。
+ * 差分が小さい場合だけを対象とするため、編集数が上限を超えた時点で打ち切ります（作業領域も上限に比例します）。
+ */
+public final class LineDiff {
+    /**
+     * 変更行の前後に含める文脈の行数。
+     */
+    static final int CONTEXT_LINES = 2;
+
+    private LineDiff() {
+    }
+
+    /**
+     * 編集操作（1行分）。
+     *
+     * @param type     種類（' ': 共通、'-': 削除、'+': 追加）
+     * @param line     行の内容
+     * @param fromLine 変更前のテキストでの位置（この操作より前の行数）
+     * @param toLine   変更後のテキストでの位置（この操作より前の行数）
+     */
+    private record Edit(char type, String line, int fromLine, int toLine) {
+    }
+
+    /**
+     * unified形式の差分を返します。
+     *
+     * @param fromName 変更前の名前
+     * @param from     変更前のテキスト
+     * @param toName   変更後の名前
+     * @param to       変更後のテキスト
+     * @param maxEdits 許容する編集（追加・削除した行）の数
+     * @return 差分（編集数が上限を超える場合はnull、差分が無い場合は空文字列）
+     */
+    public static String unified(String fromName, String from, String toName, String to, int maxEdits) {
+        String[] a = lines(from);
+        String[] b = lines(to);
+        List<Edit> edits = diff(a, b, maxEdits);
+        if (edits == null) {
+            return null;
+        }
+        return format(fromName, toName, edits);
+    }
+
+    /**
+     * テキストを行に分けます。末尾の改行は最後の行の終わりとして扱います。
+     */
+    private static String[] lines(String text) {
+        if (text.isEmpty()) {
+            return new String[0];
+        }
+        String[] lines = text.split("\n", -1);
+        return text.endsWith("\n") ? Arrays.copyOf(lines, lines.length - 1) : lines;
+    }
+
+    private static List<Edit> diff(String[] a, String[] b, int maxEdits) {
+        int n = a.length;
+        int m = b.length;
+        int max = Math.min(n + m, Math.max(0, maxEdits));
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= max; d++) {
+            trace.add(Arrays.copyOf(v, v.length));
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+                        ? v[offset + k + 1]
+                        : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[x].equals(b[y])) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    return backtrack(a, b, trace, d, offset);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<Edit> backtrack(String[] a, String[] b, List<int[]> trace, int distance, int offset) {
+        List<Edit> reversed = new ArrayList<>();
+        int x = a.length;
+        int y = b.length;
+        for (int d = distance; d > 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            int previousK = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]) ? k + 1 : k - 1;
+            int previousX = v[offset + previousK];
+            int previousY = previousX - previousK;
+            while (x > previousX && y > previousY) {
+                x--;
+                y--;
+                reversed.add(new Edit(' ', a[x], x, y));
+            }
+            if (x == previousX) {
+                y--;
+                reversed.add(new Edit('+', b[y], x, y));
+            } else {
+                x--;
+                reversed.add(new Edit('-', a[x], x, y));
+            }
+        }
+        while (x > 0 && y > 0) {
+            x--;
+            y--;
+            reversed.add(new Edit(' ', a[x], x, y));
+        }
+        List<Edit> edits = new ArrayList<>(reversed.size());
+        for (int i = reversed.size() - 1; i >= 0; i--) {
+            edits.add(reversed.get(i));
+        }
+        return edits;
+    }
+
+    /**
+     * 編集操作を、変更箇所の前後CONTEXT_LINES行を含むハンクにまとめて出力します。
+     */
+    private static String format(String fromName, String toName, List<Edit> edits) {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < edits.size()) {
+            if (edits.get(i).type() == ' ') {
+                i++;
+                continue;
+            }
+            int start = Math.max(0, i - CONTEXT_LINES);
+            int end = i;
+            int lastChange = i;
+            while (end < edits.size() && end - lastChange <= 2 * CONTEXT_LINES) {
+                if (edits.get(end).type() != ' ') {
+                    lastChange = end;
+                }
+                end++;
+            }
+            end = Math.min(edits.size(), lastChange + CONTEXT_LINES + 1);
+            if (sb.isEmpty()) {
+                sb.append("--- ").append(fromName).append('\n').append("+++ ").append(toName).append('\n');
+            }
+            appendHunk(sb, edits.subList(start, end));
+            i = end;
+        }
+        return sb.toString();
+    }
+
+    private static void appendHunk(StringBuilder sb, List<Edit> hunk) {
+        int fromCount = 0;
+        int toCount = 0;
+        for (Edit edit : hunk) {
+            if (edit.type() != '+') {
+                fromCount++;
+            }
+            if (edit.type() != '-') {
+                toCount++;
+            }
+        }
+        Edit first = hunk.get(0);
+        sb.append("@@ -").append(first.fromLine() + (fromCount > 0 ? 1 : 0)).append(',').append(fromCount)
+                .append(" +").append(first.toLine() + (toCount > 0 ? 1 : 0)).append(',').append(toCount)
+                .append(" @@\n");
+        for (Edit edit : hunk) {
+            sb.append(edit.type()).append(edit.line()).append('\n');
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Option;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * チャットモデルに対してワークロードを再生し、TTFT・スループット・テールレイテンシを測定する負荷試験ドライバー。
+ * エンドポイントを指定しない場合は{@link MockLlmServer}を内部で起動し、料金をかけずに試験できます。
+ *
+ * <p>到着レート（--rate）を指定しない場合は、同時実行数を保ったまま次々に送信します（クローズドループ）。
+ * 指定した場合は一定間隔で送信し（オープンループ）、レイテンシは予定時刻から計測するため、詰まりによる待ち時間も含まれます。</p>
+ */
+@Command(name = "LoadTestDriver", mixinStandardHelpOptions = true, description = "チャットモデルの負荷試験を行います。")
+public class LoadTestDriver implements Runnable {
+    private static final Logger logger = LogManager.getLogger(LoadTestDriver.class);
+
+    @Option(names = { "--provider" }, defaultValue = "BEDROCK", description = "プロバイダー: ${COMPLETION-CANDIDATES}（デフォルト: ${DEFAULT-VALUE}）")
+    private ChatModelFactory.Provider provider;
+
+    @Option(names = { "--endpoint" }, description = "リージョンまたはエンドポイントURL（未指定時はMockLlmServerを内部で起動）")
+    private String endpoint;
+
+    @Option(names = { "--model" }, description = "モデルID（Azure OpenAIの場合はデプロイ名）")
+    private String modelId;
+
+    @Option(names = { "--api-key" }, description = "APIキー（未指定時は環境変数API_KEY）")
+    private String apiKey;
+
+    @Option(names = { "--code" }, description = "ワークロードとして送信するファイル（ディレクトリ・globパターンもカンマ区切りで指定可）")
+    private String codePath;
+
+    @Option(names = { "--include" }, defaultValue = "*.java", description = "ディレクトリ指定時に対象とするファイル名のglobパターン（デフォルト: ${DEFAULT-VALUE}）")
+    private String includeGlob;
+
+    @Option(names = { "--prompt-chars" }, defaultValue = "4000", description = "--code未指定時に生成する入力の文字数（デフォルト: ${DEFAULT-VALUE}）")
+    private int promptChars;
+
+    @Option(names = { "--requests" }, defaultValue = "100", description = "送信するリクエスト数（デフォルト: ${DEFAULT-VALUE}）")
+    private int requests;
+
+    @Option(names = { "--concurrency" }, defaultValue = "8", description = "同時実行数の上限（デフォルト: ${DEFAULT-VALUE}）")
+    private int concurrency;
+
+    @Option(names = { "--rate" }, defaultValue = "0", description = "1秒あたりの送信数（0で同時実行数を保って連続送信）")
+    private double rate;
+
+    @Option(names = { "--report" }, description = "結果をJSONで出力するファイル")
+    private String reportPath;
+
+    @Option(names = { "--metrics-prom" }, description = "プロバイダー・モデルごとのTTFT・トークン間隔・生成速度のヒストグラムをPrometheusのテキスト形式で出力するファイル")
+    private String metricsProm;
+
+    @Mixin
+    private MockLlmServer.BehaviorOptions mockOptions = new MockLlmServer.BehaviorOptions();
+
+    /**
+     * 1リクエスト分の測定値。
+     *
+     * @param ttftNanos    最初のトークンまでの時間（ナノ秒、トークンが無い場合は-1）
+     * @param latencyNanos 完了までの時間（ナノ秒）
+     * @param outputTokens 出力トークン数
+     * @param error        エラー（成功時はnull）
+     */
+    public record Sample(long ttftNanos, long latencyNanos, long outputTokens, Throwable error) {
+    }
+
+    /**
+     * 負荷試験の集計結果。時間はミリ秒です。
+     *
+     * @param requests         リクエスト数
+     * @param succeeded        成功数
+     * @param failed           失敗数
+     * @param throttled        失敗のうちスロットリングの数
+     * @param elapsedMillis    全体の経過時間
+     * @param outputTokens     出力トークン数の合計
+     * @param ttftP50          TTFTの中央値
+     * @param ttftP95          TTFTの95パーセンタイル
+     * @param ttftP99          TTFTの99パーセンタイル
+     * @param latencyP50       レイテンシの中央値
+     * @param latencyP95       レイテンシの95パーセンタイル
+     * @param latencyP99       レイテンシの99パーセンタイル
+     */
+    public record Report(int requests, int succeeded, int failed, int throttled, double elapsedMillis,
+            long outputTokens, double ttftP50, double ttftP95, double ttftP99, double latencyP50,
+            double latencyP95, double latencyP99) {
+
+        /**
+         * 1秒あたりの完了リクエスト数を返します。
+         *
+         * @return リクエスト/秒
+         */
+        public double requestsPerSecond() {
+            return elapsedMillis == 0 ? 0 : succeeded * 1000.0 / elapsedMillis;
+        }
+
+        /**
+         * 1秒あたりの出力トークン数を返します。
+         *
+         * @return トークン/秒
+         */
+        public double tokensPerSecond() {
+            return elapsedMillis == 0 ? 0 : outputTokens * 1000.0 / elapsedMillis;
+        }
+
+        /**
+         * 測定値から集計結果を作ります。パーセンタイルは成功したリクエストのみで計算します。
+         *
+         * @param samples       測定値
+         * @param elapsedNanos  全体の経過時間（ナノ秒）
+         * @return 集計結果
+         */
+        public static Report of(List<Sample> samples, long elapsedNanos) {
+            long[] ttft = samples.stream().filter(s -> s.error() == null && s.ttftNanos() >= 0)
+                    .mapToLong(Sample::ttftNanos).sorted().toArray();
+            long[] latency = samples.stream().filter(s -> s.error() == null)
+                    .mapToLong(Sample::latencyNanos).sorted().toArray();
+            int failed = (int) samples.stream().filter(s -> s.error() != null).count();
+            int throttled = (int) samples.stream()
+                    .filter(s -> s.error() != null && RetryPolicy.isThrottling(s.error())).count();
+            long tokens = samples.stream().filter(s -> s.error() == null).mapToLong(Sample::outputTokens).sum();
+            return new Report(samples.size(), samples.size() - failed, failed, throttled, elapsedNanos / 1e6,
+                    tokens, percentileMillis(ttft, 50), percentileMillis(ttft, 95), percentileMillis(ttft, 99),
+                    percentileMillis(latency, 50), percentileMillis(latency, 95), percentileMillis(latency, 99));
+        }
+    }
+
+    /**
+     * 昇順に並んだ値のパーセンタイル（最近傍順位法）をミリ秒で返します。
+     *
+     * @param sortedNanos 昇順の値（ナノ秒）
+     * @param percentile  パーセンタイル（0～100）
+     * @return ミリ秒（値が無い場合は0）
+     */
+    static double percentileMillis(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedNanos.length);
+        return sortedNanos[Math.max(0, Math.min(sortedNanos.length, rank) - 1)] / 1e6;
+    }
+
+    /**
+     * ワークロードを再生して測定します。入力はワークロードを先頭から順に繰り返して使います。
+     *
+     * @param model       対象のチャットモデル
+     * @param workload    入力テキスト（1件以上）
+     * @param requests    リクエスト数
+     * @param concurrency 同時実行数の上限
+     * @param rate        1秒あたりの送信数（0以下でクローズドループ）
+     * @return 集計結果
+     */
+    public static Report drive(StreamingChatModel model, List<String> workload, int requests, int concurrency,
+            double rate) {
+        Semaphore permits = new Semaphore(Math.max(1, concurrency));
+        Sample[] samples = new Sample[requests];
+        AtomicInteger completed = new AtomicInteger();
+        long intervalNanos = rate > 0 ? (long) (1_000_000_000L / rate) : 0;
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < requests; i++) {
+                int index = i;
+                long scheduled = start + i * intervalNanos;
+                if (intervalNanos > 0) {
+                    sleepUntil(scheduled);
+                } else {
+                    permits.acquireUninterruptibly();
+                }
+                executor.submit(() -> {
+                    if (intervalNanos > 0) {
+                        permits.acquireUninterruptibly();
+                    }
+                    long from = intervalNanos > 0 ? scheduled : System.nanoTime();
+                    try {
+                        samples[index] = measure(model, workload.get(index % workload.size()), from);
+                    } catch (Throwable e) {
+                        // measureが捕捉しないError（モデル内のAssertionErrorなど）も失敗として数える
+                        samples[index] = new Sample(-1, System.nanoTime() - from, 0, e);
+                    } finally {
+                        permits.release();
+                        int done = completed.incrementAndGet();
+                        if (done % Math.max(1, requests / 10) == 0) {
+                            logger.info("進捗: {}/{}", done, requests);
+                        }
+                    }
+                });
+            }
+        }
+        for (int i = 0; i < requests; i++) {
+            if (samples[i] == null) {
+                // 実行される前に打ち切られたリクエスト
+                samples[i] = new Sample(-1, 0, 0, new CancellationException("リクエストが実行されませんでした"));
+            }
+        }
+        return Report.of(Arrays.asList(samples), System.nanoTime() - start);
+    }
+
+    /**
+     * 1リクエストを送信し、完了まで待って測定値を返します。
+     */
+    private static Sample measure(StreamingChatModel model, String input, long from) {
+        AtomicLong firstToken = new AtomicLong(-1);
+        AtomicLong partials = new AtomicLong();
+        CompletableFuture<ChatResponse> future = new CompletableFuture<>();
+        try {
+            model.chat(input, new StreamingChatResponseHandler() {
+                @Override
+                public void onPartialResponse(String partialResponse) {
+                    firstToken.compareAndSet(-1, System.nanoTime());
+                    partials.incrementAndGet();
+                }
+
+                @Override
+                public void onCompleteResponse(ChatResponse completeResponse) {
+                    future.complete(completeResponse);
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    future.completeExceptionally(error);
+                }
+            });
+            ChatResponse response = future.get(10, TimeUnit.MINUTES);
+            long end = System.nanoTime();
+            long tokens = response.tokenUsage() != null && response.tokenUsage().outputTokenCount() != null
+                    ? response.tokenUsage().outputTokenCount()
+                    : partials.get();
+            return new Sample(firstToken.get() < 0 ? -1 : firstToken.get() - from, end - from, tokens, null);
+        } catch (Exception e) {
+            return new Sample(-1, System.nanoTime() - from, 0, SourceAnalyzer.unwrap(e));
+        }
+    }
+
+    private static void sleepUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    @Override
+    public void run() {
+        List<String> workload;
+        try {
+            workload = loadWorkload();
+        } catch (IOException e) {
+            logger.error("ワークロードの読み込みに失敗しました: {}", e.getMessage());
+            return;
+        }
+        MockLlmServer mock = null;
+        try {
+            String target = endpoint;
+            if (target == null) {
+                mock = new MockLlmServer(mockOptions.toBehavior()).start(0);
+                target = provider == ChatModelFactory.Provider.GEMINI ? mock.geminiEndpoint() : mock.baseUrl();
+            }
+            String model = modelId != null ? modelId : App.ModelId.CLAUDE_3_5_SONNET.getValue();
+            String key = apiKey != null ? apiKey : System.getenv("API_KEY");
+            logger.info("負荷試験を開始します: {} / {} / {}件 / 同時実行数 {} / レート {}", provider, target, requests,
+                    concurrency, rate > 0 ? rate + "件/秒" : "クローズドループ");
+            StreamingMetrics metrics = StreamingMetrics.global();
+            Report report = drive(new MetricsChatModel(ChatModelFactory.shared(provider, model, target, key, null),
+                    metrics, provider, model, TokenEstimator.forModel(model)), workload, requests, concurrency, rate);
+            logReport(report);
+            if (reportPath != null) {
+                writeJson(report, Paths.get(reportPath));
+                logger.info("結果を出力しました: {}", reportPath);
+            }
+            if (metricsProm != null) {
+                metrics.writePrometheus(Paths.get(metricsProm));
+                logger.info("計測値を出力しました: {}", metricsProm);
+            }
+        } catch (IOException e) {
+            logger.error("負荷試験に失敗しました: {}", e.getMessage());
+        } finally {
+            if (mock != null) {
+                mock.close();
+            }
+        }
+    }
+
+    private List<String> loadWorkload() throws IOException {
+        if (codePath == null) {
+            StringBuilder sb = new StringBuilder(promptChars);
+            while (sb.length() < promptChars) {
+                sb.append("public class Sample { void run() { System.out.println(\"負荷試験用の入力です\"); } }\n");
+            }
+            return List.of(sb.toString());
+        }
+        List<String> workload = new ArrayList<>();
+        for (Path file : new SourceCollector(includeGlob).collect(codePath)) {
+            workload.add(SourceLoader.readString(file));
+        }
+        if (workload.isEmpty()) {
+            throw new IOException("ワークロードのファイルがありません: " + codePath);
+        }
+        return workload;
+    }
+
+    private static void logReport(Report r) {
+        logger.info("完了: {}件 / 成功 {}件 / 失敗 {}件（スロットリング {}件）/ 経過時間 {} ms", r.requests(), r.succeeded(),
+                r.failed(), r.throttled(), String.format("%.0f", r.elapsedMillis()));
+        logger.info("スループット: {} リクエスト/秒, {} トークン/秒", String.format("%.2f", r.requestsPerSecond()),
+                String.format("%.1f", r.tokensPerSecond()));
+        logger.info("TTFT (ms): p50={} p95={} p99={}", String.format("%.1f", r.ttftP50()),
+                String.format("%.1f", r.ttftP95()), String.format("%.1f", r.ttftP99()));
+        logger.info("レイテンシ (ms): p50={} p95={} p99={}", String.format("%.1f", r.latencyP50()),
+                String.format("%.1f", r.latencyP95()), String.format("%.1f", r.latencyP99()));
+    }
+
+    /**
+     * 集計結果をJSONで書き出します。
+     *
+     * @param report 集計結果
+     * @param file   出力先
+     * @throws IOException 書き出しに失敗した場合
+     */
+    static void writeJson(Report report, Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+                JsonGenerator json = new JsonFactory().createGenerator(writer)) {
+            json.useDefaultPrettyPrinter();
+            json.writeStartObject();
+            json.writeNumberField("requests", report.requests());
+            json.writeNumberField("succeeded", report.succeeded());
+            json.writeNumberField("failed", report.failed());
+            json.writeNumberField("throttled", report.throttled());
+            json.writeNumberField("elapsedMillis", report.elapsedMillis());
+            json.writeNumberField("outputTokens", report.outputTokens());
+            json.writeNumberField("requestsPerSecond", report.requestsPerSecond());
+            json.writeNumberField("tokensPerSecond", report.tokensPerSecond());
+            json.writeObjectFieldStart("ttftMillis");
+            json.writeNumberField("p50", report.ttftP50());
+            json.writeNumberField("p95", report.ttftP95());
+            json.writeNumberField("p99", report.ttftP99());
+            json.writeEndObject();
+            json.writeObjectFieldStart("latencyMillis");
+            json.writeNumberField("p50", report.latencyP50());
+            json.writeNumberField("p95", report.latencyP95());
+            json.writeNumberField("p99", report.latencyP99());
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+    }
+
+    /**
+     * コマンドライン引数を受け取り、負荷試験を実行します。
+     *
+     * @param args コマンドライン引数
+     */
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new LoadTestDriver()).execute(args);
+        ChatModelRegistry.shared().close();
+        System.exit(exitCode);
+    }
+}
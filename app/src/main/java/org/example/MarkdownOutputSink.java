@@ -0,0 +1,65 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * 解析対象ファイルごとに{@code <相対パス>.md}へ出力するシンク。
+ * ファイルごとに{@link AsyncTextWriter}を持ち、断片はバックグラウンドでまとめて書き出します。
+ */
+public class MarkdownOutputSink implements OutputSink {
+    /**
+     * 1ファイル分の書き出しキュー容量。
+     */
+    private static final int CAPACITY = 1024;
+
+    private final Path outDir;
+
+    /**
+     * @param outDir 出力先ディレクトリ
+     */
+    public MarkdownOutputSink(Path outDir) {
+        this.outDir = outDir;
+    }
+
+    @Override
+    public Stream open(Path source) throws IOException {
+        Path outFile = resultPathOf(source);
+        Files.createDirectories(outFile.getParent());
+        AsyncTextWriter writer = new AsyncTextWriter(Files.newBufferedWriter(outFile, StandardCharsets.UTF_8),
+                CAPACITY, true, "markdown-writer");
+        return new Stream() {
+            @Override
+            public void accept(String partial) {
+                writer.write(partial);
+            }
+
+            @Override
+            public void complete(AnalysisResult result) throws IOException {
+                writer.close();
+            }
+        };
+    }
+
+    /**
+     * 出力ファイルのパスを決定します。カレントディレクトリ配下のファイルは相対パスの構造を保ちます。
+     *
+     * @param source 解析対象ファイル
+     * @return 出力先のパス
+     */
+    @Override
+    public Path resultPathOf(Path source) {
+        Path absolute = source.toAbsolutePath().normalize();
+        Path cwd = Paths.get("").toAbsolutePath();
+        Path relative = absolute.startsWith(cwd) ? cwd.relativize(absolute) : absolute.getFileName();
+        return outDir.resolve(relative.toString() + ".md");
+    }
+
+    @Override
+    public void close() {
+        // ファイルごとの出力は各Streamの完了時に閉じている
+    }
+}
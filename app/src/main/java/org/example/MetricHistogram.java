@@ -0,0 +1,156 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 0以上の整数値の分布を記録する、ロックなしの対数線形ヒストグラム。
+ * 2のべき乗ごとの区間をさらに8等分したバケットに数えるため、相対誤差12.5%以内でパーセンタイルを求められます。
+ * 記録はバケットのカウンタを1つ増やすだけで、メモリ確保もロックも行いません。
+ *
+ * <p>各バケットは上限を含む区間（lower, upper]で、0と2のべき乗は必ずバケットの上限になるため、
+ * Prometheus形式の累積バケット（le）は2のべき乗で出力すると正確です。</p>
+ */
+public class MetricHistogram {
+    /**
+     * 2のべき乗の区間を分割するビット数（2^3 = 8分割）。
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * 値0専用のバケットと、1以上の値（v - 1で区分け）のバケット。
+     */
+    private static final int BUCKET_COUNT = 1 + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 値を記録します。負の値は0として扱います。
+     *
+     * @param value 値
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(indexOf(v));
+        count.increment();
+        sum.add(v);
+        long current;
+        while (v > (current = max.get())) {
+            if (max.compareAndSet(current, v)) {
+                break;
+            }
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value == 0) {
+            return 0;
+        }
+        // 上限を含む区間にするため、v - 1を下限を含む対数線形バケットに振り分ける
+        long v = value - 1;
+        if (v < SUB_BUCKETS) {
+            return 1 + (int) v;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) ((v >>> shift) & (SUB_BUCKETS - 1));
+        return 1 + (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * バケットに入る値の上限（この値を含む）を返します。
+     */
+    static long upperBoundOf(int index) {
+        if (index <= SUB_BUCKETS) {
+            return index;
+        }
+        int group = (index - 1) / SUB_BUCKETS;
+        int sub = (index - 1) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub + 1) << (group - 1);
+    }
+
+    /**
+     * 記録した件数を返します。
+     *
+     * @return 件数
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * 記録した値の合計を返します。
+     *
+     * @return 合計
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * 記録した値の最大値を返します。
+     *
+     * @return 最大値（未記録の場合は0）
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * 記録した値の平均を返します。
+     *
+     * @return 平均（未記録の場合は0）
+     */
+    public double mean() {
+        long n = count();
+        return n == 0 ? 0 : (double) sum() / n;
+    }
+
+    /**
+     * パーセンタイルを返します。値は該当バケットの上限（最大値を超えない）で、相対誤差は12.5%以内です。
+     *
+     * @param percentile パーセンタイル（0～100）
+     * @return パーセンタイル値（未記録の場合は0）
+     */
+    public long percentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= rank) {
+                return Math.min(upperBoundOf(i), max());
+            }
+        }
+        return max();
+    }
+
+    /**
+     * 指定した値以下の件数（累積）を返します。boundが0または2のべき乗であれば正確な値です。
+     *
+     * @param bound 上限（この値を含む）
+     * @return 件数
+     */
+    public long countAtOrBelow(long bound) {
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (upperBoundOf(i) > bound) {
+                break;
+            }
+            cumulative += counts.get(i);
+        }
+        return cumulative;
+    }
+}
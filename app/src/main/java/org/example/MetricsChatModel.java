@@ -0,0 +1,71 @@
+package org.example;
+
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * StreamingChatModelをラップし、1回の送信ごとにTTFT・部分応答の間隔・所要時間・トークン数を
+ * {@link StreamingMetrics}へ記録するクラス。
+ * RateLimitedChatModelの内側に置くと、レート制御の待ち時間を含まないプロバイダー自体の性能を、
+ * 再試行の1回ずつについて計測できます。
+ * キャンセルされた送信は、エラーではなくキャンセルとして数えます。
+ */
+public class MetricsChatModel implements CancellableChatModel {
+    private final CancellableChatModel delegate;
+    private final StreamingMetrics metrics;
+    private final String provider;
+    private final String modelId;
+    private final TokenEstimator tokenEstimator;
+
+    /**
+     * @param delegate       実際にリクエストを送信するモデル
+     * @param metrics        記録先
+     * @param provider       プロバイダー
+     * @param modelId        モデルID
+     * @param tokenEstimator 使用量が報告されない場合のトークン見積もり
+     */
+    public MetricsChatModel(StreamingChatModel delegate, StreamingMetrics metrics, ChatModelFactory.Provider provider,
+            String modelId, TokenEstimator tokenEstimator) {
+        this.delegate = CancellableChatModel.of(delegate);
+        this.metrics = metrics;
+        this.provider = provider.name();
+        this.modelId = modelId;
+        this.tokenEstimator = tokenEstimator;
+    }
+
+    @Override
+    public CompletableFuture<ChatResponse> chatCancellable(ChatRequest request, StreamingChatResponseHandler handler) {
+        StreamingMetrics.Recorder recorder = metrics.start(provider, modelId);
+        StreamingChatResponseHandler measured = metrics.instrument(recorder, handler,
+                tokenEstimator.estimate(RateLimitedChatModel.textOf(request)), tokenEstimator);
+        CompletableFuture<ChatResponse> result;
+        try {
+            result = delegate.chatCancellable(request, measured);
+        } catch (RuntimeException e) {
+            measured.onError(e);
+            return CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                recorder.onCancel();
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+}
@@ -0,0 +1,510 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Option;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * 負荷試験・オフライン試験用に、LLMのストリーミングAPIを模擬するHTTPサーバー。
+ * 実際のエンドポイントの代わりに起動し、料金をかけずに解析処理の性能を測定できます。
+ *
+ * <p>次の3つの形式に対応し、リクエストのパスで切り替えます。</p>
+ * <ul>
+ * <li>Bedrock ConverseStream（{@code /model/{modelId}/converse-stream}）: AWSのイベントストリーム形式（バイナリ）</li>
+ * <li>Azure OpenAI（{@code /openai/deployments/{name}/chat/completions}）: SSE形式のchat.completion.chunk</li>
+ * <li>Gemini（パスに{@code generateContent}を含む）: SSE形式のGenerateContentResponse</li>
+ * </ul>
+ *
+ * <p>最初のトークンまでの時間（TTFT）、1秒あたりのトークン数、応答トークン数、エラー率、スロットリング率を設定できます。
+ * Bedrockのリクエストにキャッシュポイントがある場合は、プロンプトキャッシュの読み込み・書き込みトークン数も報告します。</p>
+ */
+@Command(name = "MockLlmServer", mixinStandardHelpOptions = true, description = "LLMのストリーミングAPIを模擬するHTTPサーバー")
+public class MockLlmServer implements Runnable, AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(MockLlmServer.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * 応答として返す語（順に繰り返します）。
+     */
+    private static final String[] WORDS = { "この", "クラスは", "入力値を", "検証し、", "結果を", "返します。", "\n" };
+
+    /**
+     * 模擬サーバーの振る舞い。
+     *
+     * @param ttftMillis      最初のトークンまでの時間（ミリ秒）
+     * @param tokensPerSecond 1秒あたりの出力トークン数（0以下で待機なし）
+     * @param responseTokens  1回の応答で返すトークン数
+     * @param errorRate       サーバーエラー（503）を返す確率（0～1）
+     * @param throttleRate    スロットリング（429）を返す確率（0～1）
+     */
+    public record Behavior(long ttftMillis, double tokensPerSecond, int responseTokens, double errorRate,
+            double throttleRate) {
+        /**
+         * 待機なし・エラーなしの振る舞い（テスト用）。
+         */
+        public static final Behavior INSTANT = new Behavior(0, 0, 16, 0, 0);
+    }
+
+    /**
+     * 振る舞いを指定するコマンドラインオプション。LoadTestDriverでも共用します。
+     */
+    public static class BehaviorOptions {
+        @Option(names = { "--ttft-ms" }, defaultValue = "300", description = "最初のトークンまでの時間（ミリ秒、デフォルト: ${DEFAULT-VALUE}）")
+        long ttftMillis;
+
+        @Option(names = { "--tokens-per-second" }, defaultValue = "50", description = "1秒あたりの出力トークン数（デフォルト: ${DEFAULT-VALUE}）")
+        double tokensPerSecond;
+
+        @Option(names = { "--response-tokens" }, defaultValue = "200", description = "1回の応答のトークン数（デフォルト: ${DEFAULT-VALUE}）")
+        int responseTokens;
+
+        @Option(names = { "--error-rate" }, defaultValue = "0", description = "503エラーを返す確率（0～1）")
+        double errorRate;
+
+        @Option(names = { "--throttle-rate" }, defaultValue = "0", description = "429（スロットリング）を返す確率（0～1）")
+        double throttleRate;
+
+        Behavior toBehavior() {
+            return new Behavior(ttftMillis, tokensPerSecond, responseTokens, errorRate, throttleRate);
+        }
+    }
+
+    @Option(names = { "--port" }, defaultValue = "8089", description = "待ち受けポート（0で自動割り当て、デフォルト: ${DEFAULT-VALUE}）")
+    private int port;
+
+    @Mixin
+    private BehaviorOptions behaviorOptions = new BehaviorOptions();
+
+    private volatile Behavior behavior;
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final Set<String> cachedPrefixes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * コマンドラインから起動する場合のコンストラクタ。
+     */
+    public MockLlmServer() {
+    }
+
+    /**
+     * @param behavior 振る舞い
+     */
+    public MockLlmServer(Behavior behavior) {
+        this.behavior = behavior;
+    }
+
+    /**
+     * 指定したポートでサーバーを起動します。
+     *
+     * @param port 待ち受けポート（0で自動割り当て）
+     * @return このサーバー
+     * @throws IOException 起動に失敗した場合
+     */
+    public MockLlmServer start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        logger.info("MockLlmServerを起動しました: {}", baseUrl());
+        return this;
+    }
+
+    /**
+     * 待ち受けているベースURL（例: http://127.0.0.1:8089）を返します。
+     *
+     * @return ベースURL
+     */
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Gemini形式のエンドポイントURLを返します。
+     *
+     * @return GeminiのエンドポイントURL
+     */
+    public String geminiEndpoint() {
+        return baseUrl() + "/v1beta/models/mock:streamGenerateContent?alt=sse";
+    }
+
+    /**
+     * 受け付けたリクエスト数を返します。
+     *
+     * @return リクエスト数
+     */
+    public long requestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * 振る舞いを変更します。以降のリクエストに反映されます。
+     *
+     * @param behavior 振る舞い
+     */
+    public void setBehavior(Behavior behavior) {
+        this.behavior = behavior;
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.close();
+        }
+    }
+
+    @Override
+    public void run() {
+        behavior = behaviorOptions.toBehavior();
+        try {
+            start(port);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logger.info("Bedrock / Azure OpenAI: エンドポイントに {} を指定してください", baseUrl());
+        logger.info("Gemini: {}", geminiEndpoint());
+        logger.info("Ctrl+Cで終了します。");
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "mock-llm-server-close"));
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        try (exchange) {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            long inputTokens = Math.max(1, body.length / 4);
+            String path = exchange.getRequestURI().getPath();
+            Protocol protocol = path.endsWith("/converse-stream") ? Protocol.BEDROCK
+                    : path.endsWith("/chat/completions") ? Protocol.AZURE_OPENAI
+                            : path.toLowerCase().contains("generatecontent") ? Protocol.GEMINI : null;
+            if (protocol == null) {
+                sendError(exchange, 404, "NotFound", "未対応のパスです: " + path);
+                return;
+            }
+            Behavior b = behavior;
+            double roll = ThreadLocalRandom.current().nextDouble();
+            if (roll < b.throttleRate()) {
+                sendError(exchange, 429, "ThrottlingException", "Too many requests, please wait before trying again.");
+                return;
+            }
+            if (roll < b.throttleRate() + b.errorRate()) {
+                sendError(exchange, 503, "ServiceUnavailableException", "Service unavailable. Please try again.");
+                return;
+            }
+            CacheUsage cache = protocol == Protocol.BEDROCK ? promptCache(body) : null;
+            stream(exchange, protocol, b, inputTokens, cache);
+        } catch (IOException e) {
+            // クライアントによる切断（ヘッジ時のキャンセルなど）
+            logger.debug("応答の送信を中断しました: {}", e.getMessage());
+        }
+    }
+
+    private enum Protocol {
+        BEDROCK, AZURE_OPENAI, GEMINI
+    }
+
+    /**
+     * プロンプトキャッシュの読み込み・書き込みトークン数。
+     */
+    private record CacheUsage(long readTokens, long writeTokens) {
+    }
+
+    /**
+     * Bedrockのリクエストにキャッシュポイントがあれば、その前までの内容を接頭辞としてキャッシュした扱いにします。
+     * 初めての接頭辞は書き込み、2回目以降は読み込みとして報告します。
+     *
+     * @param body リクエストボディ
+     * @return キャッシュの使用量（キャッシュポイントが無い場合はnull）
+     */
+    private CacheUsage promptCache(byte[] body) {
+        JsonNode root;
+        try {
+            root = OBJECT_MAPPER.readTree(body);
+        } catch (IOException e) {
+            return null;
+        }
+        StringBuilder prefix = new StringBuilder();
+        boolean cachePoint = appendUntilCachePoint(root.path("system"), prefix);
+        if (!cachePoint) {
+            prefix.setLength(0);
+            JsonNode first = root.path("messages").path(0).path("content");
+            cachePoint = appendUntilCachePoint(first, prefix);
+        }
+        if (!cachePoint) {
+            return null;
+        }
+        long tokens = prefix.toString().getBytes(StandardCharsets.UTF_8).length / 4;
+        return cachedPrefixes.add(prefix.toString()) ? new CacheUsage(0, tokens) : new CacheUsage(tokens, 0);
+    }
+
+    private static boolean appendUntilCachePoint(JsonNode blocks, StringBuilder prefix) {
+        for (JsonNode block : blocks) {
+            if (block.has("cachePoint")) {
+                return true;
+            }
+            prefix.append(block.path("text").asText(""));
+        }
+        return false;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String type, String message) throws IOException {
+        byte[] body = json(g -> {
+            g.writeStringField("message", message);
+            g.writeObjectFieldStart("error");
+            g.writeNumberField("code", status);
+            g.writeStringField("type", type);
+            g.writeStringField("message", message);
+            g.writeEndObject();
+        }).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("x-amzn-ErrorType", type);
+        if (status == 429) {
+            exchange.getResponseHeaders().add("Retry-After", "1");
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * TTFTだけ待ってから、指定のペースでトークンを1つずつ送信します。
+     */
+    private static void stream(HttpExchange exchange, Protocol protocol, Behavior b, long inputTokens,
+            CacheUsage cache) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type",
+                protocol == Protocol.BEDROCK ? "application/vnd.amazon.eventstream" : "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        long start = System.nanoTime();
+        if (protocol == Protocol.BEDROCK) {
+            out.write(bedrockEvent("messageStart", json(g -> g.writeStringField("role", "assistant"))));
+            out.flush();
+        }
+        long intervalNanos = b.tokensPerSecond() > 0 ? (long) (1_000_000_000L / b.tokensPerSecond()) : 0;
+        long firstTokenAt = start + b.ttftMillis() * 1_000_000L;
+        for (int i = 0; i < b.responseTokens(); i++) {
+            sleepUntil(firstTokenAt + i * intervalNanos);
+            String token = WORDS[i % WORDS.length];
+            switch (protocol) {
+                case BEDROCK -> out.write(bedrockEvent("contentBlockDelta", json(g -> {
+                    g.writeNumberField("contentBlockIndex", 0);
+                    g.writeObjectFieldStart("delta");
+                    g.writeStringField("text", token);
+                    g.writeEndObject();
+                })));
+                case AZURE_OPENAI -> out.write(sse(azureChunk(token, null, null)));
+                case GEMINI -> out.write(sse(geminiChunk(token, i == b.responseTokens() - 1 ? inputTokens : -1,
+                        b.responseTokens())));
+            }
+            out.flush();
+        }
+        long latencyMillis = (System.nanoTime() - start) / 1_000_000;
+        switch (protocol) {
+            case BEDROCK -> {
+                out.write(bedrockEvent("contentBlockStop", json(g -> g.writeNumberField("contentBlockIndex", 0))));
+                out.write(bedrockEvent("messageStop", json(g -> g.writeStringField("stopReason", "end_turn"))));
+                out.write(bedrockEvent("metadata", json(g -> {
+                    g.writeObjectFieldStart("usage");
+                    long cachedTokens = cache != null ? cache.readTokens() + cache.writeTokens() : 0;
+                    g.writeNumberField("inputTokens", Math.max(0, inputTokens - cachedTokens));
+                    g.writeNumberField("outputTokens", b.responseTokens());
+                    g.writeNumberField("totalTokens", inputTokens + b.responseTokens());
+                    if (cache != null) {
+                        g.writeNumberField("cacheReadInputTokens", cache.readTokens());
+                        g.writeNumberField("cacheWriteInputTokens", cache.writeTokens());
+                    }
+                    g.writeEndObject();
+                    g.writeObjectFieldStart("metrics");
+                    g.writeNumberField("latencyMs", latencyMillis);
+                    g.writeEndObject();
+                })));
+            }
+            case AZURE_OPENAI -> {
+                out.write(sse(azureChunk(null, "stop", null)));
+                out.write(sse(azureChunk(null, null, new long[] { inputTokens, b.responseTokens() })));
+                out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+            }
+            case GEMINI -> {
+                if (b.responseTokens() == 0) {
+                    out.write(sse(geminiChunk("", inputTokens, 0)));
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private static void sleepUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static byte[] sse(String json) {
+        return ("data: " + json + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String azureChunk(String content, String finishReason, long[] usage) {
+        return json(g -> {
+            g.writeStringField("id", "chatcmpl-mock");
+            g.writeStringField("object", "chat.completion.chunk");
+            g.writeNumberField("created", System.currentTimeMillis() / 1000);
+            g.writeStringField("model", "mock");
+            g.writeArrayFieldStart("choices");
+            if (usage == null) {
+                g.writeStartObject();
+                g.writeNumberField("index", 0);
+                g.writeObjectFieldStart("delta");
+                if (content != null) {
+                    g.writeStringField("role", "assistant");
+                    g.writeStringField("content", content);
+                }
+                g.writeEndObject();
+                if (finishReason != null) {
+                    g.writeStringField("finish_reason", finishReason);
+                } else {
+                    g.writeNullField("finish_reason");
+                }
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+            if (usage != null) {
+                g.writeObjectFieldStart("usage");
+                g.writeNumberField("prompt_tokens", usage[0]);
+                g.writeNumberField("completion_tokens", usage[1]);
+                g.writeNumberField("total_tokens", usage[0] + usage[1]);
+                g.writeEndObject();
+            }
+        });
+    }
+
+    private static String geminiChunk(String text, long inputTokens, int outputTokens) {
+        return json(g -> {
+            g.writeArrayFieldStart("candidates");
+            g.writeStartObject();
+            g.writeObjectFieldStart("content");
+            g.writeArrayFieldStart("parts");
+            g.writeStartObject();
+            g.writeStringField("text", text);
+            g.writeEndObject();
+            g.writeEndArray();
+            g.writeStringField("role", "model");
+            g.writeEndObject();
+            g.writeNumberField("index", 0);
+            g.writeEndObject();
+            g.writeEndArray();
+            if (inputTokens >= 0) {
+                g.writeObjectFieldStart("usageMetadata");
+                g.writeNumberField("promptTokenCount", inputTokens);
+                g.writeNumberField("candidatesTokenCount", outputTokens);
+                g.writeNumberField("totalTokenCount", inputTokens + outputTokens);
+                g.writeEndObject();
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface JsonBody {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    private static String json(JsonBody body) {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            body.write(generator);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    private static byte[] bedrockEvent(String eventType, String payload) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put(":event-type", eventType);
+        headers.put(":content-type", "application/json");
+        headers.put(":message-type", "event");
+        return eventStreamMessage(headers, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * AWSのイベントストリーム形式の1メッセージを組み立てます。
+     * 形式: 全体長(4) ヘッダー長(4) プレリュードCRC(4) ヘッダー ペイロード メッセージCRC(4)。
+     * ヘッダーは 名前長(1) 名前 型(1, 7=文字列) 値長(2) 値 の並びです。
+     *
+     * @param headers ヘッダー（文字列型のみ）
+     * @param payload ペイロード
+     * @return エンコードしたメッセージ
+     */
+    static byte[] eventStreamMessage(Map<String, String> headers, byte[] payload) {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            byte[] name = header.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value = header.getValue().getBytes(StandardCharsets.UTF_8);
+            headerBytes.write(name.length);
+            headerBytes.writeBytes(name);
+            headerBytes.write(7);
+            headerBytes.write((value.length >>> 8) & 0xFF);
+            headerBytes.write(value.length & 0xFF);
+            headerBytes.writeBytes(value);
+        }
+        int headersLength = headerBytes.size();
+        int totalLength = 12 + headersLength + payload.length + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(totalLength);
+        buffer.putInt(totalLength).putInt(headersLength);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, 8);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(headerBytes.toByteArray()).put(payload);
+        crc.reset();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * コマンドライン引数を受け取り、サーバーを起動します。
+     *
+     * @param args コマンドライン引数
+     */
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new MockLlmServer()).execute(args);
+        System.exit(exitCode);
+    }
+}
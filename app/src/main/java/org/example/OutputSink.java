@@ -0,0 +1,116 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * 解析結果の出力先。ファイルごとに{@link Stream}を開き、ストリーミングで受け取った断片を書き込みます。
+ * 書き出しはバックグラウンドで行うため、出力先が遅くても応答の受信を止めません。
+ * 実装は複数スレッドから同時に利用できます。
+ */
+public interface OutputSink extends Closeable {
+
+    /**
+     * 1ファイル分の出力。{@link #accept(String)}で断片を書き込み、最後に{@link #complete(AnalysisResult)}を1回呼び出します。
+     */
+    interface Stream extends Consumer<String> {
+        /**
+         * ストリーミングで受け取った断片を書き込みます。
+         *
+         * @param partial 断片
+         */
+        @Override
+        void accept(String partial);
+
+        /**
+         * 出力を完了します。解析に失敗した場合も呼び出します。
+         *
+         * @param result 解析結果
+         * @throws IOException 書き出しに失敗した場合
+         */
+        void complete(AnalysisResult result) throws IOException;
+
+        /**
+         * 出力を完了し、結果が出力先へ書き出された後にonWrittenを呼び出します。
+         * デフォルトではcompleteが戻った時点で書き出し済みとみなします。
+         *
+         * @param result    解析結果
+         * @param onWritten 書き出し後に呼び出す処理
+         * @throws IOException 書き出しに失敗した場合
+         */
+        default void complete(AnalysisResult result, Runnable onWritten) throws IOException {
+            complete(result);
+            onWritten.run();
+        }
+    }
+
+    /**
+     * 解析対象ファイルの出力を開始します。
+     *
+     * @param source 解析対象ファイル
+     * @return 出力
+     * @throws IOException 出力先を開けない場合
+     */
+    Stream open(Path source) throws IOException;
+
+    /**
+     * 解析対象ファイルの結果が書き出される場所を返します。
+     *
+     * @param source 解析対象ファイル
+     * @return 出力先のパス（コンソールの場合はnull）
+     */
+    Path resultPathOf(Path source);
+
+    /**
+     * 未出力の内容をすべて書き出して閉じます。
+     *
+     * @throws IOException 書き出しに失敗した場合
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * 標準出力へ出力するシンクを返します。
+     *
+     * @param streaming trueの場合は断片を受け取り次第出力し、falseの場合はファイルごとにまとめて出力します
+     * @return シンク
+     */
+    static OutputSink console(boolean streaming) {
+        return new ConsoleOutputSink(streaming);
+    }
+
+    /**
+     * ファイルごとにMarkdownファイル（{@code <相対パス>.md}）へ出力するシンクを返します。
+     *
+     * @param outDir 出力先ディレクトリ
+     * @return シンク
+     */
+    static OutputSink markdown(Path outDir) {
+        return new MarkdownOutputSink(outDir);
+    }
+
+    /**
+     * 1ファイル1行のJSONL形式で出力するシンクを返します。
+     *
+     * @param file 出力先ファイル
+     * @return シンク
+     * @throws IOException ファイルを開けない場合
+     */
+    static OutputSink jsonl(Path file) throws IOException {
+        return new JsonlOutputSink(file);
+    }
+
+    /**
+     * 1ファイル1行のJSONL形式で出力するシンクを返します。
+     *
+     * @param file   出力先ファイル
+     * @param append trueの場合は既存の内容の後ろに追記
+     * @return シンク
+     * @throws IOException ファイルを開けない場合
+     */
+    static OutputSink jsonl(Path file, boolean append) throws IOException {
+        return new JsonlOutputSink(file, append);
+    }
+}
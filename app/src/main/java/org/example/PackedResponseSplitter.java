@@ -0,0 +1,146 @@
+package org.example;
+
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 複数ファイルをまとめたリクエストの応答を、ストリーミングのままファイルごとに振り分けるクラス。
+ * 応答は各ファイルの説明を{@code ### FILE 番号: パス}の見出し行から書き始める形式を想定し、
+ * 見出し行を取り除いた本文を番号に対応する出力へ渡します。最初の見出しより前の前置きは捨てます。
+ *
+ * <p>断片の境界で見出しが分かれても正しく判定できるよう、見出しになり得る行頭だけを改行まで保留し、
+ * それ以外は受け取り次第そのまま流します。単一スレッドから呼び出す前提です。</p>
+ */
+public class PackedResponseSplitter implements Consumer<String> {
+
+    /**
+     * 見出し行。番号の後ろ（パスなど）は無視します。
+     */
+    static final Pattern MARKER = Pattern.compile("(?i)\\s*#{1,6}\\s*FILE\\s+(\\d+)\\b.*\\R?");
+
+    /**
+     * 見出しとして確定した行頭。行末まで保留して捨てます。
+     */
+    private static final Pattern MARKER_START = Pattern.compile("(?i)\\s*#{1,6}\\s*FILE\\s+\\d+");
+
+    /**
+     * まだ見出しになり得る行頭。
+     */
+    private static final Pattern MARKER_PREFIX = Pattern.compile("(?i)\\s*(#{1,6}\\s*(F|FI|FIL|FILE(\\s+\\d*)?)?)?");
+
+    private final int files;
+    private final IntFunction<Consumer<String>> targets;
+    private final StringBuilder[] texts;
+    private final StringBuilder line = new StringBuilder();
+    private final StringBuilder pending = new StringBuilder();
+
+    /**
+     * 現在の行を保留せずに流している場合はtrue。
+     */
+    private boolean passthrough;
+
+    /**
+     * 現在振り分けているファイルの番号（1始まり、見出しの前は0）。
+     */
+    private int current;
+
+    /**
+     * @param files   まとめたファイル数
+     * @param targets 番号（1始まり）からそのファイルの出力を返す関数
+     */
+    public PackedResponseSplitter(int files, IntFunction<Consumer<String>> targets) {
+        this.files = files;
+        this.targets = targets;
+        this.texts = new StringBuilder[files + 1];
+    }
+
+    @Override
+    public void accept(String partial) {
+        for (int i = 0; i < partial.length(); i++) {
+            char c = partial.charAt(i);
+            if (passthrough) {
+                emit(c);
+                passthrough = c != '\n';
+                continue;
+            }
+            line.append(c);
+            if (c == '\n') {
+                completeLine();
+            } else if (!MARKER_PREFIX.matcher(line).matches() && !MARKER_START.matcher(line).lookingAt()) {
+                for (int j = 0; j < line.length(); j++) {
+                    emit(line.charAt(j));
+                }
+                line.setLength(0);
+                passthrough = true;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * 保留中の行を処理して応答の終わりを確定します。
+     */
+    public void finish() {
+        if (!line.isEmpty()) {
+            completeLine();
+        }
+        flush();
+    }
+
+    /**
+     * 指定ファイルの説明を受け取ったかどうかを返します。
+     *
+     * @param index 番号（1始まり）
+     * @return 見出しの後に空白以外の本文を受け取った場合はtrue
+     */
+    public boolean received(int index) {
+        return texts[index] != null && !texts[index].toString().isBlank();
+    }
+
+    /**
+     * 指定ファイルについて受け取った本文を返します。
+     *
+     * @param index 番号（1始まり）
+     * @return 前後の空白を除いた本文（受け取っていない場合は空文字列）
+     */
+    public String text(int index) {
+        return texts[index] != null ? texts[index].toString().strip() : "";
+    }
+
+    private void completeLine() {
+        Matcher matcher = MARKER.matcher(line);
+        if (matcher.matches()) {
+            int index = Integer.parseInt(matcher.group(1));
+            if (index >= 1 && index <= files) {
+                flush();
+                current = index;
+                if (texts[index] == null) {
+                    texts[index] = new StringBuilder();
+                }
+                line.setLength(0);
+                return;
+            }
+        }
+        for (int j = 0; j < line.length(); j++) {
+            emit(line.charAt(j));
+        }
+        line.setLength(0);
+    }
+
+    private void emit(char c) {
+        if (current > 0) {
+            pending.append(c);
+        }
+    }
+
+    private void flush() {
+        if (current > 0 && !pending.isEmpty()) {
+            String text = pending.toString();
+            pending.setLength(0);
+            texts[current].append(text);
+            targets.apply(current).accept(text);
+        }
+    }
+}
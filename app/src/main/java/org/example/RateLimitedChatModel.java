@@ -0,0 +1,199 @@
+package org.example;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * StreamingChatModelをラップし、送信前にAdaptiveRateLimiterで枠を確保し、
+ * スロットリングなど一時的なエラーはジッター付きバックオフで再試行するクラス。
+ * 部分応答をすでに受け取った後のエラーは、出力が重複しないよう再試行せずにそのまま通知します。
+ * 返したFutureをキャンセルすると、送信中の試行を打ち切り、以降の再試行も行いません。
+ */
+public class RateLimitedChatModel implements CancellableChatModel {
+    private static final Logger logger = LogManager.getLogger(RateLimitedChatModel.class);
+
+    /**
+     * maxTokensが未指定の場合に見込む出力トークン数。
+     */
+    private static final int DEFAULT_EXPECTED_OUTPUT_TOKENS = 1024;
+
+    private final CancellableChatModel delegate;
+    private final AdaptiveRateLimiter limiter;
+    private final RetryPolicy retryPolicy;
+    private final TokenEstimator tokenEstimator;
+
+    /**
+     * @param delegate       実際にリクエストを送信するモデル
+     * @param limiter        レートリミッタ
+     * @param retryPolicy    再試行の方針
+     * @param tokenEstimator 枠の確保に使うトークン見積もり
+     */
+    public RateLimitedChatModel(StreamingChatModel delegate, AdaptiveRateLimiter limiter, RetryPolicy retryPolicy,
+            TokenEstimator tokenEstimator) {
+        this.delegate = CancellableChatModel.of(delegate);
+        this.limiter = limiter;
+        this.retryPolicy = retryPolicy;
+        this.tokenEstimator = tokenEstimator;
+    }
+
+    @Override
+    public CompletableFuture<ChatResponse> chatCancellable(ChatRequest request, StreamingChatResponseHandler handler) {
+        int estimated = tokenEstimator.estimate(textOf(request)) + expectedOutputTokens(request);
+        CompletableFuture<ChatResponse> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<ChatResponse>> current = new AtomicReference<>();
+        result.whenComplete((response, error) -> {
+            CompletableFuture<ChatResponse> sent = current.get();
+            if (result.isCancelled() && sent != null) {
+                sent.cancel(true);
+            }
+        });
+        attempt(request, handler, estimated, 0, result, current);
+        return result;
+    }
+
+    /**
+     * 枠を確保して1回送信します。再試行が必要な場合は待ち時間の後に仮想スレッドで次の試行を行います。
+     * resultがキャンセルされていれば送信しません。
+     */
+    private void attempt(ChatRequest request, StreamingChatResponseHandler handler, int estimated, int retries,
+            CompletableFuture<ChatResponse> result, AtomicReference<CompletableFuture<ChatResponse>> current) {
+        if (result.isDone()) {
+            return;
+        }
+        try {
+            limiter.acquire(estimated);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!result.isDone()) {
+                handler.onError(e);
+                result.completeExceptionally(e);
+            }
+            return;
+        }
+        if (result.isDone()) {
+            // 枠の確保中にキャンセルされた
+            limiter.reconcile(estimated, 0);
+            return;
+        }
+        AtomicBoolean streamed = new AtomicBoolean();
+        StreamingChatResponseHandler attemptHandler = new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(String partialResponse) {
+                streamed.set(true);
+                if (!result.isDone()) {
+                    handler.onPartialResponse(partialResponse);
+                }
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+                limiter.onSuccess();
+                String text = completeResponse.aiMessage() != null ? completeResponse.aiMessage().text() : null;
+                int actual = TokenEstimator.inputTokens(completeResponse, tokenEstimator.estimate(textOf(request)))
+                        + TokenEstimator.outputTokens(completeResponse, tokenEstimator.estimate(text));
+                limiter.reconcile(estimated, actual);
+                if (!result.isDone()) {
+                    handler.onCompleteResponse(completeResponse);
+                    result.complete(completeResponse);
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                if (RetryPolicy.isThrottling(error)) {
+                    limiter.onThrottle();
+                } else {
+                    // 送信されなかった分の枠を返す
+                    limiter.reconcile(estimated, 0);
+                }
+                if (result.isDone()) {
+                    return;
+                }
+                if (!streamed.get() && retries < retryPolicy.maxRetries() && RetryPolicy.isRetryable(error)) {
+                    long delay = retryPolicy.delayMillis(retries + 1);
+                    logger.warn("一時的なエラーのため {} ms後に再試行します（{}/{}）: {}", delay, retries + 1,
+                            retryPolicy.maxRetries(), error.getMessage());
+                    Thread.ofVirtual().start(() -> {
+                        try {
+                            Thread.sleep(delay);
+                        } catch (InterruptedException e) {
+                            if (!result.isDone()) {
+                                handler.onError(error);
+                                result.completeExceptionally(error);
+                            }
+                            return;
+                        }
+                        attempt(request, handler, estimated, retries + 1, result, current);
+                    });
+                } else {
+                    handler.onError(error);
+                    result.completeExceptionally(error);
+                }
+            }
+        };
+        CompletableFuture<ChatResponse> sent;
+        try {
+            sent = delegate.chatCancellable(request, attemptHandler);
+        } catch (RuntimeException e) {
+            attemptHandler.onError(e);
+            return;
+        }
+        current.set(sent);
+        // 送信中にキャンセルされた場合は、ここで打ち切る
+        if (result.isCancelled()) {
+            sent.cancel(true);
+        }
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    private static int expectedOutputTokens(ChatRequest request) {
+        Integer maxTokens = request.parameters() != null ? request.parameters().maxOutputTokens() : null;
+        return maxTokens != null ? maxTokens : DEFAULT_EXPECTED_OUTPUT_TOKENS;
+    }
+
+    /**
+     * リクエストに含まれるテキストを連結して返します（トークン見積もり用）。
+     *
+     * @param request チャットリクエスト
+     * @return メッセージのテキスト
+     */
+    static String textOf(ChatRequest request) {
+        StringBuilder sb = new StringBuilder();
+        for (ChatMessage message : request.messages()) {
+            if (message instanceof UserMessage user) {
+                user.contents().stream()
+                        .filter(TextContent.class::isInstance)
+                        .forEach(content -> sb.append(((TextContent) content).text()).append('\n'));
+            } else if (message instanceof SystemMessage system) {
+                sb.append(system.text()).append('\n');
+            } else if (message instanceof AiMessage ai && ai.text() != null) {
+                sb.append(ai.text()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
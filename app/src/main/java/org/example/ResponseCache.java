@@ -0,0 +1,290 @@
+package org.example;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * モデルの応答をディスクに保存する、内容アドレス方式のレスポンスキャッシュ。
+ * キーはベースプロンプト・コード・モデルID・LLMパラメータ（分割して解析した応答は分割のトークン予算も）のSHA-256ハッシュです。
+ * 書き込みは一時ファイルからのアトミックな移動で行うため、複数スレッド・複数プロセスから同時に利用できます。
+ */
+public class ResponseCache {
+    private static final Logger logger = LogManager.getLogger(ResponseCache.class);
+
+    /**
+     * 何回の書き込みごとにサイズ上限の確認を行うか。
+     */
+    private static final int EVICTION_INTERVAL = 32;
+
+    private static final String ENTRY_SUFFIX = ".txt";
+
+    /**
+     * キーの先頭2文字で分けたディレクトリの名前。
+     */
+    private static final Pattern SHARD_NAME = Pattern.compile("[0-9a-f]{2}");
+
+    /**
+     * このキャッシュが書き込むファイルの名前（エントリと、書き込み途中の一時ファイル）。
+     */
+    private static final Pattern OWN_FILE_NAME = Pattern.compile("[0-9a-f]{64}(\\.txt|[0-9]*\\.tmp)");
+
+    private final Path dir;
+
+    /**
+     * エントリの有効期間（nullの場合は無期限）。
+     */
+    private final Duration maxAge;
+
+    /**
+     * キャッシュ全体の最大バイト数（0以下の場合は無制限）。
+     */
+    private final long maxBytes;
+
+    private final AtomicInteger writesSinceEviction = new AtomicInteger();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * キャッシュディレクトリを指定して生成し、期限切れ・上限超過のエントリを削除します。
+     *
+     * @param dir      キャッシュディレクトリ
+     * @param maxAge   エントリの有効期間（null可）
+     * @param maxBytes キャッシュ全体の最大バイト数（0以下で無制限）
+     * @throws IOException ディレクトリの作成に失敗した場合
+     */
+    public ResponseCache(Path dir, Duration maxAge, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxAge = maxAge;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir);
+        evict();
+    }
+
+    /**
+     * キャッシュキーを計算します。各要素は長さ付きで連結するため、境界のずれによる衝突は起きません。
+     *
+     * @param basePrompt ベースプロンプト
+     * @param codeText   コード
+     * @param modelId    モデルID
+     * @param params     LLMパラメータ
+     * @return 16進表記のSHA-256ハッシュ
+     */
+    public static String key(String basePrompt, String codeText, String modelId, ChatModelFactory.LlmParameters params) {
+        return key(basePrompt, codeText, modelId, params, 0);
+    }
+
+    /**
+     * 分割して解析（map-reduce）した応答のキャッシュキーを計算します。応答は分割の粒度で変わるため、トークン予算もキーに含めます。
+     *
+     * @param basePrompt  ベースプロンプト
+     * @param codeText    コード
+     * @param modelId     モデルID
+     * @param params      LLMパラメータ
+     * @param chunkTokens 分割のトークン予算（0の場合は分割なしで、{@link #key(String, String, String, ChatModelFactory.LlmParameters)}と同じキー）
+     * @return 16進表記のSHA-256ハッシュ
+     */
+    public static String key(String basePrompt, String codeText, String modelId, ChatModelFactory.LlmParameters params,
+            int chunkTokens) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256が利用できません", e);
+        }
+        ChatModelFactory.LlmParameters p = params != null ? params : ChatModelFactory.LlmParameters.DEFAULT;
+        List<String> parts = new ArrayList<>(List.of(String.valueOf(basePrompt), String.valueOf(codeText),
+                String.valueOf(modelId), String.valueOf(p.maxTokens()), String.valueOf(p.temperature()),
+                String.valueOf(p.topP())));
+        if (chunkTokens > 0) {
+            parts.add("chunk-tokens=" + chunkTokens);
+        }
+        for (String part : parts) {
+            byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+            digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+            digest.update((byte) ':');
+            digest.update(bytes);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * キャッシュから応答を取得します。期限切れのエントリは削除してミス扱いにします。
+     *
+     * @param key キャッシュキー
+     * @return 保存されていた応答テキスト
+     */
+    public Optional<String> get(String key) {
+        Path entry = entryPath(key);
+        try {
+            FileTime modified = Files.getLastModifiedTime(entry);
+            if (isExpired(modified)) {
+                Files.deleteIfExists(entry);
+                return Optional.empty();
+            }
+            String text = Files.readString(entry, StandardCharsets.UTF_8);
+            // 参照されたエントリはサイズ超過時の削除対象から外れやすくする
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return Optional.of(text);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            logger.warn("キャッシュの読み込みに失敗しました: {}: {}", entry, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 応答をキャッシュに保存します。失敗しても解析は継続できるため、警告ログのみ出力します。
+     *
+     * @param key  キャッシュキー
+     * @param text 応答テキスト
+     */
+    public void put(String key, String text) {
+        Path entry = entryPath(key);
+        Path temp = null;
+        try {
+            Files.createDirectories(entry.getParent());
+            temp = Files.createTempFile(entry.getParent(), key, ".tmp");
+            Files.writeString(temp, text, StandardCharsets.UTF_8);
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.warn("キャッシュの書き込みに失敗しました: {}: {}", entry, e.getMessage());
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // 一時ファイルは次回の削除処理で回収される
+                }
+            }
+            return;
+        }
+        if (writesSinceEviction.incrementAndGet() >= EVICTION_INTERVAL) {
+            writesSinceEviction.set(0);
+            evict();
+        }
+    }
+
+    /**
+     * キャッシュされた応答を部分応答のコールバックに流します。行単位で渡すため、通常の出力と同じ見た目になります。
+     *
+     * @param text      キャッシュされた応答テキスト
+     * @param onPartial 部分応答を受け取るコールバック
+     */
+    public static void replay(String text, Consumer<String> onPartial) {
+        int start = 0;
+        while (start < text.length()) {
+            int newline = text.indexOf('\n', start);
+            int end = newline < 0 ? text.length() : newline + 1;
+            onPartial.accept(text.substring(start, end));
+            start = end;
+        }
+    }
+
+    /**
+     * 期限切れのエントリを削除し、さらに合計サイズが上限を超えていれば更新日時の古い順に削除します。
+     * 同時に複数の削除処理が走らないようにし、他プロセスによる削除とも競合しないようにしています。
+     * 対象はキーの先頭2文字のディレクトリ直下にある、このキャッシュの名前形式のファイルだけです。
+     * --cache-dirに他のファイルがあっても削除しません。
+     */
+    public void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<Path> files = new ArrayList<>();
+            try (Stream<Path> shards = Files.list(dir)) {
+                for (Path shard : shards.filter(ResponseCache::isShard).toList()) {
+                    try (Stream<Path> stream = Files.list(shard)) {
+                        stream.filter(file -> isOwnFile(shard, file)).forEach(files::add);
+                    } catch (NoSuchFileException e) {
+                        // 他のプロセスが削除済み
+                    }
+                }
+            }
+            List<Entry> entries = new ArrayList<>();
+            long totalBytes = 0;
+            for (Path file : files) {
+                try {
+                    FileTime modified = Files.getLastModifiedTime(file);
+                    boolean staleTemp = file.getFileName().toString().endsWith(".tmp")
+                            && System.currentTimeMillis() - modified.toMillis() > Duration.ofHours(1).toMillis();
+                    if (isExpired(modified) || staleTemp) {
+                        Files.deleteIfExists(file);
+                        continue;
+                    }
+                    long size = Files.size(file);
+                    entries.add(new Entry(file, modified.toMillis(), size));
+                    totalBytes += size;
+                } catch (NoSuchFileException e) {
+                    // 他のプロセスが削除済み
+                }
+            }
+            if (maxBytes > 0 && totalBytes > maxBytes) {
+                entries.sort(Comparator.comparingLong(Entry::modifiedMillis));
+                for (Entry entry : entries) {
+                    if (totalBytes <= maxBytes) {
+                        break;
+                    }
+                    Files.deleteIfExists(entry.path());
+                    totalBytes -= entry.size();
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("キャッシュの整理に失敗しました: {}", e.getMessage());
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static boolean isShard(Path path) {
+        return SHARD_NAME.matcher(path.getFileName().toString()).matches() && Files.isDirectory(path);
+    }
+
+    /**
+     * このキャッシュが書き込んだファイル（キーがディレクトリ名で始まるエントリ・一時ファイル）かどうかを返します。
+     */
+    private static boolean isOwnFile(Path shard, Path file) {
+        String name = file.getFileName().toString();
+        return OWN_FILE_NAME.matcher(name).matches() && name.startsWith(shard.getFileName().toString())
+                && Files.isRegularFile(file);
+    }
+
+    private boolean isExpired(FileTime modified) {
+        return maxAge != null && System.currentTimeMillis() - modified.toMillis() > maxAge.toMillis();
+    }
+
+    /**
+     * 1ディレクトリのファイル数が増えすぎないよう、キーの先頭2文字でディレクトリを分けます。
+     */
+    private Path entryPath(String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + ENTRY_SUFFIX);
+    }
+
+    private record Entry(Path path, long modifiedMillis, long size) {
+    }
+}
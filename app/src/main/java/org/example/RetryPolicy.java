@@ -0,0 +1,106 @@
+package org.example;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * スロットリングなど一時的なエラーに対する再試行の方針。
+ * 待ち時間は指数バックオフの上限までの一様乱数（フルジッター）とし、同時に失敗したリクエストの再試行が集中しないようにします。
+ *
+ * @param maxRetries 最大再試行回数
+ * @param baseDelay  初回の待ち時間の上限
+ * @param maxDelay   待ち時間の上限
+ */
+public record RetryPolicy(int maxRetries, Duration baseDelay, Duration maxDelay) {
+
+    /**
+     * 既定の方針（最大3回、0.5秒から倍々で最大20秒）。
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, Duration.ofMillis(500), Duration.ofSeconds(20));
+
+    /**
+     * メッセージ中のHTTPステータスの表記（「Status code 429」「HTTP 503」「ステータス 429」や先頭のステータスコード）。
+     * リクエストIDやトークン数などに含まれる同じ数字は一致させません。
+     */
+    private static final Pattern STATUS_IN_MESSAGE = Pattern.compile(
+            "(?:^|\\b(?:status(?:\\s*code)?|http(?:/[\\d.]+)?)|ステータス(?:コード)?)\\s*[:=]?\\s*(\\d{3})\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * 指定回数目の再試行までの待ち時間を返します。
+     *
+     * @param attempt 再試行回数（1始まり）
+     * @return 待ち時間（ミリ秒）
+     */
+    public long delayMillis(int attempt) {
+        long cap = Math.min(maxDelay.toMillis(), baseDelay.toMillis() << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /**
+     * エラーがスロットリング（429やThrottlingException）によるものかを判定します。原因の連鎖もたどります。
+     *
+     * @param error エラー
+     * @return スロットリングの場合はtrue
+     */
+    public static boolean isThrottling(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            String name = t.getClass().getSimpleName().toLowerCase(Locale.ROOT);
+            String message = t.getMessage() != null ? t.getMessage().toLowerCase(Locale.ROOT) : "";
+            if (name.contains("throttl") || name.contains("toomanyrequests") || message.contains("throttl")
+                    || statusCode(t) == 429 || message.contains("too many requests")
+                    || message.contains("rate limit")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * エラーが再試行で回復しうる一時的なもの（スロットリング・503・タイムアウト）かを判定します。
+     *
+     * @param error エラー
+     * @return 再試行すべき場合はtrue
+     */
+    public static boolean isRetryable(Throwable error) {
+        if (isThrottling(error)) {
+            return true;
+        }
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            String name = t.getClass().getSimpleName().toLowerCase(Locale.ROOT);
+            String message = t.getMessage() != null ? t.getMessage().toLowerCase(Locale.ROOT) : "";
+            if (name.contains("timeout") || name.contains("serviceunavailable") || statusCode(t) == 503
+                    || message.contains("service unavailable")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 例外のHTTPステータスコードを返します。SDKの例外（AWS SDKのSdkServiceException、LangChain4jのHttpExceptionなど）が
+     * 持つstatusCode()を優先し、無ければメッセージ中のステータスの表記から読み取ります。
+     *
+     * @param error 例外（原因はたどらない）
+     * @return ステータスコード（分からない場合は-1）
+     */
+    static int statusCode(Throwable error) {
+        try {
+            // SDKごとの例外型に依存しないよう、statusCode()を持つ例外はリフレクションで読み取る
+            Method method = error.getClass().getMethod("statusCode");
+            if (method.getReturnType() == int.class) {
+                return (int) method.invoke(error);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // statusCode()を持たない例外はメッセージから判断する
+        }
+        if (error.getMessage() == null) {
+            return -1;
+        }
+        var matcher = STATUS_IN_MESSAGE.matcher(error.getMessage());
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+}
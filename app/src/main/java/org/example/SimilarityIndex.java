@@ -0,0 +1,274 @@
+package org.example;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+/**
+ * ほぼ同じ内容のファイル（生成されたDTO・コピーしたサービス・親クラスと子クラスなど）を見つける索引。
+ * 各ファイルを正規化したトークン列の4-gram（シングル）から64ビットのSimHashを求め、ハミング距離が閾値以内のものを類似とみなします。
+ *
+ * <p>ファイルの読み込みと指紋の計算は1回の並列処理で行い、保持するのはファイルごとの指紋（8バイト）だけです。
+ * 類似ファイルの検索は指紋を距離+1個のブロックに分け、いずれかのブロックが一致するものだけを比較します
+ * （距離がk以内なら、k+1個のブロックのうち少なくとも1つは一致するため）。数十万ファイルでも全組み合わせの比較は行いません。</p>
+ *
+ * <p>正規化では、コメントと空白を除き、文字列・文字リテラルと数値はそれぞれ1つの記号に置き換えます。
+ * 識別子はそのまま使うため、名前だけが違うファイルよりも構造と名前が共通するファイルを類似とみなします。</p>
+ */
+public class SimilarityIndex {
+    private static final Logger logger = LogManager.getLogger(SimilarityIndex.class);
+
+    /**
+     * シングルを構成するトークン数。
+     */
+    static final int SHINGLE_SIZE = 4;
+
+    /**
+     * 許容距離の上限。ブロック数（距離+1）が増えると1ブロックのビット数が減り、一致する候補が増えて全組み合わせの比較に近づくため、
+     * 1ブロックが9ビット以上（7ブロック以下）になる範囲に限ります。
+     */
+    static final int MAX_DISTANCE = 6;
+
+    /**
+     * 指定できる閾値の下限（許容距離が{@link #MAX_DISTANCE}以下になる値）。
+     */
+    public static final double MIN_THRESHOLD = 0.9;
+
+    /**
+     * 類似ファイル。
+     *
+     * @param representative 先に解析する代表のファイル
+     * @param similarity     類似度（0～1、1 - ハミング距離 / 64）
+     */
+    public record Twin(Path representative, double similarity) {
+    }
+
+    private final Map<Path, Twin> twins;
+    private final int indexed;
+
+    private SimilarityIndex(Map<Path, Twin> twins, int indexed) {
+        this.twins = twins;
+        this.indexed = indexed;
+    }
+
+    /**
+     * ファイルを並列に読み込んで指紋を求め、類似ファイルを代表のファイルにまとめます。
+     * 代表は指定順で最初に現れたファイルです。読み込めないファイルは索引に含めません（通常どおり解析して失敗を報告します）。
+     *
+     * @param files     対象ファイル
+     * @param threshold 類似とみなす類似度（{@link #MIN_THRESHOLD}～1）
+     * @return 索引
+     * @throws IllegalArgumentException 閾値が範囲外の場合
+     */
+    public static SimilarityIndex build(List<Path> files, double threshold) {
+        if (threshold < MIN_THRESHOLD || threshold > 1) {
+            throw new IllegalArgumentException(
+                    "類似度の閾値は" + MIN_THRESHOLD + "～1の範囲で指定してください: " + threshold);
+        }
+        long start = System.nanoTime();
+        long[] fingerprints = new long[files.size()];
+        boolean[] readable = new boolean[files.size()];
+        IntStream.range(0, files.size()).parallel().forEach(i -> {
+            try {
+                fingerprints[i] = fingerprint(SourceLoader.readString(files.get(i)));
+                readable[i] = true;
+            } catch (IOException e) {
+                logger.debug("類似度の計算から除外します: {}: {}", files.get(i), e.getMessage());
+            }
+        });
+
+        int maxDistance = (int) Math.floor((1 - threshold) * Long.SIZE);
+        int blocks = maxDistance + 1;
+        List<Map<Long, List<Integer>>> tables = new ArrayList<>(blocks);
+        for (int b = 0; b < blocks; b++) {
+            tables.add(new HashMap<>());
+        }
+        Map<Path, Twin> twins = new HashMap<>();
+        int indexed = 0;
+        for (int i = 0; i < files.size(); i++) {
+            if (!readable[i]) {
+                continue;
+            }
+            indexed++;
+            long fingerprint = fingerprints[i];
+            int nearest = -1;
+            int nearestDistance = Integer.MAX_VALUE;
+            for (int b = 0; b < blocks; b++) {
+                for (int candidate : tables.get(b).getOrDefault(block(fingerprint, b, blocks), List.of())) {
+                    int distance = Long.bitCount(fingerprint ^ fingerprints[candidate]);
+                    if (distance <= maxDistance && (distance < nearestDistance
+                            || distance == nearestDistance && candidate < nearest)) {
+                        nearest = candidate;
+                        nearestDistance = distance;
+                    }
+                }
+            }
+            if (nearest >= 0) {
+                twins.put(files.get(i), new Twin(files.get(nearest), similarity(nearestDistance)));
+                continue;
+            }
+            // 代表のファイルだけを索引に加える（類似ファイル同士の連鎖で代表から離れていかないように）
+            for (int b = 0; b < blocks; b++) {
+                tables.get(b).computeIfAbsent(block(fingerprint, b, blocks), key -> new ArrayList<>(1)).add(i);
+            }
+        }
+        logger.info("類似ファイルを検出しました: {} / {} ファイル（閾値 {}、{} ms）", twins.size(), indexed, threshold,
+                (System.nanoTime() - start) / 1_000_000);
+        return new SimilarityIndex(twins, indexed);
+    }
+
+    /**
+     * ファイルの類似ファイル（代表）を返します。
+     *
+     * @param file ファイル
+     * @return 代表のファイル（類似ファイルが無い場合、またはファイル自身が代表の場合は空）
+     */
+    public Optional<Twin> twinOf(Path file) {
+        return Optional.ofNullable(twins.get(file));
+    }
+
+    /**
+     * 代表以外の類似ファイルの数を返します。
+     *
+     * @return 類似ファイルの数
+     */
+    public int twinCount() {
+        return twins.size();
+    }
+
+    /**
+     * 索引に含めたファイルの数を返します。
+     *
+     * @return ファイル数
+     */
+    public int size() {
+        return indexed;
+    }
+
+    /**
+     * ハミング距離から類似度を求めます。
+     *
+     * @param distance ハミング距離
+     * @return 類似度
+     */
+    static double similarity(int distance) {
+        return 1.0 - (double) distance / Long.SIZE;
+    }
+
+    /**
+     * 指紋をblocks個に分けたうちのb番目のブロックを返します（ブロック番号を上位に含めます）。
+     */
+    private static long block(long fingerprint, int b, int blocks) {
+        int from = b * Long.SIZE / blocks;
+        int to = (b + 1) * Long.SIZE / blocks;
+        long mask = to - from == Long.SIZE ? -1L : ((1L << (to - from)) - 1);
+        return ((fingerprint >>> from) & mask) | ((long) b << 56);
+    }
+
+    /**
+     * ソースの64ビットSimHashを求めます。
+     *
+     * @param source ソース
+     * @return 指紋
+     */
+    static long fingerprint(String source) {
+        long[] tokens = tokenHashes(source);
+        int[] weights = new int[Long.SIZE];
+        int shingles = Math.max(1, tokens.length - SHINGLE_SIZE + 1);
+        for (int i = 0; i < shingles; i++) {
+            long hash = 0;
+            for (int j = i; j < Math.min(tokens.length, i + SHINGLE_SIZE); j++) {
+                hash = Long.rotateLeft(hash, 17) ^ tokens[j];
+            }
+            hash = mix(hash);
+            for (int bit = 0; bit < Long.SIZE; bit++) {
+                weights[bit] += ((hash >>> bit) & 1) != 0 ? 1 : -1;
+            }
+        }
+        long fingerprint = 0;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if (weights[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * ソースを正規化したトークンのハッシュ列に変換します。
+     */
+    static long[] tokenHashes(String source) {
+        long[] tokens = new long[Math.max(16, source.length() / 4)];
+        int count = 0;
+        int i = 0;
+        int n = source.length();
+        while (i < n) {
+            char c = source.charAt(i);
+            int skip = JavaSourceChunker.skipLiteralOrComment(source, i);
+            long hash;
+            if (skip > i) {
+                i = skip;
+                if (c == '/') {
+                    continue;
+                }
+                hash = c;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int end = i + 1;
+                while (end < n && Character.isJavaIdentifierPart(source.charAt(end))) {
+                    end++;
+                }
+                hash = hash(source, i, end);
+                i = end;
+            } else if (Character.isDigit(c)) {
+                int end = i + 1;
+                while (end < n && (Character.isLetterOrDigit(source.charAt(end)) || source.charAt(end) == '.'
+                        || source.charAt(end) == '_')) {
+                    end++;
+                }
+                hash = '0';
+                i = end;
+            } else {
+                hash = c;
+                i++;
+            }
+            if (count == tokens.length) {
+                tokens = Arrays.copyOf(tokens, count * 2);
+            }
+            tokens[count++] = mix(hash);
+        }
+        return Arrays.copyOf(tokens, count);
+    }
+
+    /**
+     * 文字列の範囲のFNV-1aハッシュ。
+     */
+    private static long hash(String s, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * ビットを拡散させる（SplitMix64の最終段）。
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,668 @@
+package org.example;
+
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * ベースプロンプトと1ファイル分のコードを組み立ててモデルに送信し、応答をストリーミングで受け取るクラス。
+ * 複数スレッドから同時に利用できます。
+ */
+public class SourceAnalyzer {
+    private static final Logger logger = LogManager.getLogger(SourceAnalyzer.class);
+
+    /**
+     * map段階で各チャンクに付ける指示（チャンク番号・総数を埋め込む）。
+     */
+    static final String MAP_INSTRUCTION = "以下は大きなソースファイルを分割した一部（%d/%d）です。"
+            + "型宣言とフィールドは共通の前提として含めています。この部分に含まれるメンバーについて説明してください。";
+
+    /**
+     * reduce段階の指示。
+     */
+    static final String REDUCE_INSTRUCTION = "以下は同じソースファイルを分割して解析した部分的な説明です。"
+            + "重複を除いて統合し、上記の指示に従ってファイル全体の説明を1つにまとめてください。";
+
+    /**
+     * 複数ファイルをまとめて送信する場合の指示。
+     */
+    static final String PACK_INSTRUCTION = "以下の複数のソースファイルそれぞれについて、上記の指示に従って説明してください。"
+            + "各ファイルの説明は、必ず「### FILE 番号: パス」の行から書き始めてください（番号とパスは区切り行と同じです）。";
+
+    /**
+     * 類似ファイルを差分で解析する場合の指示（代表のファイル・対象のファイルを埋め込む）。
+     */
+    static final String VARIANT_INSTRUCTION = "以下のファイル（%2$s）は、解析済みのファイル（%1$s）とほぼ同じ内容です。"
+            + "元のファイルの説明と差分を踏まえ、上記の指示に従って%2$sの説明を書いてください。差分に現れない部分は元のファイルと同じです。";
+
+    /**
+     * 類似ファイルを差分で解析する場合に許容する、追加・削除した行の数。
+     */
+    private static final int MAX_VARIANT_EDITS = 200;
+
+    /**
+     * ベースプロンプトが長い場合でも確保する、1チャンクあたりの最小トークン数。
+     */
+    private static final int MIN_CHUNK_TOKENS = 1024;
+
+    /**
+     * 利用するStreamingChatModelのインスタンス。
+     */
+    private final StreamingChatModel model;
+
+    /**
+     * 全ファイル共通のベースプロンプト。
+     */
+    private final String basePrompt;
+
+    /**
+     * レスポンスキャッシュ（nullの場合はキャッシュを使わない）。
+     */
+    private ResponseCache cache;
+
+    /**
+     * キャッシュキーに含めるモデルID。
+     */
+    private String modelId;
+
+    /**
+     * キャッシュキーに含めるLLMパラメータ。
+     */
+    private ChatModelFactory.LlmParameters params = ChatModelFactory.LlmParameters.DEFAULT;
+
+    /**
+     * 大きなファイルを分割するチャンカー（nullの場合は分割しない）。
+     */
+    private JavaSourceChunker chunker;
+
+    /**
+     * 1リクエストあたりのトークン予算。入力がこれを超える場合に分割します。
+     */
+    private int chunkTokens;
+
+    /**
+     * 分割したチャンクを同時に解析する上限数。
+     */
+    private int chunkParallel = 1;
+
+    /**
+     * トークン数の見積もり。
+     */
+    private TokenEstimator tokenEstimator = TokenEstimator.forModel(null);
+
+    /**
+     * プロンプトを組み立てる前の前処理（nullの場合は前処理しない）。
+     */
+    private SourceMinifier minifier;
+
+    /**
+     * 参照している型のシグネチャを集める索引（nullの場合は付け加えない）。
+     */
+    private SymbolIndex symbols;
+
+    /**
+     * 参照している型のシグネチャに使うトークン予算。
+     */
+    private int symbolTokens;
+
+    /**
+     * ベースプロンプトとコードを別々のテキストとして送るか（プロンプトキャッシュ用）。
+     */
+    private boolean separatePrefix;
+
+    /**
+     * モデルとベースプロンプトを指定して生成します。
+     *
+     * @param model      利用するモデル
+     * @param basePrompt ベースプロンプト
+     */
+    public SourceAnalyzer(StreamingChatModel model, String basePrompt) {
+        this.model = model;
+        this.basePrompt = basePrompt;
+    }
+
+    /**
+     * レスポンスキャッシュを有効にします。キャッシュキーにはモデルIDとLLMパラメータも含まれます。
+     *
+     * @param cache   レスポンスキャッシュ
+     * @param modelId モデルID
+     * @param params  LLMパラメータ
+     * @return このインスタンス
+     */
+    public SourceAnalyzer withCache(ResponseCache cache, String modelId, ChatModelFactory.LlmParameters params) {
+        this.cache = cache;
+        this.modelId = modelId;
+        this.params = params != null ? params : ChatModelFactory.LlmParameters.DEFAULT;
+        return this;
+    }
+
+    /**
+     * 入力がトークン予算を超えるファイルを分割して並行に解析し、最後に1回の呼び出しで統合する（map-reduce）ようにします。
+     *
+     * @param chunker       チャンカー
+     * @param chunkTokens   1リクエストあたりのトークン予算
+     * @param chunkParallel チャンクを同時に解析する上限数
+     * @return このインスタンス
+     */
+    public SourceAnalyzer withChunking(JavaSourceChunker chunker, int chunkTokens, int chunkParallel) {
+        this.chunker = chunker;
+        this.chunkTokens = chunkTokens;
+        this.chunkParallel = Math.max(1, chunkParallel);
+        return this;
+    }
+
+    /**
+     * トークン数の見積もりを設定します。分割の判断と、プロバイダーが使用量を報告しない場合のトークン数に使われます。
+     *
+     * @param tokenEstimator トークン見積もり
+     * @return このインスタンス
+     */
+    public SourceAnalyzer withTokenEstimator(TokenEstimator tokenEstimator) {
+        this.tokenEstimator = tokenEstimator;
+        return this;
+    }
+
+    /**
+     * プロンプトを組み立てる前に、コードからライセンスコメント・importなどを取り除くようにします。
+     * キャッシュキーとトークン予算の判断には前処理後のコードを使います。
+     *
+     * @param minifier 前処理
+     * @return このインスタンス
+     */
+    public SourceAnalyzer withMinifier(SourceMinifier minifier) {
+        this.minifier = minifier;
+        return this;
+    }
+
+    /**
+     * コードが直接参照している型（親クラス・インタフェース・フィールドや引数の型など）のシグネチャを、
+     * トークン予算内でコードの前に付け加えるようにします。ファイル全体ではなく宣言だけを付け加えます。
+     *
+     * @param symbols      シンボル索引
+     * @param symbolTokens 付け加えるシグネチャのトークン予算
+     * @return このインスタンス
+     */
+    public SourceAnalyzer withSymbols(SymbolIndex symbols, int symbolTokens) {
+        this.symbols = symbols;
+        this.symbolTokens = symbolTokens;
+        return this;
+    }
+
+    /**
+     * ベースプロンプトとコードを1つのユーザーメッセージの別々のテキストとして送るようにします。
+     * 接頭辞にキャッシュポイントを置くモデル（{@link BedrockConverseChatModel}）でのみ有効にしてください。
+     * 他のプロバイダーでは「ベースプロンプト + 改行 + コード」の1つのテキストとして送ります。
+     *
+     * @return このインスタンス
+     */
+    public SourceAnalyzer withSeparatePrefix() {
+        this.separatePrefix = true;
+        return this;
+    }
+
+    /**
+     * 指定ファイルを読み込んで解析し、部分応答をonPartialへ逐次渡します。
+     * 例外はスローせず、失敗はAnalysisResultのerrorとして返します。
+     *
+     * @param codeFile  解析対象ファイル
+     * @param onPartial 部分応答を受け取るコールバック
+     * @return 解析結果
+     */
+    public AnalysisResult analyze(Path codeFile, Consumer<String> onPartial) {
+        long start = System.nanoTime();
+        String codeText;
+        try {
+            codeText = SourceLoader.readString(codeFile);
+        } catch (Exception e) {
+            return AnalysisResult.failed(codeFile, elapsedMillis(start), e);
+        }
+        return analyze(codeFile, codeText, onPartial, start);
+    }
+
+    /**
+     * 読み込み済みのソースを解析し、部分応答をonPartialへ逐次渡します。サーバーモードなどファイルを経由しない場合に使います。
+     * 例外はスローせず、失敗はAnalysisResultのerrorとして返します。
+     *
+     * @param codeFile  結果とログに使う解析対象の名前
+     * @param codeText  ソースの内容
+     * @param onPartial 部分応答を受け取るコールバック
+     * @return 解析結果
+     */
+    public AnalysisResult analyze(Path codeFile, String codeText, Consumer<String> onPartial) {
+        return analyze(codeFile, codeText, onPartial, System.nanoTime());
+    }
+
+    private AnalysisResult analyze(Path codeFile, String codeText, Consumer<String> onPartial, long start) {
+        return send(codeFile, prepare(codeFile, codeText), onPartial, start);
+    }
+
+    /**
+     * 類似ファイル（代表）の解析結果を使って解析します。内容が代表と同じ場合は送信せずに代表の説明を再生し、
+     * 差分が小さい場合は代表の説明と差分だけを送信します。差分が大きい場合は通常どおり解析します。
+     * 例外はスローせず、失敗はAnalysisResultのerrorとして返します。
+     *
+     * @param codeFile     解析対象ファイル
+     * @param twinFile     解析済みの類似ファイル
+     * @param twinAnalysis 類似ファイルの説明
+     * @param onPartial    部分応答を受け取るコールバック
+     * @return 解析結果
+     */
+    public AnalysisResult analyzeVariant(Path codeFile, Path twinFile, String twinAnalysis,
+            Consumer<String> onPartial) {
+        long start = System.nanoTime();
+        String codeText;
+        String twinText;
+        try {
+            codeText = SourceLoader.readString(codeFile);
+            twinText = SourceLoader.readString(twinFile);
+        } catch (Exception e) {
+            return AnalysisResult.failed(codeFile, elapsedMillis(start), e);
+        }
+        if (codeText.equals(twinText)) {
+            logger.info("{} と同じ内容のため解析結果を再利用します: {}", twinFile, codeFile);
+            ResponseCache.replay(twinAnalysis, onPartial);
+            // 送信していないため、トークン数は0とする
+            return new AnalysisResult(codeFile, twinAnalysis, null, 0, 0, 0, elapsedMillis(start), null, true);
+        }
+        String diff = LineDiff.unified(twinFile.toString(), twinText, codeFile.toString(), codeText,
+                MAX_VARIANT_EDITS);
+        if (diff != null) {
+            String variantText = String.format(VARIANT_INSTRUCTION, twinFile, codeFile) + "\n\n## 元のファイルの説明\n"
+                    + twinAnalysis + "\n\n## 差分\n```diff\n" + diff + "```\n";
+            if (tokenEstimator.estimate(variantText) < tokenEstimator.estimate(codeText)) {
+                logger.info("{} との差分で解析します: {}", twinFile, codeFile);
+                return send(codeFile, variantText, onPartial, start);
+            }
+        }
+        return analyze(codeFile, codeText, onPartial, start);
+    }
+
+    /**
+     * 入力をキャッシュから再生するか、モデルへ送信します（トークン予算を超える場合は分割します）。
+     */
+    private AnalysisResult send(Path codeFile, String codeText, Consumer<String> onPartial, long start) {
+        try {
+            CharSequence inputText = new PromptText(basePrompt, codeText);
+            boolean chunked = needsChunking(inputText);
+            String cacheKey = null;
+            if (cache != null) {
+                // 分割した応答は分割の粒度で変わるため、トークン予算ごとにキーを分ける
+                cacheKey = ResponseCache.key(basePrompt, codeText, modelId, params, chunked ? chunkTokens : 0);
+                Optional<String> cached = cache.get(cacheKey);
+                if (cached.isPresent()) {
+                    logger.info("キャッシュヒット: {}", codeFile);
+                    ResponseCache.replay(cached.get(), onPartial);
+                    return new AnalysisResult(codeFile, cached.get(), null, inputText.length(),
+                            tokenEstimator.estimate(inputText), tokenEstimator.estimate(cached.get()),
+                            elapsedMillis(start), null, true);
+                }
+            }
+            Usage usage = new Usage();
+            ChatResponse response = chunked
+                    ? mapReduce(codeFile, codeText, onPartial, usage)
+                    : usage.record(inputText, chat(basePrompt, codeText, onPartial).join());
+            String text = response.aiMessage() != null ? response.aiMessage().text() : null;
+            if (cacheKey != null && text != null) {
+                cache.put(cacheKey, text);
+            }
+            return new AnalysisResult(codeFile, text, response, usage.inputChars, usage.inputTokens,
+                    usage.outputTokens, elapsedMillis(start), null);
+        } catch (CompletionException | ExecutionException e) {
+            return AnalysisResult.failed(codeFile, elapsedMillis(start), unwrap(e));
+        } catch (Exception e) {
+            return AnalysisResult.failed(codeFile, elapsedMillis(start), e);
+        }
+    }
+
+    /**
+     * このアナライザのベースプロンプトとまとめ送信の指示を差し引いて、ファイルをまとめるパッカーを生成します。
+     * 前処理が有効な場合、パッカーは前処理後のコードを返します。
+     *
+     * @param budgetTokens 1リクエストのトークン予算
+     * @param maxFiles     1リクエストにまとめる最大ファイル数
+     * @return パッカー
+     */
+    public FilePacker packer(int budgetTokens, int maxFiles) {
+        int fixedTokens = tokenEstimator.estimate(basePrompt) + tokenEstimator.estimate(PACK_INSTRUCTION);
+        return new FilePacker(tokenEstimator, budgetTokens, fixedTokens, maxFiles).withPreprocessor(this::prepare);
+    }
+
+    /**
+     * 前処理が有効であればコードを前処理し、削減したトークン数をログに出力します。
+     * シンボル索引が設定されていれば、参照している型のシグネチャを行コメントとしてコードの前に付け加えます
+     * （分割時は各チャンクの共通コンテキストに含まれます）。
+     *
+     * @param codeFile ログに使う解析対象の名前
+     * @param codeText コード
+     * @return 前処理後のコード（前処理しない場合は引数のまま）
+     */
+    String prepare(Path codeFile, String codeText) {
+        String prepared = codeText;
+        if (minifier != null) {
+            SourceMinifier.Result minified = minifier.minify(codeText);
+            logger.info("前処理で入力を削減しました: {} {} → {} トークン（-{}）", codeFile, minified.originalTokens(),
+                    minified.minifiedTokens(), minified.savedTokens());
+            prepared = minified.text();
+        }
+        if (symbols != null) {
+            // 前処理でimportを取り除く場合があるため、参照の解決には元のコードを使う
+            SymbolIndex.Context context = symbols.contextFor(codeText, symbolTokens, tokenEstimator);
+            if (!context.types().isEmpty()) {
+                logger.info("参照している型のシグネチャを付け加えました: {} {} 件（{} トークン）", codeFile,
+                        context.types().size(), context.tokens());
+                // 説明中の行番号が元のファイルのものになるよう、コードの先頭に行番号を示す
+                String marker = prepared.startsWith(SourceMinifier.LINE_MARKER) ? ""
+                        : SourceMinifier.LINE_MARKER + "1\n";
+                prepared = context.text() + marker + prepared;
+            }
+        }
+        return prepared;
+    }
+
+    /**
+     * 複数のファイルを1回のリクエストで解析し、応答をストリーミングのままファイルごとの出力へ振り分けます。
+     * 各ファイルはここで読み込んで前処理し、読み込めなかったファイルは1件ずつの解析でエラーを報告します。
+     * キャッシュにあるファイルは再生して送信から除き、応答に説明が含まれなかったファイルは1件ずつ解析し直します。
+     * トークン数は各ファイルの大きさ（出力は説明の長さ）に応じて按分します。例外はスローしません。
+     *
+     * @param files     まとめて解析するファイル
+     * @param onPartial ファイルからその部分応答を受け取るコールバックを返す関数
+     * @return ファイルごとの解析結果（filesと同じ順序）
+     */
+    public List<AnalysisResult> analyzePack(List<FilePacker.PackedFile> files,
+            Function<Path, Consumer<String>> onPartial) {
+        long start = System.nanoTime();
+        AnalysisResult[] results = new AnalysisResult[files.size()];
+        List<Integer> pending = new ArrayList<>(files.size());
+        String[] cacheKeys = new String[files.size()];
+        String[] codes = new String[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            FilePacker.PackedFile packed = files.get(i);
+            try {
+                codes[i] = packed.readable() ? prepare(packed.file(), SourceLoader.readString(packed.file())) : null;
+            } catch (IOException e) {
+                codes[i] = null;
+            }
+            if (codes[i] == null) {
+                results[i] = analyze(packed.file(), onPartial.apply(packed.file()));
+                continue;
+            }
+            if (cache != null) {
+                // まとめて得た説明は1件ずつの解析とは指示が異なるため、キャッシュのキーを分ける
+                cacheKeys[i] = ResponseCache.key(basePrompt + "\n" + PACK_INSTRUCTION, codes[i], modelId,
+                        params);
+                Optional<String> cached = cache.get(cacheKeys[i]);
+                if (cached.isPresent()) {
+                    logger.info("キャッシュヒット: {}", packed.file());
+                    ResponseCache.replay(cached.get(), onPartial.apply(packed.file()));
+                    CharSequence inputText = new PromptText(basePrompt, codes[i]);
+                    results[i] = new AnalysisResult(packed.file(), cached.get(), null, inputText.length(),
+                            tokenEstimator.estimate(inputText), tokenEstimator.estimate(cached.get()),
+                            elapsedMillis(start), null, true);
+                    continue;
+                }
+            }
+            pending.add(i);
+        }
+        if (pending.size() == 1) {
+            int i = pending.get(0);
+            results[i] = analyze(files.get(i).file(), onPartial.apply(files.get(i).file()));
+            pending.clear();
+        }
+        if (!pending.isEmpty()) {
+            analyzePending(files, codes, pending, cacheKeys, onPartial, start, results);
+        }
+        return List.of(results);
+    }
+
+    private void analyzePending(List<FilePacker.PackedFile> files, String[] codes, List<Integer> pending,
+            String[] cacheKeys, Function<Path, Consumer<String>> onPartial, long start, AnalysisResult[] results) {
+        StringBuilder packText = new StringBuilder(PACK_INSTRUCTION).append('\n');
+        long totalChars = 0;
+        for (int n = 1; n <= pending.size(); n++) {
+            int i = pending.get(n - 1);
+            packText.append("\n===== FILE ").append(n).append(": ").append(files.get(i).file()).append(" =====\n")
+                    .append(codes[i]).append("\n===== END FILE ").append(n).append(" =====\n");
+            totalChars += codes[i].length();
+        }
+        logger.info("{} ファイルを1リクエストで解析します", pending.size());
+        PackedResponseSplitter splitter = new PackedResponseSplitter(pending.size(),
+                n -> onPartial.apply(files.get(pending.get(n - 1)).file()));
+        Usage usage = new Usage();
+        try {
+            String packed = packText.toString();
+            usage.record(new PromptText(basePrompt, packed), chat(basePrompt, packed, splitter).join());
+            splitter.finish();
+        } catch (Exception e) {
+            Throwable error = unwrap(e);
+            for (int i : pending) {
+                results[i] = AnalysisResult.failed(files.get(i).file(), elapsedMillis(start), error);
+            }
+            return;
+        }
+
+        long outputChars = 0;
+        for (int n = 1; n <= pending.size(); n++) {
+            outputChars += splitter.text(n).length();
+        }
+        long elapsed = elapsedMillis(start);
+        for (int n = 1; n <= pending.size(); n++) {
+            int i = pending.get(n - 1);
+            FilePacker.PackedFile packed = files.get(i);
+            if (!splitter.received(n)) {
+                logger.warn("まとめた応答に説明が含まれていないため、個別に解析します: {}", packed.file());
+                results[i] = analyze(packed.file(), onPartial.apply(packed.file()));
+                continue;
+            }
+            String text = splitter.text(n);
+            if (cacheKeys[i] != null) {
+                cache.put(cacheKeys[i], text);
+            }
+            double inputShare = totalChars == 0 ? 1.0 / pending.size() : (double) codes[i].length() / totalChars;
+            double outputShare = outputChars == 0 ? 1.0 / pending.size() : (double) text.length() / outputChars;
+            results[i] = new AnalysisResult(packed.file(), text, null, Math.round(usage.inputChars * inputShare),
+                    Math.round(usage.inputTokens * inputShare), Math.round(usage.outputTokens * outputShare),
+                    elapsed, null);
+        }
+    }
+
+    private boolean needsChunking(CharSequence inputText) {
+        return chunker != null && chunkTokens > 0 && tokenEstimator.estimate(inputText) > chunkTokens;
+    }
+
+    /**
+     * コードをチャンクに分割して並行に解析（map）し、部分的な説明を1回の呼び出しで統合（reduce）します。
+     * map段階の出力は混在しないようバッファし、reduce段階の出力のみをonPartialへ流します。
+     *
+     * @param codeFile  解析対象ファイル（ログ用）
+     * @param codeText  コード
+     * @param onPartial reduce段階の部分応答を受け取るコールバック
+     * @param usage     全呼び出しの使用量を集計する先
+     * @return reduce段階の完了応答
+     */
+    private ChatResponse mapReduce(Path codeFile, String codeText, Consumer<String> onPartial, Usage usage)
+            throws InterruptedException, ExecutionException {
+        int overhead = tokenEstimator.estimate(basePrompt) + tokenEstimator.estimate(MAP_INSTRUCTION);
+        List<String> chunks = chunker.split(codeText, Math.max(chunkTokens - overhead, MIN_CHUNK_TOKENS));
+        if (chunks.size() <= 1) {
+            return usage.record(new PromptText(basePrompt, codeText), chat(basePrompt, codeText, onPartial).join());
+        }
+        logger.info("{} を {} チャンクに分割して解析します", codeFile, chunks.size());
+
+        Semaphore permits = new Semaphore(chunkParallel);
+        List<CharSequence> mapInputs = new ArrayList<>(chunks.size());
+        List<Future<ChatResponse>> futures = new ArrayList<>(chunks.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < chunks.size(); i++) {
+                String mapText = String.format(MAP_INSTRUCTION, i + 1, chunks.size()) + "\n" + chunks.get(i);
+                mapInputs.add(new PromptText(basePrompt, mapText));
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return chat(basePrompt, mapText, partial -> {
+                        }).join();
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+
+        StringBuilder reduceInput = new StringBuilder(REDUCE_INSTRUCTION).append('\n');
+        for (int i = 0; i < futures.size(); i++) {
+            ChatResponse partialResponse = usage.record(mapInputs.get(i), futures.get(i).get());
+            reduceInput.append("\n## 部分 ").append(i + 1).append('/').append(chunks.size()).append('\n');
+            if (partialResponse.aiMessage() != null && partialResponse.aiMessage().text() != null) {
+                reduceInput.append(partialResponse.aiMessage().text()).append('\n');
+            }
+        }
+        String reduceText = reduceInput.toString();
+        return usage.record(new PromptText(basePrompt, reduceText), chat(basePrompt, reduceText, onPartial).join());
+    }
+
+    /**
+     * 入力テキストをモデルに送信し、完了応答を返すFutureを返します。
+     *
+     * @param inputText 入力テキスト
+     * @param onPartial 部分応答を受け取るコールバック
+     * @return 完了応答のFuture
+     */
+    public CompletableFuture<ChatResponse> chat(String inputText, Consumer<String> onPartial) {
+        return chat(ChatRequest.builder().messages(UserMessage.from(inputText)).build(), onPartial);
+    }
+
+    /**
+     * 共通の接頭辞（ベースプロンプト）と可変部分を送信します。{@link #withSeparatePrefix()}の場合は
+     * 1つのユーザーメッセージの別々のテキストとし、プロンプトキャッシュ対応のモデルが接頭辞をキャッシュできるようにします。
+     * それ以外は「接頭辞 + 改行 + 可変部分」の1つのテキストとして送信します。
+     *
+     * @param prefix    全リクエストに共通する接頭辞
+     * @param text      リクエストごとに異なる部分
+     * @param onPartial 部分応答を受け取るコールバック
+     * @return 完了応答のFuture
+     */
+    public CompletableFuture<ChatResponse> chat(String prefix, String text, Consumer<String> onPartial) {
+        if (!separatePrefix) {
+            return chat(prefix + "\n" + text, onPartial);
+        }
+        return chat(ChatRequest.builder()
+                .messages(UserMessage.from(TextContent.from(prefix), TextContent.from(text)))
+                .build(), onPartial);
+    }
+
+    private CompletableFuture<ChatResponse> chat(ChatRequest request, Consumer<String> onPartial) {
+        CompletableFuture<ChatResponse> futureChatResponse = new CompletableFuture<>();
+        model.chat(request, new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(String partialResponse) {
+                onPartial.accept(partialResponse);
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+                futureChatResponse.complete(completeResponse);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                futureChatResponse.completeExceptionally(error);
+            }
+        });
+        return futureChatResponse;
+    }
+
+    /**
+     * CompletionException・ExecutionExceptionに包まれた元の例外を取り出します。
+     *
+     * @param error 例外
+     * @return 元の例外
+     */
+    static Throwable unwrap(Throwable error) {
+        Throwable current = error;
+        while ((current instanceof CompletionException || current instanceof ExecutionException)
+                && current.getCause() != null) {
+            current = current.getCause();
+        }
+        return current;
+    }
+
+    /**
+     * 1ファイルの解析で行った全呼び出しの入力文字数・トークン数を集計します。
+     */
+    private final class Usage {
+        long inputChars;
+        long inputTokens;
+        long outputTokens;
+
+        /**
+         * 1回の呼び出し分を加算します。トークン数はプロバイダーの報告値を優先します。
+         *
+         * @param inputText 送信したテキスト
+         * @param response  完了応答
+         * @return 引数の完了応答
+         */
+        ChatResponse record(CharSequence inputText, ChatResponse response) {
+            inputChars += inputText.length();
+            inputTokens += TokenEstimator.inputTokens(response, tokenEstimator.estimate(inputText));
+            String text = response.aiMessage() != null ? response.aiMessage().text() : null;
+            outputTokens += TokenEstimator.outputTokens(response, tokenEstimator.estimate(text));
+            return response;
+        }
+    }
+
+    /**
+     * 「接頭辞 + 改行 + 本文」を連結せずに見せるビュー。文字数やトークン数の見積もりのためだけに、
+     * 大きなソースのコピーを作らないようにします。
+     *
+     * @param prefix 接頭辞（ベースプロンプト）
+     * @param text   本文
+     */
+    private record PromptText(String prefix, CharSequence text) implements CharSequence {
+        @Override
+        public int length() {
+            return prefix.length() + 1 + text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < prefix.length()) {
+                return prefix.charAt(index);
+            }
+            return index == prefix.length() ? '\n' : text.charAt(index - prefix.length() - 1);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return prefix + "\n" + text;
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
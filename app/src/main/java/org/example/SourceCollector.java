@@ -0,0 +1,163 @@
+package org.example;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * --codeで指定されたファイル・ディレクトリ・globパターンから解析対象ファイルを収集するクラス。
+ * 複数指定はカンマ区切り（例: {@code src/main/java,lib/**\/*.java}）。
+ */
+public class SourceCollector {
+    private static final Logger logger = LogManager.getLogger(SourceCollector.class);
+
+    /**
+     * ディレクトリ指定時に対象とするファイルのglobパターン。
+     */
+    private final PathMatcher includeMatcher;
+
+    /**
+     * ディレクトリ指定時の対象ファイルパターンを指定して生成します。
+     *
+     * @param includeGlob ファイル名に対するglobパターン（例: *.java）
+     */
+    public SourceCollector(String includeGlob) {
+        this.includeMatcher = FileSystems.getDefault().getPathMatcher("glob:" + includeGlob);
+    }
+
+    /**
+     * 指定文字列を解釈し、解析対象ファイルの一覧を返します。重複は除去され、指定順を保ちます。
+     *
+     * @param spec カンマ区切りのファイル・ディレクトリ・globパターン
+     * @return 解析対象ファイルの一覧
+     * @throws IOException ファイルが存在しない場合や走査に失敗した場合
+     */
+    public List<Path> collect(String spec) throws IOException {
+        Set<Path> result = new LinkedHashSet<>();
+        for (String entry : spec.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (isGlob(trimmed)) {
+                collectGlob(trimmed, result);
+                continue;
+            }
+            Path path = Paths.get(trimmed);
+            if (Files.isDirectory(path)) {
+                collectDirectory(path, result);
+            } else if (Files.isRegularFile(path)) {
+                result.add(path.normalize());
+            } else {
+                throw new IOException("ファイルが存在しません: " + path);
+            }
+        }
+        logger.info("解析対象ファイル数: {}", result.size());
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * ディレクトリ配下を再帰的に走査し、対象パターンに一致するファイルを追加します。
+     */
+    private void collectDirectory(Path dir, Set<Path> result) throws IOException {
+        try (Stream<Path> stream = Files.walk(dir)) {
+            stream.filter(Files::isRegularFile)
+                    .filter(p -> includeMatcher.matches(p.getFileName()))
+                    .map(Path::normalize)
+                    .sorted()
+                    .forEach(result::add);
+        }
+    }
+
+    /**
+     * globパターンのうちワイルドカードを含まない先頭部分を起点に走査し、パターンに一致するファイルを追加します。
+     */
+    private void collectGlob(String pattern, Set<Path> result) throws IOException {
+        String normalized = pattern.replace('\\', '/');
+        int firstWildcard = indexOfWildcard(normalized);
+        int lastSlash = normalized.lastIndexOf('/', firstWildcard);
+        Path base = lastSlash < 0 ? Paths.get("") : Paths.get(normalized.substring(0, lastSlash + 1));
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String variant : globVariants(normalized)) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + variant));
+        }
+        if (!Files.isDirectory(base.toAbsolutePath())) {
+            throw new IOException("ディレクトリが存在しません: " + base);
+        }
+        try (Stream<Path> stream = Files.walk(base.toAbsolutePath())) {
+            Path absoluteBase = base.toAbsolutePath();
+            stream.filter(Files::isRegularFile)
+                    .filter(p -> matchesAny(matchers, toGlobTarget(base, absoluteBase, p)))
+                    .map(p -> base.resolve(absoluteBase.relativize(p)).normalize())
+                    .sorted()
+                    .forEach(result::add);
+        }
+    }
+
+    /**
+     * {@code **\/}を0階層にも一致させるため、各{@code **\/}を残したもの・取り除いたものの組み合わせを返します。
+     * PathMatcherのglobでは{@code **\/}に1階層以上のディレクトリが必要で、{@code lib/**\/*.java}が{@code lib/Foo.java}に一致しないためです。
+     */
+    private static Set<String> globVariants(String pattern) {
+        Set<String> variants = new LinkedHashSet<>();
+        variants.add(pattern);
+        int from = 0;
+        int index;
+        while ((index = pattern.indexOf("**/", from)) >= 0) {
+            if (index == 0 || pattern.charAt(index - 1) == '/') {
+                String head = pattern.substring(0, index);
+                for (String tail : globVariants(pattern.substring(index + 3))) {
+                    variants.add(head + tail);
+                }
+            }
+            from = index + 3;
+        }
+        return variants;
+    }
+
+    private static boolean matchesAny(List<PathMatcher> matchers, Path path) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * globの照合対象となるパス（起点ディレクトリを含む相対表記、区切りは/）を組み立てます。
+     */
+    private static Path toGlobTarget(Path base, Path absoluteBase, Path file) {
+        String relative = absoluteBase.relativize(file).toString().replace('\\', '/');
+        String prefix = base.toString().replace('\\', '/');
+        if (prefix.isEmpty()) {
+            return Paths.get(relative);
+        }
+        return Paths.get(prefix.endsWith("/") ? prefix + relative : prefix + "/" + relative);
+    }
+
+    private static boolean isGlob(String entry) {
+        return indexOfWildcard(entry) >= 0;
+    }
+
+    private static int indexOfWildcard(String entry) {
+        for (int i = 0; i < entry.length(); i++) {
+            char c = entry.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
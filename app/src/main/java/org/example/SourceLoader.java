@@ -0,0 +1,267 @@
+package org.example;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ソースファイルを読み込み、文字コードを判別して文字列にするクラス。
+ * ファイルは1回だけ読み込み、バイト列の走査で文字コードの候補を決めてから、検証付きのデコーダで1回だけデコードします。
+ * 大きなファイルはメモリマップで読み込み、ヒープへのコピーを避けます。
+ *
+ * <p>判別できる文字コードは、UTF-8（BOM付きを含む）、MS932（Shift_JIS）、EUC-JPです。</p>
+ */
+public final class SourceLoader {
+    private static final Logger logger = LogManager.getLogger(SourceLoader.class);
+
+    /**
+     * この大きさ以上のファイルはメモリマップで読み込みます。
+     */
+    static final long MMAP_THRESHOLD_BYTES = 1L << 20;
+
+    /**
+     * Shift_JISの上位互換（Windowsの機種依存文字を含む）。
+     */
+    static final Charset MS932 = Charset.forName("windows-31j");
+
+    static final Charset EUC_JP = Charset.forName("EUC-JP");
+
+    /**
+     * 読み込んだソース。
+     *
+     * @param text    デコードした文字列
+     * @param charset 判別した文字コード
+     */
+    public record Source(String text, Charset charset) {
+    }
+
+    private SourceLoader() {
+    }
+
+    /**
+     * ファイルを読み込み、前後の空白を除いた文字列を返します。
+     *
+     * @param path 読み込むファイルのパス
+     * @return 読み込んだ文字列
+     * @throws IOException ファイルが存在しない場合、またはいずれの文字コードでもデコードできない場合
+     */
+    public static String readString(Path path) throws IOException {
+        return load(path).text().trim();
+    }
+
+    /**
+     * ファイルを読み込み、文字コードを判別してデコードします。
+     *
+     * @param path 読み込むファイルのパス
+     * @return 読み込んだソース
+     * @throws IOException ファイルが存在しない場合、またはいずれの文字コードでもデコードできない場合
+     */
+    public static Source load(Path path) throws IOException {
+        ByteBuffer bytes = readBytes(path);
+        Charset detected = detect(bytes);
+        Source source = decode(path, bytes, detected);
+        logger.debug("文字コードを判別しました: {} ({})", path, source.charset());
+        return source;
+    }
+
+    /**
+     * ファイルをデコードせずに文字コードだけ判別します。大きなファイルはメモリマップで走査するため、ヒープへは読み込みません。
+     * ASCIIのみのファイルはUTF-8として返します。
+     *
+     * @param path ファイルのパス
+     * @return 文字コード
+     * @throws IOException ファイルが存在しない場合
+     */
+    public static Charset detectCharset(Path path) throws IOException {
+        Charset detected = detect(readBytes(path));
+        return detected == StandardCharsets.US_ASCII ? StandardCharsets.UTF_8 : detected;
+    }
+
+    /**
+     * バイト列から文字コードを判別してデコードします。
+     *
+     * @param bytes バイト列
+     * @return デコードしたソース
+     * @throws IOException いずれの文字コードでもデコードできない場合
+     */
+    public static Source decode(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return decode(null, buffer, detect(buffer));
+    }
+
+    private static ByteBuffer readBytes(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MMAP_THRESHOLD_BYTES) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // 末尾まで読み込む
+            }
+            return buffer.flip();
+        } catch (NoSuchFileException e) {
+            throw new IOException("ファイルが存在しません: " + path, e);
+        }
+    }
+
+    /**
+     * バイト列を1回走査して文字コードの候補を決めます。
+     * BOMがあればUTF-8、UTF-8として正しい並びであればUTF-8、EUC-JPとして正しい並びであればEUC-JP、それ以外はMS932とします。
+     *
+     * @param bytes バイト列（位置は変更しません）
+     * @return 文字コードの候補
+     */
+    static Charset detect(ByteBuffer bytes) {
+        if (hasUtf8Bom(bytes)) {
+            return StandardCharsets.UTF_8;
+        }
+        int start = bytes.position();
+        int end = bytes.limit();
+        int firstNonAscii = start;
+        while (firstNonAscii < end && bytes.get(firstNonAscii) >= 0) {
+            firstNonAscii++;
+        }
+        if (firstNonAscii == end) {
+            return StandardCharsets.US_ASCII;
+        }
+        if (isValidUtf8(bytes, firstNonAscii, end)) {
+            return StandardCharsets.UTF_8;
+        }
+        if (isValidEucJp(bytes, firstNonAscii, end)) {
+            return EUC_JP;
+        }
+        return MS932;
+    }
+
+    private static Source decode(Path path, ByteBuffer bytes, Charset detected) throws IOException {
+        if (detected == StandardCharsets.US_ASCII || detected == StandardCharsets.UTF_8) {
+            int offset = hasUtf8Bom(bytes) ? 3 : 0;
+            // 走査で検証済みのため、置換なしでそのまま変換できる
+            if (bytes.hasArray()) {
+                String text = new String(bytes.array(), bytes.arrayOffset() + bytes.position() + offset,
+                        bytes.remaining() - offset, detected);
+                return new Source(text, StandardCharsets.UTF_8);
+            }
+            ByteBuffer body = bytes.duplicate().position(bytes.position() + offset);
+            return new Source(detected.decode(body).toString(), StandardCharsets.UTF_8);
+        }
+        Charset fallback = detected == EUC_JP ? MS932 : EUC_JP;
+        CharacterCodingException lastException = null;
+        for (Charset charset : new Charset[] { detected, fallback }) {
+            try {
+                CharBuffer chars = charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(bytes.duplicate());
+                return new Source(chars.toString(), charset);
+            } catch (CharacterCodingException e) {
+                lastException = e;
+            }
+        }
+        throw new IOException((path != null ? path : "入力") + " の読み込みに失敗しました（UTF-8/MS932/EUC-JPのいずれでもありません）",
+                lastException);
+    }
+
+    private static boolean hasUtf8Bom(ByteBuffer bytes) {
+        int p = bytes.position();
+        return bytes.limit() - p >= 3 && (bytes.get(p) & 0xFF) == 0xEF && (bytes.get(p + 1) & 0xFF) == 0xBB
+                && (bytes.get(p + 2) & 0xFF) == 0xBF;
+    }
+
+    /**
+     * UTF-8として正しいバイト列かを判定します（冗長表現・サロゲート・範囲外は不正とします）。
+     */
+    private static boolean isValidUtf8(ByteBuffer bytes, int from, int end) {
+        int i = from;
+        while (i < end) {
+            int b = bytes.get(i) & 0xFF;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            int length;
+            int min;
+            int max = 0xBF;
+            if (b >= 0xC2 && b <= 0xDF) {
+                length = 2;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                length = 3;
+                min = b == 0xE0 ? 0xA0 : 0x80;
+                max = b == 0xED ? 0x9F : 0xBF;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                length = 4;
+                min = b == 0xF0 ? 0x90 : 0x80;
+                max = b == 0xF4 ? 0x8F : 0xBF;
+            } else {
+                return false;
+            }
+            if (i + length > end) {
+                return false;
+            }
+            int second = bytes.get(i + 1) & 0xFF;
+            if (second < min || second > max) {
+                return false;
+            }
+            for (int k = 2; k < length; k++) {
+                int next = bytes.get(i + k) & 0xFF;
+                if (next < 0x80 || next > 0xBF) {
+                    return false;
+                }
+            }
+            i += length;
+        }
+        return true;
+    }
+
+    /**
+     * EUC-JPとして正しいバイト列かを判定します。
+     * Shift_JISの2バイト文字は先頭バイトが0x81～0x9Fを含むため、通常はここで区別できます。
+     */
+    private static boolean isValidEucJp(ByteBuffer bytes, int from, int end) {
+        int i = from;
+        while (i < end) {
+            int b = bytes.get(i) & 0xFF;
+            if (b < 0x80) {
+                i++;
+            } else if (b == 0x8E) {
+                // 半角カナ
+                if (i + 1 >= end || !inRange(bytes.get(i + 1), 0xA1, 0xDF)) {
+                    return false;
+                }
+                i += 2;
+            } else if (b == 0x8F) {
+                // 補助漢字
+                if (i + 2 >= end || !inRange(bytes.get(i + 1), 0xA1, 0xFE) || !inRange(bytes.get(i + 2), 0xA1, 0xFE)) {
+                    return false;
+                }
+                i += 3;
+            } else if (b >= 0xA1 && b <= 0xFE) {
+                if (i + 1 >= end || !inRange(bytes.get(i + 1), 0xA1, 0xFE)) {
+                    return false;
+                }
+                i += 2;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean inRange(byte b, int min, int max) {
+        int v = b & 0xFF;
+        return v >= min && v <= max;
+    }
+}
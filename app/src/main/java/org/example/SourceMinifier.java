@@ -0,0 +1,476 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * プロンプトを組み立てる前に、説明に役立たない部分（ライセンスコメント・import・Javadocの定型部分・余分な空白・生成コード）を
+ * 取り除いて入力トークンを減らすクラス。取り除く対象は{@link Category}で選びます。
+ *
+ * <p>字句走査は{@link JavaSourceChunker#skipLiteralOrComment(String, int)}と同じ方法で行い、文字列リテラル・テキストブロックの
+ * 中身は変更しません。削除や置き換えは行単位で行い、削除によって行番号がずれる位置には{@code // @line 元の行番号}の行を挟みます。
+ * モデルは元のファイルの行番号で説明でき、{@link Result#originalLine(int)}で前処理後の行から元の行を引くこともできます。</p>
+ *
+ * <p>目印の行もトークンを使うため、前の目印以降に取り除いた行の見積もりトークン数が目印の行より多い場合にだけ挟みます。
+ * 空行を1行詰めただけの位置などでは目印を省くため、説明中の行番号が数行ずれることがありますが、
+ * {@link Result#originalLine(int)}は常に正確です。</p>
+ */
+public class SourceMinifier {
+    /**
+     * 取り除く対象の種類。
+     */
+    public enum Category {
+        /**
+         * import文。
+         */
+        IMPORTS,
+        /**
+         * ファイル先頭のライセンス・著作権表示のコメント。
+         */
+        LICENSE,
+        /**
+         * Javadoc。最初の1文だけを残し、タグ（{@code @param}など）を取り除きます。
+         */
+        JAVADOC,
+        /**
+         * 行末の空白、2行以上続く空行、削除した部分に隣接する空行。
+         */
+        WHITESPACE,
+        /**
+         * 生成コードの区間（{@code GEN-BEGIN}～{@code GEN-END}、{@code BEGIN GENERATED}～{@code END GENERATED}）。
+         */
+        GENERATED
+    }
+
+    /**
+     * 行番号がずれる位置に挟む行の接頭辞。
+     */
+    static final String LINE_MARKER = "// @line ";
+
+    /**
+     * 生成コードの区間を置き換える行。
+     */
+    static final String GENERATED_NOTE = "// （生成コード %d 行を省略）";
+
+    private static final Pattern LICENSE_WORDS = Pattern.compile(
+            "copyright|licen[cs]e|spdx-license-identifier|all rights reserved", Pattern.CASE_INSENSITIVE);
+    private static final Pattern GENERATED_BEGIN = Pattern.compile("GEN-BEGIN|BEGIN GENERATED",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern GENERATED_END = Pattern.compile("GEN-END|END GENERATED", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * 前処理の結果。
+     *
+     * @param text           前処理後のソース
+     * @param originalLines  前処理後の各行（0始まり）に対応する元の行番号（1始まり）
+     * @param originalTokens 元のソースの見積もりトークン数
+     * @param minifiedTokens 前処理後の見積もりトークン数（目印の行を含む）
+     */
+    public record Result(String text, int[] originalLines, int originalTokens, int minifiedTokens) {
+        /**
+         * 前処理後の行番号から元の行番号を返します。
+         *
+         * @param minifiedLine 前処理後の行番号（1始まり）
+         * @return 元の行番号（1始まり）
+         */
+        public int originalLine(int minifiedLine) {
+            return originalLines[minifiedLine - 1];
+        }
+
+        /**
+         * 前処理で削減した見積もりトークン数（挟んだ目印の行の分を差し引いた値）を返します。
+         *
+         * @return 削減したトークン数
+         */
+        public int savedTokens() {
+            return originalTokens - minifiedTokens;
+        }
+    }
+
+    /**
+     * コメント・リテラル・import文の位置。
+     *
+     * @param kind  種類
+     * @param start 開始位置
+     * @param end   終了位置（この位置の文字は含まない）
+     */
+    private record Span(Kind kind, int start, int end) {
+    }
+
+    private enum Kind {
+        LINE_COMMENT, BLOCK_COMMENT, JAVADOC, LITERAL, IMPORT
+    }
+
+    private final Set<Category> categories;
+    private final TokenEstimator tokenEstimator;
+
+    /**
+     * @param categories     取り除く対象
+     * @param tokenEstimator 削減量の見積もりに使うトークン見積もり
+     */
+    public SourceMinifier(Set<Category> categories, TokenEstimator tokenEstimator) {
+        this.categories = categories.isEmpty() ? EnumSet.noneOf(Category.class) : EnumSet.copyOf(categories);
+        this.tokenEstimator = tokenEstimator;
+    }
+
+    /**
+     * ソースを前処理します。
+     *
+     * @param source Javaソース
+     * @return 前処理の結果
+     */
+    public Result minify(String source) {
+        Lines lines = new Lines(source);
+        List<Span> spans = scan(source);
+        if (categories.contains(Category.GENERATED)) {
+            removeGenerated(lines, spans);
+        }
+        if (categories.contains(Category.LICENSE)) {
+            removeLicense(lines, spans);
+        }
+        if (categories.contains(Category.IMPORTS)) {
+            for (Span span : spans) {
+                if (span.kind() == Kind.IMPORT) {
+                    lines.removeWhole(span.start(), span.end());
+                }
+            }
+        }
+        if (categories.contains(Category.JAVADOC)) {
+            for (Span span : spans) {
+                if (span.kind() == Kind.JAVADOC) {
+                    summarizeJavadoc(lines, source, span);
+                }
+            }
+        }
+        if (categories.contains(Category.WHITESPACE)) {
+            squeezeWhitespace(lines, spans);
+        }
+        Result result = lines.join(source.endsWith("\n"), tokenEstimator);
+        return new Result(result.text(), result.originalLines(), tokenEstimator.estimate(source),
+                tokenEstimator.estimate(result.text()));
+    }
+
+    /**
+     * コメント・リテラル・トップレベルのimport文の位置を集めます。
+     */
+    private static List<Span> scan(String source) {
+        List<Span> spans = new ArrayList<>();
+        int depth = 0;
+        int i = 0;
+        int n = source.length();
+        while (i < n) {
+            int skip = JavaSourceChunker.skipLiteralOrComment(source, i);
+            if (skip > i) {
+                Kind kind;
+                if (source.startsWith("//", i)) {
+                    kind = Kind.LINE_COMMENT;
+                } else if (source.startsWith("/**", i) && !source.startsWith("/**/", i)) {
+                    kind = Kind.JAVADOC;
+                } else if (source.startsWith("/*", i)) {
+                    kind = Kind.BLOCK_COMMENT;
+                } else {
+                    kind = Kind.LITERAL;
+                }
+                spans.add(new Span(kind, i, skip));
+                i = skip;
+                continue;
+            }
+            char c = source.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth = Math.max(0, depth - 1);
+            } else if (depth == 0 && source.startsWith("import", i) && isWordBoundary(source, i, i + 6)) {
+                int end = statementEnd(source, i);
+                spans.add(new Span(Kind.IMPORT, i, end));
+                i = end;
+                continue;
+            }
+            i++;
+        }
+        return spans;
+    }
+
+    private static boolean isWordBoundary(String s, int start, int end) {
+        return (start == 0 || !Character.isJavaIdentifierPart(s.charAt(start - 1)))
+                && end < s.length() && !Character.isJavaIdentifierPart(s.charAt(end));
+    }
+
+    private static int statementEnd(String s, int i) {
+        while (i < s.length()) {
+            int skip = JavaSourceChunker.skipLiteralOrComment(s, i);
+            if (skip > i) {
+                i = skip;
+                continue;
+            }
+            if (s.charAt(i) == ';') {
+                return i + 1;
+            }
+            i++;
+        }
+        return s.length();
+    }
+
+    /**
+     * 生成コードの開始・終了の目印となる行コメントの間（目印を含む）を1行の注記に置き換えます。
+     */
+    private static void removeGenerated(Lines lines, List<Span> spans) {
+        int begin = -1;
+        for (Span span : spans) {
+            if (span.kind() != Kind.LINE_COMMENT) {
+                continue;
+            }
+            String comment = lines.source.substring(span.start(), span.end());
+            if (begin < 0 && GENERATED_BEGIN.matcher(comment).find()) {
+                begin = lines.lineOf(span.start());
+            } else if (begin >= 0 && GENERATED_END.matcher(comment).find()) {
+                int end = lines.lineOf(span.start());
+                if (lines.untouched(begin, end)) {
+                    lines.replace(begin, end, String.format(GENERATED_NOTE, end - begin + 1));
+                }
+                begin = -1;
+            }
+        }
+    }
+
+    /**
+     * 最初のコード（package・import・型宣言）より前にある、ライセンス・著作権表示を含むコメントを取り除きます。
+     */
+    private static void removeLicense(Lines lines, List<Span> spans) {
+        int position = 0;
+        for (Span span : spans) {
+            if (span.kind() == Kind.LITERAL || span.kind() == Kind.IMPORT
+                    || !lines.source.substring(position, span.start()).isBlank()) {
+                return;
+            }
+            if (span.kind() != Kind.JAVADOC
+                    && LICENSE_WORDS.matcher(lines.source.substring(span.start(), span.end())).find()) {
+                lines.removeWhole(span.start(), span.end());
+            }
+            position = span.end();
+        }
+    }
+
+    /**
+     * Javadocを最初の1文だけの1行に置き換えます。1文も無い場合は取り除きます。
+     */
+    private static void summarizeJavadoc(Lines lines, String source, Span span) {
+        int first = lines.lineOf(span.start());
+        int last = lines.lineOf(span.end() - 1);
+        if (!lines.isWhole(span.start(), span.end()) || !lines.untouched(first, last)) {
+            return;
+        }
+        String summary = firstSentence(source.substring(span.start() + 3, span.end() - 2));
+        if (summary.isEmpty()) {
+            lines.remove(first, last);
+            return;
+        }
+        String replacement = "/** " + summary + " */";
+        if (first == last && replacement.length() >= span.end() - span.start()) {
+            return;
+        }
+        lines.replace(first, last, replacement);
+    }
+
+    /**
+     * Javadocの本文から最初の1文（「。」または「. 」まで、タグより前）を取り出します。
+     */
+    static String firstSentence(String body) {
+        StringBuilder text = new StringBuilder();
+        for (String line : body.split("\n")) {
+            String stripped = line.strip();
+            if (stripped.startsWith("*")) {
+                stripped = stripped.substring(1).strip();
+            }
+            if (stripped.startsWith("@")) {
+                break;
+            }
+            if (!stripped.isEmpty()) {
+                if (!text.isEmpty()) {
+                    text.append(' ');
+                }
+                text.append(stripped);
+            }
+        }
+        String summary = text.toString().replaceAll("(?i)</?p>", "").strip();
+        int end = summary.indexOf('。');
+        if (end >= 0) {
+            return summary.substring(0, end + 1);
+        }
+        end = summary.indexOf(". ");
+        return end >= 0 ? summary.substring(0, end + 1) : summary;
+    }
+
+    /**
+     * 行末の空白を取り除き、2行以上続く空行と、取り除いた部分に隣接する空行を削除します。リテラルの中は変更しません。
+     */
+    private static void squeezeWhitespace(Lines lines, List<Span> spans) {
+        boolean[] inLiteral = new boolean[lines.count()];
+        for (Span span : spans) {
+            if (span.kind() == Kind.LITERAL) {
+                for (int line = lines.lineOf(span.start()); line <= lines.lineOf(span.end() - 1); line++) {
+                    inLiteral[line] = true;
+                }
+            }
+        }
+        for (int line = 0; line < lines.count(); line++) {
+            if (!inLiteral[line] && lines.untouched(line, line)) {
+                lines.stripTrailing(line);
+            }
+        }
+        for (int line = 0; line < lines.count(); line++) {
+            if (inLiteral[line] || !lines.isBlank(line)) {
+                continue;
+            }
+            boolean previousGone = line == 0 || lines.isRemoved(line - 1) || lines.isBlank(line - 1);
+            if (previousGone) {
+                lines.remove(line, line);
+            }
+        }
+        for (int line = lines.count() - 1; line >= 0; line--) {
+            if (!inLiteral[line] && lines.isBlank(line) && (line == lines.count() - 1 || lines.isRemoved(line + 1))) {
+                lines.remove(line, line);
+            }
+        }
+    }
+
+    /**
+     * 行単位の編集状態。
+     */
+    private static final class Lines {
+        private final String source;
+        private final int[] starts;
+        private final String[] texts;
+        private final boolean[] removed;
+        private final boolean[] touched;
+
+        Lines(String source) {
+            this.source = source;
+            List<Integer> lineStarts = new ArrayList<>();
+            lineStarts.add(0);
+            for (int i = 0; i < source.length(); i++) {
+                if (source.charAt(i) == '\n' && i + 1 < source.length()) {
+                    lineStarts.add(i + 1);
+                }
+            }
+            starts = lineStarts.stream().mapToInt(Integer::intValue).toArray();
+            texts = new String[starts.length];
+            for (int line = 0; line < starts.length; line++) {
+                texts[line] = source.substring(starts[line], lineEnd(line));
+            }
+            removed = new boolean[starts.length];
+            touched = new boolean[starts.length];
+        }
+
+        int count() {
+            return starts.length;
+        }
+
+        private int lineEnd(int line) {
+            int end = line + 1 < starts.length ? starts[line + 1] - 1 : source.length();
+            return end > starts[line] && source.charAt(end - 1) == '\n' ? end - 1 : end;
+        }
+
+        int lineOf(int offset) {
+            int index = Arrays.binarySearch(starts, offset);
+            return index >= 0 ? index : -index - 2;
+        }
+
+        /**
+         * 範囲の前後が同じ行の空白だけであれば（範囲が行全体を占めていれば）trueを返します。
+         */
+        boolean isWhole(int start, int end) {
+            int first = lineOf(start);
+            int last = lineOf(end - 1);
+            return source.substring(starts[first], start).isBlank() && source.substring(end, lineEnd(last)).isBlank();
+        }
+
+        boolean untouched(int first, int last) {
+            for (int line = first; line <= last; line++) {
+                if (touched[line]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void removeWhole(int start, int end) {
+            int first = lineOf(start);
+            int last = lineOf(end - 1);
+            if (isWhole(start, end) && untouched(first, last)) {
+                remove(first, last);
+            }
+        }
+
+        void remove(int first, int last) {
+            for (int line = first; line <= last; line++) {
+                removed[line] = true;
+                touched[line] = true;
+            }
+        }
+
+        /**
+         * 行の範囲を1行に置き換えます。インデントは最初の行のものを使います。
+         */
+        void replace(int first, int last, String text) {
+            String line = texts[first];
+            int indent = 0;
+            while (indent < line.length() && (line.charAt(indent) == ' ' || line.charAt(indent) == '\t')) {
+                indent++;
+            }
+            remove(first, last);
+            removed[first] = false;
+            texts[first] = line.substring(0, indent) + text;
+        }
+
+        void stripTrailing(int line) {
+            texts[line] = texts[line].stripTrailing();
+        }
+
+        boolean isBlank(int line) {
+            return !removed[line] && texts[line].isBlank();
+        }
+
+        boolean isRemoved(int line) {
+            return removed[line];
+        }
+
+        /**
+         * 残った行を連結します。元の行番号が連続しない位置には、前の目印以降に取り除いた行が目印の行より
+         * 多くのトークンを占める場合にだけ行番号の目印を挟みます。
+         */
+        Result join(boolean trailingNewline, TokenEstimator tokenEstimator) {
+            StringBuilder sb = new StringBuilder(source.length());
+            List<Integer> mapping = new ArrayList<>();
+            // 前の目印以降に取り除いた行（目印を挟まずに行番号がずれたままの分）
+            StringBuilder dropped = new StringBuilder();
+            int expected = 1;
+            for (int line = 0; line < starts.length; line++) {
+                if (removed[line]) {
+                    dropped.append(source, starts[line], lineEnd(line)).append('\n');
+                    continue;
+                }
+                int original = line + 1;
+                if (original != expected) {
+                    String marker = LINE_MARKER + original + '\n';
+                    if (tokenEstimator.estimate(dropped) > tokenEstimator.estimate(marker)) {
+                        sb.append(marker);
+                        mapping.add(original);
+                        dropped.setLength(0);
+                    }
+                }
+                sb.append(texts[line]).append('\n');
+                mapping.add(original);
+                expected = original + 1;
+            }
+            if (!trailingNewline && !sb.isEmpty()) {
+                sb.setLength(sb.length() - 1);
+            }
+            return new Result(sb.toString(), mapping.stream().mapToInt(Integer::intValue).toArray(), 0, 0);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Server-Sent Eventsのバイト列を逐次デコードするクラス。
+ * 受信したバイト列をそのまま渡すと、空行で区切られたイベントごとに{@code data:}行の内容を連結して通知します。
+ * 文字列への変換は行わず、UTF-8のマルチバイト文字がバッファの境界で分断されても正しく扱えます。
+ *
+ * <p>1つのストリームにつき1インスタンスを使います。スレッドセーフではありません。</p>
+ */
+public class SseEventDecoder {
+
+    /**
+     * デコードしたイベントを受け取るリスナー。
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * 1イベント分のdataを受け取ります。配列は次の呼び出しで再利用されるため、保持する場合はコピーしてください。
+         *
+         * @param data   dataのバイト列（複数行の場合は改行で連結済み）
+         * @param length 有効なバイト数
+         */
+        void onEvent(byte[] data, int length);
+    }
+
+    private static final byte[] DATA_FIELD = "data".getBytes(StandardCharsets.US_ASCII);
+
+    private final Listener listener;
+
+    /**
+     * 現在の行のバイト列。
+     */
+    private byte[] line = new byte[256];
+    private int lineLength;
+
+    /**
+     * 現在のイベントのdata。
+     */
+    private byte[] data = new byte[1024];
+    private int dataLength;
+    private boolean hasData;
+
+    /**
+     * 直前の文字がCRだったか（CRLFのLFを読み飛ばすため）。
+     */
+    private boolean lastWasCr;
+
+    /**
+     * @param listener イベントを受け取るリスナー
+     */
+    public SseEventDecoder(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 受信したバイト列を処理します。バッファの位置は末尾まで進みます。
+     *
+     * @param buffer 受信したバイト列
+     */
+    public void feed(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            accept(buffer.get());
+        }
+    }
+
+    /**
+     * 受信したバイト列を処理します。
+     *
+     * @param bytes  受信したバイト列
+     * @param offset 開始位置
+     * @param length バイト数
+     */
+    public void feed(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            accept(bytes[i]);
+        }
+    }
+
+    /**
+     * ストリームの終端を処理します。末尾に空行が無い場合も、残っているイベントを通知します。
+     */
+    public void finish() {
+        if (lineLength > 0) {
+            endLine();
+        }
+        dispatch();
+    }
+
+    private void accept(byte b) {
+        if (b == '\n') {
+            if (lastWasCr) {
+                lastWasCr = false;
+                return;
+            }
+            endLine();
+        } else if (b == '\r') {
+            lastWasCr = true;
+            endLine();
+        } else {
+            lastWasCr = false;
+            if (lineLength == line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[lineLength++] = b;
+        }
+    }
+
+    /**
+     * 1行分を処理します。空行ならイベントを通知し、data行なら内容を追加します。コメント行（:始まり）や他のフィールドは無視します。
+     */
+    private void endLine() {
+        if (lineLength == 0) {
+            dispatch();
+            return;
+        }
+        if (startsWithField(DATA_FIELD)) {
+            int valueStart = DATA_FIELD.length;
+            if (valueStart < lineLength && line[valueStart] == ':') {
+                valueStart++;
+                if (valueStart < lineLength && line[valueStart] == ' ') {
+                    valueStart++;
+                }
+            } else if (valueStart != lineLength) {
+                lineLength = 0;
+                return;
+            }
+            appendData(valueStart);
+        }
+        lineLength = 0;
+    }
+
+    private boolean startsWithField(byte[] field) {
+        if (lineLength < field.length) {
+            return false;
+        }
+        for (int i = 0; i < field.length; i++) {
+            if (line[i] != field[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void appendData(int valueStart) {
+        int valueLength = lineLength - valueStart;
+        int needed = dataLength + valueLength + (hasData ? 1 : 0);
+        if (needed > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, needed));
+        }
+        if (hasData) {
+            data[dataLength++] = '\n';
+        }
+        System.arraycopy(line, valueStart, data, dataLength, valueLength);
+        dataLength += valueLength;
+        hasData = true;
+    }
+
+    private void dispatch() {
+        if (hasData) {
+            listener.onEvent(data, dataLength);
+        }
+        dataLength = 0;
+        hasData = false;
+    }
+}
@@ -0,0 +1,71 @@
+package org.example;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CLIの起動にかかった時間を記録するクラス。JVMの起動からmainに入るまで、モデルの準備ができるまで、
+ * 最初のトークンを受け取るまでの時間を測ります。記録は{@code System.nanoTime()}を1回読むだけなので常に行い、
+ * {@code --startup-profile}指定時に{@link #report()}で出力します。
+ *
+ * <p>JVMの起動時刻はOSのプロセス開始時刻から求めるため、取得できない環境ではmainに入った時刻を起点にします。</p>
+ */
+public final class StartupProfile {
+    private static final AtomicLong mainNanos = new AtomicLong();
+    private static final AtomicLong modelReadyNanos = new AtomicLong();
+    private static final AtomicLong firstTokenNanos = new AtomicLong();
+
+    /**
+     * mainに入った時点のJVM起動からの経過時間（ミリ秒、取得できない場合は-1）。
+     */
+    private static volatile long jvmToMainMillis = -1;
+
+    private StartupProfile() {
+    }
+
+    /**
+     * mainに入ったことを記録します。mainの最初に呼び出します。
+     */
+    public static void markMain() {
+        long now = System.nanoTime();
+        if (mainNanos.compareAndSet(0, now)) {
+            jvmToMainMillis = ProcessHandle.current().info().startInstant()
+                    .map(start -> Math.max(0, Instant.now().toEpochMilli() - start.toEpochMilli()))
+                    .orElse(-1L);
+        }
+    }
+
+    /**
+     * 最初のモデルの準備ができたことを記録します（2回目以降は無視します）。
+     */
+    public static void markModelReady() {
+        modelReadyNanos.compareAndSet(0, System.nanoTime());
+    }
+
+    /**
+     * 最初のトークンを受け取ったことを記録します（2回目以降は無視します）。
+     */
+    public static void markFirstToken() {
+        firstTokenNanos.compareAndSet(0, System.nanoTime());
+    }
+
+    /**
+     * 記録した時間をまとめた文字列を返します。JVM起動からの経過時間（ミリ秒）で、記録していない項目は「-」です。
+     *
+     * @return 起動プロファイル
+     */
+    public static String report() {
+        return "起動プロファイル（JVM起動からの経過時間）: main " + format(mainNanos.get())
+                + " / モデル準備完了 " + format(modelReadyNanos.get())
+                + " / 最初のトークン " + format(firstTokenNanos.get());
+    }
+
+    private static String format(long nanos) {
+        long main = mainNanos.get();
+        if (nanos == 0 || main == 0) {
+            return "-";
+        }
+        long base = Math.max(0, jvmToMainMillis);
+        return (base + (nanos - main) / 1_000_000) + " ms";
+    }
+}
@@ -1,10 +1,11 @@
 package org.example;
 
-import dev.langchain4j.model.bedrock.BedrockStreamingChatModel;
 import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.chat.response.ChatResponse;
 import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
 import software.amazon.awssdk.regions.Region;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -18,27 +19,27 @@ public class StreamChatWithLangChain4j {
     private final StreamingChatModel model;
 
     /**
-     * モデルIDとリージョンを指定してBedrockのStreamingChatModelを生成します。
+     * モデルIDとリージョンを指定してBedrockのStreamingChatModelを取得します。
+     * 同じ設定のモデルはChatModelFactoryの共有レジストリから再利用されます。
      * @param modelId モデルID
      * @param region リージョン
      */
     public StreamChatWithLangChain4j(String modelId, Region region) {
-        this.model = BedrockStreamingChatModel.builder()
-                .region(region)
-                .modelId(modelId)
-                .build();
+        this.model = ChatModelFactory.shared(ChatModelFactory.Provider.BEDROCK, modelId, region.id(), null, null);
     }
 
     /**
      * 入力テキストをチャットモデルに投げ、ストリーミングで応答を受け取ります。
+     * 応答はバックグラウンドの書き出しスレッド経由で標準出力へ表示します。
      * @param inputText ユーザーからの入力テキスト
      */
     public void chat(String inputText) {
         CompletableFuture<ChatResponse> futureChatResponse = new CompletableFuture<>();
+        AsyncTextWriter console = AsyncTextWriter.stdout();
         model.chat(inputText, new StreamingChatResponseHandler() {
             @Override
             public void onPartialResponse(String partialResponse) {
-                System.out.print(partialResponse);
+                console.write(partialResponse);
             }
             @Override
             public void onCompleteResponse(ChatResponse completeResponse) {
@@ -49,6 +50,14 @@ public class StreamChatWithLangChain4j {
                 futureChatResponse.completeExceptionally(error);
             }
         });
-        futureChatResponse.join();
+        try {
+            futureChatResponse.join();
+        } finally {
+            try {
+                console.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 }
@@ -0,0 +1,547 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * ストリーミング応答のレイテンシとスループットを、プロバイダー・モデルごとにヒストグラムへ記録するレジストリ。
+ * 記録するのは最初のトークンまでの時間（TTFT）、部分応答の間隔、全体の所要時間、入出力トークン数、
+ * 生成速度（トークン/秒）、プロンプトキャッシュの読み込み・書き込みトークン数、リクエスト数とエラー数です。
+ * 実行の最後に{@link #writeJson(Path)}・{@link #writePrometheus(Path)}で出力します。
+ *
+ * <p>時間はマイクロ秒で記録し、JSONではミリ秒、Prometheus形式では秒で出力します。</p>
+ */
+public class StreamingMetrics {
+    private static final Logger logger = LogManager.getLogger(StreamingMetrics.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final StreamingMetrics GLOBAL = new StreamingMetrics();
+
+    /**
+     * Prometheus形式で出力する時間バケットの範囲（2^10 µs ≒ 1 ms ～ 2^27 µs ≒ 134 s）。
+     */
+    private static final int MIN_TIME_BUCKET_EXP = 10;
+    private static final int MAX_TIME_BUCKET_EXP = 27;
+    /**
+     * Prometheus形式で出力するトークン数・速度バケットの範囲（1 ～ 2^17）。
+     */
+    private static final int MAX_COUNT_BUCKET_EXP = 17;
+
+    private final ConcurrentMap<Key, ModelMetrics> models = new ConcurrentHashMap<>();
+
+    private record Key(String provider, String model) {
+    }
+
+    /**
+     * 1つのプロバイダー・モデルの計測値。
+     */
+    public static final class ModelMetrics {
+        final MetricHistogram ttftMicros = new MetricHistogram();
+        final MetricHistogram interTokenMicros = new MetricHistogram();
+        final MetricHistogram durationMicros = new MetricHistogram();
+        final MetricHistogram inputTokens = new MetricHistogram();
+        final MetricHistogram outputTokens = new MetricHistogram();
+        final MetricHistogram outputTokensPerSecond = new MetricHistogram();
+        final MetricHistogram cacheReadTokens = new MetricHistogram();
+        final MetricHistogram cacheWriteTokens = new MetricHistogram();
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder throttled = new LongAdder();
+        final LongAdder cancelled = new LongAdder();
+
+        /**
+         * @return 開始したリクエスト数
+         */
+        public long requests() {
+            return requests.sum();
+        }
+
+        /**
+         * @return エラーで終わったリクエスト数（スロットリングを含む）
+         */
+        public long errors() {
+            return errors.sum();
+        }
+
+        /**
+         * @return スロットリングで終わったリクエスト数
+         */
+        public long throttled() {
+            return throttled.sum();
+        }
+
+        /**
+         * @return 途中で打ち切られたリクエスト数（ヘッジ送信で負けた側など）
+         */
+        public long cancelled() {
+            return cancelled.sum();
+        }
+
+        /**
+         * @return 最初の部分応答までの時間（µs）
+         */
+        public MetricHistogram ttftMicros() {
+            return ttftMicros;
+        }
+
+        /**
+         * @return 部分応答どうしの間隔（µs）
+         */
+        public MetricHistogram interTokenMicros() {
+            return interTokenMicros;
+        }
+
+        /**
+         * @return リクエスト全体の所要時間（µs）
+         */
+        public MetricHistogram durationMicros() {
+            return durationMicros;
+        }
+
+        /**
+         * @return 入力トークン数
+         */
+        public MetricHistogram inputTokens() {
+            return inputTokens;
+        }
+
+        /**
+         * @return 出力トークン数
+         */
+        public MetricHistogram outputTokens() {
+            return outputTokens;
+        }
+
+        /**
+         * @return 生成速度（最初のトークン以降の出力トークン/秒）
+         */
+        public MetricHistogram outputTokensPerSecond() {
+            return outputTokensPerSecond;
+        }
+
+        /**
+         * @return プロンプトキャッシュから読み込んだ入力トークン数（報告された応答のみ）
+         */
+        public MetricHistogram cacheReadTokens() {
+            return cacheReadTokens;
+        }
+
+        /**
+         * @return プロンプトキャッシュへ書き込んだ入力トークン数（報告された応答のみ）
+         */
+        public MetricHistogram cacheWriteTokens() {
+            return cacheWriteTokens;
+        }
+    }
+
+    /**
+     * 1リクエスト分の計測。ストリーミングハンドラのコールバックから順に呼び出します（完了・エラー・キャンセルは最初の1回だけ記録します）。
+     */
+    public final class Recorder {
+        private final ModelMetrics metrics;
+        private final long startNanos = System.nanoTime();
+        private long firstTokenNanos;
+        private long lastTokenNanos;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private Recorder(ModelMetrics metrics) {
+            this.metrics = metrics;
+            metrics.requests.increment();
+        }
+
+        /**
+         * 部分応答を受信したことを記録します。
+         */
+        public void onToken() {
+            long now = System.nanoTime();
+            if (firstTokenNanos == 0) {
+                firstTokenNanos = now;
+                metrics.ttftMicros.record((now - startNanos) / 1000);
+                StartupProfile.markFirstToken();
+            } else {
+                metrics.interTokenMicros.record((now - lastTokenNanos) / 1000);
+            }
+            lastTokenNanos = now;
+        }
+
+        /**
+         * 正常に完了したことを記録します。
+         *
+         * @param inputTokens  入力トークン数
+         * @param outputTokens 出力トークン数
+         */
+        public void onComplete(long inputTokens, long outputTokens) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            long now = System.nanoTime();
+            metrics.durationMicros.record((now - startNanos) / 1000);
+            metrics.inputTokens.record(inputTokens);
+            metrics.outputTokens.record(outputTokens);
+            // 生成速度はTTFT以降の時間で割る（部分応答が1つしかない場合は全体の時間）
+            long generationNanos = firstTokenNanos != 0 && lastTokenNanos > firstTokenNanos
+                    ? lastTokenNanos - firstTokenNanos
+                    : now - startNanos;
+            if (outputTokens > 0 && generationNanos > 0) {
+                metrics.outputTokensPerSecond.record(Math.round(outputTokens * 1e9 / generationNanos));
+            }
+        }
+
+        /**
+         * 正常に完了したことを、プロンプトキャッシュのトークン数とともに記録します。
+         *
+         * @param inputTokens      入力トークン数（キャッシュ分を除く）
+         * @param outputTokens     出力トークン数
+         * @param cacheReadTokens  キャッシュから読み込んだトークン数（未報告の場合はnull）
+         * @param cacheWriteTokens キャッシュへ書き込んだトークン数（未報告の場合はnull）
+         */
+        public void onComplete(long inputTokens, long outputTokens, Integer cacheReadTokens,
+                Integer cacheWriteTokens) {
+            if (finished.get()) {
+                return;
+            }
+            if (cacheReadTokens != null) {
+                metrics.cacheReadTokens.record(cacheReadTokens);
+            }
+            if (cacheWriteTokens != null) {
+                metrics.cacheWriteTokens.record(cacheWriteTokens);
+            }
+            onComplete(inputTokens, outputTokens);
+        }
+
+        /**
+         * エラーで終わったことを記録します。
+         *
+         * @param error エラー
+         */
+        public void onError(Throwable error) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            metrics.durationMicros.record((System.nanoTime() - startNanos) / 1000);
+            metrics.errors.increment();
+            if (RetryPolicy.isThrottling(error)) {
+                metrics.throttled.increment();
+            }
+        }
+
+        /**
+         * 途中で打ち切られたことを記録します。所要時間は記録しません。
+         */
+        public void onCancel() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            metrics.cancelled.increment();
+        }
+    }
+
+    /**
+     * プロセス全体で共有するレジストリを返します。
+     *
+     * @return 共有レジストリ
+     */
+    public static StreamingMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * 1リクエストの計測を開始します。
+     *
+     * @param provider プロバイダー名
+     * @param model    モデルID
+     * @return 計測
+     */
+    public Recorder start(String provider, String model) {
+        return new Recorder(metricsOf(provider, model));
+    }
+
+    /**
+     * プロバイダー・モデルの計測値を返します（未登録の場合は作成します）。
+     *
+     * @param provider プロバイダー名
+     * @param model    モデルID
+     * @return 計測値
+     */
+    public ModelMetrics metricsOf(String provider, String model) {
+        return models.computeIfAbsent(new Key(provider, model), k -> new ModelMetrics());
+    }
+
+    /**
+     * ハンドラをラップし、コールバックのたびに計測を記録するハンドラを返します。
+     * 計測はこのメソッドを呼び出した時点から始まります。
+     *
+     * @param provider            プロバイダー名
+     * @param model               モデルID
+     * @param handler             元のハンドラ
+     * @param estimatedInputTokens 使用量が報告されない場合の入力トークン見積もり
+     * @param tokenEstimator      使用量が報告されない場合の出力トークン見積もり
+     * @return 計測付きハンドラ
+     */
+    public StreamingChatResponseHandler instrument(String provider, String model, StreamingChatResponseHandler handler,
+            int estimatedInputTokens, TokenEstimator tokenEstimator) {
+        return instrument(start(provider, model), handler, estimatedInputTokens, tokenEstimator);
+    }
+
+    /**
+     * ハンドラをラップし、コールバックのたびに指定した計測へ記録するハンドラを返します。
+     *
+     * @param recorder             計測
+     * @param handler              元のハンドラ
+     * @param estimatedInputTokens 使用量が報告されない場合の入力トークン見積もり
+     * @param tokenEstimator       使用量が報告されない場合の出力トークン見積もり
+     * @return 計測付きハンドラ
+     */
+    public StreamingChatResponseHandler instrument(Recorder recorder, StreamingChatResponseHandler handler,
+            int estimatedInputTokens, TokenEstimator tokenEstimator) {
+        return new StreamingChatResponseHandler() {
+            private final StringBuilder output = new StringBuilder();
+
+            @Override
+            public void onPartialResponse(String partialResponse) {
+                recorder.onToken();
+                output.append(partialResponse);
+                handler.onPartialResponse(partialResponse);
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+                CachedTokenUsage cached = completeResponse != null
+                        && completeResponse.tokenUsage() instanceof CachedTokenUsage c ? c : null;
+                recorder.onComplete(TokenEstimator.inputTokens(completeResponse, estimatedInputTokens),
+                        TokenEstimator.outputTokens(completeResponse, tokenEstimator.estimate(output)),
+                        cached != null ? cached.cacheReadTokenCount() : null,
+                        cached != null ? cached.cacheWriteTokenCount() : null);
+                handler.onCompleteResponse(completeResponse);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                recorder.onError(error);
+                handler.onError(error);
+            }
+        };
+    }
+
+    private List<Map.Entry<Key, ModelMetrics>> sortedEntries() {
+        List<Map.Entry<Key, ModelMetrics>> entries = new ArrayList<>(models.entrySet());
+        entries.sort(Comparator.comparing((Map.Entry<Key, ModelMetrics> e) -> e.getKey().provider())
+                .thenComparing(e -> e.getKey().model()));
+        return entries;
+    }
+
+    /**
+     * 計測値の要約をログへ出力します。
+     */
+    public void logSummary() {
+        for (var entry : sortedEntries()) {
+            ModelMetrics m = entry.getValue();
+            logger.info("{} {}: リクエスト {} 件（エラー {} 件）、TTFT p50 {} ms / p95 {} ms、所要時間 p50 {} ms / p95 {} ms、"
+                    + "生成速度 p50 {} tokens/s",
+                    entry.getKey().provider(), entry.getKey().model(), m.requests(), m.errors(),
+                    m.ttftMicros.percentile(50) / 1000, m.ttftMicros.percentile(95) / 1000,
+                    m.durationMicros.percentile(50) / 1000, m.durationMicros.percentile(95) / 1000,
+                    m.outputTokensPerSecond.percentile(50));
+            if (m.cacheReadTokens.count() > 0 || m.cacheWriteTokens.count() > 0) {
+                logger.info("{} {}: プロンプトキャッシュ 読み込み {} tokens / 書き込み {} tokens",
+                        entry.getKey().provider(), entry.getKey().model(), m.cacheReadTokens.sum(),
+                        m.cacheWriteTokens.sum());
+            }
+        }
+    }
+
+    /**
+     * 計測値を指定したファイルへJSON形式・Prometheusのテキスト形式で出力します（--metrics-json・--metrics-promの共通処理）。
+     * 出力に失敗した場合はログに出力し、例外はスローしません。
+     *
+     * @param jsonFile       JSON形式の出力先（nullの場合は出力しない）
+     * @param prometheusFile Prometheusのテキスト形式の出力先（nullの場合は出力しない）
+     */
+    public void export(String jsonFile, String prometheusFile) {
+        try {
+            if (jsonFile != null) {
+                writeJson(Path.of(jsonFile));
+                logger.info("計測値を出力しました: {}", jsonFile);
+            }
+            if (prometheusFile != null) {
+                writePrometheus(Path.of(prometheusFile));
+                logger.info("計測値を出力しました: {}", prometheusFile);
+            }
+        } catch (IOException e) {
+            logger.error("計測値の出力に失敗しました: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 計測値をJSON形式でファイルへ出力します。
+     *
+     * @param file 出力先ファイル
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public void writeJson(Path file) throws IOException {
+        createParent(file);
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writeJson(out);
+        }
+    }
+
+    /**
+     * 計測値をJSON形式で出力します。
+     *
+     * @param out 出力先
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public void writeJson(Writer out) throws IOException {
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(out).useDefaultPrettyPrinter()) {
+            json.writeStartObject();
+            json.writeArrayFieldStart("models");
+            for (var entry : sortedEntries()) {
+                ModelMetrics m = entry.getValue();
+                json.writeStartObject();
+                json.writeStringField("provider", entry.getKey().provider());
+                json.writeStringField("model", entry.getKey().model());
+                json.writeNumberField("requests", m.requests());
+                json.writeNumberField("errors", m.errors());
+                json.writeNumberField("throttled", m.throttled());
+                json.writeNumberField("cancelled", m.cancelled());
+                writeHistogram(json, "ttftMillis", m.ttftMicros, 1000.0);
+                writeHistogram(json, "interTokenMillis", m.interTokenMicros, 1000.0);
+                writeHistogram(json, "durationMillis", m.durationMicros, 1000.0);
+                writeHistogram(json, "inputTokens", m.inputTokens, 1);
+                writeHistogram(json, "outputTokens", m.outputTokens, 1);
+                writeHistogram(json, "outputTokensPerSecond", m.outputTokensPerSecond, 1);
+                writeHistogram(json, "cacheReadTokens", m.cacheReadTokens, 1);
+                writeHistogram(json, "cacheWriteTokens", m.cacheWriteTokens, 1);
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+    }
+
+    private static void writeHistogram(JsonGenerator json, String name, MetricHistogram histogram, double divisor)
+            throws IOException {
+        json.writeObjectFieldStart(name);
+        json.writeNumberField("count", histogram.count());
+        json.writeNumberField("mean", histogram.mean() / divisor);
+        json.writeNumberField("p50", histogram.percentile(50) / divisor);
+        json.writeNumberField("p90", histogram.percentile(90) / divisor);
+        json.writeNumberField("p95", histogram.percentile(95) / divisor);
+        json.writeNumberField("p99", histogram.percentile(99) / divisor);
+        json.writeNumberField("max", histogram.max() / divisor);
+        json.writeEndObject();
+    }
+
+    /**
+     * 計測値をPrometheusのテキスト形式でファイルへ出力します（node_exporterのtextfileコレクタで読み込めます）。
+     *
+     * @param file 出力先ファイル
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public void writePrometheus(Path file) throws IOException {
+        createParent(file);
+        Files.writeString(file, toPrometheusText(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 計測値をPrometheusのテキスト形式で返します。
+     *
+     * @return テキスト形式の計測値
+     */
+    public String toPrometheusText() {
+        var entries = sortedEntries();
+        StringBuilder sb = new StringBuilder();
+        counter(sb, entries, "llm_requests_total", "開始したリクエスト数", ModelMetrics::requests);
+        counter(sb, entries, "llm_errors_total", "エラーで終わったリクエスト数", ModelMetrics::errors);
+        counter(sb, entries, "llm_throttled_total", "スロットリングで終わったリクエスト数", ModelMetrics::throttled);
+        counter(sb, entries, "llm_cancelled_total", "途中で打ち切られたリクエスト数", ModelMetrics::cancelled);
+        histogram(sb, entries, "llm_ttft_seconds", "最初のトークンまでの時間", m -> m.ttftMicros, true);
+        histogram(sb, entries, "llm_inter_token_seconds", "部分応答どうしの間隔", m -> m.interTokenMicros, true);
+        histogram(sb, entries, "llm_request_duration_seconds", "リクエスト全体の所要時間", m -> m.durationMicros, true);
+        histogram(sb, entries, "llm_input_tokens", "入力トークン数", m -> m.inputTokens, false);
+        histogram(sb, entries, "llm_output_tokens", "出力トークン数", m -> m.outputTokens, false);
+        histogram(sb, entries, "llm_output_tokens_per_second", "生成速度", m -> m.outputTokensPerSecond, false);
+        histogram(sb, entries, "llm_cache_read_tokens", "プロンプトキャッシュから読み込んだ入力トークン数",
+                m -> m.cacheReadTokens, false);
+        histogram(sb, entries, "llm_cache_write_tokens", "プロンプトキャッシュへ書き込んだ入力トークン数",
+                m -> m.cacheWriteTokens, false);
+        return sb.toString();
+    }
+
+    private static void counter(StringBuilder sb, List<Map.Entry<Key, ModelMetrics>> entries, String name,
+            String help, ToLongFunction<ModelMetrics> value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        for (var entry : entries) {
+            sb.append(name).append(labels(entry.getKey(), null)).append(' ')
+                    .append(value.applyAsLong(entry.getValue())).append('\n');
+        }
+    }
+
+    private static void histogram(StringBuilder sb, List<Map.Entry<Key, ModelMetrics>> entries, String name,
+            String help, Function<ModelMetrics, MetricHistogram> select, boolean micros) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+        int minExp = micros ? MIN_TIME_BUCKET_EXP : 0;
+        int maxExp = micros ? MAX_TIME_BUCKET_EXP : MAX_COUNT_BUCKET_EXP;
+        for (var entry : entries) {
+            MetricHistogram h = select.apply(entry.getValue());
+            for (int exp = minExp; exp <= maxExp; exp++) {
+                long bound = 1L << exp;
+                String le = micros ? formatSeconds(bound) : Long.toString(bound);
+                sb.append(name).append("_bucket").append(labels(entry.getKey(), le)).append(' ')
+                        .append(h.countAtOrBelow(bound)).append('\n');
+            }
+            sb.append(name).append("_bucket").append(labels(entry.getKey(), "+Inf")).append(' ')
+                    .append(h.count()).append('\n');
+            sb.append(name).append("_sum").append(labels(entry.getKey(), null)).append(' ')
+                    .append(micros ? formatSeconds(h.sum()) : Long.toString(h.sum())).append('\n');
+            sb.append(name).append("_count").append(labels(entry.getKey(), null)).append(' ')
+                    .append(h.count()).append('\n');
+        }
+    }
+
+    private static String formatSeconds(long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1_000_000.0);
+    }
+
+    private static String labels(Key key, String le) {
+        StringBuilder sb = new StringBuilder("{provider=\"").append(escapeLabel(key.provider()))
+                .append("\",model=\"").append(escapeLabel(key.model())).append('"');
+        if (le != null) {
+            sb.append(",le=\"").append(le).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static void createParent(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+    }
+}
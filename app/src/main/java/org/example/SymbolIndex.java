@@ -0,0 +1,581 @@
+package org.example;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * プロジェクト内のトップレベル型の宣言（型名・親クラスとインタフェース・フィールドとメソッドのシグネチャ）を保持する索引。
+ * 解析対象のファイルが直接参照している型のシグネチャだけを、トークン予算内でプロンプトに付け加えるために使います。
+ *
+ * <p>索引はタブ区切りのテキストとして保存し、次回はファイルのサイズと更新日時が変わったファイルだけを読み直します。
+ * 宣言の抽出は{@link JavaSourceChunker}と同じ簡易な字句走査で行い、メソッドの本体やフィールドの初期化式、
+ * コメント・アノテーション、privateのメンバーは含めません。</p>
+ */
+public class SymbolIndex {
+    private static final Logger logger = LogManager.getLogger(SymbolIndex.class);
+
+    /**
+     * 索引ファイルの形式のバージョン。形式が変わった場合は読み込んだ内容を捨てて作り直します。
+     */
+    private static final String HEADER = "#symbol-index\t1";
+
+    /**
+     * 1つのシグネチャに含める最大文字数（長い列挙定数の並びなど）。
+     */
+    private static final int MAX_SIGNATURE_CHARS = 200;
+
+    /**
+     * 付け加えた型の前後に置く区切り。
+     */
+    static final String CONTEXT_BEGIN = "// ===== 参照している型のシグネチャ（解析対象外） =====";
+    static final String CONTEXT_END = "// ===== ここから解析対象 =====";
+
+    private static final Pattern PACKAGE = Pattern.compile("\\bpackage\\s+([\\w.]+)\\s*;");
+    private static final Pattern IMPORT = Pattern.compile("\\bimport\\s+(static\\s+)?([\\w.]+?)(\\.\\*)?\\s*;");
+    private static final Pattern TYPE_NAME = Pattern.compile("\\b(class|interface|enum|record)\\s+([\\w$]+)");
+    private static final Pattern EXTENDS = Pattern.compile("\\bextends\\s+(.+?)(?=\\bimplements\\b|\\bpermits\\b|$)");
+    private static final Pattern IMPLEMENTS = Pattern.compile("\\bimplements\\s+(.+?)(?=\\bpermits\\b|$)");
+    private static final Pattern PRIVATE = Pattern.compile("(^|\\s)private\\s");
+
+    /**
+     * トップレベル型1つ分の宣言。
+     *
+     * @param packageName パッケージ名（無名パッケージの場合は空文字列）
+     * @param name        型名
+     * @param file        宣言しているファイル（{@link AnalysisManifest#keyOf(Path)}の表記）
+     * @param supertypes  親クラス・インタフェースの単純名
+     * @param declaration 型宣言（アノテーションと本体を除く）
+     * @param members     private以外のフィールド・メソッド・コンストラクタ・内部型のシグネチャ
+     */
+    public record TypeSymbol(String packageName, String name, String file, List<String> supertypes,
+            String declaration, List<String> members) {
+
+        /**
+         * 完全修飾名を返します。
+         *
+         * @return 完全修飾名
+         */
+        public String qualifiedName() {
+            return packageName.isEmpty() ? name : packageName + "." + name;
+        }
+
+        /**
+         * プロンプトに含める形（行コメント）に整形します。
+         */
+        String render() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("// ").append(qualifiedName()).append("（").append(file).append("）\n");
+            sb.append("// ").append(declaration).append(" {\n");
+            for (String member : members) {
+                sb.append("//     ").append(member).append('\n');
+            }
+            sb.append("// }\n");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 付け加える依存コンテキスト。
+     *
+     * @param text   プロンプトに付け加えるテキスト（付け加える型が無い場合は空文字列）
+     * @param types  付け加えた型の完全修飾名
+     * @param tokens 見積もりトークン数
+     */
+    public record Context(String text, List<String> types, int tokens) {
+    }
+
+    /**
+     * 1ファイル分の記録。
+     *
+     * @param stamp ファイルのサイズと更新日時（変わった場合に読み直す）
+     * @param types ファイルで宣言しているトップレベル型
+     */
+    private record FileEntry(String stamp, List<TypeSymbol> types) {
+    }
+
+    private final Path indexFile;
+    private Map<String, FileEntry> files = new TreeMap<>();
+    private Map<String, List<TypeSymbol>> byName = Map.of();
+
+    private SymbolIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * 索引ファイルを読み込みます。ファイルが存在しない場合や形式が異なる場合は空の索引を返します。
+     *
+     * @param indexFile 索引ファイル
+     * @return 索引
+     * @throws IOException 読み込みに失敗した場合
+     */
+    public static SymbolIndex open(Path indexFile) throws IOException {
+        SymbolIndex index = new SymbolIndex(indexFile);
+        if (!Files.exists(indexFile)) {
+            return index;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                logger.info("シンボル索引の形式が異なるため作り直します: {}", indexFile);
+                return index;
+            }
+            String file = null;
+            String stamp = null;
+            List<TypeSymbol> types = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] cols = line.split("\t", -1);
+                if (cols[0].equals("F") && cols.length == 3) {
+                    if (file != null) {
+                        index.files.put(file, new FileEntry(stamp, types));
+                    }
+                    file = cols[1];
+                    stamp = cols[2];
+                    types = new ArrayList<>(1);
+                } else if (cols[0].equals("T") && cols.length == 5 && types != null) {
+                    List<String> supertypes = cols[3].isEmpty() ? List.of() : List.of(cols[3].split(","));
+                    types.add(new TypeSymbol(cols[1], cols[2], file, supertypes, cols[4], new ArrayList<>()));
+                } else if (cols[0].equals("M") && cols.length == 2 && types != null && !types.isEmpty()) {
+                    types.get(types.size() - 1).members().add(cols[1]);
+                }
+            }
+            if (file != null) {
+                index.files.put(file, new FileEntry(stamp, types));
+            }
+        }
+        index.reindex();
+        return index;
+    }
+
+    /**
+     * 索引を対象ファイルに合わせて更新し、変更があれば保存します。サイズか更新日時が変わったファイルだけを並列に読み直し、
+     * 対象に含まれなくなったファイルの記録は破棄します。読み込めないファイルは索引に含めません。
+     *
+     * @param sources 索引に含めるファイル
+     * @return 読み直したファイルの数
+     * @throws IOException 索引の保存に失敗した場合
+     */
+    public int update(List<Path> sources) throws IOException {
+        long start = System.nanoTime();
+        Map<String, Path> current = new LinkedHashMap<>();
+        for (Path source : sources) {
+            current.putIfAbsent(AnalysisManifest.keyOf(source), source);
+        }
+        List<String> keys = new ArrayList<>(current.keySet());
+        FileEntry[] entries = new FileEntry[keys.size()];
+        AtomicInteger reparsed = new AtomicInteger();
+        IntStream.range(0, keys.size()).parallel().forEach(i -> {
+            String key = keys.get(i);
+            Path file = current.get(key);
+            try {
+                String stamp = Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+                FileEntry previous = files.get(key);
+                if (previous != null && previous.stamp().equals(stamp)) {
+                    entries[i] = previous;
+                    return;
+                }
+                entries[i] = new FileEntry(stamp, extract(key, SourceLoader.readString(file)));
+                reparsed.incrementAndGet();
+            } catch (IOException e) {
+                logger.debug("シンボル索引から除外します: {}: {}", file, e.getMessage());
+            }
+        });
+
+        Map<String, FileEntry> updated = new TreeMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (entries[i] != null) {
+                updated.put(keys.get(i), entries[i]);
+            }
+        }
+        boolean changed = reparsed.get() > 0 || !updated.keySet().equals(files.keySet());
+        files = updated;
+        reindex();
+        if (changed) {
+            save();
+        }
+        logger.info("シンボル索引を更新しました: 型 {} 件（{} / {} ファイルを読み直し、{} ms）", typeCount(), reparsed.get(),
+                files.size(), (System.nanoTime() - start) / 1_000_000);
+        return reparsed.get();
+    }
+
+    /**
+     * 索引を保存します。一時ファイルに書いてから置き換えるため、途中で中断しても前回の内容が残ります。
+     */
+    private void save() throws IOException {
+        Path parent = indexFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, FileEntry> entry : files.entrySet()) {
+                writer.write(String.join("\t", "F", entry.getKey(), entry.getValue().stamp()));
+                writer.newLine();
+                for (TypeSymbol type : entry.getValue().types()) {
+                    writer.write(String.join("\t", "T", type.packageName(), type.name(),
+                            String.join(",", type.supertypes()), type.declaration()));
+                    writer.newLine();
+                    for (String member : type.members()) {
+                        writer.write("M\t" + member);
+                        writer.newLine();
+                    }
+                }
+            }
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void reindex() {
+        Map<String, List<TypeSymbol>> names = new HashMap<>();
+        for (FileEntry entry : files.values()) {
+            for (TypeSymbol type : entry.types()) {
+                names.computeIfAbsent(type.name(), key -> new ArrayList<>(1)).add(type);
+            }
+        }
+        byName = names;
+    }
+
+    /**
+     * 索引に含まれる型の数を返します。
+     *
+     * @return 型の数
+     */
+    public int typeCount() {
+        int count = 0;
+        for (List<TypeSymbol> types : byName.values()) {
+            count += types.size();
+        }
+        return count;
+    }
+
+    /**
+     * ソースが直接参照している型のシグネチャを、トークン予算内で集めます。
+     * 親クラス・インタフェースを優先し、残りはソース中に最初に現れた順に加えます（予算に収まらない型は飛ばします）。
+     * 同じ単純名の型が複数ある場合は、import・同じパッケージ・importしたパッケージの順で選び、決まらなければ加えません。
+     *
+     * @param source       解析対象のソース
+     * @param budgetTokens トークン予算
+     * @param estimator    トークン数の見積もり
+     * @return 依存コンテキスト
+     */
+    public Context contextFor(String source, int budgetTokens, TokenEstimator estimator) {
+        JavaSourceChunker.Structure structure = JavaSourceChunker.parse(source);
+        String preamble = stripComments(structure.preamble());
+        String packageName = packageOf(preamble);
+        Map<String, String> imports = new HashMap<>();
+        List<String> wildcards = new ArrayList<>();
+        Matcher matcher = IMPORT.matcher(preamble);
+        while (matcher.find()) {
+            if (matcher.group(1) != null) {
+                continue;
+            }
+            if (matcher.group(3) != null) {
+                wildcards.add(matcher.group(2));
+            } else {
+                String name = matcher.group(2);
+                imports.put(name.substring(name.lastIndexOf('.') + 1), name);
+            }
+        }
+        Set<String> own = new LinkedHashSet<>();
+        Set<String> referenced = new LinkedHashSet<>();
+        for (JavaSourceChunker.TypeUnit unit : structure.types()) {
+            String declaration = declarationOf(unit.declaration());
+            Matcher name = TYPE_NAME.matcher(declaration);
+            if (name.find()) {
+                own.add(name.group(2));
+            }
+            referenced.addAll(supertypesOf(declaration));
+        }
+        referenced.addAll(identifiers(source));
+        referenced.removeAll(own);
+
+        StringBuilder text = new StringBuilder();
+        List<String> types = new ArrayList<>();
+        int used = 0;
+        for (String name : referenced) {
+            TypeSymbol type = resolve(name, packageName, imports, wildcards);
+            if (type == null) {
+                continue;
+            }
+            String rendered = type.render();
+            int tokens = estimator.estimate(rendered);
+            if (used + tokens > budgetTokens) {
+                continue;
+            }
+            text.append(rendered);
+            types.add(type.qualifiedName());
+            used += tokens;
+        }
+        if (types.isEmpty()) {
+            return new Context("", List.of(), 0);
+        }
+        String context = CONTEXT_BEGIN + "\n" + text + CONTEXT_END + "\n";
+        return new Context(context, types, estimator.estimate(context));
+    }
+
+    private TypeSymbol resolve(String name, String packageName, Map<String, String> imports, List<String> wildcards) {
+        List<TypeSymbol> candidates = byName.get(name);
+        if (candidates == null) {
+            return null;
+        }
+        String imported = imports.get(name);
+        if (imported != null) {
+            return candidates.stream().filter(type -> type.qualifiedName().equals(imported)).findFirst().orElse(null);
+        }
+        for (TypeSymbol type : candidates) {
+            if (type.packageName().equals(packageName)) {
+                return type;
+            }
+        }
+        for (TypeSymbol type : candidates) {
+            if (wildcards.contains(type.packageName())) {
+                return type;
+            }
+        }
+        return candidates.size() == 1 ? candidates.get(0) : null;
+    }
+
+    /**
+     * ソースからトップレベル型の宣言を抽出します。
+     *
+     * @param file   ファイルの表記
+     * @param source ソース
+     * @return 型の宣言
+     */
+    static List<TypeSymbol> extract(String file, String source) {
+        JavaSourceChunker.Structure structure = JavaSourceChunker.parse(source);
+        String packageName = packageOf(stripComments(structure.preamble()));
+        List<TypeSymbol> types = new ArrayList<>(structure.types().size());
+        for (JavaSourceChunker.TypeUnit unit : structure.types()) {
+            String declaration = declarationOf(unit.declaration());
+            Matcher name = TYPE_NAME.matcher(declaration);
+            if (!name.find()) {
+                continue;
+            }
+            List<String> members = new ArrayList<>();
+            for (String field : unit.fields()) {
+                addSignature(members, field);
+            }
+            for (String member : unit.members()) {
+                addSignature(members, member);
+            }
+            types.add(new TypeSymbol(packageName, name.group(2), file, supertypesOf(declaration), declaration,
+                    members));
+        }
+        return types;
+    }
+
+    /**
+     * メンバーのシグネチャ（本体・初期化式を除いた部分）を加えます。privateのメンバーと初期化ブロックは加えません。
+     */
+    private static void addSignature(List<String> members, String member) {
+        String text = stripAnnotations(stripComments(member));
+        int end = text.length();
+        int i = 0;
+        while (i < text.length()) {
+            int skip = JavaSourceChunker.skipLiteralOrComment(text, i);
+            if (skip > i) {
+                i = skip;
+                continue;
+            }
+            char c = text.charAt(i);
+            if (c == '{' || c == '=' || c == ';') {
+                end = i;
+                break;
+            }
+            i++;
+        }
+        boolean hasBody = end < text.length() && text.charAt(end) == '{';
+        String signature = collapse(text.substring(0, end));
+        if (signature.isEmpty() || signature.equals("static")) {
+            return;
+        }
+        int paren = signature.indexOf('(');
+        String head = paren < 0 ? signature : signature.substring(0, paren);
+        if (PRIVATE.matcher(" " + head).find()) {
+            return;
+        }
+        if (signature.length() > MAX_SIGNATURE_CHARS) {
+            signature = signature.substring(0, MAX_SIGNATURE_CHARS) + " …";
+        }
+        boolean nestedType = hasBody && TYPE_NAME.matcher(head).find();
+        members.add(nestedType ? signature + " { … }" : signature + ";");
+    }
+
+    private static String declarationOf(String declaration) {
+        String text = collapse(stripAnnotations(stripComments(declaration)));
+        return text.endsWith("{") ? text.substring(0, text.length() - 1).stripTrailing() : text;
+    }
+
+    private static String packageOf(String preamble) {
+        Matcher matcher = PACKAGE.matcher(preamble);
+        return matcher.find() ? matcher.group(1) : "";
+    }
+
+    /**
+     * 型宣言から親クラス・インタフェースの単純名を取り出します。
+     */
+    static List<String> supertypesOf(String declaration) {
+        Matcher name = TYPE_NAME.matcher(declaration);
+        if (!name.find()) {
+            return List.of();
+        }
+        String header = removeNested(declaration.substring(name.end()), '<', '>');
+        header = removeNested(header, '(', ')');
+        List<String> supertypes = new ArrayList<>();
+        for (Pattern pattern : List.of(EXTENDS, IMPLEMENTS)) {
+            Matcher matcher = pattern.matcher(header);
+            if (matcher.find()) {
+                for (String type : matcher.group(1).split(",")) {
+                    String simple = type.strip();
+                    simple = simple.substring(simple.lastIndexOf('.') + 1);
+                    if (!simple.isEmpty()) {
+                        supertypes.add(simple);
+                    }
+                }
+            }
+        }
+        return supertypes;
+    }
+
+    /**
+     * コメント・リテラルの外にある、大文字で始まる識別子を出現順に返します。
+     */
+    private static Set<String> identifiers(String source) {
+        Set<String> names = new LinkedHashSet<>();
+        int i = 0;
+        int n = source.length();
+        while (i < n) {
+            int skip = JavaSourceChunker.skipLiteralOrComment(source, i);
+            if (skip > i) {
+                i = skip;
+                continue;
+            }
+            char c = source.charAt(i);
+            if (Character.isJavaIdentifierStart(c)) {
+                int end = i + 1;
+                while (end < n && Character.isJavaIdentifierPart(source.charAt(end))) {
+                    end++;
+                }
+                if (Character.isUpperCase(c)) {
+                    names.add(source.substring(i, end));
+                }
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return names;
+    }
+
+    /**
+     * コメントを空白に置き換えます（リテラルはそのまま残します）。
+     */
+    private static String stripComments(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        int i = 0;
+        while (i < s.length()) {
+            int skip = JavaSourceChunker.skipLiteralOrComment(s, i);
+            if (skip > i) {
+                sb.append(s.charAt(i) == '/' ? " " : s.substring(i, skip));
+                i = skip;
+            } else {
+                sb.append(s.charAt(i++));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * アノテーション（引数を含む）を取り除きます。アノテーション型の宣言（{@code @interface}）は残します。
+     */
+    private static String stripAnnotations(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        int i = 0;
+        int n = s.length();
+        while (i < n) {
+            int skip = JavaSourceChunker.skipLiteralOrComment(s, i);
+            if (skip > i) {
+                sb.append(s, i, skip);
+                i = skip;
+                continue;
+            }
+            char c = s.charAt(i);
+            if (c != '@' || s.startsWith("interface", i + 1)) {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < n && (Character.isJavaIdentifierPart(s.charAt(end)) || s.charAt(end) == '.')) {
+                end++;
+            }
+            int next = end;
+            while (next < n && Character.isWhitespace(s.charAt(next))) {
+                next++;
+            }
+            if (next < n && s.charAt(next) == '(') {
+                int depth = 0;
+                while (next < n) {
+                    int literalEnd = JavaSourceChunker.skipLiteralOrComment(s, next);
+                    if (literalEnd > next) {
+                        next = literalEnd;
+                        continue;
+                    }
+                    char d = s.charAt(next++);
+                    if (d == '(') {
+                        depth++;
+                    } else if (d == ')' && --depth == 0) {
+                        break;
+                    }
+                }
+                end = next;
+            }
+            sb.append(' ');
+            i = end;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 入れ子になった括弧の範囲（型引数・レコードの構成要素など）を取り除きます。
+     */
+    private static String removeNested(String s, char open, char close) {
+        StringBuilder sb = new StringBuilder(s.length());
+        int depth = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == open) {
+                depth++;
+            } else if (c == close && depth > 0) {
+                depth--;
+            } else if (depth == 0) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String collapse(String s) {
+        return s.replaceAll("\\s+", " ").strip();
+    }
+}
@@ -0,0 +1,45 @@
+package org.example;
+
+import java.io.BufferedWriter;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * flushのたびにfsyncするライター。{@link AsyncTextWriter}はまとめて書き込むごとに1回だけflushするため、
+ * fsyncもまとめた単位で1回になり、{@link AsyncTextWriter#write(String, Runnable)}の通知はfsyncの後に呼ばれます。
+ */
+final class SyncingWriter extends FilterWriter {
+    private final FileChannel channel;
+
+    /**
+     * @param channel 書き込み先（現在位置から書き込みます）
+     */
+    SyncingWriter(FileChannel channel) {
+        super(new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8)));
+        this.channel = channel;
+    }
+
+    /**
+     * ファイルを開きます（無ければ作成します）。
+     *
+     * @param file   書き込み先ファイル
+     * @param append trueの場合は既存の内容の後ろに追記し、falseの場合は空にしてから書き込みます
+     * @return ライター
+     * @throws IOException ファイルを開けない場合
+     */
+    static SyncingWriter open(Path file, boolean append) throws IOException {
+        return new SyncingWriter(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        super.flush();
+        channel.force(false);
+    }
+}
@@ -0,0 +1,53 @@
+package org.example;
+
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.TokenUsage;
+
+/**
+ * テキストのトークン数を見積もるインタフェース。
+ * 分割・バッチ・予算の判断はすべてこの見積もりに基づいて行います。
+ */
+@FunctionalInterface
+public interface TokenEstimator {
+    /**
+     * テキストのトークン数を見積もります。
+     *
+     * @param text 対象テキスト
+     * @return 見積もりトークン数
+     */
+    int estimate(CharSequence text);
+
+    /**
+     * モデルIDからモデルファミリーに合った見積もりを返します。
+     *
+     * @param modelId モデルID（nullの場合は汎用の見積もり）
+     * @return トークン見積もり
+     */
+    static TokenEstimator forModel(String modelId) {
+        return HeuristicTokenEstimator.forModel(modelId);
+    }
+
+    /**
+     * 入力トークン数を返します。プロバイダーが使用量を報告していればその値を、無ければ見積もり値を使います。
+     *
+     * @param response  完了応答（null可）
+     * @param estimated 見積もり値
+     * @return 入力トークン数
+     */
+    static int inputTokens(ChatResponse response, int estimated) {
+        TokenUsage usage = response != null ? response.tokenUsage() : null;
+        return usage != null && usage.inputTokenCount() != null ? usage.inputTokenCount() : estimated;
+    }
+
+    /**
+     * 出力トークン数を返します。プロバイダーが使用量を報告していればその値を、無ければ見積もり値を使います。
+     *
+     * @param response  完了応答（null可）
+     * @param estimated 見積もり値
+     * @return 出力トークン数
+     */
+    static int outputTokens(ChatResponse response, int estimated) {
+        TokenUsage usage = response != null ? response.tokenUsage() : null;
+        return usage != null && usage.outputTokenCount() != null ? usage.outputTokenCount() : estimated;
+    }
+}
@@ -0,0 +1,177 @@
+package org.example;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AnalysisServerTest {
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final AtomicInteger created = new AtomicInteger();
+    private MockLlmServer llm;
+    private AnalysisServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        llm = new MockLlmServer(MockLlmServer.Behavior.INSTANT).start(0);
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.close();
+        }
+        llm.close();
+    }
+
+    private AnalysisServer newServer(int maxConcurrent, int maxQueued) {
+        JobRunner.Job defaults = new JobRunner.Job(null, 0, null, null, ChatModelFactory.Provider.GEMINI,
+                "default-model", llm.geminiEndpoint(), ChatModelFactory.LlmParameters.DEFAULT);
+        return new AnalysisServer(job -> {
+            created.incrementAndGet();
+            return ChatModelFactory.create(job.provider(), job.model(), job.endpoint(), "key");
+        }, defaults, maxConcurrent, maxQueued);
+    }
+
+    private AnalysisServer startServer(int maxConcurrent, int maxQueued) throws Exception {
+        server = newServer(maxConcurrent, maxQueued).start("127.0.0.1", 0);
+        return server;
+    }
+
+    private CompletableFuture<HttpResponse<String>> analyze(String accept) {
+        return post("{\"name\":\"A.java\",\"prompt\":\"説明してください\",\"code\":\"class A {}\"}", accept);
+    }
+
+    private CompletableFuture<HttpResponse<String>> post(String body, String accept) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(server.baseUrl() + "/v1/analyze"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+        if (accept != null) {
+            request.header("Accept", accept);
+        }
+        return client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    public void testAnalyze_streamsSseAndReusesModel() throws Exception {
+        startServer(2, 0);
+        for (int i = 0; i < 2; i++) {
+            HttpResponse<String> response = analyze(null).get(30, TimeUnit.SECONDS);
+            assertEquals(200, response.statusCode());
+            assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/event-stream"));
+            assertTrue(response.body().startsWith("event: token\ndata: {\"text\":\"この"));
+            assertTrue(response.body().contains("event: done\ndata: {\"status\":\"ok\""));
+        }
+        assertEquals(1, created.get());
+        assertEquals(2, llm.requestCount());
+    }
+
+    @Test
+    public void testAnalyze_plainTextReturnsBodyOnly() throws Exception {
+        startServer(1, 0);
+        HttpResponse<String> response = analyze("text/plain").get(30, TimeUnit.SECONDS);
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().startsWith("このクラスは"));
+        assertFalse(response.body().contains("event:"));
+    }
+
+    @Test
+    public void testAnalyze_rejectsInvalidRequest() throws Exception {
+        startServer(1, 0);
+        HttpResponse<String> response = post("{\"prompt\":\"p\"}", null).get(30, TimeUnit.SECONDS);
+        assertEquals(400, response.statusCode());
+    }
+
+    @Test
+    public void testAnalyze_rejectsEndpointProviderAndModelChosenByClient() throws Exception {
+        server = newServer(1, 0).withAllowedModels(List.of("other-model")).start("127.0.0.1", 0);
+        String request = "{\"prompt\":\"p\",\"code\":\"class A {}\",";
+        for (String field : List.of("\"endpoint\":\"http://example.com/\"}", "\"provider\":\"AZURE_OPENAI\"}",
+                "\"model\":\"unknown-model\"}")) {
+            HttpResponse<String> response = post(request + field, null).get(30, TimeUnit.SECONDS);
+            assertEquals(field, 400, response.statusCode());
+        }
+        assertEquals(0, created.get());
+
+        HttpResponse<String> allowed = post(request + "\"model\":\"other-model\"}", null).get(30, TimeUnit.SECONDS);
+        assertEquals(200, allowed.statusCode());
+        assertEquals(1, created.get());
+        assertEquals(1, llm.requestCount());
+    }
+
+    @Test
+    public void testAnalyze_rejectsNonJsonContentType() throws Exception {
+        startServer(1, 0);
+        HttpResponse<String> response = client.send(
+                HttpRequest.newBuilder(URI.create(server.baseUrl() + "/v1/analyze"))
+                        .header("Content-Type", "text/plain")
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"prompt\":\"p\",\"code\":\"class A {}\"}"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(415, response.statusCode());
+        assertEquals(0, llm.requestCount());
+    }
+
+    @Test
+    public void testAnalyze_limitsModelSettingsPerServer() throws Exception {
+        startServer(1, 0);
+        for (int i = 0; i <= AnalysisServer.MAX_MODELS; i++) {
+            HttpResponse<String> response = post("{\"prompt\":\"p\",\"code\":\"class A {}\",\"maxTokens\":" + (i + 1)
+                    + "}", null).get(30, TimeUnit.SECONDS);
+            assertEquals(i < AnalysisServer.MAX_MODELS ? 200 : 400, response.statusCode());
+        }
+        assertEquals(AnalysisServer.MAX_MODELS, created.get());
+    }
+
+    @Test
+    public void testAnalyze_rejectsBodyOverLimit() throws Exception {
+        server = newServer(1, 0).withMaxBodyBytes(64).start("127.0.0.1", 0);
+        HttpResponse<String> response = analyze(null).get(30, TimeUnit.SECONDS);
+        assertEquals(413, response.statusCode());
+        assertEquals(0, created.get());
+        assertEquals(0, llm.requestCount());
+    }
+
+    @Test
+    public void testAnalyze_rejectsOverCapacityAndDrainsInFlight() throws Exception {
+        llm.setBehavior(new MockLlmServer.Behavior(500, 0, 16, 0, 0));
+        startServer(1, 0);
+        CompletableFuture<HttpResponse<String>> first = analyze(null);
+        waitUntilActive(1);
+
+        HttpResponse<String> rejected = analyze(null).get(30, TimeUnit.SECONDS);
+        assertEquals(503, rejected.statusCode());
+        assertTrue(rejected.headers().firstValue("Retry-After").isPresent());
+
+        CompletableFuture<Boolean> drained = CompletableFuture.supplyAsync(() -> server.drain(Duration.ofSeconds(30)));
+        HttpResponse<String> completed = first.get(30, TimeUnit.SECONDS);
+        assertEquals(200, completed.statusCode());
+        assertTrue(completed.body().contains("event: done"));
+        assertTrue(drained.get(30, TimeUnit.SECONDS));
+    }
+
+    private void waitUntilActive(int active) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            HttpResponse<String> health = client.send(
+                    HttpRequest.newBuilder(URI.create(server.baseUrl() + "/health")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            if (health.body().contains("\"active\":" + active)) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("実行中のリクエストが" + active + "件になりませんでした");
+    }
+}
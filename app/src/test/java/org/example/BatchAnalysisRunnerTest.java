@@ -0,0 +1,111 @@
+package org.example;
+
+import org.junit.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.*;
+
+public class BatchAnalysisRunnerTest {
+    private static List<AnalysisResult> result(String name) {
+        return List.of(new AnalysisResult(Path.of(name), name + "の説明", null, 0, 10, 5, 1, null));
+    }
+
+    @Test
+    public void testRunLongestFirst_variantStartsWhenItsOwnRepresentativeCompletes() throws Exception {
+        CountDownLatch variantOfB = new CountDownLatch(1);
+        List<Callable<List<AnalysisResult>>> tasks = List.of(
+                // 代表A: 代表Bの類似ファイルが先に終わらなければ完了しない
+                () -> {
+                    assertTrue(variantOfB.await(5, TimeUnit.SECONDS));
+                    return result("A");
+                },
+                () -> result("B"),
+                () -> {
+                    variantOfB.countDown();
+                    return result("B2");
+                },
+                () -> result("A2"));
+        List<Future<List<AnalysisResult>>> futures = new BatchAnalysisRunner(null, 2, null)
+                .runLongestFirst(tasks, new long[] { 100, 50, 10, 1000 }, new int[] { -1, -1, 1, 0 });
+        assertEquals(Path.of("A"), futures.get(0).get().get(0).file());
+        assertEquals(Path.of("B2"), futures.get(2).get().get(0).file());
+        assertEquals(Path.of("A2"), futures.get(3).get().get(0).file());
+    }
+
+    @Test
+    public void testRunLongestFirst_runsLargestFirstAndReturnsInInputOrder() throws Exception {
+        List<Integer> started = Collections.synchronizedList(new ArrayList<>());
+        List<Callable<List<AnalysisResult>>> tasks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            int index = i;
+            tasks.add(() -> {
+                started.add(index);
+                return result("F" + index);
+            });
+        }
+        List<Future<List<AnalysisResult>>> futures = new BatchAnalysisRunner(null, 1, null)
+                .runLongestFirst(tasks, new long[] { 10, 300, 20, 300 }, new int[] { -1, -1, -1, -1 });
+        // 同じ見積もりのタスクは指定順
+        assertEquals(List.of(1, 3, 2, 0), started);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Path.of("F" + i), futures.get(i).get().get(0).file());
+        }
+    }
+
+    @Test
+    public void testRunLongestFirst_replayedResultsDoNotCalibrateCostModel() throws Exception {
+        JobCostModel costModel = new JobCostModel(null);
+        List<Callable<List<AnalysisResult>>> tasks = new ArrayList<>();
+        long[] tokens = new long[JobCostModel.MIN_SAMPLES];
+        int[] after = new int[JobCostModel.MIN_SAMPLES];
+        for (int i = 0; i < JobCostModel.MIN_SAMPLES; i++) {
+            String name = "F" + i;
+            tasks.add(() -> List.of(new AnalysisResult(Path.of(name), "説明", null, 0, 10, 1000, 0, null, true)));
+            after[i] = -1;
+        }
+        new BatchAnalysisRunner(null, 2, null).withCostModel(costModel).runLongestFirst(tasks, tokens, after);
+        assertEquals(JobCostModel.DEFAULT_OUTPUT_RATIO, costModel.outputRatio(), 0.0);
+    }
+
+    @Test
+    public void testRunLongestFirst_interruptFailsPendingTasksAndKeepsInterruptStatus() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        List<Callable<List<AnalysisResult>>> tasks = List.of(
+                () -> {
+                    running.countDown();
+                    Thread.sleep(60_000);
+                    return result("A");
+                },
+                () -> result("B"),
+                () -> result("C"));
+        AtomicReference<List<Future<List<AnalysisResult>>>> futures = new AtomicReference<>();
+        AtomicReference<Boolean> interrupted = new AtomicReference<>();
+        Thread caller = new Thread(() -> {
+            futures.set(new BatchAnalysisRunner(null, 1, null)
+                    .runLongestFirst(tasks, new long[] { 100, 10, 20 }, new int[] { -1, -1, 0 }));
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        caller.start();
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        caller.interrupt();
+        caller.join(5_000);
+        assertFalse(caller.isAlive());
+        assertTrue(interrupted.get());
+        for (Future<List<AnalysisResult>> future : futures.get()) {
+            try {
+                future.get();
+                fail("例外が発生するはず");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof InterruptedException);
+            }
+        }
+    }
+}
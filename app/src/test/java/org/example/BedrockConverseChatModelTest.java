@@ -0,0 +1,114 @@
+package org.example;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import org.junit.Test;
+import software.amazon.awssdk.services.bedrockruntime.model.ContentBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.ConverseStreamRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BedrockConverseChatModelTest {
+    private static final String MODEL_ID = "apac.anthropic.claude-3-7-sonnet-20250219-v1:0";
+
+    private static ChatRequest prefixed(String prefix, String text) {
+        return ChatRequest.builder().messages(UserMessage.from(TextContent.from(prefix), TextContent.from(text)))
+                .build();
+    }
+
+    @Test
+    public void testToRequest_placesCachePointBeforeVariablePart() {
+        BedrockConverseChatModel model = new BedrockConverseChatModel(null, MODEL_ID, null, true);
+        ConverseStreamRequest request = model.toRequest(prefixed("ベースプロンプト", "class A {}"));
+        List<ContentBlock> content = request.messages().get(0).content();
+        assertEquals(3, content.size());
+        assertEquals("ベースプロンプト", content.get(0).text());
+        assertNotNull(content.get(1).cachePoint());
+        assertEquals("class A {}", content.get(2).text());
+        assertFalse(request.hasSystem());
+    }
+
+    @Test
+    public void testToRequest_cachesSystemPrompt() {
+        BedrockConverseChatModel model = new BedrockConverseChatModel(null, MODEL_ID,
+                new ChatModelFactory.LlmParameters(2048, 0.5, null), true);
+        ConverseStreamRequest request = model.toRequest(ChatRequest.builder()
+                .messages(SystemMessage.from("共通の指示"), UserMessage.from("class A {}")).build());
+        assertEquals(2, request.system().size());
+        assertEquals("共通の指示", request.system().get(0).text());
+        assertNotNull(request.system().get(1).cachePoint());
+        assertEquals(1, request.messages().get(0).content().size());
+        assertEquals(Integer.valueOf(2048), request.inferenceConfig().maxTokens());
+        assertEquals(0.5f, request.inferenceConfig().temperature(), 0.0001);
+    }
+
+    @Test
+    public void testToRequest_withoutPromptCache_hasNoCachePoint() {
+        BedrockConverseChatModel model = new BedrockConverseChatModel(null, MODEL_ID, null, false);
+        List<ContentBlock> content = model.toRequest(prefixed("ベースプロンプト", "class A {}")).messages().get(0)
+                .content();
+        assertEquals(2, content.size());
+        assertTrue(content.stream().allMatch(block -> block.cachePoint() == null));
+    }
+
+    @Test
+    public void testPromptCache_reportsWriteThenRead() throws Exception {
+        try (MockLlmServer server = new MockLlmServer(MockLlmServer.Behavior.INSTANT).start(0)) {
+            StreamingMetrics metrics = new StreamingMetrics();
+            MetricsChatModel model = new MetricsChatModel(ChatModelFactory.create(
+                    ChatModelFactory.Provider.BEDROCK_CONVERSE, MODEL_ID, server.baseUrl(), null), metrics,
+                    ChatModelFactory.Provider.BEDROCK_CONVERSE, MODEL_ID, TokenEstimator.forModel(MODEL_ID));
+            SourceAnalyzer analyzer = new SourceAnalyzer(model, "共通のベースプロンプト。".repeat(100))
+                    .withSeparatePrefix();
+
+            ChatResponse first = analyzer.chat("共通のベースプロンプト。".repeat(100), "class A {}", partial -> {
+            }).get(30, TimeUnit.SECONDS);
+            ChatResponse second = analyzer.chat("共通のベースプロンプト。".repeat(100), "class B {}", partial -> {
+            }).get(30, TimeUnit.SECONDS);
+
+            assertTrue(first.aiMessage().text().startsWith("このクラスは"));
+            CachedTokenUsage written = (CachedTokenUsage) first.tokenUsage();
+            CachedTokenUsage read = (CachedTokenUsage) second.tokenUsage();
+            assertTrue(written.cacheWriteTokenCount() > 0);
+            assertEquals(Integer.valueOf(0), written.cacheReadTokenCount());
+            assertEquals(written.cacheWriteTokenCount(), read.cacheReadTokenCount());
+            assertEquals(Integer.valueOf(0), read.cacheWriteTokenCount());
+
+            StreamingMetrics.ModelMetrics m = metrics.metricsOf("BEDROCK_CONVERSE", MODEL_ID);
+            assertEquals(2, m.cacheReadTokens().count());
+            assertEquals((long) read.cacheReadTokenCount(), m.cacheReadTokens().sum());
+            assertTrue(metrics.toPrometheusText().contains("llm_cache_read_tokens_count"));
+        }
+    }
+
+    @Test
+    public void testSourceAnalyzer_splitsPrefixOnlyWhenEnabled() throws Exception {
+        List<ChatRequest> requests = new ArrayList<>();
+        StreamingChatModel capturing = new StreamingChatModel() {
+            @Override
+            public void chat(ChatRequest request, StreamingChatResponseHandler handler) {
+                requests.add(request);
+                handler.onCompleteResponse(ChatResponse.builder().aiMessage(AiMessage.from("ok")).build());
+            }
+        };
+        new SourceAnalyzer(capturing, "prompt").chat("prompt", "class A {}", partial -> {
+        }).get(5, TimeUnit.SECONDS);
+        new SourceAnalyzer(capturing, "prompt").withSeparatePrefix().chat("prompt", "class A {}", partial -> {
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(TextContent.from("prompt\nclass A {}")),
+                ((UserMessage) requests.get(0).messages().get(0)).contents());
+        assertEquals(List.of(TextContent.from("prompt"), TextContent.from("class A {}")),
+                ((UserMessage) requests.get(1).messages().get(0)).contents());
+    }
+}
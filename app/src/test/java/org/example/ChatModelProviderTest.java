@@ -0,0 +1,28 @@
+package org.example;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChatModelProviderTest {
+    @Test
+    public void testOf_resolvesImplementationPerProvider() {
+        assertTrue(ChatModelProvider.of(ChatModelFactory.Provider.BEDROCK) instanceof BedrockChatModelProvider);
+        assertTrue(ChatModelProvider.of(ChatModelFactory.Provider.BEDROCK_CONVERSE) instanceof BedrockChatModelProvider);
+        assertTrue(ChatModelProvider.of(ChatModelFactory.Provider.AZURE_OPENAI) instanceof AzureOpenAiChatModelProvider);
+        assertTrue(ChatModelProvider.of(ChatModelFactory.Provider.GEMINI) instanceof GeminiChatModelProvider);
+    }
+
+    @Test
+    public void testOf_returnsSameInstance() {
+        assertSame(ChatModelProvider.of(ChatModelFactory.Provider.GEMINI),
+                ChatModelProvider.of(ChatModelFactory.Provider.GEMINI));
+    }
+
+    @Test
+    public void testCreate_geminiDoesNotNeedSdk() {
+        assertTrue(ChatModelFactory.create(ChatModelFactory.Provider.GEMINI, "mock",
+                "http://127.0.0.1:1/v1beta/models/mock:streamGenerateContent?alt=sse",
+                "key") instanceof GeminiStreamingChatModel);
+    }
+}
@@ -0,0 +1,38 @@
+package org.example;
+
+import dev.langchain4j.model.chat.StreamingChatModel;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class ChatModelRegistryTest {
+    private static final String MODEL_ID = App.ModelId.CLAUDE_3_5_SONNET.getValue();
+
+    @Test
+    public void testGet_reusesInstanceForSameSettings() {
+        try (ChatModelRegistry registry = new ChatModelRegistry()) {
+            StreamingChatModel first = registry.get(ChatModelFactory.Provider.BEDROCK, MODEL_ID, "ap-northeast-1",
+                    null, null);
+            StreamingChatModel second = registry.get(ChatModelFactory.Provider.BEDROCK, MODEL_ID, "ap-northeast-1",
+                    null, ChatModelFactory.LlmParameters.DEFAULT);
+            StreamingChatModel otherRegion = registry.get(ChatModelFactory.Provider.BEDROCK, MODEL_ID, "us-east-1",
+                    null, null);
+            assertSame(first, second);
+            assertNotSame(first, otherRegion);
+            assertEquals(2, registry.size());
+        }
+    }
+
+    @Test
+    public void testClose_releasesAllModels() {
+        ChatModelRegistry registry = new ChatModelRegistry();
+        registry.get(ChatModelFactory.Provider.BEDROCK, MODEL_ID, "ap-northeast-1", null, null);
+        registry.close();
+        assertEquals(0, registry.size());
+        try {
+            registry.get(ChatModelFactory.Provider.BEDROCK, MODEL_ID, "ap-northeast-1", null, null);
+            fail("例外が発生するはず");
+        } catch (IllegalStateException expected) {
+            // 閉じた後は利用できない
+        }
+    }
+}
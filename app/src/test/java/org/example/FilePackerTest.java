@@ -0,0 +1,177 @@
+package org.example;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.output.TokenUsage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FilePackerTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final TokenEstimator CHARS = text -> text == null ? 0 : text.length();
+
+    private Path write(String name, String content) throws Exception {
+        Path file = tmp.getRoot().toPath().resolve(name);
+        Files.writeString(file, content);
+        return file;
+    }
+
+    /**
+     * 要求されたファイル番号の見出しと説明を、数文字ずつの断片で返すテスト用モデル。
+     * skipに含まれる番号の説明は返しません。
+     */
+    private static StreamingChatModel packedModel(AtomicInteger calls, int... skip) {
+        return new StreamingChatModel() {
+            @Override
+            public void chat(ChatRequest request, StreamingChatResponseHandler handler) {
+                calls.incrementAndGet();
+                String input = request.messages().toString();
+                StringBuilder reply = new StringBuilder("承知しました。\n");
+                boolean packed = input.contains("===== FILE ");
+                for (int n = 1; packed && input.contains("===== FILE " + n + ":"); n++) {
+                    final int index = n;
+                    if (Arrays.stream(skip).anyMatch(s -> s == index)) {
+                        continue;
+                    }
+                    reply.append("### FILE ").append(n).append(": x.java\n説明").append(n).append("です。\n\n");
+                }
+                if (!packed) {
+                    reply = new StringBuilder("個別の説明です。");
+                }
+                String text = reply.toString();
+                for (int i = 0; i < text.length(); i += 3) {
+                    handler.onPartialResponse(text.substring(i, Math.min(text.length(), i + 3)));
+                }
+                handler.onCompleteResponse(ChatResponse.builder().aiMessage(AiMessage.from(text))
+                        .tokenUsage(new TokenUsage(1000, 100)).build());
+            }
+        };
+    }
+
+    @Test
+    public void testPack_firstFitDecreasingWithinBudget() throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            files.add(write("F" + i + ".java", "x".repeat(100 - FilePacker.SECTION_OVERHEAD_TOKENS)));
+        }
+        files.add(write("Big.java", "x".repeat(5000)));
+
+        List<List<FilePacker.PackedFile>> packs = new FilePacker(CHARS, 450, 50, 16).pack(files);
+
+        assertEquals(4, packs.size());
+        assertEquals(List.of(files.get(0), files.get(1), files.get(2), files.get(3)),
+                packs.get(0).stream().map(FilePacker.PackedFile::file).toList());
+        assertEquals(1, packs.get(3).size());
+        assertEquals(files.get(10), packs.get(3).get(0).file());
+        for (List<FilePacker.PackedFile> pack : packs.subList(0, 3)) {
+            assertTrue(pack.stream().mapToInt(FilePacker.PackedFile::tokens).sum() <= 400);
+        }
+    }
+
+    @Test
+    public void testPack_respectsMaxFiles() throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            files.add(write("F" + i + ".java", "class F" + i + " {}"));
+        }
+        List<List<FilePacker.PackedFile>> packs = new FilePacker(CHARS, 100_000, 0, 2).pack(files);
+        assertEquals(List.of(2, 2, 1), packs.stream().map(List::size).toList());
+    }
+
+    @Test
+    public void testSplitter_handlesMarkersSplitAcrossChunks() {
+        Map<Integer, StringBuilder> out = new HashMap<>();
+        PackedResponseSplitter splitter = new PackedResponseSplitter(2,
+                n -> text -> out.computeIfAbsent(n, k -> new StringBuilder()).append(text));
+        for (String chunk : List.of("前置き\n#", "## FI", "LE 1: A.java\nAの説明", "です。\n  ## 見出し\n###", " FILE",
+                " 2: B.java\nBの説明", "です。\n### FILE 9: 範囲外\n")) {
+            splitter.accept(chunk);
+        }
+        splitter.finish();
+        assertEquals("Aの説明です。\n  ## 見出し\n", out.get(1).toString());
+        assertEquals("Bの説明です。\n### FILE 9: 範囲外\n", out.get(2).toString());
+        assertTrue(splitter.received(1));
+        assertEquals("Bの説明です。\n### FILE 9: 範囲外", splitter.text(2));
+    }
+
+    @Test
+    public void testBatch_packsIntoOneRequestAndSplitsResults() throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            files.add(write("F" + i + ".java", "class F" + i + " {}"));
+        }
+        AtomicInteger calls = new AtomicInteger();
+        SourceAnalyzer analyzer = new SourceAnalyzer(packedModel(calls), "説明してください").withTokenEstimator(CHARS);
+        Path out = tmp.newFolder("out").toPath();
+        BatchAnalysisRunner.Summary summary;
+        try (OutputSink sink = OutputSink.markdown(out)) {
+            summary = new BatchAnalysisRunner(analyzer, 2, sink).withPacking(analyzer.packer(10_000, 16))
+                    .run(files);
+        }
+        assertEquals(1, calls.get());
+        assertEquals(3, summary.succeeded());
+        for (int i = 0; i < 3; i++) {
+            AnalysisResult result = summary.results().get(i);
+            assertEquals(files.get(i), result.file());
+            assertEquals("説明" + (i + 1) + "です。", result.text());
+        }
+        assertEquals(1000, summary.inputTokens(), 2);
+        assertEquals(100, summary.outputTokens(), 2);
+    }
+
+    @Test
+    public void testAnalyzePack_missingSectionIsAnalyzedIndividually() throws Exception {
+        List<Path> files = List.of(write("A.java", "class A {}"), write("B.java", "class B {}"));
+        AtomicInteger calls = new AtomicInteger();
+        SourceAnalyzer analyzer = new SourceAnalyzer(packedModel(calls, 2), "説明してください")
+                .withTokenEstimator(CHARS);
+        List<List<FilePacker.PackedFile>> packs = analyzer.packer(10_000, 16).pack(files);
+        assertEquals(1, packs.size());
+        Map<Path, StringBuilder> out = new HashMap<>();
+        List<AnalysisResult> results = analyzer.analyzePack(packs.get(0),
+                file -> text -> out.computeIfAbsent(file, k -> new StringBuilder()).append(text));
+        assertEquals(2, calls.get());
+        assertEquals("説明1です。", results.get(0).text());
+        assertEquals("個別の説明です。", results.get(1).text());
+        assertEquals("個別の説明です。", out.get(files.get(1)).toString());
+    }
+
+    @Test
+    public void testAnalyzePack_cachesSeparatelyFromSingleFileAnalysis() throws Exception {
+        List<Path> files = List.of(write("A.java", "class A {}"), write("B.java", "class B {}"));
+        AtomicInteger calls = new AtomicInteger();
+        ResponseCache cache = new ResponseCache(tmp.newFolder("cache").toPath(), java.time.Duration.ofDays(1),
+                1 << 20);
+        SourceAnalyzer analyzer = new SourceAnalyzer(packedModel(calls), "説明してください").withTokenEstimator(CHARS)
+                .withCache(cache, "model", ChatModelFactory.LlmParameters.DEFAULT);
+        List<FilePacker.PackedFile> pack = analyzer.packer(10_000, 16).pack(files).get(0);
+        analyzer.analyzePack(pack, file -> text -> {
+        });
+        assertEquals(1, calls.get());
+
+        // まとめて得た説明は1件ずつの解析では再生しない
+        assertEquals("個別の説明です。", analyzer.analyze(files.get(0), text -> {
+        }).text());
+        assertEquals(2, calls.get());
+        assertEquals("説明1です。", analyzer.analyzePack(pack, file -> text -> {
+        }).get(0).text());
+        assertEquals(2, calls.get());
+    }
+}
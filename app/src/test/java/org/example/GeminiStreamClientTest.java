@@ -0,0 +1,101 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpServer;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import org.junit.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+
+public class GeminiStreamClientTest {
+    private HttpServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    private URI serve(String body) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    private static StreamingChatResponseHandler collecting(StringBuilder sink) {
+        return new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(String partialResponse) {
+                sink.append(partialResponse);
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+            }
+
+            @Override
+            public void onError(Throwable error) {
+            }
+        };
+    }
+
+    @Test
+    public void testDecoder_handlesSplitBuffersAndMultiLineData() {
+        List<String> events = new ArrayList<>();
+        SseEventDecoder decoder = new SseEventDecoder(
+                (data, length) -> events.add(new String(data, 0, length, StandardCharsets.UTF_8)));
+        byte[] bytes = ": comment\r\ndata: 日本\r\ndata:語\r\n\r\nevent: x\ndata: {\"a\":1}\n\ndata: last"
+                .getBytes(StandardCharsets.UTF_8);
+        // マルチバイト文字やCRLFの途中で分割されても正しく扱えること
+        for (int i = 0; i < bytes.length; i++) {
+            decoder.feed(bytes, i, 1);
+        }
+        decoder.finish();
+        assertEquals(List.of("日本\n語", "{\"a\":1}", "last"), events);
+    }
+
+    @Test
+    public void testStream_extractsTextAndUsage() throws Exception {
+        URI uri = serve("data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Hello\"}],\"role\":\"model\"}}]}\n\n"
+                + "data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\", 世界\"}]}}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":12,\"candidatesTokenCount\":3}}\n\n");
+        StringBuilder partials = new StringBuilder();
+        ChatResponse response = new GeminiStreamClient().stream(uri, "key",
+                HttpRequest.BodyPublishers.ofString("{}"), collecting(partials)).get(10, TimeUnit.SECONDS);
+        assertEquals("Hello, 世界", partials.toString());
+        assertEquals("Hello, 世界", response.aiMessage().text());
+        assertEquals(Integer.valueOf(12), response.tokenUsage().inputTokenCount());
+        assertEquals(Integer.valueOf(3), response.tokenUsage().outputTokenCount());
+    }
+
+    @Test
+    public void testStream_reportsMalformedEvent() throws Exception {
+        URI uri = serve("data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"ok\"}]}}]}\n\n"
+                + "data: {\"candidates\":[\n\n");
+        try {
+            new GeminiStreamClient().stream(uri, "key", HttpRequest.BodyPublishers.ofString("{}"),
+                    collecting(new StringBuilder())).get(10, TimeUnit.SECONDS);
+            fail("例外が発生するはず");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("解析できません"));
+        }
+    }
+}
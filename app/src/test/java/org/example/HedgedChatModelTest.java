@@ -0,0 +1,144 @@
+package org.example;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HedgedChatModelTest {
+
+    /**
+     * 指定時間後に1つの部分応答と完了を返す（またはエラーになる）テスト用モデル。
+     */
+    private static StreamingChatModel fake(String text, long delayMillis, AtomicInteger calls, boolean fail) {
+        return new StreamingChatModel() {
+            @Override
+            public void chat(ChatRequest request, StreamingChatResponseHandler handler) {
+                calls.incrementAndGet();
+                Thread.ofVirtual().start(() -> {
+                    try {
+                        Thread.sleep(delayMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (fail) {
+                        handler.onError(new RuntimeException(text + " failed"));
+                        return;
+                    }
+                    handler.onPartialResponse(text);
+                    handler.onCompleteResponse(ChatResponse.builder().aiMessage(AiMessage.from(text)).build());
+                });
+            }
+        };
+    }
+
+    private static String send(StreamingChatModel model) throws Exception {
+        CompletableFuture<ChatResponse> done = new CompletableFuture<>();
+        StringBuilder partials = new StringBuilder();
+        model.chat("hello", new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(String partialResponse) {
+                partials.append(partialResponse);
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+                done.complete(completeResponse);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                done.completeExceptionally(error);
+            }
+        });
+        done.get(10, TimeUnit.SECONDS);
+        return partials.toString();
+    }
+
+    @Test
+    public void testFastPrimary_doesNotHedge() throws Exception {
+        AtomicInteger secondaryCalls = new AtomicInteger();
+        HedgedChatModel model = new HedgedChatModel(fake("primary", 0, new AtomicInteger(), false),
+                fake("secondary", 0, secondaryCalls, false), () -> 500);
+        assertEquals("primary", send(model));
+        Thread.sleep(700);
+        assertEquals(0, model.hedgedCount());
+        assertEquals(0, secondaryCalls.get());
+    }
+
+    @Test
+    public void testSlowPrimary_secondaryWins() throws Exception {
+        HedgedChatModel model = new HedgedChatModel(fake("primary", 3000, new AtomicInteger(), false),
+                fake("secondary", 0, new AtomicInteger(), false), () -> 50);
+        long start = System.nanoTime();
+        assertEquals("secondary", send(model));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        assertEquals(1, model.hedgedCount());
+        assertEquals(1, model.secondaryWins());
+    }
+
+    @Test
+    public void testPrimaryError_failsOverImmediately() throws Exception {
+        HedgedChatModel model = new HedgedChatModel(fake("primary", 0, new AtomicInteger(), true),
+                fake("secondary", 0, new AtomicInteger(), false), () -> 60_000);
+        assertEquals("secondary", send(model));
+        assertEquals(1, model.hedgedCount());
+    }
+
+    @Test
+    public void testBothFail_reportsError() throws Exception {
+        HedgedChatModel model = new HedgedChatModel(fake("primary", 0, new AtomicInteger(), true),
+                fake("secondary", 0, new AtomicInteger(), true), () -> 10);
+        try {
+            send(model);
+            fail("例外が発生するはず");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().endsWith("failed"));
+        }
+    }
+
+    @Test
+    public void testLoser_isCancelledOverHttp() throws Exception {
+        try (MockLlmServer slow = new MockLlmServer(new MockLlmServer.Behavior(3000, 0, 4, 0, 0)).start(0);
+                MockLlmServer fast = new MockLlmServer(MockLlmServer.Behavior.INSTANT).start(0)) {
+            StreamingMetrics metrics = new StreamingMetrics();
+            StreamingChatModel primary = new MetricsChatModel(ChatModelFactory.create(ChatModelFactory.Provider.GEMINI,
+                    "slow", slow.geminiEndpoint(), "key"), metrics, ChatModelFactory.Provider.GEMINI, "slow",
+                    TokenEstimator.forModel(null));
+            StreamingChatModel secondary = new MetricsChatModel(ChatModelFactory.create(
+                    ChatModelFactory.Provider.GEMINI, "fast", fast.geminiEndpoint(), "key"), metrics,
+                    ChatModelFactory.Provider.GEMINI, "fast", TokenEstimator.forModel(null));
+            HedgedChatModel model = new HedgedChatModel(primary, secondary, () -> 50);
+
+            assertTrue(send(model).startsWith("このクラスは"));
+            assertEquals(1, model.secondaryWins());
+            assertEquals(1, metrics.metricsOf("GEMINI", "slow").cancelled());
+            assertEquals(0, metrics.metricsOf("GEMINI", "slow").errors());
+            assertEquals(1, metrics.metricsOf("GEMINI", "fast").ttftMicros().count());
+        }
+    }
+
+    @Test
+    public void testObservingP95_countsCancelledPrimaryAsAtLeastTheDelay() throws Exception {
+        AtomicInteger primaryCalls = new AtomicInteger();
+        AtomicInteger secondaryCalls = new AtomicInteger();
+        HedgedChatModel model = HedgedChatModel.observingP95(fake("primary", 2000, primaryCalls, false),
+                fake("secondary", 0, secondaryCalls, false), 30);
+        assertEquals(30, model.hedgeDelayMillis());
+        for (int i = 0; i < HedgedChatModel.MIN_SAMPLES_FOR_P95; i++) {
+            assertEquals("secondary", send(model));
+        }
+        // 一次プロバイダーは一度も採用されていないが、打ち切った分を待ち時間以上として数えるためp95は下がらない
+        assertEquals(HedgedChatModel.MIN_SAMPLES_FOR_P95, model.secondaryWins());
+        assertTrue(model.hedgeDelayMillis() >= 30);
+    }
+}
@@ -0,0 +1,46 @@
+package org.example;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.TokenUsage;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class HeuristicTokenEstimatorTest {
+
+    @Test
+    public void testFamilyOf_detectsModelFamily() {
+        assertEquals(HeuristicTokenEstimator.Family.CLAUDE,
+                HeuristicTokenEstimator.familyOf(App.ModelId.CLAUDE_3_5_SONNET.getValue()));
+        assertEquals(HeuristicTokenEstimator.Family.GPT, HeuristicTokenEstimator.familyOf("gpt-4o"));
+        assertEquals(HeuristicTokenEstimator.Family.GEMINI, HeuristicTokenEstimator.familyOf("gemini-pro"));
+        assertEquals(HeuristicTokenEstimator.Family.GENERIC, HeuristicTokenEstimator.familyOf(null));
+    }
+
+    @Test
+    public void testEstimate_japaneseCountsMorePerCharThanEnglish() {
+        TokenEstimator estimator = TokenEstimator.forModel("anthropic.claude");
+        String english = "This method returns the configured value";
+        String japanese = "このメソッドは設定された値を返します";
+        assertTrue(estimator.estimate(english) < english.length() / 2);
+        assertTrue(estimator.estimate(japanese) >= japanese.length());
+        assertEquals(0, estimator.estimate(""));
+    }
+
+    @Test
+    public void testEstimate_indentationIsGrouped() {
+        TokenEstimator estimator = TokenEstimator.forModel("gpt-4o");
+        assertTrue(estimator.estimate("                return x;") < 10);
+    }
+
+    @Test
+    public void testTokens_preferProviderUsage() {
+        ChatResponse withUsage = ChatResponse.builder().aiMessage(AiMessage.from("x"))
+                .tokenUsage(new TokenUsage(120, 34)).build();
+        ChatResponse withoutUsage = ChatResponse.builder().aiMessage(AiMessage.from("x")).build();
+        assertEquals(120, TokenEstimator.inputTokens(withUsage, 999));
+        assertEquals(34, TokenEstimator.outputTokens(withUsage, 999));
+        assertEquals(999, TokenEstimator.inputTokens(withoutUsage, 999));
+        assertEquals(999, TokenEstimator.outputTokens(null, 999));
+    }
+}
@@ -0,0 +1,105 @@
+package org.example;
+
+import org.junit.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import static org.junit.Assert.*;
+
+public class IncrementalAnalyzerTest {
+    private Path tempDir;
+    private Path fileA;
+    private Path fileB;
+    private Path manifest;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("incremental");
+        fileA = Files.writeString(tempDir.resolve("A.java"), "class A {}", StandardCharsets.UTF_8);
+        fileB = Files.writeString(tempDir.resolve("B.java"), "class B {}", StandardCharsets.UTF_8);
+        manifest = tempDir.resolve("out/.analysis-manifest.tsv");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var stream = Files.walk(tempDir)) {
+            stream.sorted(java.util.Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testPlan_onlyChangedFilesAfterCommit() throws Exception {
+        IncrementalAnalyzer analyzer = new IncrementalAnalyzer(manifest, "fp1", null);
+        IncrementalAnalyzer.Plan first = analyzer.plan(List.of(fileA, fileB));
+        assertEquals(2, first.changed().size());
+
+        List<AnalysisResult> results = List.of(
+                new AnalysisResult(fileA, "a", null, 1, 1, 1, 1, null),
+                new AnalysisResult(fileB, "b", null, 1, 1, 1, 1, null));
+        analyzer.commit(first, results, this::resultPathOf);
+
+        Files.writeString(fileB, "class B { int x; }", StandardCharsets.UTF_8);
+        IncrementalAnalyzer.Plan second = analyzer.plan(List.of(fileA, fileB));
+        assertEquals(List.of(fileB), second.changed());
+        assertEquals(1, second.carried().size());
+
+        // 設定が変わった場合は全件再解析
+        IncrementalAnalyzer.Plan other = new IncrementalAnalyzer(manifest, "fp2", null).plan(List.of(fileA, fileB));
+        assertEquals(2, other.changed().size());
+    }
+
+    @Test
+    public void testCommit_failedResultIsRetried() throws Exception {
+        IncrementalAnalyzer analyzer = new IncrementalAnalyzer(manifest, "fp1", null);
+        IncrementalAnalyzer.Plan plan = analyzer.plan(List.of(fileA));
+        analyzer.commit(plan, List.of(AnalysisResult.failed(fileA, 1, new IOException("x"))), this::resultPathOf);
+        assertEquals(1, analyzer.plan(List.of(fileA)).changed().size());
+    }
+
+    @Test
+    public void testPlan_fileDirtyAtCommitIsAlwaysHashed() throws Exception {
+        Set<Path> dirty = new HashSet<>(Set.of(fileB.toAbsolutePath().normalize()));
+        GitChangeDetector git = new GitChangeDetector() {
+            @Override
+            public Optional<String> headCommit() {
+                return Optional.of("c1");
+            }
+
+            @Override
+            public Optional<Set<Path>> changedFilesSince(String sinceCommit) {
+                return Optional.of(Set.copyOf(dirty));
+            }
+
+            @Override
+            public Optional<Set<Path>> trackedFiles() {
+                return Optional.of(Set.of(fileA.toAbsolutePath().normalize(), fileB.toAbsolutePath().normalize()));
+            }
+        };
+        IncrementalAnalyzer analyzer = new IncrementalAnalyzer(manifest, "fp1", git);
+        IncrementalAnalyzer.Plan first = analyzer.plan(List.of(fileA, fileB));
+        analyzer.commit(first, List.of(
+                new AnalysisResult(fileA, "a", null, 1, 1, 1, 1, null),
+                new AnalysisResult(fileB, "b", null, 1, 1, 1, 1, null)), this::resultPathOf);
+
+        // Bは未コミットの変更を解析した後でコミットの内容に戻された（Gitの差分には現れない）
+        Files.writeString(fileB, "class B { int reverted; }", StandardCharsets.UTF_8);
+        dirty.clear();
+        IncrementalAnalyzer.Plan second = analyzer.plan(List.of(fileA, fileB));
+        assertEquals(List.of(fileB), second.changed());
+        assertEquals(1, second.carried().size());
+    }
+
+    private Path resultPathOf(Path file) {
+        try {
+            Path result = tempDir.resolve("out").resolve(file.getFileName() + ".md");
+            Files.createDirectories(result.getParent());
+            return Files.writeString(result, "result", StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+}
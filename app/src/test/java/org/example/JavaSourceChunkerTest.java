@@ -0,0 +1,72 @@
+package org.example;
+
+import org.junit.*;
+import java.util.List;
+import static org.junit.Assert.*;
+
+public class JavaSourceChunkerTest {
+    private static final String SOURCE = String.join("\n",
+            "package sample;",
+            "",
+            "import java.util.List;",
+            "",
+            "/** サンプル */",
+            "public class Big {",
+            "    private int count = 0;",
+            "    private final String text = \"{ not a brace }\";",
+            "",
+            "    /** 1つ目 */",
+            "    public void first() {",
+            "        if (count > 0) { count--; }",
+            "    }",
+            "",
+            "    // 2つ目 }",
+            "    public int second(int x) {",
+            "        char c = '}';",
+            "        return x + 1;",
+            "    }",
+            "",
+            "    static class Inner {",
+            "        void inner() {}",
+            "    }",
+            "}",
+            "");
+
+    private final JavaSourceChunker chunker = new JavaSourceChunker(CharSequence::length);
+
+    @Test
+    public void testParse_separatesFieldsAndMembers() {
+        JavaSourceChunker.Structure structure = chunker.parse(SOURCE);
+        assertTrue(structure.preamble().contains("import java.util.List;"));
+        assertEquals(1, structure.types().size());
+        JavaSourceChunker.TypeUnit type = structure.types().get(0);
+        assertTrue(type.declaration().contains("/** サンプル */"));
+        assertTrue(type.declaration().strip().endsWith("public class Big {"));
+        assertEquals(2, type.fields().size());
+        assertEquals(3, type.members().size());
+        assertTrue(type.members().get(0).contains("/** 1つ目 */"));
+        assertTrue(type.members().get(1).contains("// 2つ目 }"));
+        assertTrue(type.members().get(2).contains("class Inner"));
+    }
+
+    @Test
+    public void testSplit_keepsSharedContextInEveryChunk() {
+        List<String> chunks = chunker.split(SOURCE, 260);
+        assertTrue(chunks.size() > 1);
+        for (String chunk : chunks) {
+            assertTrue(chunk.contains("package sample;"));
+            assertTrue(chunk.contains("public class Big {"));
+            assertTrue(chunk.contains("private int count = 0;"));
+            assertTrue(chunk.strip().endsWith("}"));
+        }
+        String joined = String.join("", chunks);
+        assertTrue(joined.contains("public void first()"));
+        assertTrue(joined.contains("public int second(int x)"));
+        assertTrue(joined.contains("void inner()"));
+    }
+
+    @Test
+    public void testSplit_smallSourceIsUnchanged() {
+        assertEquals(List.of(SOURCE), chunker.split(SOURCE, 10_000));
+    }
+}
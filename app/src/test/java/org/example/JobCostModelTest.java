@@ -0,0 +1,43 @@
+package org.example;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class JobCostModelTest {
+    @Test
+    public void testEstimate_usesDefaultsUntilEnoughSamples() {
+        JobCostModel model = new JobCostModel(null);
+        double expected = JobCostModel.DEFAULT_TTFT_MILLIS
+                + 1000 * JobCostModel.DEFAULT_OUTPUT_RATIO * 1000 / JobCostModel.DEFAULT_OUTPUT_TOKENS_PER_SECOND;
+        assertEquals(expected, model.estimateMillis(1000), 1e-6);
+        assertTrue(model.estimateMillis(10_000) > model.estimateMillis(1000));
+    }
+
+    @Test
+    public void testEstimate_followsModelMetricsAndObservedJobs() {
+        StreamingMetrics.ModelMetrics metrics = new StreamingMetrics().metricsOf("TEST", "model");
+        for (int i = 0; i < JobCostModel.MIN_SAMPLES; i++) {
+            metrics.ttftMicros().record(500_000);
+            metrics.outputTokensPerSecond().record(100);
+        }
+        JobCostModel model = new JobCostModel(metrics);
+        // 500 ms + 300トークン / 100トークン/秒
+        assertEquals(3500, model.estimateMillis(1000), 1.0);
+
+        // 出力は入力の半分、処理時間は計測値による見積もりの2倍かかっている
+        for (int i = 0; i < JobCostModel.MIN_SAMPLES; i++) {
+            model.observe(1000, 500, 2 * (500 + 5000));
+        }
+        assertEquals(0.5, model.outputRatio(), 1e-9);
+        assertEquals(2 * (500 + 2000 * 1000 / 100.0), model.estimateMillis(4000), 1.0);
+    }
+
+    @Test
+    public void testMakespan_longestFirstAvoidsLateLargeJob() {
+        double[] inputOrder = { 1, 1, 1, 1, 1, 1, 6 };
+        double[] longestFirst = { 6, 1, 1, 1, 1, 1, 1 };
+        assertEquals(9.0, JobCostModel.makespanMillis(inputOrder, 2), 1e-9);
+        assertEquals(6.0, JobCostModel.makespanMillis(longestFirst, 2), 1e-9);
+        assertEquals(0.0, JobCostModel.makespanMillis(new double[0], 4), 1e-9);
+    }
+}
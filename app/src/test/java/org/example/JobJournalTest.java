@@ -0,0 +1,66 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class JobJournalTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testResume_skipsSucceededAndRetriesInFlightAndFailed() throws Exception {
+        Path file = tmp.getRoot().toPath().resolve("journal.tsv");
+        try (JobJournal journal = JobJournal.open(file, false)) {
+            journal.started("a");
+            journal.completed("a", true, "out/a.md");
+            journal.started("b");
+            journal.started("c");
+            journal.completed("c", false, "out/c.md");
+            journal.started("tab\tkey");
+            journal.completed("tab\tkey", true, null);
+        }
+
+        try (JobJournal journal = JobJournal.open(file, true)) {
+            assertTrue(journal.isCompleted("a"));
+            assertEquals(Optional.of("out/a.md"), journal.outputOf("a"));
+            assertFalse(journal.isCompleted("b"));
+            assertFalse(journal.isCompleted("c"));
+            assertTrue(journal.isCompleted("tab\tkey"));
+            assertEquals(2, journal.completedCount());
+            assertEquals(2, journal.inFlightCount());
+        }
+    }
+
+    @Test
+    public void testResume_truncatesTornLastLine() throws Exception {
+        Path file = tmp.getRoot().toPath().resolve("journal.tsv");
+        Files.writeString(file, "S\ta\nD\ta\tout/a.md\nS\tb\nD\tb\tou", StandardCharsets.UTF_8);
+
+        try (JobJournal journal = JobJournal.open(file, true)) {
+            assertTrue(journal.isCompleted("a"));
+            assertFalse(journal.isCompleted("b"));
+            journal.completed("b", true, "out/b.md");
+        }
+        assertEquals("S\ta\nD\ta\tout/a.md\nS\tb\nD\tb\tout/b.md\n", Files.readString(file));
+    }
+
+    @Test
+    public void testOpen_withoutResumeStartsOver() throws Exception {
+        Path file = tmp.getRoot().toPath().resolve("journal.tsv");
+        Files.writeString(file, "D\ta\tout/a.md\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE);
+
+        try (JobJournal journal = JobJournal.open(file, false)) {
+            assertFalse(journal.isCompleted("a"));
+        }
+        assertEquals("", Files.readString(file));
+    }
+}
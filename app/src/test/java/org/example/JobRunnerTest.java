@@ -0,0 +1,194 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class JobRunnerTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final JobRunner.Job DEFAULTS = new JobRunner.Job(null, 0, null, null,
+            ChatModelFactory.Provider.GEMINI, "default-model", "http://localhost/mock",
+            ChatModelFactory.LlmParameters.DEFAULT);
+
+    @Test
+    public void testParse_appliesDefaults() throws Exception {
+        JobRunner.Job job = JobRunner.parse("{\"prompt\":\"p.txt\",\"code\":\"A.java\",\"temperature\":0.2}", 7,
+                DEFAULTS);
+        assertEquals("7", job.id());
+        assertEquals(ChatModelFactory.Provider.GEMINI, job.provider());
+        assertEquals("default-model", job.model());
+        assertEquals(Double.valueOf(0.2), job.params().temperature());
+        assertNull(job.params().maxTokens());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParse_requiresCode() throws Exception {
+        JobRunner.parse("{\"prompt\":\"p.txt\"}", 1, DEFAULTS);
+    }
+
+    @Test
+    public void testParse_requiresEndpointOutsideBedrock() throws Exception {
+        JobRunner.Job bedrockDefaults = new JobRunner.Job(null, 0, null, null, ChatModelFactory.Provider.BEDROCK,
+                "default-model", null, ChatModelFactory.LlmParameters.DEFAULT);
+        assertNull(JobRunner.parse("{\"prompt\":\"p.txt\",\"code\":\"A.java\"}", 1, bedrockDefaults).endpoint());
+        try {
+            JobRunner.parse("{\"prompt\":\"p.txt\",\"code\":\"A.java\",\"provider\":\"AZURE_OPENAI\"}", 2,
+                    bedrockDefaults);
+            fail("例外が発生するはず");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("endpoint"));
+        }
+    }
+
+    @Test
+    public void testRun_streamsOneResultPerJobAndSharesModels() throws Exception {
+        Path prompt = tmp.newFile("prompt.txt").toPath();
+        Files.writeString(prompt, "説明してください");
+        Path code = tmp.newFile("A.java").toPath();
+        Files.writeString(code, "class A {}");
+        Path out = tmp.getRoot().toPath().resolve("results.jsonl");
+
+        try (MockLlmServer server = new MockLlmServer(MockLlmServer.Behavior.INSTANT).start(0)) {
+            StringBuilder jobs = new StringBuilder();
+            for (int i = 0; i < 5; i++) {
+                jobs.append(String.format("{\"id\":\"j%d\",\"prompt\":\"%s\",\"code\":\"%s\",\"model\":\"m%d\","
+                        + "\"endpoint\":\"%s\"}%n", i, prompt, code, i % 2, server.geminiEndpoint()));
+            }
+            jobs.append("not json\n\n");
+            jobs.append(String.format("{\"prompt\":\"%s\",\"code\":\"%s\",\"endpoint\":\"%s\"}%n", prompt,
+                    tmp.getRoot().toPath().resolve("Missing.java"), server.geminiEndpoint()));
+
+            AtomicInteger created = new AtomicInteger();
+            JobRunner runner = new JobRunner(job -> {
+                created.incrementAndGet();
+                return ChatModelFactory.create(job.provider(), job.model(), job.endpoint(), "key");
+            }, 3, DEFAULTS);
+            JobRunner.Summary summary;
+            try (AsyncTextWriter writer = new AsyncTextWriter(Files.newBufferedWriter(out, StandardCharsets.UTF_8),
+                    16, true, "test-writer")) {
+                summary = runner.run(new BufferedReader(new StringReader(jobs.toString())), writer);
+            }
+
+            assertEquals(7, summary.total());
+            assertEquals(5, summary.succeeded());
+            assertEquals(2, summary.failed());
+            assertEquals(3, created.get());
+            assertEquals(5, server.requestCount());
+
+            List<String> lines = Files.readAllLines(out, StandardCharsets.UTF_8);
+            assertEquals(7, lines.size());
+            Map<String, JsonNode> byId = new HashMap<>();
+            for (String line : lines) {
+                JsonNode node = MAPPER.readTree(line);
+                byId.put(node.has("id") ? node.get("id").asText() : "line" + node.get("line").asInt(), node);
+            }
+            JsonNode first = byId.get("j0");
+            assertEquals("ok", first.get("status").asText());
+            assertTrue(first.get("text").asText().startsWith("このクラスは"));
+            assertTrue(first.get("outputTokens").asLong() > 0);
+            assertTrue(first.get("ttftMillis").asLong() >= 0);
+            assertEquals("m0", first.get("model").asText());
+            assertEquals("error", byId.get("line6").get("status").asText());
+            assertEquals("error", byId.get("8").get("status").asText());
+            assertEquals(8, byId.get("8").get("line").asInt());
+        }
+    }
+
+    @Test
+    public void testRun_resumeSkipsJobsCompletedInJournal() throws Exception {
+        Path prompt = tmp.newFile("prompt.txt").toPath();
+        Files.writeString(prompt, "説明してください");
+        Path code = tmp.newFile("A.java").toPath();
+        Files.writeString(code, "class A {}");
+        Path out = tmp.getRoot().toPath().resolve("results.jsonl");
+        Path journalFile = tmp.getRoot().toPath().resolve("journal.tsv");
+        // j0は完了済み、j1は実行中に中断した状態
+        Files.writeString(journalFile, "S\tj0\nD\tj0\t" + out + "\nS\tj1\n", StandardCharsets.UTF_8);
+
+        try (MockLlmServer server = new MockLlmServer(MockLlmServer.Behavior.INSTANT).start(0)) {
+            StringBuilder jobs = new StringBuilder();
+            for (int i = 0; i < 2; i++) {
+                jobs.append(String.format("{\"id\":\"j%d\",\"prompt\":\"%s\",\"code\":\"%s\",\"endpoint\":\"%s\"}%n",
+                        i, prompt, code, server.geminiEndpoint()));
+            }
+            JobRunner.Summary summary;
+            try (JobJournal journal = JobJournal.open(journalFile, true)) {
+                JobRunner runner = new JobRunner(
+                        job -> ChatModelFactory.create(job.provider(), job.model(), job.endpoint(), "key"), 2,
+                        DEFAULTS).withJournal(journal, out.toString());
+                try (AsyncTextWriter writer = new AsyncTextWriter(
+                        Files.newBufferedWriter(out, StandardCharsets.UTF_8), 16, true, "test-writer")) {
+                    summary = runner.run(new BufferedReader(new StringReader(jobs.toString())), writer);
+                }
+            }
+
+            assertEquals(1, summary.skipped());
+            assertEquals(1, summary.succeeded());
+            assertEquals(1, server.requestCount());
+            assertEquals("j1", MAPPER.readTree(Files.readAllLines(out, StandardCharsets.UTF_8).get(0)).get("id")
+                    .asText());
+            try (JobJournal journal = JobJournal.open(journalFile, true)) {
+                assertTrue(journal.isCompleted("j1"));
+                assertEquals(0, journal.inFlightCount());
+            }
+        }
+    }
+
+    @Test
+    public void testRun_resumeSkipsJobsAlreadyWrittenToOutput() throws Exception {
+        Path prompt = tmp.newFile("prompt.txt").toPath();
+        Files.writeString(prompt, "説明してください");
+        Path code = tmp.newFile("A.java").toPath();
+        Files.writeString(code, "class A {}");
+        Path out = tmp.getRoot().toPath().resolve("results.jsonl");
+        Path journalFile = tmp.getRoot().toPath().resolve("journal.tsv");
+        // j0は成功の結果行を書き出した後、j1は失敗の結果行を書き出した後、完了を記録する前に中断した状態
+        Files.writeString(journalFile, "S\tj0\nS\tj1\n", StandardCharsets.UTF_8);
+        Files.writeString(out, "{\"id\":\"j0\",\"status\":\"ok\"}\n{\"id\":\"j1\",\"status\":\"error\"}\n",
+                StandardCharsets.UTF_8);
+
+        try (MockLlmServer server = new MockLlmServer(MockLlmServer.Behavior.INSTANT).start(0)) {
+            StringBuilder jobs = new StringBuilder();
+            for (int i = 0; i < 2; i++) {
+                jobs.append(String.format("{\"id\":\"j%d\",\"prompt\":\"%s\",\"code\":\"%s\",\"endpoint\":\"%s\"}%n",
+                        i, prompt, code, server.geminiEndpoint()));
+            }
+            JobRunner.Summary summary;
+            try (JobJournal journal = JobJournal.open(journalFile, true)) {
+                JobRunner runner = new JobRunner(
+                        job -> ChatModelFactory.create(job.provider(), job.model(), job.endpoint(), "key"), 2,
+                        DEFAULTS).withJournal(journal, out.toString()).withExistingOutput(out);
+                try (AsyncTextWriter writer = new AsyncTextWriter(SyncingWriter.open(out, true), 16, true,
+                        "test-writer")) {
+                    summary = runner.run(new BufferedReader(new StringReader(jobs.toString())), writer);
+                }
+            }
+
+            assertEquals(1, summary.skipped());
+            assertEquals(1, server.requestCount());
+            try (JobJournal journal = JobJournal.open(journalFile, true)) {
+                assertTrue(journal.isCompleted("j0"));
+                assertTrue(journal.isCompleted("j1"));
+                assertEquals(0, journal.inFlightCount());
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class JsonRequestBodyTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private static String textOf(JsonRequestBody body) throws IOException {
+        try (InputStream in = body.open()) {
+            return MAPPER.readTree(in).path("contents").path(0).path("parts").path(0).path("text").asText();
+        }
+    }
+
+    private static JsonRequestBody wrap(JsonRequestBody body, CharSequence... texts) {
+        body.raw("{\"contents\":[{\"parts\":[{\"text\":\"");
+        for (CharSequence text : texts) {
+            body.text(text);
+        }
+        return body.raw("\"}]}]}");
+    }
+
+    @Test
+    public void testText_escapesQuotesBackslashesAndControlCharacters() throws Exception {
+        String text = "class A {\n\tString s = \"a\\b\";\r\n}\u0000\u001f\b\f 日本語 😀";
+        assertEquals(text, textOf(wrap(new JsonRequestBody(JsonRequestBody.DEFAULT_MAX_BYTES), text)));
+    }
+
+    @Test
+    public void testEscapeJson_escapesTabs() {
+        assertEquals("a\\tb\\n\\\"c\\\"\\u0001", AppGemini.escapeJson("a\tb\n\"c\"\u0001"));
+    }
+
+    @Test
+    public void testFile_streamsLargeMs932FileWithSurrogatesAcrossChunks() throws Exception {
+        StringBuilder utf8 = new StringBuilder("\uFEFF");
+        StringBuilder sjis = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            utf8.append("x😀\t\"");
+            sjis.append("// 日本語のコメント ").append(i).append('\n');
+        }
+        Path utf8File = temp.newFile().toPath();
+        Files.writeString(utf8File, utf8, StandardCharsets.UTF_8);
+        Path sjisFile = temp.newFile().toPath();
+        Files.write(sjisFile, sjis.toString().getBytes(SourceLoader.MS932));
+
+        JsonRequestBody body = new JsonRequestBody(JsonRequestBody.DEFAULT_MAX_BYTES)
+                .raw("{\"contents\":[{\"parts\":[{\"text\":\"")
+                .file(utf8File)
+                .text("\n")
+                .file(sjisFile)
+                .raw("\"}]}]}");
+        assertEquals(utf8.substring(1) + "\n" + sjis, textOf(body));
+    }
+
+    @Test
+    public void testPublisher_rejectsBodyOverLimit() throws Exception {
+        Path file = temp.newFile().toPath();
+        Files.writeString(file, "a".repeat(2048));
+        try {
+            new JsonRequestBody(1024).raw("{\"text\":\"").file(file).raw("\"}").publisher();
+            fail("上限を超えたボディが送信されました");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("上限"));
+        }
+    }
+
+    @Test
+    public void testOpen_failsWhenEscapingExceedsLimit() throws Exception {
+        // エスケープ前は上限内だが、エスケープ後（制御文字は6文字）に上限を超える
+        JsonRequestBody body = wrap(new JsonRequestBody(1024), "\u0001".repeat(500));
+        try (InputStream in = body.open()) {
+            in.readAllBytes();
+            fail("上限を超えたボディを読み出せました");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("上限"));
+        }
+    }
+}
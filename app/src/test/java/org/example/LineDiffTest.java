@@ -0,0 +1,28 @@
+package org.example;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class LineDiffTest {
+    @Test
+    public void testUnified_reportsChangedLinesWithContext() {
+        String from = "a\nb\nc\nd\ne\nf\ng\n";
+        String to = "a\nb\nc\nD\ne\nf\ng\nh\n";
+        String expected = String.join("\n",
+                "--- A.java",
+                "+++ B.java",
+                "@@ -2,6 +2,7 @@",
+                " b",
+                " c",
+                "-d",
+                "+D",
+                " e",
+                " f",
+                " g",
+                "+h",
+                "");
+        assertEquals(expected, LineDiff.unified("A.java", from, "B.java", to, 10));
+        assertEquals("", LineDiff.unified("A.java", from, "B.java", from, 10));
+        assertNull(LineDiff.unified("A.java", from, "B.java", to, 2));
+    }
+}
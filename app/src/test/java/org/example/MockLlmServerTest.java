@@ -0,0 +1,144 @@
+package org.example;
+
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import org.junit.*;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import static org.junit.Assert.*;
+
+public class MockLlmServerTest {
+    private MockLlmServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockLlmServer(MockLlmServer.Behavior.INSTANT).start(0);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static CompletableFuture<ChatResponse> send(StreamingChatModel model, StringBuilder partials) {
+        CompletableFuture<ChatResponse> future = new CompletableFuture<>();
+        model.chat("hello", new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(String partialResponse) {
+                partials.append(partialResponse);
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+                future.complete(completeResponse);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                future.completeExceptionally(error);
+            }
+        });
+        return future;
+    }
+
+    private static ChatResponse assertStreams(StreamingChatModel model) throws Exception {
+        StringBuilder partials = new StringBuilder();
+        ChatResponse response = send(model, partials).get(30, TimeUnit.SECONDS);
+        assertTrue(partials.toString().startsWith("このクラスは"));
+        assertEquals(partials.toString(), response.aiMessage().text());
+        return response;
+    }
+
+    @Test
+    public void testEventStreamMessage_hasValidLengthsAndChecksums() {
+        byte[] message = MockLlmServer.eventStreamMessage(Map.of(":event-type", "messageStart"), new byte[] { '{', '}' });
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.wrap(message);
+        assertEquals(message.length, buffer.getInt(0));
+        CRC32 crc = new CRC32();
+        crc.update(message, 0, 8);
+        assertEquals((int) crc.getValue(), buffer.getInt(8));
+        crc.reset();
+        crc.update(message, 0, message.length - 4);
+        assertEquals((int) crc.getValue(), buffer.getInt(message.length - 4));
+    }
+
+    @Test
+    public void testBedrock_streamsThroughSdk() throws Exception {
+        try (ChatModelRegistry registry = new ChatModelRegistry()) {
+            ChatResponse response = assertStreams(registry.get(ChatModelFactory.Provider.BEDROCK,
+                    "anthropic.claude-3-5-sonnet-20240620-v1:0", server.baseUrl(), null, null));
+            assertEquals(Integer.valueOf(16), response.tokenUsage().outputTokenCount());
+        }
+    }
+
+    @Test
+    public void testAzureOpenAi_streamsThroughSdk() throws Exception {
+        // LangChain4jのAzure実装はストリーミング時の使用量を報告しないため、テキストのみ検証する
+        assertStreams(ChatModelFactory.create(ChatModelFactory.Provider.AZURE_OPENAI, "mock", server.baseUrl(),
+                "key"));
+    }
+
+    @Test
+    public void testGemini_streams() throws Exception {
+        ChatResponse response = assertStreams(ChatModelFactory.create(ChatModelFactory.Provider.GEMINI, "mock",
+                server.geminiEndpoint(), "key"));
+        assertEquals(Integer.valueOf(16), response.tokenUsage().outputTokenCount());
+    }
+
+    @Test
+    public void testGemini_rejectsBodyOverConfiguredLimit() throws Exception {
+        StreamingChatModel model = ChatModelFactory.create(ChatModelFactory.Provider.GEMINI, "mock",
+                server.geminiEndpoint(), "key", null, 16);
+        try {
+            send(model, new StringBuilder()).get(30, TimeUnit.SECONDS);
+            fail("例外が発生するはず");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("上限"));
+        }
+        assertEquals(0, server.requestCount());
+    }
+
+    @Test
+    public void testThrottling_isReportedAsThrottling() throws Exception {
+        server.setBehavior(new MockLlmServer.Behavior(0, 0, 4, 0, 1.0));
+        try {
+            send(ChatModelFactory.create(ChatModelFactory.Provider.GEMINI, "mock", server.geminiEndpoint(), "key"),
+                    new StringBuilder()).get(30, TimeUnit.SECONDS);
+            fail("例外が発生するはず");
+        } catch (ExecutionException e) {
+            assertTrue(RetryPolicy.isThrottling(e.getCause()));
+        }
+    }
+
+    @Test
+    public void testLoadTestDriver_reportsTtftAndLatency() {
+        server.setBehavior(new MockLlmServer.Behavior(20, 1000, 10, 0, 0));
+        StreamingChatModel model = ChatModelFactory.create(ChatModelFactory.Provider.GEMINI, "mock",
+                server.geminiEndpoint(), "key");
+        LoadTestDriver.Report report = LoadTestDriver.drive(model, java.util.List.of("a", "b"), 20, 4, 0);
+        assertEquals(20, report.succeeded());
+        assertEquals(200, report.outputTokens());
+        assertTrue("ttft=" + report.ttftP50(), report.ttftP50() >= 20);
+        assertTrue(report.latencyP99() >= report.latencyP50());
+        assertTrue(report.latencyP50() >= report.ttftP50());
+    }
+
+    @Test
+    public void testLoadTestDriver_countsErrorsThrownByModelAsFailures() {
+        StreamingChatModel broken = new StreamingChatModel() {
+            @Override
+            public void chat(ChatRequest request, StreamingChatResponseHandler handler) {
+                throw new AssertionError("broken");
+            }
+        };
+        LoadTestDriver.Report report = LoadTestDriver.drive(broken, java.util.List.of("a"), 5, 2, 0);
+        assertEquals(5, report.requests());
+        assertEquals(5, report.failed());
+        assertEquals(0, report.succeeded());
+    }
+}
@@ -0,0 +1,114 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import static org.junit.Assert.*;
+
+public class OutputSinkTest {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private static AnalysisResult ok(Path file) {
+        return new AnalysisResult(file, "", null, 0, 10, 5, 1, null);
+    }
+
+    @Test
+    public void testAsyncTextWriter_keepsEachWriteIntactAndFlushesOnClose() throws Exception {
+        StringWriter target = new StringWriter();
+        AsyncTextWriter writer = new AsyncTextWriter(target, 8, false, "test-writer");
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int t = 0; t < 4; t++) {
+                int id = t;
+                executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        writer.write("[" + id + ":" + i + "]");
+                    }
+                });
+            }
+        }
+        writer.close();
+        String output = target.toString();
+        for (int t = 0; t < 4; t++) {
+            int last = -1;
+            for (int i = 0; i < 500; i++) {
+                int index = output.indexOf("[" + t + ":" + i + "]");
+                assertTrue(index > last);
+                last = index;
+            }
+        }
+    }
+
+    @Test
+    public void testAsyncTextWriter_reportsWriteFailure() {
+        Writer failing = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        AsyncTextWriter writer = new AsyncTextWriter(failing, 8, true, "test-writer");
+        writer.write("a");
+        try {
+            writer.close();
+            fail("例外が発生するはず");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testMarkdownSink_writesOneFilePerSource() throws Exception {
+        Path outDir = temp.newFolder("out").toPath();
+        Path source = Path.of("src", "Foo.java");
+        try (OutputSink sink = OutputSink.markdown(outDir)) {
+            OutputSink.Stream stream = sink.open(source);
+            stream.accept("# Foo\n");
+            stream.accept("解析結果");
+            stream.complete(ok(source));
+            assertEquals(outDir.resolve("src/Foo.java.md"), sink.resultPathOf(source));
+        }
+        assertEquals("# Foo\n解析結果", Files.readString(outDir.resolve("src/Foo.java.md"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testJsonlSink_writesOneLinePerSource() throws Exception {
+        Path file = temp.getRoot().toPath().resolve("results.jsonl");
+        try (OutputSink sink = OutputSink.jsonl(file)) {
+            OutputSink.Stream first = sink.open(Path.of("A.java"));
+            OutputSink.Stream second = sink.open(Path.of("B.java"));
+            first.accept("a\"1\n");
+            second.accept("b");
+            second.complete(AnalysisResult.failed(Path.of("B.java"), 3, new IOException("boom")));
+            first.complete(ok(Path.of("A.java")));
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode b = mapper.readTree(lines.get(0));
+        JsonNode a = mapper.readTree(lines.get(1));
+        assertEquals("error", b.get("status").asText());
+        assertEquals("boom", b.get("error").asText());
+        assertEquals("A.java", a.get("file").asText());
+        assertEquals("a\"1\n", a.get("text").asText());
+        assertEquals(10, a.get("inputTokens").asLong());
+    }
+}
@@ -0,0 +1,124 @@
+package org.example;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import org.junit.*;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+
+public class RateLimitedChatModelTest {
+    private static final RetryPolicy FAST_RETRY = new RetryPolicy(3, Duration.ofMillis(5), Duration.ofMillis(20));
+
+    /**
+     * 指定回数だけ429を返してから応答するスタブ。
+     */
+    private static StreamingChatModel throttlingStub(int failures, AtomicInteger calls) {
+        return new StreamingChatModel() {
+            @Override
+            public void chat(ChatRequest request, StreamingChatResponseHandler handler) {
+                if (calls.incrementAndGet() <= failures) {
+                    handler.onError(new RuntimeException("Status code 429, Too Many Requests"));
+                    return;
+                }
+                handler.onPartialResponse("ok");
+                handler.onCompleteResponse(ChatResponse.builder().aiMessage(AiMessage.from("ok")).build());
+            }
+        };
+    }
+
+    private static CompletableFuture<ChatResponse> send(StreamingChatModel model) {
+        CompletableFuture<ChatResponse> future = new CompletableFuture<>();
+        model.chat("hello", new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(String partialResponse) {
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+                future.complete(completeResponse);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                future.completeExceptionally(error);
+            }
+        });
+        return future;
+    }
+
+    @Test
+    public void testThrottling_isRetriedAndRateDecreased() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("test", 6000, 0);
+        StreamingChatModel model = new RateLimitedChatModel(throttlingStub(2, calls), limiter, FAST_RETRY,
+                CharSequence::length);
+
+        ChatResponse response = send(model).get(5, TimeUnit.SECONDS);
+        assertEquals("ok", response.aiMessage().text());
+        assertEquals(3, calls.get());
+        assertTrue(limiter.currentRatio() < 1.0);
+    }
+
+    @Test
+    public void testCancel_stopsPendingRetries() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        RateLimitedChatModel model = new RateLimitedChatModel(throttlingStub(10, calls),
+                new AdaptiveRateLimiter("test", 0, 0),
+                new RetryPolicy(3, Duration.ofMillis(200), Duration.ofMillis(200)), CharSequence::length);
+        CompletableFuture<ChatResponse> result = model.chatCancellable(
+                ChatRequest.builder().messages(UserMessage.from("hello")).build(),
+                new StreamingChatResponseHandler() {
+                    @Override
+                    public void onPartialResponse(String partialResponse) {
+                    }
+
+                    @Override
+                    public void onCompleteResponse(ChatResponse completeResponse) {
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                    }
+                });
+        assertEquals(1, calls.get());
+        assertTrue(result.cancel(true));
+        Thread.sleep(600);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testThrottling_givesUpAfterMaxRetries() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        StreamingChatModel model = new RateLimitedChatModel(throttlingStub(10, calls),
+                new AdaptiveRateLimiter("test", 0, 0), FAST_RETRY, CharSequence::length);
+        try {
+            send(model).get(5, TimeUnit.SECONDS);
+            fail("例外が発生するはず");
+        } catch (java.util.concurrent.ExecutionException e) {
+            assertTrue(RetryPolicy.isThrottling(e.getCause()));
+        }
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void testAcquire_pacesRequestsAtConfiguredRate() throws Exception {
+        // 600RPM = 10件/秒、バースト許容量は100件。101件目からは待たされる
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("pace", 600, 0);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire(1);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire(1);
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("elapsed=" + elapsedMillis, elapsedMillis >= 200);
+    }
+}
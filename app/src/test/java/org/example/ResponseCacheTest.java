@@ -0,0 +1,98 @@
+package org.example;
+
+import org.junit.*;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+
+public class ResponseCacheTest {
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("cache");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var stream = Files.walk(tempDir)) {
+            stream.sorted(java.util.Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testKey_dependsOnEveryPart() {
+        ChatModelFactory.LlmParameters params = new ChatModelFactory.LlmParameters(4096, 0.7, 0.9);
+        String base = ResponseCache.key("prompt", "code", "model", params);
+        assertEquals(base, ResponseCache.key("prompt", "code", "model", params));
+        assertNotEquals(base, ResponseCache.key("prompt", "code2", "model", params));
+        assertNotEquals(base, ResponseCache.key("prompt", "code", "model2", params));
+        assertNotEquals(base, ResponseCache.key("prompt", "code", "model", new ChatModelFactory.LlmParameters(4096, 0.5, 0.9)));
+        // 分割した応答はトークン予算ごとに別のキー、予算0は分割なしと同じキー
+        assertEquals(base, ResponseCache.key("prompt", "code", "model", params, 0));
+        assertNotEquals(base, ResponseCache.key("prompt", "code", "model", params, 2000));
+        assertNotEquals(ResponseCache.key("prompt", "code", "model", params, 2000),
+                ResponseCache.key("prompt", "code", "model", params, 4000));
+        // 境界をずらしても同じキーにならないこと
+        assertNotEquals(ResponseCache.key("ab", "c", "m", null), ResponseCache.key("a", "bc", "m", null));
+    }
+
+    @Test
+    public void testPutAndGet_replaysSameText() throws Exception {
+        ResponseCache cache = new ResponseCache(tempDir, Duration.ofDays(1), 0);
+        String key = ResponseCache.key("p", "c", "m", null);
+        assertFalse(cache.get(key).isPresent());
+        cache.put(key, "行1\n行2\n");
+        assertEquals("行1\n行2\n", cache.get(key).orElseThrow());
+
+        List<String> partials = new ArrayList<>();
+        ResponseCache.replay("行1\n行2", partials::add);
+        assertEquals(List.of("行1\n", "行2"), partials);
+    }
+
+    @Test
+    public void testEvict_removesExpiredAndOldestOverLimit() throws Exception {
+        ResponseCache cache = new ResponseCache(tempDir, Duration.ofDays(1), 10);
+        String oldKey = ResponseCache.key("p", "old", "m", null);
+        String newKey = ResponseCache.key("p", "new", "m", null);
+        cache.put(oldKey, "12345678");
+        cache.put(newKey, "12345678");
+        Path oldEntry = tempDir.resolve(oldKey.substring(0, 2)).resolve(oldKey + ".txt");
+        Files.setLastModifiedTime(oldEntry, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+
+        cache.evict();
+        assertFalse(cache.get(oldKey).isPresent());
+        assertTrue(cache.get(newKey).isPresent());
+
+        Path newEntry = tempDir.resolve(newKey.substring(0, 2)).resolve(newKey + ".txt");
+        Files.setLastModifiedTime(newEntry, FileTime.fromMillis(System.currentTimeMillis() - Duration.ofDays(2).toMillis()));
+        assertFalse(cache.get(newKey).isPresent());
+    }
+
+    @Test
+    public void testEvict_leavesFilesItDidNotWrite() throws Exception {
+        Path notes = Files.writeString(tempDir.resolve("notes.txt"), "12345678");
+        Path nested = Files.createDirectories(tempDir.resolve("src")).resolve("A.java");
+        Files.writeString(nested, "class A {}");
+        String key = ResponseCache.key("p", "c", "m", null);
+        Path shardFile = Files.createDirectories(tempDir.resolve(key.substring(0, 2))).resolve("readme.txt");
+        Files.writeString(shardFile, "12345678");
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - Duration.ofDays(2).toMillis());
+        for (Path file : List.of(notes, nested, shardFile)) {
+            Files.setLastModifiedTime(file, old);
+        }
+
+        ResponseCache cache = new ResponseCache(tempDir, Duration.ofDays(1), 1);
+        cache.put(key, "12345678");
+        cache.evict();
+
+        assertFalse(cache.get(key).isPresent());
+        assertTrue(Files.exists(notes));
+        assertTrue(Files.exists(nested));
+        assertTrue(Files.exists(shardFile));
+    }
+}
@@ -0,0 +1,39 @@
+package org.example;
+
+import org.junit.*;
+import java.io.IOException;
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+    /**
+     * SDKの例外と同じくstatusCode()を持つ例外。
+     */
+    public static class StatusException extends RuntimeException {
+        private final int status;
+
+        StatusException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        public int statusCode() {
+            return status;
+        }
+    }
+
+    @Test
+    public void testIsThrottling_readsStatusFromMessageOrException() {
+        assertTrue(RetryPolicy.isThrottling(new RuntimeException("Status code 429, Too Many Requests")));
+        assertTrue(RetryPolicy.isThrottling(new IOException("Gemini APIがステータス 429 を返しました: {}")));
+        assertTrue(RetryPolicy.isThrottling(new RuntimeException("wrapped", new StatusException(429, "slow down"))));
+        assertTrue(RetryPolicy.isRetryable(new IOException("HTTP/1.1 503")));
+        assertTrue(RetryPolicy.isRetryable(new StatusException(503, "")));
+    }
+
+    @Test
+    public void testIsRetryable_ignoresSameDigitsElsewhere() {
+        assertFalse(RetryPolicy.isThrottling(new RuntimeException("Status code 400: request id 4291-ab, 1429 tokens")));
+        assertFalse(RetryPolicy.isRetryable(new RuntimeException("Validation failed for Dto5034.java: 503 fields")));
+        assertFalse(RetryPolicy.isRetryable(new StatusException(400, "status 503 in body")));
+    }
+}
@@ -0,0 +1,107 @@
+package org.example;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import static org.junit.Assert.*;
+
+public class SimilarityIndexTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String DTO = String.join("\n",
+            "package sample;",
+            "",
+            "/** 顧客のDTO。 */",
+            "public class CustomerDto {",
+            "    private String name;",
+            "    private String address;",
+            "    private int age;",
+            "",
+            "    public String getName() { return name; }",
+            "    public void setName(String name) { this.name = name; }",
+            "    public String getAddress() { return address; }",
+            "    public void setAddress(String address) { this.address = address; }",
+            "    public int getAge() { return age; }",
+            "    public void setAge(int age) { this.age = age; }",
+            "    public String toString() { return \"CustomerDto[\" + name + \",\" + address + \",\" + age + \"]\"; }",
+            "}",
+            "");
+
+    private static final String SERVICE = String.join("\n",
+            "package sample;",
+            "",
+            "import java.util.concurrent.ExecutorService;",
+            "",
+            "class ReportService implements AutoCloseable {",
+            "    private final ExecutorService executor;",
+            "",
+            "    ReportService(ExecutorService executor) {",
+            "        this.executor = executor;",
+            "    }",
+            "",
+            "    void submit(Runnable task) {",
+            "        if (executor.isShutdown()) {",
+            "            throw new IllegalStateException(\"closed\");",
+            "        }",
+            "        executor.execute(task);",
+            "    }",
+            "",
+            "    @Override",
+            "    public void close() {",
+            "        executor.shutdown();",
+            "    }",
+            "}",
+            "");
+
+    private Path write(String name, String text) throws Exception {
+        Path file = tempFolder.getRoot().toPath().resolve(name);
+        Files.writeString(file, text, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    @Test
+    public void testBuild_findsNearCopyAndKeepsFirstAsRepresentative() throws Exception {
+        Path original = write("CustomerDto.java", DTO);
+        Path service = write("ReportService.java", SERVICE);
+        // コメントとリテラルの違いは類似度に影響しない
+        Path copy = write("CustomerDto2.java", DTO.replace("顧客のDTO", "顧客のDTO（コピー）")
+                .replace("\"CustomerDto[\"", "\"Customer[\""));
+        SimilarityIndex index = SimilarityIndex.build(List.of(original, service, copy), 0.9);
+
+        assertEquals(3, index.size());
+        assertEquals(1, index.twinCount());
+        assertFalse(index.twinOf(original).isPresent());
+        assertFalse(index.twinOf(service).isPresent());
+        SimilarityIndex.Twin twin = index.twinOf(copy).orElseThrow();
+        assertEquals(original, twin.representative());
+        assertEquals(1.0, twin.similarity(), 0.0);
+    }
+
+    @Test
+    public void testFingerprint_smallEditStaysCloseAndUnrelatedCodeDoesNot() {
+        long dto = SimilarityIndex.fingerprint(DTO);
+        long edited = SimilarityIndex.fingerprint(DTO.replace("    private int age;\n",
+                "    private int age;\n    private String phone;\n"));
+        long service = SimilarityIndex.fingerprint(SERVICE);
+        assertTrue(Long.bitCount(dto ^ edited) <= 12);
+        assertTrue(Long.bitCount(dto ^ service) > 12);
+    }
+
+    @Test
+    public void testBuild_rejectsThresholdsTheIndexCannotServe() throws Exception {
+        List<Path> files = List.of(write("CustomerDto.java", DTO));
+        assertEquals(1, SimilarityIndex.build(files, SimilarityIndex.MIN_THRESHOLD).size());
+        for (double threshold : new double[] { 0.8, 1.5 }) {
+            try {
+                SimilarityIndex.build(files, threshold);
+                fail("例外が発生するはず");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(String.valueOf(threshold)));
+            }
+        }
+    }
+}
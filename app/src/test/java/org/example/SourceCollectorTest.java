@@ -0,0 +1,64 @@
+package org.example;
+
+import org.junit.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import static org.junit.Assert.*;
+
+public class SourceCollectorTest {
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("collector");
+        Files.createDirectories(tempDir.resolve("a/b"));
+        Files.writeString(tempDir.resolve("a/One.java"), "class One {}", StandardCharsets.UTF_8);
+        Files.writeString(tempDir.resolve("a/b/Two.java"), "class Two {}", StandardCharsets.UTF_8);
+        Files.writeString(tempDir.resolve("a/b/readme.txt"), "text", StandardCharsets.UTF_8);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var stream = Files.walk(tempDir)) {
+            stream.sorted(java.util.Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testCollect_directoryUsesIncludePattern() throws Exception {
+        List<Path> files = new SourceCollector("*.java").collect(tempDir.toString());
+        assertEquals(2, files.size());
+        assertTrue(files.stream().allMatch(p -> p.toString().endsWith(".java")));
+    }
+
+    @Test
+    public void testCollect_globAndFileListWithoutDuplicates() throws Exception {
+        String glob = tempDir.toString().replace('\\', '/') + "/**/*.txt";
+        String file = tempDir.resolve("a/One.java").toString();
+        List<Path> files = new SourceCollector("*.java").collect(glob + "," + file + "," + file);
+        assertEquals(2, files.size());
+        assertTrue(files.get(0).toString().endsWith("readme.txt"));
+        assertTrue(files.get(1).toString().endsWith("One.java"));
+    }
+
+    @Test
+    public void testCollect_doubleStarMatchesZeroDirectories() throws Exception {
+        String glob = tempDir.toString().replace('\\', '/') + "/a/**/*.java";
+        List<Path> files = new SourceCollector("*.java").collect(glob);
+        assertEquals(2, files.size());
+        assertTrue(files.get(0).toString().endsWith("One.java"));
+        assertTrue(files.get(1).toString().endsWith("Two.java"));
+    }
+
+    @Test
+    public void testCollect_missingFile() {
+        try {
+            new SourceCollector("*.java").collect(tempDir.resolve("missing.java").toString());
+            fail("例外が発生するはず");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("ファイルが存在しません"));
+        }
+    }
+}
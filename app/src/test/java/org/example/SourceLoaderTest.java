@@ -0,0 +1,72 @@
+package org.example;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.junit.Assert.*;
+
+public class SourceLoaderTest {
+    private static final String TEXT = "// 日本語のコメント ①\nclass A { String s = \"ｶﾅと漢字\"; }\n";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path write(byte[] bytes) throws IOException {
+        Path file = temp.newFile().toPath();
+        Files.write(file, bytes);
+        return file;
+    }
+
+    @Test
+    public void testLoad_detectsUtf8WithAndWithoutBom() throws Exception {
+        byte[] body = TEXT.getBytes(StandardCharsets.UTF_8);
+        byte[] withBom = new byte[body.length + 3];
+        withBom[0] = (byte) 0xEF;
+        withBom[1] = (byte) 0xBB;
+        withBom[2] = (byte) 0xBF;
+        System.arraycopy(body, 0, withBom, 3, body.length);
+
+        SourceLoader.Source plain = SourceLoader.load(write(body));
+        SourceLoader.Source bom = SourceLoader.load(write(withBom));
+        assertEquals(StandardCharsets.UTF_8, plain.charset());
+        assertEquals(TEXT, plain.text());
+        assertEquals(TEXT, bom.text());
+    }
+
+    @Test
+    public void testLoad_detectsMs932AndEucJp() throws Exception {
+        SourceLoader.Source sjis = SourceLoader.load(write(TEXT.getBytes(SourceLoader.MS932)));
+        assertEquals(SourceLoader.MS932, sjis.charset());
+        assertEquals(TEXT, sjis.text());
+
+        String eucText = "// 日本語のコメント\nclass B { String s = \"ｶﾅと漢字\"; }\n";
+        SourceLoader.Source euc = SourceLoader.load(write(eucText.getBytes(SourceLoader.EUC_JP)));
+        assertEquals(SourceLoader.EUC_JP, euc.charset());
+        assertEquals(eucText, euc.text());
+    }
+
+    @Test
+    public void testLoad_largeFileIsMemoryMapped() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < SourceLoader.MMAP_THRESHOLD_BYTES) {
+            sb.append(TEXT);
+        }
+        String large = sb.toString();
+        assertEquals(large, SourceLoader.load(write(large.getBytes(SourceLoader.MS932))).text());
+        assertEquals(large, SourceLoader.load(write(large.getBytes(StandardCharsets.UTF_8))).text());
+    }
+
+    @Test
+    public void testReadString_trimsAndReportsMissingFile() throws Exception {
+        assertEquals("abc", SourceLoader.readString(write("  abc\n".getBytes(StandardCharsets.US_ASCII))));
+        try {
+            SourceLoader.readString(temp.getRoot().toPath().resolve("missing.java"));
+            fail("例外が発生するはず");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("ファイルが存在しません"));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.example;
+
+import org.junit.*;
+import java.util.EnumSet;
+import static org.junit.Assert.*;
+
+public class SourceMinifierTest {
+    private static final String SOURCE = String.join("\n",
+            "/*",
+            " * Copyright 2024 Example",
+            " * Licensed under the Apache License 2.0",
+            " */",
+            "package sample;",
+            "",
+            "import java.util.List;   ",
+            "import java.util.Map;",
+            "",
+            "",
+            "/**",
+            " * サンプルのクラス。複数行の説明です。",
+            " *",
+            " * @author someone",
+            " */",
+            "public class Sample {",
+            "    // GEN-BEGIN:variables",
+            "    private int x;",
+            "    private int y;",
+            "    // GEN-END:variables",
+            "",
+            "    String text = \"\"\"",
+            "        import java.util.Set;",
+            "",
+            "        \"\"\";",
+            "    /** 短い説明。 */",
+            "    void run() {}",
+            "}",
+            "");
+
+    private static SourceMinifier minifier(SourceMinifier.Category... categories) {
+        return new SourceMinifier(EnumSet.of(categories[0], categories), CharSequence::length);
+    }
+
+    @Test
+    public void testMinify_allCategoriesKeepsOriginalLineReferences() {
+        SourceMinifier.Result result = new SourceMinifier(EnumSet.allOf(SourceMinifier.Category.class),
+                CharSequence::length).minify(SOURCE);
+        String expected = String.join("\n",
+                "// @line 5",
+                "package sample;",
+                "// @line 11",
+                "/** サンプルのクラス。 */",
+                "// @line 16",
+                "public class Sample {",
+                "    // （生成コード 4 行を省略）",
+                "// @line 22",
+                "    String text = \"\"\"",
+                "        import java.util.Set;",
+                "",
+                "        \"\"\";",
+                "    /** 短い説明。 */",
+                "    void run() {}",
+                "}",
+                "");
+        assertEquals(expected, result.text());
+        assertEquals(16, result.originalLine(6));
+        assertEquals(22, result.originalLine(9));
+        assertEquals(27, result.originalLine(14));
+        assertEquals(SOURCE.length(), result.originalTokens());
+        assertTrue(result.savedTokens() > 0);
+    }
+
+    @Test
+    public void testMinify_onlySelectedCategories() {
+        String text = minifier(SourceMinifier.Category.IMPORTS).minify(SOURCE).text();
+        assertFalse(text.contains("import java.util.List;"));
+        assertTrue(text.contains("Copyright 2024"));
+        assertTrue(text.contains("@author someone"));
+        assertTrue(text.contains("    private int x;"));
+        // テキストブロックの中はimportに見えても取り除かない
+        assertTrue(text.contains("        import java.util.Set;"));
+        assertTrue(text.contains("// @line 9\n"));
+    }
+
+    @Test
+    public void testMinify_whitespaceNeverIncreasesTokens() {
+        String source = String.join("\n",
+                "class A {",
+                "",
+                "",
+                "    int x;  ",
+                "",
+                "",
+                "    int y;",
+                "",
+                "",
+                "",
+                "    int z;",
+                "}",
+                "");
+        TokenEstimator[] estimators = {CharSequence::length, text -> (text.length() + 3) / 4};
+        for (TokenEstimator estimator : estimators) {
+            SourceMinifier.Result result = new SourceMinifier(EnumSet.of(SourceMinifier.Category.WHITESPACE),
+                    estimator).minify(source);
+            assertTrue(result.savedTokens() >= 0);
+            assertTrue(estimator.estimate(result.text()) <= estimator.estimate(source));
+        }
+        SourceMinifier.Result result = minifier(SourceMinifier.Category.WHITESPACE).minify(source);
+        // 空行を詰めただけの位置には目印を挟まないが、元の行番号は引ける
+        assertFalse(result.text().contains(SourceMinifier.LINE_MARKER));
+        assertEquals(4, result.originalLine(2));
+        assertEquals(11, result.originalLine(4));
+    }
+
+    @Test
+    public void testMinify_keepsLicenseWordsAfterCode() {
+        String source = "package sample;\n// License: 説明用のコメント\nclass A {}\n";
+        SourceMinifier.Result result = minifier(SourceMinifier.Category.LICENSE).minify(source);
+        assertEquals(source, result.text());
+        assertEquals(0, result.savedTokens());
+    }
+
+    @Test
+    public void testFirstSentence_stopsAtTagsAndSentenceEnd() {
+        assertEquals("Returns the value.", SourceMinifier.firstSentence("\n * Returns the value. More text.\n"));
+        assertEquals("説明。", SourceMinifier.firstSentence("\n * <p>説明。続き\n * @return 値\n "));
+        assertEquals("", SourceMinifier.firstSentence("\n * @param x 値\n "));
+    }
+}
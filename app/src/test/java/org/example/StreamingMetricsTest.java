@@ -0,0 +1,146 @@
+package org.example;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.output.TokenUsage;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StreamingMetricsTest {
+
+    private static final StreamingChatResponseHandler NO_OP = new StreamingChatResponseHandler() {
+        @Override
+        public void onPartialResponse(String partialResponse) {
+        }
+
+        @Override
+        public void onCompleteResponse(ChatResponse completeResponse) {
+        }
+
+        @Override
+        public void onError(Throwable error) {
+        }
+    };
+
+    @Test
+    public void testHistogram_bucketsAreContiguous() {
+        for (long v = 0; v < 100_000; v++) {
+            int index = MetricHistogram.indexOf(v);
+            assertTrue("v=" + v, v <= MetricHistogram.upperBoundOf(index));
+            assertTrue("v=" + v, index == 0 || v > MetricHistogram.upperBoundOf(index - 1));
+        }
+    }
+
+    @Test
+    public void testHistogram_percentileWithinRelativeError() {
+        MetricHistogram histogram = new MetricHistogram();
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(10_000, histogram.count());
+        assertEquals(10_000, histogram.max());
+        assertEquals(5000.5, histogram.mean(), 0.001);
+        assertEquals(5000, histogram.percentile(50), 5000 * 0.125);
+        assertEquals(9900, histogram.percentile(99), 9900 * 0.125);
+        assertEquals(10_000, histogram.percentile(100));
+        assertEquals(1024, histogram.countAtOrBelow(1024));
+        assertEquals(8192, histogram.countAtOrBelow(8192));
+        assertEquals(0, histogram.countAtOrBelow(0));
+    }
+
+    @Test
+    public void testInstrument_recordsTtftAndUsage() {
+        StreamingMetrics metrics = new StreamingMetrics();
+        StreamingChatResponseHandler handler = metrics.instrument("GEMINI", "mock", NO_OP, 99, text -> 1);
+        handler.onPartialResponse("a");
+        handler.onPartialResponse("b");
+        handler.onPartialResponse("c");
+        handler.onCompleteResponse(ChatResponse.builder().aiMessage(AiMessage.from("abc"))
+                .tokenUsage(new TokenUsage(12, 30)).build());
+
+        StreamingMetrics.ModelMetrics m = metrics.metricsOf("GEMINI", "mock");
+        assertEquals(1, m.requests());
+        assertEquals(0, m.errors());
+        assertEquals(1, m.ttftMicros().count());
+        assertEquals(2, m.interTokenMicros().count());
+        assertEquals(1, m.durationMicros().count());
+        assertEquals(12, m.inputTokens().max());
+        assertEquals(30, m.outputTokens().max());
+        assertEquals(1, m.outputTokensPerSecond().count());
+    }
+
+    @Test
+    public void testInstrument_countsThrottlingAsError() {
+        StreamingMetrics metrics = new StreamingMetrics();
+        metrics.instrument("BEDROCK", "m", NO_OP, 1, text -> 1)
+                .onError(new RuntimeException("ThrottlingException: Too many requests"));
+        StreamingMetrics.ModelMetrics m = metrics.metricsOf("BEDROCK", "m");
+        assertEquals(1, m.errors());
+        assertEquals(1, m.throttled());
+        assertEquals(0, m.ttftMicros().count());
+    }
+
+    @Test
+    public void testMetricsChatModel_measuresEachSend() throws Exception {
+        StreamingMetrics metrics = new StreamingMetrics();
+        StreamingChatModel fake = new StreamingChatModel() {
+            @Override
+            public void chat(ChatRequest request, StreamingChatResponseHandler handler) {
+                handler.onPartialResponse("こんにちは");
+                handler.onCompleteResponse(ChatResponse.builder().aiMessage(AiMessage.from("こんにちは")).build());
+            }
+        };
+        StreamingChatModel model = new MetricsChatModel(fake, metrics, ChatModelFactory.Provider.BEDROCK, "m",
+                text -> text.length());
+        CompletableFuture<ChatResponse> done = new CompletableFuture<>();
+        model.chat("hello", new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(String partialResponse) {
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+                done.complete(completeResponse);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                done.completeExceptionally(error);
+            }
+        });
+        done.get(5, TimeUnit.SECONDS);
+        StreamingMetrics.ModelMetrics m = metrics.metricsOf("BEDROCK", "m");
+        assertEquals(1, m.requests());
+        // 使用量が報告されない場合は見積もり値（ここでは文字数）を記録する
+        assertEquals(5, m.outputTokens().max());
+        assertEquals("hello\n".length(), m.inputTokens().max());
+    }
+
+    @Test
+    public void testExport_prometheusAndJson() throws Exception {
+        StreamingMetrics metrics = new StreamingMetrics();
+        StreamingChatResponseHandler handler = metrics.instrument("AZURE_OPENAI", "dep\"1", NO_OP, 10, text -> 1);
+        handler.onPartialResponse("x");
+        handler.onCompleteResponse(ChatResponse.builder().aiMessage(AiMessage.from("x")).build());
+
+        String text = metrics.toPrometheusText();
+        assertTrue(text.contains("# TYPE llm_ttft_seconds histogram\n"));
+        assertTrue(text.contains("llm_requests_total{provider=\"AZURE_OPENAI\",model=\"dep\\\"1\"} 1\n"));
+        assertTrue(text.contains("llm_ttft_seconds_bucket{provider=\"AZURE_OPENAI\",model=\"dep\\\"1\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("llm_input_tokens_bucket{provider=\"AZURE_OPENAI\",model=\"dep\\\"1\",le=\"16\"} 1\n"));
+        assertTrue(text.contains("llm_input_tokens_bucket{provider=\"AZURE_OPENAI\",model=\"dep\\\"1\",le=\"8\"} 0\n"));
+
+        StringWriter json = new StringWriter();
+        metrics.writeJson(json);
+        assertTrue(json.toString().contains("\"ttftMillis\""));
+        assertTrue(json.toString().contains("\"provider\" : \"AZURE_OPENAI\""));
+    }
+}
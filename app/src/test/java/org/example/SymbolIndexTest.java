@@ -0,0 +1,142 @@
+package org.example;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import static org.junit.Assert.*;
+
+public class SymbolIndexTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String PARENT = String.join("\n",
+            "package sample.base;",
+            "",
+            "import java.util.List;",
+            "",
+            "/** 親クラス。 */",
+            "@Deprecated(since = \"1.0\")",
+            "public abstract class ParentClass<T> implements MyInterface, Comparable<ParentClass<T>> {",
+            "    protected final List<T> items = new java.util.ArrayList<>();",
+            "    private int secret = 42;",
+            "",
+            "    static {",
+            "        System.out.println(\"init\");",
+            "    }",
+            "",
+            "    /** 要素を加える。 */",
+            "    @Override",
+            "    public void add(T item) throws IllegalStateException {",
+            "        if (item == null) { throw new IllegalStateException(\"{\"); }",
+            "        items.add(item);",
+            "    }",
+            "",
+            "    private void hidden() {}",
+            "",
+            "    protected abstract String describe(int depth);",
+            "",
+            "    public static class Builder {",
+            "        void build() {}",
+            "    }",
+            "}",
+            "");
+
+    private static final String INTERFACE = String.join("\n",
+            "package sample.base;",
+            "",
+            "public interface MyInterface {",
+            "    void run();",
+            "    default String name() { return \"x\"; }",
+            "}",
+            "");
+
+    private static final String CHILD = String.join("\n",
+            "package sample.app;",
+            "",
+            "import sample.base.ParentClass;",
+            "",
+            "/** MyInterfaceを実装するUnrelatedではないクラス。 */",
+            "public class ChildClass extends ParentClass<String> {",
+            "    public void run() { System.out.println(\"Unrelated\"); }",
+            "    protected String describe(int depth) { return \"child\"; }",
+            "}",
+            "");
+
+    private static final String UNRELATED = String.join("\n",
+            "package sample.other;",
+            "",
+            "public class Unrelated {",
+            "    public int value;",
+            "}",
+            "");
+
+    private Path write(String name, String text) throws Exception {
+        Path file = tempFolder.getRoot().toPath().resolve(name);
+        Files.writeString(file, text, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    @Test
+    public void testExtract_keepsNonPrivateSignaturesOnly() {
+        List<SymbolIndex.TypeSymbol> types = SymbolIndex.extract("ParentClass.java", PARENT);
+        assertEquals(1, types.size());
+        SymbolIndex.TypeSymbol type = types.get(0);
+        assertEquals("sample.base.ParentClass", type.qualifiedName());
+        assertEquals(List.of("MyInterface", "Comparable"), type.supertypes());
+        assertEquals("public abstract class ParentClass<T> implements MyInterface, Comparable<ParentClass<T>>",
+                type.declaration());
+        assertEquals(List.of(
+                "protected final List<T> items;",
+                "public void add(T item) throws IllegalStateException;",
+                "protected abstract String describe(int depth);",
+                "public static class Builder { … }"), type.members());
+    }
+
+    @Test
+    public void testContextFor_addsDirectlyReferencedTypesWithinBudget() throws Exception {
+        Path parent = write("ParentClass.java", PARENT);
+        Path iface = write("MyInterface.java", INTERFACE);
+        Path unrelated = write("Unrelated.java", UNRELATED);
+        SymbolIndex index = SymbolIndex.open(tempFolder.getRoot().toPath().resolve("symbols.tsv"));
+        assertEquals(3, index.update(List.of(parent, iface, unrelated)));
+        assertEquals(3, index.typeCount());
+
+        // コメントと文字列リテラル中の型名は参照とみなさない。MyInterfaceは親クラス経由でのみ参照している
+        SymbolIndex.Context context = index.contextFor(CHILD, 10_000, CharSequence::length);
+        assertEquals(List.of("sample.base.ParentClass"), context.types());
+        assertTrue(context.text().startsWith(SymbolIndex.CONTEXT_BEGIN + "\n"));
+        assertTrue(context.text().contains("//     protected abstract String describe(int depth);\n"));
+        assertFalse(context.text().contains("secret"));
+        assertFalse(context.text().contains("items.add"));
+
+        assertTrue(index.contextFor(CHILD, 10, CharSequence::length).types().isEmpty());
+        assertEquals("", index.contextFor(UNRELATED, 10_000, CharSequence::length).text());
+    }
+
+    @Test
+    public void testUpdate_persistsAndRereadsOnlyChangedFiles() throws Exception {
+        Path indexFile = tempFolder.getRoot().toPath().resolve("symbols.tsv");
+        Path parent = write("ParentClass.java", PARENT);
+        Path iface = write("MyInterface.java", INTERFACE);
+        SymbolIndex.open(indexFile).update(List.of(parent, iface));
+
+        SymbolIndex reopened = SymbolIndex.open(indexFile);
+        assertEquals(2, reopened.typeCount());
+        assertEquals(0, reopened.update(List.of(parent, iface)));
+        SymbolIndex.Context context = reopened.contextFor("class A implements MyInterface {}", 10_000,
+                CharSequence::length);
+        assertTrue(context.text().contains("//     default String name();\n"));
+
+        Files.writeString(iface, INTERFACE.replace("void run();", "void run();\n    void stop();"));
+        assertEquals(1, reopened.update(List.of(parent, iface)));
+        assertTrue(reopened.contextFor("class A implements MyInterface {}", 10_000, CharSequence::length)
+                .text().contains("void stop();"));
+
+        // 対象から外れたファイルの型は索引から除く
+        assertEquals(0, reopened.update(List.of(iface)));
+        assertEquals(1, SymbolIndex.open(indexFile).typeCount());
+    }
+}
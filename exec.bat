@@ -1,4 +1,8 @@
 @echo off
 set JAVA_HOME=C:\bin\jdk-21
 
-%JAVA_HOME%\bin\java -cp "app\build\classes\java\main;libs\*" -Dfile.encoding=UTF-8 -Xmx2048m -Xms2048m -XX:+UseG1GC org.example.App %*
+rem CDS archive: the first run dumps loaded classes at exit, later runs map them (set APP_CDS=off to disable)
+set CDS_OPTS=-XX:+AutoCreateSharedArchive -XX:SharedArchiveFile="%~dp0app\build\app-cds.jsa"
+if /i "%APP_CDS%"=="off" set CDS_OPTS=
+
+%JAVA_HOME%\bin\java %CDS_OPTS% -cp "app\build\classes\java\main;libs\*" -Dfile.encoding=UTF-8 -Xmx2048m -Xms2048m -XX:+UseG1GC org.example.App %*